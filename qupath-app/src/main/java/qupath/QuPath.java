@@ -29,11 +29,18 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.script.ScriptException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +54,7 @@ import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 import picocli.CommandLine.ParseResult;
 import qupath.lib.common.GeneralTools;
+import qupath.lib.common.ThreadTools;
 import qupath.lib.common.Version;
 import qupath.lib.gui.BuildInfo;
 import qupath.lib.gui.ExtensionClassLoader;
@@ -64,8 +72,10 @@ import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ImageServerBuilder;
 import qupath.lib.images.servers.ImageServerProvider;
 import qupath.lib.images.servers.ImageServers;
+import qupath.lib.images.servers.cache.TileCache;
 import qupath.lib.projects.Project;
 import qupath.lib.projects.ProjectIO;
+import qupath.lib.projects.ProjectImageEntry;
 import qupath.lib.scripting.QP;
 import qupath.lib.scripting.ScriptParameters;
 import qupath.lib.scripting.languages.ExecutableLanguage;
@@ -326,6 +336,25 @@ class ScriptCommand implements Runnable {
 			+ "extract the third series within the file.", paramLabel = "server-arguments")
 	private String[] serverArgs;
 
+	@Option(names = {"--disk-cache"}, description = {"Scratch directory for a disk cache, used to store image tiles removed from the in-memory tile cache.",
+			"If not specified, the directory set in the QuPath preferences is used (if any)."}, paramLabel = "directory")
+	private String diskCachePath;
+	
+	@Option(names = {"--disk-cache-size"}, description = "Maximum size of the disk cache in GB (default = ${DEFAULT-VALUE}).", 
+			defaultValue = "10", paramLabel = "size")
+	private double diskCacheSizeGB;
+
+	@Option(names = {"--parallel"}, description = {"Number of images in a project to process in parallel (default = ${DEFAULT-VALUE}).",
+			"Each image is processed on its own thread, with its own script bindings. "
+			+ "Images may complete in any order, so scripts should not rely upon the batch index to detect the last image."}, 
+			defaultValue = "1", paramLabel = "threads")
+	private int nParallel;
+	
+	@Option(names = {"--journal"}, description = {"Path to a progress journal file, used to record images in a project that have been processed successfully.",
+			"If the file already exists, any images it contains are skipped - so that processing can be resumed after an interruption."}, 
+			paramLabel = "journal")
+	private String journalPath;
+	
 	@Option(names = {"-h", "--help"}, usageHelp = true, description = "Show this help message and exit.")
 	private boolean usageHelpRequested;
 		
@@ -364,29 +393,37 @@ class ScriptCommand implements Runnable {
 				if (imagePath != null && !imagePath.equals("")) {
 					imageList = imageList.stream().filter(e -> imagePath.equals(e.getImageName())).toList();
 				}
+				
+				// Skip any images that were completed previously
+				var journal = journalPath == null || journalPath.equals("") ? null : new ProgressJournal(new File(QuPath.getEncodedPath(journalPath)));
+				if (journal != null) {
+					int nImages = imageList.size();
+					imageList = imageList.stream().filter(e -> !journal.isComplete(e.getID())).toList();
+					if (imageList.size() < nImages)
+						logger.info("Skipping {}/{} images already completed according to {}", nImages - imageList.size(), nImages, journalPath);
+				}
+				
+				if (nParallel > 1 && imageList.size() > 1) {
+					runParallel(project, imageList, journal, extensionClassLoader);
+					return;
+				}
 					
 				int batchSize = imageList.size();
 				
 				for (int batchIndex = 0; batchIndex < batchSize; batchIndex++) {
 					var entry = imageList.get(batchIndex);
-					logger.info("Running script for {} ({}/{})", entry.getImageName(), batchIndex, batchSize);
-					imageData = entry.readImageData();
 					try {
-						Object result = runBatchScript(project, imageData, batchIndex, batchSize, save);
-						if (result != null)
-							logger.info("Script result: {}", result);
-						if (save)
-							entry.saveImageData(imageData);
+						runForEntry(project, entry, batchIndex, batchSize, journal);
 					} catch (Exception e) {
 						logger.error("Error running script for image: " + entry.getImageName(), e);
 						// Throw an exception if we have a single image
 						// Otherwise, try to recover and continue processing images
 						if (imagePath != null && imagePath.equals(entry.getImageName()))
 							throw new RuntimeException(e);
-					} finally {
-						imageData.getServer().close();						
 					}
 				}
+				if (save)
+					project.syncChanges();
 			} else if (imagePath != null && !imagePath.equals("")) {
 				String path = QuPath.getEncodedPath(imagePath);
 				URI uri = GeneralTools.toURI(path);
@@ -408,6 +445,189 @@ class ScriptCommand implements Runnable {
 		}
 	}
 	
+	/**
+	 * Read the image data for a project entry, run the script and (optionally) save the result.
+	 */
+	private void runForEntry(Project<BufferedImage> project, ProjectImageEntry<BufferedImage> entry, int batchIndex, int batchSize, ProgressJournal journal) throws Exception {
+		logger.info("Running script for {} ({}/{})", entry.getImageName(), batchIndex, batchSize);
+		var imageData = entry.readImageData();
+		try {
+			Object result = runBatchScript(project, imageData, batchIndex, batchSize, save);
+			if (result != null)
+				logger.info("Script result: {}", result);
+			if (save)
+				entry.saveImageData(imageData);
+		} finally {
+			imageData.getServer().close();
+		}
+		if (journal != null)
+			journal.setComplete(entry.getID());
+	}
+	
+	/**
+	 * Process project entries in parallel.
+	 * Each entry is processed on its own thread, since the current image used by scripts is stored per thread.
+	 * The tile cache is shared between all threads. To reduce the risk of running out of memory, an image is only 
+	 * opened when there is sufficient memory available for its (estimated) object hierarchy.
+	 */
+	private void runParallel(Project<BufferedImage> project, List<ProjectImageEntry<BufferedImage>> imageList, 
+			ProgressJournal journal, ClassLoader classLoader) throws InterruptedException {
+		int batchSize = imageList.size();
+		int nThreads = Math.min(nParallel, batchSize);
+		logger.info("Processing {} images with {} threads", batchSize, nThreads);
+		
+		var threadFactory = ThreadTools.createThreadFactory("script-batch", false);
+		var pool = Executors.newFixedThreadPool(nThreads, r -> {
+			var thread = threadFactory.newThread(r);
+			thread.setContextClassLoader(classLoader);
+			return thread;
+		});
+		var budget = MemoryBudget.createForHierarchies();
+		var nFailed = new AtomicInteger();
+		for (int i = 0; i < batchSize; i++) {
+			int batchIndex = i;
+			var entry = imageList.get(batchIndex);
+			pool.execute(() -> {
+				long bytes = MemoryBudget.estimateHierarchyBytes(entry);
+				try {
+					budget.acquire(bytes);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				try {
+					runForEntry(project, entry, batchIndex, batchSize, journal);
+				} catch (Exception e) {
+					logger.error("Error running script for image: " + entry.getImageName(), e);
+					nFailed.incrementAndGet();
+				} finally {
+					budget.release(bytes);
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		// Ensure the project (including its index) reflects the data saved for each entry
+		if (save) {
+			try {
+				project.syncChanges();
+			} catch (IOException e) {
+				logger.warn("Unable to sync project changes: {}", e.getLocalizedMessage());
+				logger.debug(e.getLocalizedMessage(), e);
+			}
+		}
+		if (nFailed.get() > 0)
+			logger.warn("Script failed for {}/{} images", nFailed.get(), batchSize);
+		else
+			logger.info("Script completed for {} images", batchSize);
+	}
+	
+	
+	/**
+	 * Journal to record which entries have been processed successfully.
+	 * Each completed entry ID is appended as a line of text, and written immediately.
+	 */
+	static class ProgressJournal {
+		
+		private final File file;
+		private final Set<String> completed = new HashSet<>();
+		
+		ProgressJournal(File file) throws IOException {
+			this.file = file;
+			if (file.isFile()) {
+				for (var line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+					if (!line.isBlank())
+						completed.add(line.strip());
+				}
+			}
+		}
+		
+		synchronized boolean isComplete(String entryID) {
+			return completed.contains(entryID);
+		}
+		
+		synchronized void setComplete(String entryID) throws IOException {
+			if (!completed.add(entryID))
+				return;
+			Files.writeString(file.toPath(), entryID + System.lineSeparator(), StandardCharsets.UTF_8, 
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+		}
+		
+	}
+	
+	
+	/**
+	 * Simple memory budget, used to limit the number of large images that are open at the same time.
+	 */
+	static class MemoryBudget {
+		
+		/**
+		 * Estimated ratio of the memory required for a hierarchy and the size of its (compressed) data file.
+		 */
+		private static final int DATA_EXPANSION = 10;
+		
+		/**
+		 * Minimum memory to reserve for each image, even if it has no data.
+		 */
+		private static final long MIN_BYTES = 64L * 1024L * 1024L;
+		
+		private final long maxBytes;
+		private long available;
+		
+		MemoryBudget(long maxBytes) {
+			this.maxBytes = maxBytes;
+			this.available = maxBytes;
+		}
+		
+		/**
+		 * Create a budget for object hierarchies, using the memory that isn't reserved for the tile cache.
+		 */
+		static MemoryBudget createForHierarchies() {
+			long maxMemory = Runtime.getRuntime().maxMemory();
+			if (maxMemory == Long.MAX_VALUE)
+				maxMemory = 64L * 1024L * 1024L * 1024L;
+			double tileCacheFraction = Math.max(10, Math.min(90, PathPrefs.tileCachePercentageProperty().get())) / 100.0;
+			// Leave some headroom for everything else
+			long bytes = Math.round(maxMemory * (1.0 - tileCacheFraction) * 0.75);
+			logger.debug("Memory budget for object hierarchies: {} MB", bytes / (1024 * 1024));
+			return new MemoryBudget(Math.max(bytes, MIN_BYTES));
+		}
+		
+		/**
+		 * Estimate the memory required for the hierarchy of an entry, based upon the size of its data files.
+		 */
+		static long estimateHierarchyBytes(ProjectImageEntry<?> entry) {
+			long size = 0;
+			var path = entry.getEntryPath();
+			if (path != null && Files.isDirectory(path)) {
+				try (var stream = Files.list(path)) {
+					size = stream.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+				} catch (IOException e) {
+					logger.debug("Unable to estimate data size for {}: {}", entry.getImageName(), e.getLocalizedMessage());
+				}
+			}
+			return Math.max(MIN_BYTES, size * DATA_EXPANSION);
+		}
+		
+		/**
+		 * Wait until the requested memory is available.
+		 * Requests larger than the entire budget are clamped, so that they can run when nothing else is.
+		 */
+		synchronized void acquire(long bytes) throws InterruptedException {
+			bytes = Math.min(bytes, maxBytes);
+			while (available < bytes)
+				wait();
+			available -= bytes;
+		}
+		
+		synchronized void release(long bytes) {
+			available += Math.min(bytes, maxBytes);
+			notifyAll();
+		}
+		
+	}
+	
+	
 	/**
 	 * Parse String arguments. If surrounded by square brackets, this is treated as a comma-separated list.
 	 * Otherwise, an array is returned containing a copy of the supplied args.
@@ -449,8 +669,14 @@ class ScriptCommand implements Runnable {
 		long tileCacheSize = Math.round(maxAvailable * (percentage / 100.0));
 		logger.info(String.format("Setting tile cache size to %.2f MB (%.1f%% max memory)", tileCacheSize/(1024.*1024.), percentage));
 		
-		var imageRegionStore = ImageRegionStoreFactory.createImageRegionStore(tileCacheSize);
-		ImageServerProvider.setCache(imageRegionStore.getCache(), BufferedImage.class);
+		// We don't need a full ImageRegionStore (with its own thread pools) for a headless cache
+		ImageServerProvider.setCache(TileCache.createBufferedImageCache(tileCacheSize), BufferedImage.class);
+		
+		// Optionally use a disk cache for tiles evicted from the main cache
+		if (diskCachePath != null)
+			ImageServerProvider.setDiskTileCache(ImageRegionStoreFactory.createDiskTileCache(diskCachePath, diskCacheSizeGB));
+		else
+			ImageServerProvider.setDiskTileCache(ImageRegionStoreFactory.createDiskTileCache());
 	}
 	
 	
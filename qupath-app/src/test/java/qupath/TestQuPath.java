@@ -0,0 +1,96 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+package qupath;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import qupath.QuPath.MemoryBudget;
+import qupath.QuPath.ProgressJournal;
+
+@SuppressWarnings("javadoc")
+public class TestQuPath {
+
+	@Test
+	public void test_progressJournal(@TempDir Path dir) throws IOException {
+		var file = dir.resolve("journal.txt").toFile();
+		var journal = new ProgressJournal(file);
+		assertFalse(journal.isComplete("1"));
+
+		journal.setComplete("1");
+		journal.setComplete("2");
+		journal.setComplete("1");
+		assertTrue(journal.isComplete("1"));
+		assertTrue(journal.isComplete("2"));
+		// Each entry should only be recorded once
+		assertEquals(2, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+
+		// Check the journal can be resumed
+		var journal2 = new ProgressJournal(file);
+		assertTrue(journal2.isComplete("1"));
+		assertTrue(journal2.isComplete("2"));
+		assertFalse(journal2.isComplete("3"));
+	}
+
+	@Test
+	public void test_memoryBudget() throws Exception {
+		var budget = new MemoryBudget(100);
+		budget.acquire(60);
+		budget.acquire(40);
+
+		// The next request should wait until memory is released
+		var acquired = new CountDownLatch(1);
+		var thread = new Thread(() -> {
+			try {
+				budget.acquire(50);
+				acquired.countDown();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		thread.start();
+		assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+		budget.release(60);
+		assertTrue(acquired.await(10, TimeUnit.SECONDS));
+		thread.join();
+
+		// Requests larger than the budget should be clamped, so they can run when nothing else is
+		budget.release(40);
+		budget.release(50);
+		budget.acquire(1000);
+		budget.release(1000);
+		budget.acquire(100);
+	}
+
+}
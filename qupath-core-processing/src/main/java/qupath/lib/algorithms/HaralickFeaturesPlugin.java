@@ -35,7 +35,7 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import qupath.lib.analysis.features.HaralickFeatureComputer;
+import qupath.lib.analysis.features.HaralickBatchComputer;
 import qupath.lib.analysis.features.HaralickFeatures;
 import qupath.lib.analysis.images.SimpleImage;
 import qupath.lib.analysis.images.SimpleImages;
@@ -393,7 +393,7 @@ public class HaralickFeaturesPlugin extends AbstractInteractivePlugin<BufferedIm
 		if (includeStats)
 			addBasicStatistics(pxImg, measurementList, name);
 		if (d > 0)
-			addHaralickFeatures(HaralickFeatureComputer.measureHaralick(pxImg, null, nBins, minValue, maxValue, d), measurementList, name);
+			addHaralickFeatures(HaralickBatchComputer.create(pixels, pxImg.getWidth(), pxImg.getHeight(), nBins, minValue, maxValue, d).measure(), measurementList, name);
 	}
 	
 	
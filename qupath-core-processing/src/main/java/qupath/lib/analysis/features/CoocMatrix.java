@@ -23,6 +23,8 @@
 
 package qupath.lib.analysis.features;
 
+import java.util.Arrays;
+
 /**
  * Data structure for containing co-occurrence matrix for Haralick texture features.
  * 
@@ -56,6 +58,15 @@ class CoocMatrix {
 		return n;
 	}
 	
+	/**
+	 * Reset all counts to zero, so that the matrix can be reused.
+	 */
+	void reset() {
+		Arrays.fill(mat, 0);
+		sum = 0;
+		logSum = 0;
+	}
+	
 	public void addToEntrySymmetric(int row, int col) {
 		addToEntry(row, col);
 		addToEntry(col, row);
@@ -48,6 +48,26 @@ public class CoocurranceMatrices {
 		mat135 = new CoocMatrix(n);
 	}
 	
+	/**
+	 * Get the number of bins in each matrix.
+	 * @return
+	 */
+	int nBins() {
+		return mat0.getN();
+	}
+	
+	/**
+	 * Reset all matrices, so that they can be reused for a new region.
+	 * Any previously-computed features are discarded.
+	 */
+	void reset() {
+		mat0.reset();
+		mat45.reset();
+		mat90.reset();
+		mat135.reset();
+		features = null;
+	}
+	
 	/**
 	 * Record coocurrence for a (binned) value pair without rotation
 	 * @param i
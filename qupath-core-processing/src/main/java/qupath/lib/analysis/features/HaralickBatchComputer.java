@@ -0,0 +1,264 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis.features;
+
+import java.util.stream.IntStream;
+
+import qupath.lib.analysis.images.SimpleImage;
+
+/**
+ * Compute Haralick texture features for many regions of the same image.
+ * <p>
+ * The image is quantized only once on creation, and co-occurrence matrices are reused for each region
+ * (per thread), which avoids allocating new matrices for every object.
+ * Regions are defined by a labeled image, so that features for all the objects within a tile can be computed
+ * in a single call.
+ * <p>
+ * Co-occurrences are counted in the same way as {@link HaralickFeatureComputer}, and so the results are the same
+ * as masking the image for each region and calling
+ * {@link HaralickFeatureComputer#measureHaralick(SimpleImage, SimpleImage, int, double, double, int)}.
+ *
+ * @since v0.5.0
+ */
+public class HaralickBatchComputer {
+
+	/**
+	 * Reusable matrices for each thread.
+	 */
+	private static final ThreadLocal<CoocurranceMatrices> localMatrices = new ThreadLocal<>();
+
+	private final int width;
+	private final int height;
+	private final int nBins;
+	private final int d;
+
+	// Bin for each pixel, or -1 for NaN
+	private final short[] bins;
+
+	private HaralickBatchComputer(short[] bins, int width, int height, int nBins, int d) {
+		this.bins = bins;
+		this.width = width;
+		this.height = height;
+		this.nBins = nBins;
+		this.d = d;
+	}
+
+	/**
+	 * Create a computer for a float image, stored as an array of pixels in row-major order.
+	 * @param pixels the pixel values; NaN values are excluded from all regions
+	 * @param width the image width
+	 * @param height the image height
+	 * @param nBins number of bins in co-occurrence matrix, between 1 and {@link Short#MAX_VALUE}
+	 * @param minValue minimum value for binning in the co-occurrence matrix; if NaN, the minimum pixel value is used
+	 * @param maxValue maximum value for binning in the co-occurrence matrix; if NaN, the maximum pixel value is used
+	 * @param d separation between pixels considered adjacent, usually 1
+	 * @return
+	 * @throws IllegalArgumentException if the number of bins or the image size is invalid
+	 */
+	public static HaralickBatchComputer create(float[] pixels, int width, int height, int nBins, double minValue, double maxValue, int d) throws IllegalArgumentException {
+		if (nBins < 1 || nBins > Short.MAX_VALUE)
+			throw new IllegalArgumentException("Number of bins must be between 1 and " + Short.MAX_VALUE);
+		if (width < 0 || height < 0 || pixels.length < width * height)
+			throw new IllegalArgumentException("Pixel array is too short for an image of size " + width + "x" + height);
+		int n = width * height;
+
+		// If we have NaNs, use the data min & max
+		if (Double.isNaN(minValue) || Double.isNaN(maxValue)) {
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < n; i++) {
+				float val = pixels[i];
+				if (val < min)
+					min = val;
+				if (val > max)
+					max = val;
+			}
+			if (min > max) {
+				min = Double.NaN;
+				max = Double.NaN;
+			}
+			minValue = min;
+			maxValue = max;
+		}
+
+		double binDepth = (maxValue - minValue) / nBins;
+		short[] bins = new short[n];
+		for (int i = 0; i < n; i++) {
+			float val = pixels[i];
+			if (Float.isNaN(val)) {
+				bins[i] = -1;
+				continue;
+			}
+			int ind = (int)((val - minValue) / binDepth);
+			if (ind < 0)
+				ind = 0;
+			else if (ind >= nBins)
+				ind = nBins - 1;
+			bins[i] = (short)ind;
+		}
+		return new HaralickBatchComputer(bins, width, height, nBins, d);
+	}
+
+	/**
+	 * Create a computer for a {@link SimpleImage}.
+	 * @param image the image; NaN values are excluded from all regions
+	 * @param nBins number of bins in co-occurrence matrix
+	 * @param minValue minimum value for binning in the co-occurrence matrix; if NaN, the minimum pixel value is used
+	 * @param maxValue maximum value for binning in the co-occurrence matrix; if NaN, the maximum pixel value is used
+	 * @param d separation between pixels considered adjacent, usually 1
+	 * @return
+	 * @see #create(float[], int, int, int, double, double, int)
+	 */
+	public static HaralickBatchComputer create(SimpleImage image, int nBins, double minValue, double maxValue, int d) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		float[] pixels = new float[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++)
+				pixels[y * width + x] = image.getValue(x, y);
+		}
+		return create(pixels, width, height, nBins, minValue, maxValue, d);
+	}
+
+	/**
+	 * Get the image width.
+	 * @return
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get the image height.
+	 * @return
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Compute mean Haralick features for all non-NaN pixels in the image.
+	 * @return
+	 */
+	public HaralickFeatures measure() {
+		var matrices = getMatrices();
+		accumulate(matrices, 0, 0, width, height, null, 0);
+		return matrices.getMeanFeatures();
+	}
+
+	/**
+	 * Compute mean Haralick features for every labeled region in the image.
+	 * <p>
+	 * The bounding box of each region is found in a single pass through the labels, and the regions are then
+	 * measured in parallel. Only pixels with the same label are considered adjacent.
+	 *
+	 * @param labels array of the same size as the image, where pixels belonging to region i have the label i
+	 * @param nLabels the number of labels; pixels with labels less than 1 or greater than nLabels are ignored
+	 * @return an array of length nLabels, where entry i-1 contains the features for region i,
+	 *         or null if the region contains no pixels
+	 * @throws IllegalArgumentException if the labels array does not match the image size
+	 */
+	public HaralickFeatures[] measureLabels(int[] labels, int nLabels) throws IllegalArgumentException {
+		int n = width * height;
+		if (labels.length != n)
+			throw new IllegalArgumentException("Labels array has length " + labels.length + ", but should be " + n);
+
+		// Find bounding boxes, stored as [minX, minY, maxX, maxY] (exclusive)
+		int[] bounds = new int[nLabels * 4];
+		for (int i = 0; i < nLabels; i++) {
+			bounds[i*4] = width;
+			bounds[i*4+1] = height;
+		}
+		for (int y = 0; y < height; y++) {
+			int row = y * width;
+			for (int x = 0; x < width; x++) {
+				int label = labels[row + x];
+				if (label < 1 || label > nLabels)
+					continue;
+				int ind = (label - 1) * 4;
+				if (x < bounds[ind])
+					bounds[ind] = x;
+				if (y < bounds[ind+1])
+					bounds[ind+1] = y;
+				if (x >= bounds[ind+2])
+					bounds[ind+2] = x + 1;
+				if (y >= bounds[ind+3])
+					bounds[ind+3] = y + 1;
+			}
+		}
+
+		var features = new HaralickFeatures[nLabels];
+		IntStream.range(0, nLabels).parallel().forEach(i -> {
+			int ind = i * 4;
+			if (bounds[ind+2] <= bounds[ind])
+				return;
+			var matrices = getMatrices();
+			accumulate(matrices, bounds[ind], bounds[ind+1], bounds[ind+2], bounds[ind+3], labels, i + 1);
+			features[i] = matrices.getMeanFeatures();
+		});
+		return features;
+	}
+
+	/**
+	 * Get reset co-occurrence matrices for the current thread.
+	 */
+	private CoocurranceMatrices getMatrices() {
+		var matrices = localMatrices.get();
+		if (matrices == null || matrices.nBins() != nBins) {
+			matrices = new CoocurranceMatrices(nBins);
+			localMatrices.set(matrices);
+		} else
+			matrices.reset();
+		return matrices;
+	}
+
+	/**
+	 * Add co-occurrences for pixels within a bounding box, optionally restricted to a specified label.
+	 * Neighboring pixels may be outside the bounding box, but must have the same label.
+	 */
+	private void accumulate(CoocurranceMatrices matrices, int x0, int y0, int x1, int y1, int[] labels, int label) {
+		boolean noLabels = labels == null;
+		int dy = d * width;
+		for (int y = y0; y < y1; y++) {
+			int row = y * width;
+			boolean yOK = y < height - d;
+			for (int x = x0; x < x1; x++) {
+				int i = row + x;
+				if (!noLabels && labels[i] != label)
+					continue;
+				int binValue = bins[i];
+				if (binValue < 0)
+					continue;
+				// Use the same directions as HaralickFeatureComputer
+				if (x < width - d && (noLabels || labels[i+d] == label))
+					matrices.put0(binValue, bins[i+d]);
+				if (yOK && (noLabels || labels[i+dy] == label))
+					matrices.put90(binValue, bins[i+dy]);
+				if (x < width - d && yOK && (noLabels || labels[i+dy+d] == label))
+					matrices.put45(binValue, bins[i+dy+d]);
+				if (x >= d && yOK && (noLabels || labels[i+dy-d] == label))
+					matrices.put135(binValue, bins[i+dy-d]);
+			}
+		}
+	}
+
+}
@@ -143,6 +143,13 @@ public class HaralickFeatures {
 				
 		double Hxy1 = 0; // Hxy1 & Hxy2 for (more) entropies
 		double Hxy2 = 0;
+		// Compute marginal logs once, rather than the log of every product
+		double[] logPx = new double[n];
+		double[] logPy = new double[n];
+		for (int i = 0; i < n; i++) {
+			logPx[i] = Math.log(px[i]) / LOG2;
+			logPy[i] = Math.log(py[i]) / LOG2;
+		}
 		for (int i = 1; i <= n; i++) {
 			for (int j = 1; j <= n; j++) {
 				double val = matrix.get(i-1, j-1);
@@ -157,7 +164,7 @@ public class HaralickFeatures {
 				
 				double temp = px[i-1] * py[j-1];
 				if (temp != 0) {
-					double logTemp = Math.log(temp) / LOG2;
+					double logTemp = logPx[i-1] + logPy[j-1];
 					Hxy1 -= val * logTemp;
 					Hxy2 -= temp * logTemp;
 				}
@@ -323,6 +330,13 @@ public class HaralickFeatures {
 				
 		double Hxy1 = 0; // Hxy1 & Hxy2 for (more) entropies
 		double Hxy2 = 0;
+		// Compute marginal logs once, rather than the log of every product
+		double[] logPx = new double[n];
+		double[] logPy = new double[n];
+		for (int i = 0; i < n; i++) {
+			logPx[i] = Math.log(px[i]) / LOG2;
+			logPy[i] = Math.log(py[i]) / LOG2;
+		}
 		for (int i = 1; i <= n; i++) {
 			for (int j = 1; j <= n; j++) {
 				double val = matrix.get(i-1, j-1);
@@ -337,7 +351,7 @@ public class HaralickFeatures {
 				
 				double temp = px[i-1] * py[j-1];
 				if (temp != 0) {
-					double logTemp = Math.log(temp) / LOG2;
+					double logTemp = logPx[i-1] + logPy[j-1];
 					Hxy1 -= val * logTemp;
 					Hxy2 -= temp * logTemp;
 				}
@@ -26,6 +26,7 @@ import org.slf4j.LoggerFactory;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.PixelCalibration;
+import qupath.lib.images.servers.cache.TilePrefetcher;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.utils.ObjectMerger;
 import qupath.lib.objects.utils.Tiler;
@@ -141,11 +142,27 @@ public class PixelProcessor<S, T, U> {
      * @param pathObjects
      */
     private void processUntiled(TaskRunner runner, ImageData<BufferedImage> imageData, Collection<? extends PathObject> pathObjects) {
-        List<? extends Runnable> tasks = pathObjects.stream()
+        List<ProcessorTask> tasks = pathObjects.stream()
                 .distinct()
                 .map(pathObject -> new ProcessorTask(imageData, pathObject, processor, null))
                 .toList();
-        runner.runTasks(tasks);
+        runTasksWithPrefetch(runner, imageData, tasks);
+    }
+
+    /**
+     * Run tasks, while prefetching the tiles needed for upcoming tasks in the background.
+     * @param runner
+     * @param imageData
+     * @param tasks
+     */
+    private void runTasksWithPrefetch(TaskRunner runner, ImageData<BufferedImage> imageData, List<ProcessorTask> tasks) {
+        var regions = tasks.stream().map(ProcessorTask::createRequest).toList();
+        try (var plan = TilePrefetcher.getInstance().createPlan(imageData.getServer(), regions)) {
+            for (var task : tasks)
+                task.prefetchPlan = plan;
+            plan.start();
+            runner.runTasks(tasks);
+        }
     }
 
 
@@ -184,7 +201,7 @@ public class PixelProcessor<S, T, U> {
                 tasks.add(new ProcessorTask(imageData, pathObject, processor, proxy));
         }
         // Run the tasks
-        runner.runTasks(tasks);
+        runTasksWithPrefetch(runner, imageData, tasks);
 
         // Reassign the proxy objects to the parent
         // If merging is involved, this can be slow - so pass these as new tasks
@@ -233,6 +250,7 @@ public class PixelProcessor<S, T, U> {
         private final PathObject pathObject;
         private final PathObject parentProxy;
         private final Processor<S, T, U> processor;
+        private TilePrefetcher.PrefetchPlan prefetchPlan;
 
         private ProcessorTask(ImageData<BufferedImage> imageData, PathObject pathObject, Processor<S, T, U> processor,
                               PathObject parentProxy) {
@@ -249,13 +267,7 @@ public class PixelProcessor<S, T, U> {
                     logger.trace("Thread interrupted - skipping task for {}", pathObject);
                     return;
                 }
-                // Use the proxy object, if available, otherwise use the path object
-                RegionRequest request;
-                if (parentProxy != null) {
-                    request = createRequest(imageData.getServer(), parentProxy);
-                } else {
-                    request = createRequest(imageData.getServer(), pathObject);
-                }
+                RegionRequest request = createRequest();
                 Parameters.Builder<S, T> builder = Parameters.builder();
                 Parameters<S, T> params = builder.imageData(imageData)
                         .imageFunction(imageSupplier)
@@ -269,6 +281,18 @@ public class PixelProcessor<S, T, U> {
                     outputHandler.handleOutput(params, output);
             } catch (Exception e) {
                 logger.error("Error processing object", e);
+            } finally {
+                if (prefetchPlan != null)
+                    prefetchPlan.advance();
+            }
+        }
+
+        private RegionRequest createRequest() {
+            // Use the proxy object, if available, otherwise use the path object
+            if (parentProxy != null) {
+                return createRequest(imageData.getServer(), parentProxy);
+            } else {
+                return createRequest(imageData.getServer(), pathObject);
             }
         }
 
@@ -24,11 +24,13 @@
 package qupath.lib.plugins.objects;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -203,8 +205,6 @@ public class SmoothFeaturesPlugin<T> extends AbstractInteractivePlugin<T> {
 		if (measurements.isEmpty() || pathObjects.size() <= 1)
 			return; //Collections.emptySet();
 		
-//		Set<String> measurementsAdded = new LinkedHashSet<>();
-		
 		if (fwhmString == null)
 			fwhmString = String.format("%.2f px", fwhmPixels);
 
@@ -215,30 +215,10 @@ public class SmoothFeaturesPlugin<T> extends AbstractInteractivePlugin<T> {
 		double maxDistSq = maxDist * maxDist; // Maximum separation
 
 		int nObjects = pathObjects.size();
-		//		int counter = 0;
+		int nMeasurements = measurements.size();
 
 		// Sort by x-coordinate - this gives us a method of breaking early
-		Collections.sort(pathObjects, new Comparator<>() {
-            @Override
-            public int compare(PathObject o1, PathObject o2) {
-                double x1 = o1.getROI().getCentroidX();
-                double x2 = o2.getROI().getCentroidX();
-//				int value = Double.compare(x1, x2);
-//				if (value == 0) {
-//					System.out.println(x1 + " vs. " + x2);
-//					System.out.println(String.format("(%.2f, %.2f) vs (%.2f, %.2f)", o1.getROI().getCentroidX(), o1.getROI().getCentroidY(), o2.getROI().getCentroidX(), o2.getROI().getCentroidY()));				}
-                return Double.compare(x1, x2);
-//				if (x1 > x2)
-//					return 1;
-//				if (x2 < x1)
-//					return -1;
-//				System.out.println(x1 + " vs. " + x2);
-//				System.out.println(String.format("(%.2f, %.2f) vs (%.2f, %.2f)", o1.getROI().getCentroidX(), o1.getROI().getCentroidY(), o2.getROI().getCentroidX(), o2.getROI().getCentroidY()));
-//				return 0;
-//				return (int)Math.signum(o1.getROI().getCentroidX() - o2.getROI().getCentroidX());
-            }
-        });
-		
+		Collections.sort(pathObjects, Comparator.comparingDouble(p -> p.getROI().getCentroidX()));
 		
 		// Create a LUT for distances - calculating exp every time is expensive
 		double[] distanceWeights = new double[(int)(maxDist + .5) + 1];
@@ -246,16 +226,10 @@ public class SmoothFeaturesPlugin<T> extends AbstractInteractivePlugin<T> {
 			distanceWeights[i] = Math.exp(-(i * i)/sigma2);
 		}
 		
-
-		System.currentTimeMillis();
-		
 		float[] xCentroids = new float[nObjects];
 		float[] yCentroids = new float[nObjects];
 		PathClass[] pathClasses = new PathClass[nObjects];
-		int[] nearbyDetectionCounts = new int[nObjects];
-		float[][] measurementsWeighted = new float[nObjects][measurements.size()];
-		float[][] measurementDenominators = new float[nObjects][measurements.size()];
-		float[][] measurementValues = new float[nObjects][measurements.size()];
+		float[][] measurementValues = new float[nObjects][nMeasurements];
 		for (int i = 0; i < nObjects; i++) {
 			PathObject pathObject = pathObjects.get(i);
 			if (withinClass)
@@ -266,12 +240,7 @@ public class SmoothFeaturesPlugin<T> extends AbstractInteractivePlugin<T> {
 			MeasurementList measurementList = pathObject.getMeasurementList();
 			int ind = 0;
 			for (String name : measurements) {
-				float value = (float)measurementList.get(name);
-				
-				measurementValues[i][ind] = value;   // Used to cache values
-				measurementsWeighted[i][ind] = value; // Based on distances and measurements
-				measurementDenominators[i][ind] = 1; // Based on distances along
-				ind++;
+				measurementValues[i][ind++] = (float)measurementList.get(name);
 			}
 		}
 
@@ -292,31 +261,42 @@ public class SmoothFeaturesPlugin<T> extends AbstractInteractivePlugin<T> {
 //			countsName = prefix + "Nearby detection counts";
 		}
 		
-		// Loop through objects, computing predominant class based on distance weighting
-		for (int i = 0; i < nObjects; i++) {
-			// Extract the current class index
+		// Smooth each object independently, so that objects can be processed in parallel.
+		// Neighbors are visited in sorted order, and values accumulated as floats, so that the results 
+		// are identical to those of a single sweep through the sorted objects.
+		IntStream.range(0, nObjects).parallel().forEach(i -> {
 			PathObject pathObject = pathObjects.get(i);
 			PathClass pathClass = pathClasses[i];
-			MeasurementList measurementList = pathObject.getMeasurementList();
 			float[] mValues = measurementValues[i];
-			float[] mWeighted = measurementsWeighted[i];
-			float[] mDenominator = measurementDenominators[i];
+			float[] mWeighted = mValues.clone();
+			float[] mDenominator = new float[nMeasurements];
+			Arrays.fill(mDenominator, 1f);
+			int nearbyDetectionCount = 0;
 			
-			// Compute centroid distances
+			// Find the first object that might be close enough - all later objects are checked until 
+			// we are too far away. Objects without a finite centroid have no neighbors.
 			double xi = xCentroids[i];
 			double yi = yCentroids[i];
-			for (int j = i+1; j < nObjects; j++) {
+			int start = i;
+			int end = i;
+			if (Double.isFinite(xi) && Double.isFinite(yi)) {
+				while (start > 0 && Math.abs(xCentroids[start-1] - xi) <= maxDist)
+					start--;
+				end = nObjects;
+			}
+			
+			for (int j = start; j < end; j++) {
+				if (j == i)
+					continue;
 				
 				double xj = xCentroids[j];
 				double yj = yCentroids[j];
-				//				counter++;
 				// Break early if we are already too far away
-				if (Math.abs(xj - xi) > maxDist) {
+				if (Math.abs(xj - xi) > maxDist)
 					break;
-				}
 
 				double distSq = (xj - xi)*(xj - xi) + (yj - yi)*(yj - yi);
-//				// Check if we are close enough to have an influence
+				// Check if we are close enough to have an influence
 				if (distSq > maxDistSq || Double.isNaN(distSq))
 					continue;
 				
@@ -325,64 +305,46 @@ public class SmoothFeaturesPlugin<T> extends AbstractInteractivePlugin<T> {
 					continue;
 				
 				// Update the counts, if close enough
-				if (distSq < fwhmPixels2) {
-					nearbyDetectionCounts[i]++;
-					nearbyDetectionCounts[j]++;
-				}
+				if (distSq < fwhmPixels2)
+					nearbyDetectionCount++;
 
-				// Update the class weights for both objects currently being tested
 				// Compute weight based on centroid distances
-//				double weight = Math.exp(-distSq/sigma2);
-				double weight = distanceWeights[(int)(Math.sqrt(distSq) + .5)];// * pathObjects.get(j).getClassProbability();
-				float [] temp = measurementValues[j];
-				float [] tempWeighted = measurementsWeighted[j];
-				float [] tempDenominator = measurementDenominators[j];
-				for (int ind = 0; ind < measurements.size(); ind++) {
+				double weight = distanceWeights[(int)(Math.sqrt(distSq) + .5)];
+				float[] temp = measurementValues[j];
+				for (int ind = 0; ind < nMeasurements; ind++) {
 					float tempVal = temp[ind];
 					if (Float.isNaN(tempVal))
 						continue;
+					// Objects earlier in the sweep are skipped if this object's value is missing
+					// (this only changes the denominator, since the smoothed value is NaN anyway)
+					if (j < i && Float.isNaN(mValues[ind]))
+						continue;
 					mWeighted[ind] += tempVal * weight;
 					mDenominator[ind] += weight;
-					
-					float tempVal2 = mValues[ind];
-					if (Float.isNaN(tempVal2))
-						continue;
-					tempWeighted[ind] += tempVal2 * weight;
-					tempDenominator[ind] += weight;
 				}
 			}
 			
 			// Store the measurements
+			MeasurementList measurementList = pathObject.getMeasurementList();
 			int ind = 0;
 			float maxDenominator = Float.NEGATIVE_INFINITY;
 			for (String name : measurements) {
-//				if (name.contains(" - Smoothed (FWHM ") || name.startsWith("Smoothed denominator (local density, ") || name.startsWith("Nearby detection counts"))
-//					continue;
 				float denominator = mDenominator[ind];
 				if (denominator > maxDenominator)
 					maxDenominator = denominator;
 				
 				String nameToAdd = prefix + name + postfix;
 				measurementList.put(nameToAdd, mWeighted[ind] / denominator);
-				
-//				measurementsAdded.add(nameToAdd);
-//				measurementList.putMeasurement(name + " - weighted sum", mWeighted[ind]); // TODO: Support optionally providing weighted sums
-				
-//				measurementList.addMeasurement(name + " - smoothed", mWeighted[ind] / mDenominator[ind]);
 				ind++;
 			}
 			if (pathObject instanceof PathDetectionObject && denomName != null) {
 				measurementList.put(denomName, maxDenominator);
-//				measurementsAdded.add(denomName);
 			}
 			if (pathObject instanceof PathDetectionObject && countsName != null) {
-				measurementList.put(countsName, nearbyDetectionCounts[i]);
-//				measurementsAdded.add(countsName);
+				measurementList.put(countsName, nearbyDetectionCount);
 			}
 			measurementList.close();
-		}
-		
-		System.currentTimeMillis();
+		});
 		
 //		return measurementsAdded;
 	}
@@ -198,14 +198,16 @@ public class QP {
 	public static final ImageData.ImageType OTHER = ImageData.ImageType.OTHER;
 	
 	/**
-	 * Store ImageData accessible to the script thread
+	 * Store ImageData accessible to the script thread.
+	 * This is synchronized because scripts may be run for several images in parallel.
 	 */
-	private static Map<Thread, ImageData<BufferedImage>> batchImageData = new WeakHashMap<>();
+	private static Map<Thread, ImageData<BufferedImage>> batchImageData = Collections.synchronizedMap(new WeakHashMap<>());
 
 	/**
-	 * Store Project accessible to the script thread
+	 * Store Project accessible to the script thread.
+	 * This is synchronized because scripts may be run for several images in parallel.
 	 */
-	private static Map<Thread, Project<BufferedImage>> batchProject = new WeakHashMap<>();
+	private static Map<Thread, Project<BufferedImage>> batchProject = Collections.synchronizedMap(new WeakHashMap<>());
 	
 	/**
 	 * Placeholder for the path to the current project.
@@ -673,7 +675,10 @@ public class QP {
 		if (imageData != null || defaultTemp == null)
 			return imageData;
 		// If we don't have any other possible image data, return with debug logging
-		var batchImages = batchImageData.values();
+		List<ImageData<BufferedImage>> batchImages;
+		synchronized (batchImageData) {
+			batchImages = new ArrayList<>(batchImageData.values());
+		}
 		if (batchImages.isEmpty() || (batchImages.size() == 1 && batchImages.contains(defaultTemp))) {
 			logger.debug("Returning the default ImageData: {}", defaultTemp);
 			return defaultTemp;
@@ -700,7 +705,10 @@ public class QP {
 		if (project != null || defaultTemp == null)
 			return project;
 		// If we don't have any other possible project, return with debug logging
-		var batchProjects = batchProject.values();
+		List<Project<BufferedImage>> batchProjects;
+		synchronized (batchProject) {
+			batchProjects = new ArrayList<>(batchProject.values());
+		}
 		if (batchProjects.isEmpty() || (batchProjects.size() == 1 && batchProjects.contains(defaultTemp))) {
 			logger.debug("Returning the default project: {}", defaultTemp);
 			return defaultTemp;
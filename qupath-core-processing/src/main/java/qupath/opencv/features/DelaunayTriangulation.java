@@ -23,12 +23,10 @@
 
 package qupath.opencv.features;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -42,6 +40,7 @@ import org.bytedeco.opencv.opencv_imgproc.Subdiv2D;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import qupath.lib.analysis.CellGraph;
 import qupath.lib.analysis.stats.RunningStatistics;
 import qupath.lib.measurements.MeasurementList;
 import qupath.lib.objects.PathCellObject;
@@ -396,25 +395,28 @@ public class DelaunayTriangulation implements PathObjectConnectionGroup {
 	public List<Set<PathObject>> getConnectedClusters() {
 		if (nodeMap == null || nodeMap.isEmpty())
 			return Collections.emptyList();
-		// Compute distinct clusters
-		List<PathObject> toProcess = new ArrayList<>(nodeMap.keySet());
-		List<Set<PathObject>> clusters = new ArrayList<>();
-		while (!toProcess.isEmpty()) {
-			Set<PathObject> inCluster = new HashSet<>();
-			Deque<PathObject> toCheck = new ArrayDeque<>();
-			PathObject next = toProcess.remove(toProcess.size()-1);
-			toCheck.add(next);
-			while (!toCheck.isEmpty()) {
-				next = toCheck.pop();
-				if (inCluster.add(next)) {
-					toCheck.addAll(getConnectedObjects(next));
-				}
+		// Compute distinct clusters using a compact graph
+		List<PathObject> pathObjects = new ArrayList<>(nodeMap.keySet());
+		Map<PathObject, Integer> indices = new HashMap<>(pathObjects.size(), 1f);
+		for (int i = 0; i < pathObjects.size(); i++)
+			indices.put(pathObjects.get(i), i);
+		int nEdges = 0;
+		for (var node : nodeMap.values())
+			nEdges += node.nNeighbors();
+		int[] sources = new int[nEdges];
+		int[] targets = new int[nEdges];
+		int ind = 0;
+		for (int i = 0; i < pathObjects.size(); i++) {
+			for (var neighbor : nodeMap.get(pathObjects.get(i)).getNodeList()) {
+				sources[ind] = i;
+				targets[ind] = indices.get(neighbor.getPathObject());
+				ind++;
 			}
-			// Avoid recursive call in case of stack overflow
-//			getConnectedNodesRecursive(next, inCluster);
-			toProcess.removeAll(inCluster);
-			clusters.add(inCluster);
 		}
+		var graph = CellGraph.fromEdges(pathObjects, sources, targets, null);
+		List<Set<PathObject>> clusters = new ArrayList<>();
+		for (var component : graph.getConnectedComponents())
+			clusters.add(new HashSet<>(component));
 		return clusters;
 	}
 	
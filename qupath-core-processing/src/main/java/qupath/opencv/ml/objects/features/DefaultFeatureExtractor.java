@@ -29,6 +29,7 @@ import java.util.List;
 
 import qupath.lib.images.ImageData;
 import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementMatrix;
 import qupath.lib.objects.PathObject;
 
 /**
@@ -48,8 +49,9 @@ class DefaultFeatureExtractor<T> implements FeatureExtractor<T> {
 	
 	@Override
 	public void extractFeatures(ImageData<T> imageData, Collection<? extends PathObject> pathObjects, FloatBuffer buffer) {
-		for (var pathObject : pathObjects)
-			extractFeatures(pathObject, buffer);
+		// Resolve the measurement names once for each distinct list of names, rather than for each object
+		List<? extends PathObject> list = pathObjects instanceof List ? (List<? extends PathObject>)pathObjects : new ArrayList<>(pathObjects);
+		MeasurementMatrix.extract(list, PathObject::getMeasurementList, measurements, buffer);
 	}
 	
 	@Override
@@ -62,14 +64,6 @@ class DefaultFeatureExtractor<T> implements FeatureExtractor<T> {
 		return measurements.size();
 	}
 	
-	private void extractFeatures(final PathObject pathObject, FloatBuffer buffer) {
-		var measurementList = pathObject.getMeasurementList();
-		for (var m : measurements) {
-			double value = measurementList.get(m);
-			buffer.put((float)value);
-		}
-	}
-	
 	@Override
 	public Collection<String> getMissingFeatures(ImageData<T> imageData, PathObject pathObject) {
 		List<String> missing = null;
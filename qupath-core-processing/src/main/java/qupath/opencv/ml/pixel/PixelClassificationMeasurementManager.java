@@ -45,7 +45,6 @@ import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.LongStream;
@@ -61,6 +60,9 @@ import qupath.lib.images.servers.ImageServerMetadata;
 import qupath.lib.images.servers.ImageServerMetadata.ChannelType;
 import qupath.lib.images.servers.PixelCalibration;
 import qupath.lib.images.servers.TileRequest;
+import qupath.lib.images.servers.cache.TileScheduler;
+import qupath.lib.images.servers.cache.TileScheduler.Priority;
+import qupath.lib.images.servers.cache.TileScheduler.TaskGroup;
 import qupath.lib.measurements.MeasurementList;
 import qupath.lib.measurements.MeasurementList.MeasurementListType;
 import qupath.lib.measurements.MeasurementListFactory;
@@ -233,7 +235,7 @@ public class PixelClassificationMeasurementManager {
 	 * @see #getMeasurementValue(ROI, String)
 	 */
 	public Number getMeasurementValue(ROI roi, String name) {
-		var ml = getMeasurementList(roi, getDefaultPool());
+		var ml = getMeasurementList(roi, createTileGroup(Priority.INTERACTIVE, calculatePreferredParallelism()));
 		if (ml == null)
 			return null;
 		else
@@ -287,15 +289,16 @@ public class PixelClassificationMeasurementManager {
 		logger.debug("Measuring {} objects (object threads={}, tile threads={})",
 				objectsToMeasure.size(), nObjectThreads, nTileThreads);
 
+		// Tiles are requested through the shared scheduler, so that they don't compete with interactive requests.
+		// Objects are measured using a separate pool, because these threads spend most of their time waiting for tiles.
 		var factoryObjects = ThreadTools.createThreadFactory("pixel-classification-objects", true, Thread.NORM_PRIORITY+1);
-		var factoryTiles = ThreadTools.createThreadFactory("pixel-classification-tiles", true, Thread.NORM_PRIORITY);
 		ExecutorService poolObjects = Executors.newFixedThreadPool(nObjectThreads, factoryObjects);
-		ExecutorService poolTiles = Executors.newFixedThreadPool(nTileThreads, factoryTiles);
+		TaskGroup tileGroup = createTileGroup(Priority.BATCH, nTileThreads);
 
 		String measurementIdFinal = measurementID;
 		List<Future<?>> tasks = new ArrayList<>();
 		for (var pathObject : objectsToMeasure) {
-			tasks.add(poolObjects.submit(() -> measureObject(pathObject, measurementIdFinal, poolTiles)));
+			tasks.add(poolObjects.submit(() -> measureObject(pathObject, measurementIdFinal, tileGroup)));
 		}
 		poolObjects.shutdown();
 		try {
@@ -304,9 +307,8 @@ public class PixelClassificationMeasurementManager {
 				t.get();
 			}
 		} catch (Exception e) {
+			tileGroup.cancel();
 			throw new RuntimeException(e);
-		} finally {
-			poolTiles.shutdown();
 		}
 
 		// The simpler (slower) sequential version of the above
@@ -322,9 +324,9 @@ public class PixelClassificationMeasurementManager {
 	}
 
 
-	private void measureObject(PathObject pathObject, String measurementID, ExecutorService pool) {
+	private void measureObject(PathObject pathObject, String measurementID, TaskGroup tileGroup) {
 		try (var ml = pathObject.getMeasurementList()) {
-			var map = getMeasurementListAsMap(pathObject.getROI(), pool);
+			var map = getMeasurementListAsMap(pathObject.getROI(), tileGroup);
 			var measurementNames = getMeasurementNames();
 			if (map.isEmpty() || measurementNames.isEmpty())
 				logger.warn("Map or measurements names are empty!");
@@ -342,22 +344,22 @@ public class PixelClassificationMeasurementManager {
 	}
 
 
-	private ExecutorService getDefaultPool() {
-		return ForkJoinPool.commonPool();
+	private static TaskGroup createTileGroup(Priority priority, int maxConcurrent) {
+		return TileScheduler.getInstance().createGroup(priority, maxConcurrent);
 	}
 
-	private Map<String, Number> getMeasurementListAsMap(ROI roi, ExecutorService pool) {
-		var ml = getMeasurementList(roi, pool);
+	private Map<String, Number> getMeasurementListAsMap(ROI roi, TaskGroup tileGroup) {
+		var ml = getMeasurementList(roi, tileGroup);
 		return ml == null ? Collections.emptyMap() : Collections.unmodifiableMap(ml.asMap());
 	}
 
-	private MeasurementList getMeasurementList(ROI roi, ExecutorService pool) {
+	private MeasurementList getMeasurementList(ROI roi, TaskGroup tileGroup) {
 		if (roi == null)
 			return null;
 		var map = measuredROIs.computeIfAbsent(classifierServer, s -> new ConcurrentHashMap<>());
 		var ml = map.getOrDefault(roi, null);
 		if (ml == null) {
-			ml = calculateMeasurements(roi, pool);
+			ml = calculateMeasurements(roi, tileGroup);
 			if (ml != null)
 				map.put(roi, ml);
 		}
@@ -412,14 +414,14 @@ public class PixelClassificationMeasurementManager {
 	 * Calculate measurements for a specified ROI if possible.
 	 * 
 	 * @param roi the ROI defining the region to measure
-	 * @param pool a pool to request tiles; if null, only cached tiles will be used and null return if the measurement
-	 *             can't be determined from cached tiles alone.
+	 * @param tileGroup a group used to request tiles; if null, only cached tiles will be used and null return if the measurement
+	 *                  can't be determined from cached tiles alone.
 	 * @return
 	 */
-	private MeasurementList calculateMeasurements(final ROI roi, final ExecutorService pool) {
+	private MeasurementList calculateMeasurements(final ROI roi, final TaskGroup tileGroup) {
 
-		// Only use cached tiles if we aren't give a pool
-		boolean cachedOnly = pool == null;
+		// Only use cached tiles if we aren't give a group to request tiles
+		boolean cachedOnly = tileGroup == null;
 
         Map<Integer, PathClass> classificationLabels = classifierServer.getMetadata().getClassificationLabels();
         long[] counts = null;
@@ -481,7 +483,7 @@ public class PixelClassificationMeasurementManager {
 				missingTiles.add(request);
 		}
 
-		// If we need non-cached tiles, create a thread pool to request them
+		// If we need non-cached tiles, request them in parallel
 		Map<TileRequest, Future<BufferedImage>> requestMap = new HashMap<>();
 		if (!missingTiles.isEmpty()) {
 			// If we have a single tile, using a pool is likely to be *slower*, since it may take much longer for the
@@ -489,7 +491,7 @@ public class PixelClassificationMeasurementManager {
 			boolean requestInPool = missingTiles.size() > 1;
 			for (TileRequest request : missingTiles) {
 				if (requestInPool)
-					requestMap.put(request, pool.submit(() -> classifierServer.readRegion(request.getRegionRequest())));
+					requestMap.put(request, tileGroup.submit(request.getRegionRequest(), () -> classifierServer.readRegion(request.getRegionRequest())));
 				else {
 					try {
 						localCache.put(request, classifierServer.readRegion(request.getRegionRequest()));
@@ -0,0 +1,211 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis.features;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.analysis.images.SimpleImages;
+
+@SuppressWarnings("javadoc")
+public class TestHaralickBatchComputer {
+
+	private static final Logger logger = LoggerFactory.getLogger(TestHaralickBatchComputer.class);
+
+	@Test
+	public void test_wholeImage() {
+		int width = 64;
+		int height = 50;
+		float[] pixels = createPixels(new Random(100L), width, height);
+		// Include some NaNs
+		for (int i = 0; i < pixels.length; i += 17)
+			pixels[i] = Float.NaN;
+
+		for (int d : new int[] {1, 2, 5}) {
+			for (int nBins : new int[] {8, 32}) {
+				var expected = HaralickFeatureComputer.measureHaralick(SimpleImages.createFloatImage(pixels, width, height), null, nBins, 0, 255, d);
+				var actual = HaralickBatchComputer.create(pixels, width, height, nBins, 0, 255, d).measure();
+				assertArrayEquals(expected.features(), actual.features());
+			}
+		}
+
+		// Min and max from the data
+		var expected = HaralickFeatureComputer.measureHaralick(SimpleImages.createFloatImage(pixels, width, height), null, 16, Double.NaN, Double.NaN, 1);
+		var actual = HaralickBatchComputer.create(pixels, width, height, 16, Double.NaN, Double.NaN, 1).measure();
+		assertArrayEquals(expected.features(), actual.features());
+	}
+
+	@Test
+	public void test_labels() {
+		int width = 200;
+		int height = 150;
+		var rand = new Random(1L);
+		float[] pixels = createPixels(rand, width, height);
+		int nLabels = 60;
+		int[] labels = createLabels(rand, width, height, nLabels, 8);
+		// A label with no pixels
+		for (int i = 0; i < labels.length; i++) {
+			if (labels[i] == 5)
+				labels[i] = 0;
+		}
+
+		var computer = HaralickBatchComputer.create(pixels, width, height, 32, 0, 255, 1);
+		var features = computer.measureLabels(labels, nLabels);
+		int[] bounds = computeBounds(labels, width, nLabels);
+		assertEquals(nLabels, features.length);
+		assertNull(features[4]);
+		for (int label = 1; label <= nLabels; label++) {
+			if (label == 5)
+				continue;
+			var expected = measureMasked(pixels, labels, width, bounds, label, 32, 1);
+			assertArrayEquals(expected.features(), features[label-1].features());
+		}
+
+		assertThrows(IllegalArgumentException.class, () -> computer.measureLabels(new int[10], 1));
+		assertThrows(IllegalArgumentException.class, () -> HaralickBatchComputer.create(pixels, width, height, 0, 0, 255, 1));
+		assertThrows(IllegalArgumentException.class, () -> HaralickBatchComputer.create(pixels, width + 1, height, 32, 0, 255, 1));
+	}
+
+	/**
+	 * Compare the time taken to compute features for many small regions, one at a time or in a batch.
+	 */
+	@Tag("benchmark")
+	@Test
+	public void benchmark_labels() {
+		int width = 2048;
+		int height = 2048;
+		var rand = new Random(2L);
+		float[] pixels = createPixels(rand, width, height);
+		int nLabels = 20_000;
+		int[] labels = createLabels(rand, width, height, nLabels, 6);
+		int nBins = 32;
+
+		long start = System.nanoTime();
+		var features = HaralickBatchComputer.create(pixels, width, height, nBins, 0, 255, 1).measureLabels(labels, nLabels);
+		long batchMillis = millisSince(start);
+
+		// Measure each region individually, as when cropping the image around each object
+		int[] bounds = computeBounds(labels, width, nLabels);
+		start = System.nanoTime();
+		int nMeasured = 0;
+		for (int label = 1; label <= nLabels; label++) {
+			if (features[label-1] != null) {
+				measureMasked(pixels, labels, width, bounds, label, nBins, 1);
+				nMeasured++;
+			}
+		}
+		long individualMillis = millisSince(start);
+		logger.info("Haralick features for {} regions: {} ms individually, {} ms in batch", nMeasured, individualMillis, batchMillis);
+	}
+
+	/**
+	 * Compute features using the original implementation, by cropping the bounding box of a label and
+	 * setting all other pixels to NaN.
+	 */
+	private static HaralickFeatures measureMasked(float[] pixels, int[] labels, int width, int[] bounds, int label, int nBins, int d) {
+		int ind0 = (label - 1) * 4;
+		int minX = bounds[ind0];
+		int minY = bounds[ind0+1];
+		int maxX = bounds[ind0+2];
+		int maxY = bounds[ind0+3];
+		int w = maxX - minX + 1;
+		int h = maxY - minY + 1;
+		float[] cropped = new float[w * h];
+		Arrays.fill(cropped, Float.NaN);
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				int ind = (y + minY) * width + x + minX;
+				if (labels[ind] == label)
+					cropped[y * w + x] = pixels[ind];
+			}
+		}
+		return HaralickFeatureComputer.measureHaralick(SimpleImages.createFloatImage(cropped, w, h), null, nBins, 0, 255, d);
+	}
+
+	/**
+	 * Compute inclusive bounding boxes for each label, stored as [minX, minY, maxX, maxY].
+	 */
+	private static int[] computeBounds(int[] labels, int width, int nLabels) {
+		int[] bounds = new int[nLabels * 4];
+		for (int i = 0; i < nLabels; i++) {
+			bounds[i*4] = Integer.MAX_VALUE;
+			bounds[i*4+1] = Integer.MAX_VALUE;
+			bounds[i*4+2] = -1;
+			bounds[i*4+3] = -1;
+		}
+		for (int i = 0; i < labels.length; i++) {
+			int label = labels[i];
+			if (label < 1 || label > nLabels)
+				continue;
+			int ind = (label - 1) * 4;
+			bounds[ind] = Math.min(bounds[ind], i % width);
+			bounds[ind+1] = Math.min(bounds[ind+1], i / width);
+			bounds[ind+2] = Math.max(bounds[ind+2], i % width);
+			bounds[ind+3] = Math.max(bounds[ind+3], i / width);
+		}
+		return bounds;
+	}
+
+	private static float[] createPixels(Random rand, int width, int height) {
+		float[] pixels = new float[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				// Add some structure, so that the features are not all the same
+				pixels[y * width + x] = (float)(128 + 60 * Math.sin(x / 5.0) * Math.cos(y / 7.0) + rand.nextGaussian() * 20);
+			}
+		}
+		return pixels;
+	}
+
+	/**
+	 * Create a labeled image containing circles with random centers; later labels overwrite earlier ones.
+	 */
+	private static int[] createLabels(Random rand, int width, int height, int nLabels, int radius) {
+		int[] labels = new int[width * height];
+		for (int label = 1; label <= nLabels; label++) {
+			int cx = rand.nextInt(width);
+			int cy = rand.nextInt(height);
+			for (int y = Math.max(0, cy - radius); y < Math.min(height, cy + radius + 1); y++) {
+				for (int x = Math.max(0, cx - radius); x < Math.min(width, cx + radius + 1); x++) {
+					if ((x - cx) * (x - cx) + (y - cy) * (y - cy) <= radius * radius)
+						labels[y * width + x] = label;
+				}
+			}
+		}
+		return labels;
+	}
+
+	private static long millisSince(long startNanos) {
+		return (System.nanoTime() - startNanos) / 1_000_000L;
+	}
+
+}
@@ -0,0 +1,257 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.plugins.objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.interfaces.ROI;
+
+@SuppressWarnings("javadoc")
+public class TestSmoothFeaturesPlugin {
+
+	private static final List<String> MEASUREMENTS = List.of("First", "Second", "Third");
+
+	@Test
+	public void test_smoothMeasurementsMatchesLegacy() {
+		for (boolean withinClass : new boolean[] {false, true}) {
+			for (boolean useLegacyNames : new boolean[] {false, true}) {
+				for (double fwhm : new double[] {5, 12.5, 40}) {
+					var expected = createObjects(new Random(100L));
+					var actual = createObjects(new Random(100L));
+
+					smoothMeasurementsLegacy(new ArrayList<>(expected), MEASUREMENTS, fwhm, null, withinClass, useLegacyNames);
+					SmoothFeaturesPlugin.smoothMeasurements(new ArrayList<>(actual), MEASUREMENTS, fwhm, null, withinClass, useLegacyNames);
+
+					for (int i = 0; i < expected.size(); i++) {
+						var mlExpected = expected.get(i).getMeasurementList();
+						var mlActual = actual.get(i).getMeasurementList();
+						assertEquals(mlExpected.getMeasurementNames(), mlActual.getMeasurementNames());
+						assertTrue(mlExpected.size() > MEASUREMENTS.size());
+						// Results should be identical, including where values are missing
+						for (String name : mlExpected.getMeasurementNames())
+							assertEquals(mlExpected.get(name), mlActual.get(name), name);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void test_smoothMeasurementsSortsObjects() {
+		var pathObjects = createObjects(new Random(200L));
+		var list = new ArrayList<>(pathObjects);
+		SmoothFeaturesPlugin.smoothMeasurements(list, MEASUREMENTS, 10, null, false, false);
+		for (int i = 1; i < list.size(); i++)
+			assertTrue(list.get(i-1).getROI().getCentroidX() <= list.get(i).getROI().getCentroidX());
+	}
+
+	/**
+	 * Create detections with some clustering, duplicate x-coordinates, different planes, classifications
+	 * and missing measurements.
+	 */
+	private static List<PathObject> createObjects(Random rand) {
+		var pathClasses = new PathClass[] {null, PathClass.fromString("Tumor"), PathClass.fromString("Stroma"), PathClass.fromString("Tumor: Positive")};
+		int n = 2000;
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			double x, y;
+			if (i % 3 == 0) {
+				x = 100 + rand.nextGaussian() * 10;
+				y = 150 + rand.nextGaussian() * 10;
+			} else if (i % 7 == 0 && !pathObjects.isEmpty()) {
+				x = pathObjects.get(rand.nextInt(pathObjects.size())).getROI().getBoundsX();
+				y = rand.nextDouble() * 500;
+			} else {
+				x = rand.nextDouble() * 500;
+				y = rand.nextDouble() * 500;
+			}
+			var plane = i % 11 == 0 ? ImagePlane.getPlane(1, 0) : ImagePlane.getDefaultPlane();
+			var pathObject = PathObjects.createDetectionObject(
+					ROIs.createRectangleROI(x, y, 2 + rand.nextDouble() * 5, 2 + rand.nextDouble() * 5, plane),
+					pathClasses[rand.nextInt(pathClasses.length)]);
+			try (var ml = pathObject.getMeasurementList()) {
+				for (String name : MEASUREMENTS) {
+					double value = rand.nextDouble() < 0.1 ? Double.NaN : rand.nextGaussian() * 100 + 1000;
+					ml.put(name, value);
+				}
+			}
+			pathObjects.add(pathObject);
+		}
+		return pathObjects;
+	}
+
+	/**
+	 * Copy of the original implementation of {@link SmoothFeaturesPlugin#smoothMeasurements(List, List, double, String, boolean, boolean)},
+	 * which sweeps through objects sorted by x-coordinate and updates each pair of objects together.
+	 */
+	private static void smoothMeasurementsLegacy(List<PathObject> pathObjects, List<String> measurements, double fwhmPixels, String fwhmString, boolean withinClass, boolean useLegacyNames) {
+		if (measurements.isEmpty() || pathObjects.size() <= 1)
+			return;
+
+		if (fwhmString == null)
+			fwhmString = String.format("%.2f px", fwhmPixels);
+
+		double fwhmPixels2 = fwhmPixels * fwhmPixels;
+		double sigmaPixels = fwhmPixels / Math.sqrt(8 * Math.log(2));
+		double sigma2 = 2 * sigmaPixels * sigmaPixels;
+		double maxDist = sigmaPixels * 3;
+		double maxDistSq = maxDist * maxDist;
+
+		int nObjects = pathObjects.size();
+
+		Collections.sort(pathObjects, new Comparator<>() {
+			@Override
+			public int compare(PathObject o1, PathObject o2) {
+				double x1 = o1.getROI().getCentroidX();
+				double x2 = o2.getROI().getCentroidX();
+				return Double.compare(x1, x2);
+			}
+		});
+
+		double[] distanceWeights = new double[(int)(maxDist + .5) + 1];
+		for (int i = 0; i < distanceWeights.length; i++) {
+			distanceWeights[i] = Math.exp(-(i * i)/sigma2);
+		}
+
+		float[] xCentroids = new float[nObjects];
+		float[] yCentroids = new float[nObjects];
+		PathClass[] pathClasses = new PathClass[nObjects];
+		int[] nearbyDetectionCounts = new int[nObjects];
+		float[][] measurementsWeighted = new float[nObjects][measurements.size()];
+		float[][] measurementDenominators = new float[nObjects][measurements.size()];
+		float[][] measurementValues = new float[nObjects][measurements.size()];
+		for (int i = 0; i < nObjects; i++) {
+			PathObject pathObject = pathObjects.get(i);
+			if (withinClass)
+				pathClasses[i] = pathObject.getPathClass() == null ? null : pathObject.getPathClass().getBaseClass();
+			ROI roi = pathObject.getROI();
+			xCentroids[i] = (float)roi.getCentroidX();
+			yCentroids[i] = (float)roi.getCentroidY();
+			MeasurementList measurementList = pathObject.getMeasurementList();
+			int ind = 0;
+			for (String name : measurements) {
+				float value = (float)measurementList.get(name);
+				measurementValues[i][ind] = value;
+				measurementsWeighted[i][ind] = value;
+				measurementDenominators[i][ind] = 1;
+				ind++;
+			}
+		}
+
+		String prefix, postfix, denomName, countsName;
+		if (useLegacyNames) {
+			prefix = "";
+			postfix = String.format(" - Smoothed (FWHM %s)", fwhmString);
+			denomName = String.format("Smoothed denominator (local density, FWHM %s)", fwhmString);
+			countsName = String.format("Nearby detection counts (radius %s)", fwhmString);
+		} else {
+			prefix = String.format("Smoothed: %s: ", fwhmString);
+			postfix = "";
+			denomName = null;
+			countsName = prefix + "Nearby detection counts";
+		}
+
+		for (int i = 0; i < nObjects; i++) {
+			PathObject pathObject = pathObjects.get(i);
+			PathClass pathClass = pathClasses[i];
+			MeasurementList measurementList = pathObject.getMeasurementList();
+			float[] mValues = measurementValues[i];
+			float[] mWeighted = measurementsWeighted[i];
+			float[] mDenominator = measurementDenominators[i];
+
+			double xi = xCentroids[i];
+			double yi = yCentroids[i];
+			for (int j = i+1; j < nObjects; j++) {
+				double xj = xCentroids[j];
+				double yj = yCentroids[j];
+				if (Math.abs(xj - xi) > maxDist) {
+					break;
+				}
+
+				double distSq = (xj - xi)*(xj - xi) + (yj - yi)*(yj - yi);
+				if (distSq > maxDistSq || Double.isNaN(distSq))
+					continue;
+
+				if (withinClass && pathClass != pathClasses[j])
+					continue;
+
+				if (distSq < fwhmPixels2) {
+					nearbyDetectionCounts[i]++;
+					nearbyDetectionCounts[j]++;
+				}
+
+				double weight = distanceWeights[(int)(Math.sqrt(distSq) + .5)];
+				float [] temp = measurementValues[j];
+				float [] tempWeighted = measurementsWeighted[j];
+				float [] tempDenominator = measurementDenominators[j];
+				for (int ind = 0; ind < measurements.size(); ind++) {
+					float tempVal = temp[ind];
+					if (Float.isNaN(tempVal))
+						continue;
+					mWeighted[ind] += tempVal * weight;
+					mDenominator[ind] += weight;
+
+					float tempVal2 = mValues[ind];
+					if (Float.isNaN(tempVal2))
+						continue;
+					tempWeighted[ind] += tempVal2 * weight;
+					tempDenominator[ind] += weight;
+				}
+			}
+
+			int ind = 0;
+			float maxDenominator = Float.NEGATIVE_INFINITY;
+			for (String name : measurements) {
+				float denominator = mDenominator[ind];
+				if (denominator > maxDenominator)
+					maxDenominator = denominator;
+				String nameToAdd = prefix + name + postfix;
+				measurementList.put(nameToAdd, mWeighted[ind] / denominator);
+				ind++;
+			}
+			if (pathObject instanceof PathDetectionObject && denomName != null) {
+				measurementList.put(denomName, maxDenominator);
+			}
+			if (pathObject instanceof PathDetectionObject && countsName != null) {
+				measurementList.put(countsName, nearbyDetectionCounts[i]);
+			}
+			measurementList.close();
+		}
+	}
+
+}
@@ -0,0 +1,697 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BiPredicate;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * A compact, undirected graph connecting objects (usually cells).
+ * <p>
+ * Each node is identified by an integer index, which corresponds to the position of the object in
+ * {@link #getPathObjects()}. Edges are stored in primitive arrays using the compressed sparse row (CSR) format,
+ * optionally with a float weight for each edge (e.g. the distance between the objects).
+ * This makes it possible to work with graphs connecting millions of cells without creating objects for
+ * every edge.
+ * <p>
+ * The graph is immutable. Each edge is stored in both directions, and the neighbors of each node are sorted
+ * by weight (if available) and then by index.
+ *
+ * @since v0.5.0
+ */
+public class CellGraph {
+
+	private static final Logger logger = LoggerFactory.getLogger(CellGraph.class);
+
+	/**
+	 * Magic bytes at the start of a binary graph file.
+	 * @see #writeBinary(OutputStream)
+	 */
+	private static final byte[] MAGIC = "QPGRAPH\0".getBytes(StandardCharsets.US_ASCII);
+
+	private static final int BINARY_VERSION = 1;
+
+	private final List<PathObject> pathObjects;
+
+	// Neighbors of node i are neighbors[offsets[i]] to neighbors[offsets[i+1]-1]
+	private final int[] offsets;
+	private final int[] neighbors;
+	private final float[] weights;
+
+	private transient Map<PathObject, Integer> indices;
+
+	/**
+	 * Functional interface for filtering edges using node indices.
+	 */
+	@FunctionalInterface
+	public static interface EdgePredicate {
+
+		/**
+		 * Test whether an edge should be retained.
+		 * @param source index of the first node
+		 * @param target index of the second node
+		 * @param weight weight of the edge, or NaN if the graph does not have weights
+		 * @return true if the edge should be retained, false otherwise
+		 */
+		boolean test(int source, int target, float weight);
+
+	}
+
+	private CellGraph(List<PathObject> pathObjects, int[] offsets, int[] neighbors, float[] weights) {
+		this.pathObjects = pathObjects;
+		this.offsets = offsets;
+		this.neighbors = neighbors;
+		this.weights = weights;
+	}
+
+	/**
+	 * Create a graph from a list of edges.
+	 * Edges are undirected, and so need only be provided once. Duplicate edges are permitted; where weights
+	 * are provided, the smallest weight is retained. Edges connecting a node to itself are ignored.
+	 *
+	 * @param pathObjects the objects corresponding to each node
+	 * @param sources index of the first node of each edge
+	 * @param targets index of the second node of each edge
+	 * @param weights optional weight of each edge; may be null
+	 * @return the graph
+	 * @throws IllegalArgumentException if the array lengths differ, or an index is out of range
+	 */
+	public static CellGraph fromEdges(List<? extends PathObject> pathObjects, int[] sources, int[] targets, float[] weights) throws IllegalArgumentException {
+		if (sources.length != targets.length || (weights != null && weights.length != sources.length))
+			throw new IllegalArgumentException("Edge arrays must have the same length");
+		var nodes = List.<PathObject>copyOf(pathObjects);
+		int n = nodes.size();
+
+		// Add each edge in both directions
+		int[] offsets = new int[n + 1];
+		for (int i = 0; i < sources.length; i++) {
+			int source = sources[i];
+			int target = targets[i];
+			if (source < 0 || source >= n || target < 0 || target >= n)
+				throw new IllegalArgumentException("Edge " + source + "-" + target + " is out of range for " + n + " nodes");
+			if (source == target)
+				continue;
+			offsets[source + 1]++;
+			offsets[target + 1]++;
+		}
+		for (int i = 0; i < n; i++)
+			offsets[i + 1] += offsets[i];
+		int[] neighbors = new int[offsets[n]];
+		float[] entryWeights = weights == null ? null : new float[offsets[n]];
+		int[] positions = Arrays.copyOf(offsets, n);
+		for (int i = 0; i < sources.length; i++) {
+			int source = sources[i];
+			int target = targets[i];
+			if (source == target)
+				continue;
+			if (entryWeights != null) {
+				entryWeights[positions[source]] = weights[i];
+				entryWeights[positions[target]] = weights[i];
+			}
+			neighbors[positions[source]++] = target;
+			neighbors[positions[target]++] = source;
+		}
+		return compact(nodes, offsets, neighbors, entryWeights);
+	}
+
+	/**
+	 * Create a graph connecting all objects with centroids within a specified distance of one another.
+	 * Objects are only connected if their ROIs are on the same plane, and the edge weights give the distances
+	 * between centroids. Objects without a finite centroid are not connected to anything.
+	 *
+	 * @param pathObjects the objects corresponding to each node
+	 * @param radius the maximum distance between connected objects, inclusive
+	 * @param pixelWidth pixel width used to scale the x-coordinate of each centroid
+	 * @param pixelHeight pixel height used to scale the y-coordinate of each centroid
+	 * @param preferNucleus if true, use the nucleus ROI of cells (where available)
+	 * @return the graph
+	 */
+	public static CellGraph createRadiusGraph(List<? extends PathObject> pathObjects, double radius, double pixelWidth, double pixelHeight, boolean preferNucleus) {
+		var nodes = List.<PathObject>copyOf(pathObjects);
+		int n = nodes.size();
+		double[] x = new double[n];
+		double[] y = new double[n];
+		Map<ImagePlane, List<Integer>> planes = new LinkedHashMap<>();
+		for (int i = 0; i < n; i++) {
+			var roi = getROI(nodes.get(i), preferNucleus);
+			x[i] = roi.getCentroidX() * pixelWidth;
+			y[i] = roi.getCentroidY() * pixelHeight;
+			// Objects without a valid centroid have no neighbors
+			if (Double.isFinite(x[i]) && Double.isFinite(y[i]))
+				planes.computeIfAbsent(roi.getImagePlane(), p -> new ArrayList<>()).add(i);
+		}
+
+		int[] offsets = new int[n + 1];
+		int[] neighbors = null;
+		float[] weights = null;
+		for (int pass = 0; pass < 2; pass++) {
+			// Count the neighbors of each node in the first pass, then store them in the second
+			if (pass == 1) {
+				for (int i = 0; i < n; i++)
+					offsets[i + 1] += offsets[i];
+				neighbors = new int[offsets[n]];
+				weights = new float[offsets[n]];
+			}
+			for (var list : planes.values()) {
+				int[] inds = list.stream().mapToInt(Integer::intValue).toArray();
+				var tree = KdTree2D.build(
+						Arrays.stream(inds).mapToDouble(i -> x[i]).toArray(),
+						Arrays.stream(inds).mapToDouble(i -> y[i]).toArray());
+				if (pass == 0) {
+					IntStream.range(0, inds.length).parallel().forEach(k -> {
+						int i = inds[k];
+						// Exclude the object itself
+						offsets[i + 1] = tree.countWithinRadius(x[i], y[i], radius) - 1;
+					});
+				} else {
+					var finalNeighbors = neighbors;
+					var finalWeights = weights;
+					IntStream.range(0, inds.length).parallel().forEach(k -> {
+						int i = inds[k];
+						int[] position = {offsets[i]};
+						tree.forEachWithinRadius(x[i], y[i], radius, k2 -> {
+							int j = inds[k2];
+							if (j != i) {
+								finalNeighbors[position[0]] = j;
+								finalWeights[position[0]++] = (float)Math.hypot(x[i] - x[j], y[i] - y[j]);
+							}
+						});
+					});
+				}
+			}
+		}
+		return compact(nodes, offsets, neighbors, weights);
+	}
+
+	/**
+	 * Sort the neighbors of every node and remove duplicates, returning a new graph.
+	 */
+	private static CellGraph compact(List<PathObject> pathObjects, int[] offsets, int[] neighbors, float[] weights) {
+		int n = pathObjects.size();
+		int[] counts = new int[n];
+		IntStream.range(0, n).parallel().forEach(i -> {
+			counts[i] = sortNeighbors(neighbors, weights, offsets[i], offsets[i + 1]);
+		});
+
+		int[] finalOffsets = new int[n + 1];
+		for (int i = 0; i < n; i++)
+			finalOffsets[i + 1] = finalOffsets[i] + counts[i];
+		if (finalOffsets[n] == neighbors.length)
+			return new CellGraph(pathObjects, offsets, neighbors, weights);
+
+		int[] finalNeighbors = new int[finalOffsets[n]];
+		float[] finalWeights = weights == null ? null : new float[finalOffsets[n]];
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(neighbors, offsets[i], finalNeighbors, finalOffsets[i], counts[i]);
+			if (weights != null)
+				System.arraycopy(weights, offsets[i], finalWeights, finalOffsets[i], counts[i]);
+		}
+		return new CellGraph(pathObjects, finalOffsets, finalNeighbors, finalWeights);
+	}
+
+	/**
+	 * Sort the neighbors between start (inclusive) and end (exclusive) by weight and index, removing duplicates.
+	 * Where there are duplicates, the smallest weight is retained.
+	 * @return the number of unique neighbors, which are stored starting at start
+	 */
+	private static int sortNeighbors(int[] neighbors, float[] weights, int start, int end) {
+		int n = end - start;
+		if (n == 0)
+			return 0;
+		if (weights == null) {
+			Arrays.sort(neighbors, start, end);
+			int count = 1;
+			for (int i = start + 1; i < end; i++) {
+				if (neighbors[i] != neighbors[start + count - 1])
+					neighbors[start + count++] = neighbors[i];
+			}
+			return count;
+		}
+		// Sort by index and weight to remove duplicates, then by weight and index
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++)
+			keys[i] = ((long)neighbors[start + i] << 32) | ((toSortableBits(weights[start + i]) ^ 0x80000000) & 0xFFFFFFFFL);
+		Arrays.sort(keys);
+		int count = 0;
+		int lastInd = -1;
+		for (int i = 0; i < n; i++) {
+			int ind = (int)(keys[i] >>> 32);
+			if (ind == lastInd)
+				continue;
+			int bits = (int)keys[i] ^ 0x80000000;
+			keys[count++] = ((long)bits << 32) | ind;
+			lastInd = ind;
+		}
+		Arrays.sort(keys, 0, count);
+		for (int i = 0; i < count; i++) {
+			neighbors[start + i] = (int)keys[i];
+			weights[start + i] = fromSortableBits((int)(keys[i] >> 32));
+		}
+		return count;
+	}
+
+	/**
+	 * Convert a float to an int with the same ordering, so that negative weights are sorted correctly.
+	 */
+	private static int toSortableBits(float value) {
+		int bits = Float.floatToIntBits(value);
+		return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+	}
+
+	private static float fromSortableBits(int bits) {
+		return Float.intBitsToFloat(bits ^ ((bits >> 31) & 0x7FFFFFFF));
+	}
+
+	private static ROI getROI(PathObject pathObject, boolean preferNucleus) {
+		if (preferNucleus && pathObject instanceof PathCellObject cell) {
+			var roi = cell.getNucleusROI();
+			if (roi != null)
+				return roi;
+		}
+		return pathObject.getROI();
+	}
+
+	/**
+	 * Get the number of nodes in the graph.
+	 * @return
+	 */
+	public int nNodes() {
+		return pathObjects.size();
+	}
+
+	/**
+	 * Get the number of (undirected) edges in the graph.
+	 * @return
+	 */
+	public int nEdges() {
+		return neighbors.length / 2;
+	}
+
+	/**
+	 * Query whether the graph has edge weights.
+	 * @return
+	 */
+	public boolean hasWeights() {
+		return weights != null;
+	}
+
+	/**
+	 * Get an unmodifiable list of the objects corresponding to each node.
+	 * @return
+	 */
+	public List<PathObject> getPathObjects() {
+		return pathObjects;
+	}
+
+	/**
+	 * Get the object corresponding to a node.
+	 * @param node
+	 * @return
+	 */
+	public PathObject getPathObject(int node) {
+		return pathObjects.get(node);
+	}
+
+	/**
+	 * Get the index of the node corresponding to an object.
+	 * @param pathObject
+	 * @return the node index, or -1 if the object is not part of the graph
+	 */
+	public int indexOf(PathObject pathObject) {
+		if (indices == null) {
+			synchronized (this) {
+				if (indices == null) {
+					var map = new HashMap<PathObject, Integer>();
+					for (int i = 0; i < pathObjects.size(); i++)
+						map.put(pathObjects.get(i), i);
+					indices = map;
+				}
+			}
+		}
+		return indices.getOrDefault(pathObject, -1);
+	}
+
+	/**
+	 * Get the number of neighbors of a node.
+	 * @param node
+	 * @return
+	 */
+	public int degree(int node) {
+		return offsets[node + 1] - offsets[node];
+	}
+
+	/**
+	 * Get the index of a neighbor of a node.
+	 * @param node the node
+	 * @param i the neighbor, between 0 (inclusive) and {@link #degree(int)} (exclusive)
+	 * @return
+	 */
+	public int getNeighbor(int node, int i) {
+		Objects.checkIndex(i, degree(node));
+		return neighbors[offsets[node] + i];
+	}
+
+	/**
+	 * Get the weight of the edge connecting a node to one of its neighbors.
+	 * @param node the node
+	 * @param i the neighbor, between 0 (inclusive) and {@link #degree(int)} (exclusive)
+	 * @return the weight, or NaN if the graph does not have weights
+	 */
+	public float getWeight(int node, int i) {
+		Objects.checkIndex(i, degree(node));
+		return weights == null ? Float.NaN : weights[offsets[node] + i];
+	}
+
+	/**
+	 * Get the indices of all neighbors of a node.
+	 * @param node
+	 * @return a new array containing the neighbor indices
+	 */
+	public int[] getNeighbors(int node) {
+		return Arrays.copyOfRange(neighbors, offsets[node], offsets[node + 1]);
+	}
+
+	/**
+	 * Create a new graph containing only the edges that meet a predicate.
+	 * The predicate is called once for each edge, with the lower node index first, and may be called from multiple threads.
+	 * @param predicate
+	 * @return the filtered graph
+	 */
+	public CellGraph filterEdges(EdgePredicate predicate) {
+		int n = nNodes();
+		boolean[] keep = new boolean[neighbors.length];
+		IntStream.range(0, n).parallel().forEach(i -> {
+			for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+				int j = neighbors[e];
+				if (j > i)
+					keep[e] = predicate.test(i, j, weights == null ? Float.NaN : weights[e]);
+			}
+		});
+		int count = 0;
+		for (boolean k : keep) {
+			if (k)
+				count++;
+		}
+		int[] sources = new int[count];
+		int[] targets = new int[count];
+		float[] edgeWeights = weights == null ? null : new float[count];
+		int ind = 0;
+		for (int i = 0; i < n; i++) {
+			for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+				if (!keep[e])
+					continue;
+				sources[ind] = i;
+				targets[ind] = neighbors[e];
+				if (edgeWeights != null)
+					edgeWeights[ind] = weights[e];
+				ind++;
+			}
+		}
+		return fromEdges(pathObjects, sources, targets, edgeWeights);
+	}
+
+	/**
+	 * Create a new graph containing only the edges connecting objects that meet a predicate.
+	 * The predicate is called once for each edge, and may be called from multiple threads.
+	 * @param predicate
+	 * @return the filtered graph
+	 */
+	public CellGraph filterEdges(BiPredicate<? super PathObject, ? super PathObject> predicate) {
+		return filterEdges((i, j, w) -> predicate.test(pathObjects.get(i), pathObjects.get(j)));
+	}
+
+	/**
+	 * Get a label for the connected component of every node.
+	 * Components are found using a concurrent union-find, and labelled consecutively starting from 0 in
+	 * the order of the first node they contain.
+	 * @return an array with the label of each node
+	 */
+	public int[] getComponentLabels() {
+		int n = nNodes();
+		var parents = new AtomicIntegerArray(IntStream.range(0, n).toArray());
+		IntStream.range(0, n).parallel().forEach(i -> {
+			for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+				int j = neighbors[e];
+				if (j > i)
+					union(parents, i, j);
+			}
+		});
+		int[] roots = new int[n];
+		IntStream.range(0, n).parallel().forEach(i -> roots[i] = find(parents, i));
+
+		int[] rootLabels = new int[n];
+		Arrays.fill(rootLabels, -1);
+		int[] labels = new int[n];
+		int nLabels = 0;
+		for (int i = 0; i < n; i++) {
+			int root = roots[i];
+			if (rootLabels[root] < 0)
+				rootLabels[root] = nLabels++;
+			labels[i] = rootLabels[root];
+		}
+		logger.debug("Found {} connected components for {} nodes", nLabels, n);
+		return labels;
+	}
+
+	/**
+	 * Get the connected components of the graph.
+	 * @return a list of components, each of which is a list of connected objects
+	 * @see #getComponentLabels()
+	 */
+	public List<List<PathObject>> getConnectedComponents() {
+		int[] labels = getComponentLabels();
+		var components = new ArrayList<List<PathObject>>();
+		for (int i = 0; i < labels.length; i++) {
+			if (labels[i] == components.size())
+				components.add(new ArrayList<>());
+			components.get(labels[i]).add(pathObjects.get(i));
+		}
+		return components;
+	}
+
+	/**
+	 * Find the root of a node, halving the path as we go.
+	 * Parents always have a lower index than their children, which ensures there are no cycles.
+	 */
+	private static int find(AtomicIntegerArray parents, int i) {
+		while (true) {
+			int parent = parents.get(i);
+			if (parent == i)
+				return i;
+			int grandparent = parents.get(parent);
+			if (parent != grandparent)
+				parents.compareAndSet(i, parent, grandparent);
+			i = grandparent;
+		}
+	}
+
+	private static void union(AtomicIntegerArray parents, int a, int b) {
+		while (true) {
+			a = find(parents, a);
+			b = find(parents, b);
+			if (a == b)
+				return;
+			// Link the root with the higher index to the root with the lower index
+			if (a < b) {
+				int temp = a;
+				a = b;
+				b = temp;
+			}
+			if (parents.compareAndSet(a, a, b))
+				return;
+		}
+	}
+
+	/**
+	 * Smooth values by computing a weighted mean of the value of each node and its neighbors.
+	 * <p>
+	 * The value of each node itself has a weight of 1, while the weight of each neighbor is determined
+	 * by applying a function to the edge weight (e.g. to convert a distance to a Gaussian weight).
+	 * NaN values are ignored, except that the result is always NaN if the value of the node itself is NaN.
+	 *
+	 * @param values array of values to smooth, where {@code values[m][i]} gives measurement m for node i
+	 * @param weightFunction function to convert edge weights into smoothing weights;
+	 *                       the input is NaN if the graph does not have weights
+	 * @return the smoothed values, in an array of the same dimensions as the input
+	 * @throws IllegalArgumentException if the length of any values array differs from the number of nodes
+	 */
+	public double[][] smooth(double[][] values, DoubleUnaryOperator weightFunction) throws IllegalArgumentException {
+		int n = nNodes();
+		for (var v : values) {
+			if (v.length != n)
+				throw new IllegalArgumentException("Expected " + n + " values, but found " + v.length);
+		}
+		// Compute the smoothing weight for each edge only once
+		double[] smoothingWeights = new double[neighbors.length];
+		IntStream.range(0, neighbors.length).parallel().forEach(e -> {
+			smoothingWeights[e] = weightFunction.applyAsDouble(weights == null ? Double.NaN : weights[e]);
+		});
+		double[][] output = new double[values.length][n];
+		IntStream.range(0, n).parallel().forEach(i -> {
+			for (int m = 0; m < values.length; m++) {
+				double[] v = values[m];
+				double sum = v[i];
+				if (Double.isNaN(sum)) {
+					output[m][i] = Double.NaN;
+					continue;
+				}
+				double denominator = 1;
+				for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+					double val = v[neighbors[e]];
+					if (Double.isNaN(val))
+						continue;
+					double w = smoothingWeights[e];
+					sum += val * w;
+					denominator += w;
+				}
+				output[m][i] = sum / denominator;
+			}
+		});
+		return output;
+	}
+
+	/**
+	 * Write the graph to a binary file, for use with other software.
+	 * @param path
+	 * @throws IOException
+	 * @see #writeBinary(OutputStream)
+	 */
+	public void writeBinary(Path path) throws IOException {
+		try (var stream = new BufferedOutputStream(Files.newOutputStream(path))) {
+			writeBinary(stream);
+		}
+	}
+
+	/**
+	 * Write the graph to an output stream in a simple binary format, for use with other software.
+	 * <p>
+	 * All values are little-endian, so that arrays can be read directly (e.g. with NumPy). The format is:
+	 * <ol>
+	 *   <li>the 8 bytes {@code QPGRAPH\0}</li>
+	 *   <li>the format version (int32, currently 1)</li>
+	 *   <li>the number of nodes {@code n} (int32)</li>
+	 *   <li>the number of neighbor entries {@code m} (int32), which is twice the number of edges</li>
+	 *   <li>flags (int32), which are 1 if the graph has weights and 0 otherwise</li>
+	 *   <li>the ID of the object for each node, as pairs of int64 values giving the most and least significant bits</li>
+	 *   <li>the CSR offsets ({@code n+1} int32 values)</li>
+	 *   <li>the CSR neighbor indices ({@code m} int32 values)</li>
+	 *   <li>the edge weights for each neighbor entry ({@code m} float32 values), if the graph has weights</li>
+	 * </ol>
+	 * The stream is not closed.
+	 * @param stream
+	 * @throws IOException
+	 */
+	public void writeBinary(OutputStream stream) throws IOException {
+		var writer = new BinaryWriter(stream);
+		writer.put(MAGIC);
+		writer.putInt(BINARY_VERSION);
+		writer.putInt(nNodes());
+		writer.putInt(neighbors.length);
+		writer.putInt(weights == null ? 0 : 1);
+		for (var pathObject : pathObjects) {
+			var id = pathObject.getID();
+			writer.putLong(id.getMostSignificantBits());
+			writer.putLong(id.getLeastSignificantBits());
+		}
+		for (int v : offsets)
+			writer.putInt(v);
+		for (int v : neighbors)
+			writer.putInt(v);
+		if (weights != null) {
+			for (float v : weights)
+				writer.putFloat(v);
+		}
+		writer.flush();
+	}
+
+
+	/**
+	 * Helper to write little-endian values through a buffer.
+	 */
+	private static class BinaryWriter {
+
+		private final OutputStream stream;
+		private final ByteBuffer buffer = ByteBuffer.allocate(65_536).order(ByteOrder.LITTLE_ENDIAN);
+
+		private BinaryWriter(OutputStream stream) {
+			this.stream = stream;
+		}
+
+		void put(byte[] bytes) throws IOException {
+			ensureRemaining(bytes.length);
+			buffer.put(bytes);
+		}
+
+		void putInt(int value) throws IOException {
+			ensureRemaining(Integer.BYTES);
+			buffer.putInt(value);
+		}
+
+		void putLong(long value) throws IOException {
+			ensureRemaining(Long.BYTES);
+			buffer.putLong(value);
+		}
+
+		void putFloat(float value) throws IOException {
+			ensureRemaining(Float.BYTES);
+			buffer.putFloat(value);
+		}
+
+		private void ensureRemaining(int n) throws IOException {
+			if (buffer.remaining() < n)
+				flush();
+		}
+
+		void flush() throws IOException {
+			stream.write(buffer.array(), 0, buffer.position());
+			buffer.clear();
+			stream.flush();
+		}
+
+	}
+
+}
@@ -0,0 +1,152 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.classes.PathClassTools;
+
+/**
+ * Helper class to assign integer labels to classifications, so that statistics for all classifications
+ * can be computed in a single pass.
+ * <p>
+ * Labels are assigned to each valid, not-ignored classification. If names are split, a label is assigned
+ * to each component of the classification name instead, and an object may then have multiple labels
+ * (e.g. an object classified as "CD3: CD8" has the labels for both "CD3" and "CD8").
+ */
+class ClassificationLabels {
+
+	private final List<String> names;
+	private final Map<PathClass, int[]> labelMap = new HashMap<>();
+
+	private ClassificationLabels(Collection<? extends PathObject> pathObjects, boolean splitClassNames) {
+		var pathClasses = pathObjects.stream()
+				.map(p -> p.getPathClass())
+				.filter(p -> p != null && p.isValid() && !PathClassTools.isIgnoredClass(p))
+				.collect(Collectors.toCollection(LinkedHashSet::new));
+
+		Map<String, Integer> labels = new LinkedHashMap<>();
+		for (PathClass pathClass : pathClasses) {
+			if (splitClassNames) {
+				for (var name : PathClassTools.splitNames(pathClass))
+					labels.putIfAbsent(name, labels.size());
+			} else
+				labels.putIfAbsent(pathClass.toString(), labels.size());
+		}
+		names = new ArrayList<>(labels.keySet());
+
+		for (var pathObject : pathObjects) {
+			var pathClass = pathObject.getPathClass();
+			if (pathClass == null || labelMap.containsKey(pathClass))
+				continue;
+			int[] classLabels;
+			if (splitClassNames) {
+				// Use all name components, even if the full classification is ignored
+				classLabels = PathClassTools.splitNames(pathClass).stream()
+						.map(labels::get)
+						.filter(Objects::nonNull)
+						.mapToInt(Integer::intValue)
+						.distinct()
+						.toArray();
+			} else if (pathClasses.contains(pathClass)) {
+				classLabels = new int[] {labels.get(pathClass.toString())};
+			} else
+				classLabels = new int[0];
+			labelMap.put(pathClass, classLabels);
+		}
+	}
+
+	/**
+	 * Create labels for the classifications of the specified objects.
+	 * @param pathObjects
+	 * @param splitClassNames if true, assign labels to each component of a classification name
+	 * @return
+	 */
+	static ClassificationLabels create(Collection<? extends PathObject> pathObjects, boolean splitClassNames) {
+		return new ClassificationLabels(pathObjects, splitClassNames);
+	}
+
+	/**
+	 * Get the number of labels.
+	 * @return
+	 */
+	int size() {
+		return names.size();
+	}
+
+	/**
+	 * Get the name associated with a label, i.e. the classification or name component.
+	 * @param label
+	 * @return
+	 */
+	String getName(int label) {
+		return names.get(label);
+	}
+
+	/**
+	 * Get the labels for an object.
+	 * @param pathObject
+	 * @return the labels, or an empty array if the object has no labels
+	 */
+	int[] getLabels(PathObject pathObject) {
+		var labels = labelMap.get(pathObject.getPathClass());
+		return labels == null ? new int[0] : labels;
+	}
+
+	/**
+	 * Create a tree containing each point once for every label of the corresponding object.
+	 * @param pathObjects the objects
+	 * @param x x-coordinates for the objects
+	 * @param y y-coordinates for the objects
+	 * @return a labelled tree, which may be empty if no objects have labels
+	 */
+	KdTree2D createLabelledTree(List<? extends PathObject> pathObjects, double[] x, double[] y) {
+		int n = pathObjects.size();
+		int nPoints = 0;
+		for (var pathObject : pathObjects)
+			nPoints += getLabels(pathObject).length;
+		double[] labelledX = new double[nPoints];
+		double[] labelledY = new double[nPoints];
+		int[] labels = new int[nPoints];
+		int ind = 0;
+		for (int i = 0; i < n; i++) {
+			for (int label : getLabels(pathObjects.get(i))) {
+				labelledX[ind] = x[i];
+				labelledY[ind] = y[i];
+				labels[ind] = label;
+				ind++;
+			}
+		}
+		return KdTree2D.build(labelledX, labelledY, labels);
+	}
+
+}
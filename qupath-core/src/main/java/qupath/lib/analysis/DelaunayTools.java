@@ -21,21 +21,26 @@
 
 package qupath.lib.analysis;
 
-import java.util.ArrayDeque;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Set;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.locationtech.jts.densify.Densifier;
 import org.locationtech.jts.geom.Coordinate;
@@ -202,6 +207,9 @@ public class DelaunayTools {
 		
 		private double erosion = 1.0;
 		
+		private double tileSize = Double.NaN;
+		private double tileOverlap = Double.NaN;
+		
 		private ImagePlane plane = ImagePlane.getDefaultPlane();
 		private Collection<PathObject> pathObjects = new ArrayList<>();
 		
@@ -286,6 +294,29 @@ public class DelaunayTools {
 			return this;
 		}
 		
+		/**
+		 * Specify that the triangulation should be computed within overlapping square tiles, which are processed in parallel.
+		 * This can greatly reduce the time and memory required for large numbers of objects, e.g. all the cells in a whole slide image.
+		 * <p>
+		 * Each connection between neighbors is taken from the tile containing its midpoint.
+		 * The result matches a triangulation of all objects at once, provided that the overlap is larger than any gap between 
+		 * neighboring objects; connections across larger gaps (e.g. around the outside of a tissue section) may differ.
+		 * 
+		 * @param tileSize the width and height of each tile, in calibrated units (i.e. the same units as the coordinates)
+		 * @param overlap the distance by which tiles should be expanded to include objects from neighboring tiles, in calibrated units
+		 * @return this builder
+		 * @since v0.5.0
+		 */
+		public Builder tiled(double tileSize, double overlap) {
+			if (!(tileSize > 0) || !Double.isFinite(tileSize))
+				throw new IllegalArgumentException("Tile size must be > 0, but was " + tileSize);
+			if (!(overlap >= 0) || !Double.isFinite(overlap))
+				throw new IllegalArgumentException("Tile overlap must be >= 0, but was " + overlap);
+			this.tileSize = tileSize;
+			this.tileOverlap = overlap;
+			return this;
+		}
+		
 		/**
 		 * Build the {@link Subdivision} with the current parameters.
 		 * @return
@@ -320,6 +351,13 @@ public class DelaunayTools {
 			}
 			
 			double tolerance = cal.getAveragedPixelSize().doubleValue() / 1000.0;
+			if (tileSize > 0 && !coords.isEmpty()) {
+				var tiles = new TileGrid(DelaunayTriangulationBuilder.envelope(coords.keySet()), tileSize, tileOverlap);
+				if (tiles.nTiles() > 1) {
+					logger.debug("Creating subdivision with {} tiles", tiles.nTiles());
+					return new Subdivision(tiles, tolerance, pathObjects, coords, plane);
+				}
+			}
 			return new Subdivision(createSubdivision(coords.keySet(), tolerance), pathObjects, coords, plane);
 		}
 		
@@ -419,7 +457,10 @@ public class DelaunayTools {
 	
 	
 	private static QuadEdgeSubdivision createSubdivision(Collection<Coordinate> coords, double tolerance) {
-		var envelope = DelaunayTriangulationBuilder.envelope(coords);
+		return createSubdivision(coords, DelaunayTriangulationBuilder.envelope(coords), tolerance);
+	}
+	
+	private static QuadEdgeSubdivision createSubdivision(Collection<Coordinate> coords, Envelope envelope, double tolerance) {
 		var subdiv = new QuadEdgeSubdivision(envelope, tolerance);
 		var triangulator = new IncrementalDelaunayTriangulator(subdiv);
 		subdiv.setLocator(getDefaultLocator(subdiv));
@@ -588,6 +629,8 @@ public class DelaunayTools {
 	
 	/**
 	 * Helper class for extracting information from a Delaunay triangulation computed from {@linkplain PathObject PathObjects}.
+	 * <p>
+	 * Neighbors are stored in a {@link CellGraph}, and the lists and maps returned by this class are views of the graph.
 	 */
 	public static class Subdivision {
 		
@@ -595,11 +638,20 @@ public class DelaunayTools {
 		
 		private Set<PathObject> pathObjects = new LinkedHashSet<>();
 		private Map<Coordinate, PathObject> coordinateMap = new HashMap<>();
-		private Map<PathObject, List<Coordinate>> objectCoordinateMap = new HashMap<>();
 		private QuadEdgeSubdivision subdivision;
 		
+		// Used instead of a single subdivision when triangulating in tiles
+		private TileGrid tiles;
+		private double tolerance;
+		
 		private ImagePlane plane;
 		
+		private PathObject[] objectArray;
+		private Map<PathObject, Integer> objectIndices;
+		
+		// Neighbors of each object, with edges weighted by distance
+		private transient CellGraph graph;
+		
 		private transient Map<PathObject, List<PathObject>> neighbors;
 		private transient Map<PathObject, Geometry> voronoiFaces;
 		
@@ -611,6 +663,18 @@ public class DelaunayTools {
 			this.coordinateMap.putAll(coordinateMap);
 			this.pathObjects = Collections.unmodifiableSet(this.pathObjects);
 			this.coordinateMap = Collections.unmodifiableMap(this.coordinateMap);
+			this.objectArray = this.pathObjects.toArray(PathObject[]::new);
+			this.objectIndices = new HashMap<>();
+			for (int i = 0; i < objectArray.length; i++)
+				objectIndices.put(objectArray[i], i);
+		}
+		
+		private Subdivision(TileGrid tiles, double tolerance, Collection<PathObject> pathObjects, Map<Coordinate, PathObject> coordinateMap, ImagePlane plane) {
+			this((QuadEdgeSubdivision)null, pathObjects, coordinateMap, plane);
+			this.tiles = tiles;
+			this.tolerance = tolerance;
+			// Neighbors are calculated immediately, since this is the main work of triangulation
+			getAllNeighbors();
 		}
 		
 		/**
@@ -744,62 +808,175 @@ public class DelaunayTools {
 		public Map<PathObject, List<PathObject>> getAllNeighbors() {
 			if (neighbors == null) {
 				synchronized (this) {
-					if (neighbors == null)
-						neighbors = Collections.unmodifiableMap(calculateAllNeighbors());
+					if (neighbors == null) {
+						var edges = tiles == null ? calculateAllEdges() : calculateAllEdgesTiled();
+						graph = edges.toGraph(Arrays.asList(objectArray));
+						neighbors = new NeighborMap();
+					}
 				}
 			}
 			return neighbors;
 		}
 		
 		
-		
-		private synchronized Map<PathObject, List<PathObject>> calculateAllNeighbors() {
+		private EdgeBuffer calculateAllEdges() {
 			
 			logger.debug("Calculating all neighbors for {} objects", getPathObjects().size());
 			
 			@SuppressWarnings("unchecked")
 			var edges = (List<QuadEdge>)subdivision.getVertexUniqueEdges(false);
-			Map<PathObject, List<PathObject>> map = new HashMap<>();
-			var distanceMap = new HashMap<PathObject, Double>();
+			var buffer = new EdgeBuffer();
 			
 			int missing = 0;
 			for (var edge : edges) {
 				var origin = edge.orig();
-				distanceMap.clear();
 				
-				var pathObject = getPathObject(origin);
-				if (pathObject == null) {
-					logger.warn("No object found for {}", pathObject);
+				int ind = getObjectIndex(origin.getCoordinate());
+				if (ind < 0) {
+					logger.warn("No object found for {}", origin);
 					continue;
 				}
 				
-				var list = new ArrayList<PathObject>();
 				var next = edge;
 				do {
-					var dest = next.dest();
-					var destObject = getPathObject(dest);
-					if (destObject == pathObject) {
+					int destInd = getObjectIndex(next.dest().getCoordinate());
+					if (destInd == ind) {
 						continue;
-					} else if (destObject == null) {
+					} else if (destInd < 0) {
 						missing++;
 					} else {
-						distanceMap.put(destObject, next.getLength());
-						list.add(destObject);
+						buffer.add(ind, destInd, next.getLength());
 					}
 				} while ((next = next.oNext()) != edge);
-				Collections.sort(list, Comparator.comparingDouble(p -> distanceMap.get(p)));
-				
-				map.put(pathObject, Collections.unmodifiableList(list));
 			}
 			if (missing > 0)
 				logger.debug("Number of missing neighbors: {}", missing);
-			return map;
+			return buffer;
+		}
+		
+		
+		/**
+		 * Triangulate overlapping tiles in parallel, retaining the edges with midpoints inside the core of each tile.
+		 */
+		private EdgeBuffer calculateAllEdgesTiled() {
+			
+			logger.debug("Calculating all neighbors for {} objects in {} tiles", getPathObjects().size(), tiles.nTiles());
+			
+			var coords = coordinateMap.keySet().toArray(Coordinate[]::new);
+			var tileCoords = tiles.groupCoordinates(coords);
+			var tileEdges = IntStream.range(0, tiles.nTiles())
+					.parallel()
+					.mapToObj(t -> calculateTileEdges(t, coords, tileCoords[t]))
+					.toList();
+			
+			var buffer = new EdgeBuffer();
+			int nLong = 0;
+			for (var edges : tileEdges) {
+				buffer.addAll(edges);
+				for (int i = 0; i < edges.size(); i++) {
+					if (edges.distance(i) > tiles.overlap)
+						nLong++;
+				}
+			}
+			if (nLong > 0)
+				logger.debug("{} edges are longer than the tile overlap, and may differ from a triangulation without tiles", nLong);
+			return buffer;
+		}
+		
+		private EdgeBuffer calculateTileEdges(int tile, Coordinate[] coords, int[] inds) {
+			var edges = new EdgeBuffer();
+			if (inds.length < 2)
+				return edges;
+			var subdiv = createSubdivision(Arrays.stream(inds).mapToObj(i -> coords[i]).toList(), tiles.getEnvelope(tile), tolerance);
+			@SuppressWarnings("unchecked")
+			var primaryEdges = (List<QuadEdge>)subdiv.getPrimaryEdges(false);
+			for (var edge : primaryEdges) {
+				var c1 = edge.orig().getCoordinate();
+				var c2 = edge.dest().getCoordinate();
+				if (tiles.tileIndex((c1.x + c2.x) / 2.0, (c1.y + c2.y) / 2.0) != tile)
+					continue;
+				int ind1 = getObjectIndex(c1);
+				int ind2 = getObjectIndex(c2);
+				if (ind1 >= 0 && ind2 >= 0 && ind1 != ind2)
+					edges.add(ind1, ind2, edge.getLength());
+			}
+			return edges;
 		}
 		
+		private int getObjectIndex(Coordinate coord) {
+			var pathObject = coordinateMap.get(coord);
+			if (pathObject == null)
+				return -1;
+			return objectIndices.getOrDefault(pathObject, -1);
+		}
 		
+		private List<PathObject> getNeighborList(int ind) {
+			return new NeighborList(ind);
+		}
+		
+		/**
+		 * Unmodifiable list view of the neighbors for a single object.
+		 */
+		private class NeighborList extends AbstractList<PathObject> implements RandomAccess {
+			
+			private final int node;
+			
+			private NeighborList(int node) {
+				this.node = node;
+			}
+
+			@Override
+			public PathObject get(int index) {
+				return objectArray[graph.getNeighbor(node, index)];
+			}
+
+			@Override
+			public int size() {
+				return graph.degree(node);
+			}
+			
+		}
 		
-		private PathObject getPathObject(Vertex vertex) {
-			return coordinateMap.get(vertex.getCoordinate());
+		/**
+		 * Unmodifiable map view of the neighbors for all objects.
+		 */
+		private class NeighborMap extends AbstractMap<PathObject, List<PathObject>> {
+			
+			@Override
+			public List<PathObject> get(Object key) {
+				var ind = objectIndices.get(key);
+				return ind == null ? null : getNeighborList(ind);
+			}
+			
+			@Override
+			public boolean containsKey(Object key) {
+				return objectIndices.containsKey(key);
+			}
+			
+			@Override
+			public int size() {
+				return objectArray.length;
+			}
+
+			@Override
+			public Set<Entry<PathObject, List<PathObject>>> entrySet() {
+				return new AbstractSet<>() {
+
+					@Override
+					public Iterator<Entry<PathObject, List<PathObject>>> iterator() {
+						return IntStream.range(0, objectArray.length)
+								.mapToObj(i -> (Entry<PathObject, List<PathObject>>)new SimpleImmutableEntry<>(objectArray[i], getNeighborList(i)))
+								.iterator();
+					}
+
+					@Override
+					public int size() {
+						return objectArray.length;
+					}
+					
+				};
+			}
+			
 		}
 		
 		
@@ -813,8 +990,7 @@ public class DelaunayTools {
 			
 			// We use a new GeometryFactory because we need floating point precision (it seems) to avoid 
 			// invalid polygons being returned
-			@SuppressWarnings("unchecked")
-			var polygons = (List<Polygon>)subdivision.getVoronoiCellPolygons(new GeometryFactory());
+			var polygons = calculateVoronoiCellPolygons(new GeometryFactory());
 			
 			// Create a spatial cache
 			var map = new HashMap<PathObject, Geometry>();
@@ -893,9 +1069,8 @@ public class DelaunayTools {
 
 			logger.debug("Calculating Voronoi faces for {} objects", getPathObjects().size());
 
-			@SuppressWarnings("unchecked")
-			var polygons = (List<Polygon>)subdivision.getVoronoiCellPolygons(GeometryTools.getDefaultFactory());
-//			var polygons = (List<Polygon>)subdivision.getVoronoiCellPolygons(new GeometryFactory());
+			var polygons = calculateVoronoiCellPolygons(GeometryTools.getDefaultFactory());
+//			var polygons = calculateVoronoiCellPolygons(new GeometryFactory());
 			
 			var map = new HashMap<PathObject, Geometry>();
 			var mapToMerge = new HashMap<PathObject, List<Geometry>>();
@@ -950,6 +1125,36 @@ public class DelaunayTools {
 			return map;
 		}
 		
+		/**
+		 * Get the Voronoi cell polygons for all coordinates, with the coordinate stored as user data.
+		 * When using tiles, these are computed for each tile in parallel, using the tile containing the coordinate.
+		 */
+		@SuppressWarnings("unchecked")
+		private List<Polygon> calculateVoronoiCellPolygons(GeometryFactory factory) {
+			if (tiles == null)
+				return (List<Polygon>)subdivision.getVoronoiCellPolygons(factory);
+			
+			var coords = coordinateMap.keySet().toArray(Coordinate[]::new);
+			var tileCoords = tiles.groupCoordinates(coords);
+			return IntStream.range(0, tiles.nTiles())
+					.parallel()
+					.mapToObj(t -> {
+						var inds = tileCoords[t];
+						if (inds.length == 0)
+							return Collections.<Polygon>emptyList();
+						var subdiv = createSubdivision(Arrays.stream(inds).mapToObj(i -> coords[i]).toList(), tiles.getEnvelope(t), tolerance);
+						return ((List<Polygon>)subdiv.getVoronoiCellPolygons(factory))
+								.stream()
+								.filter(p -> {
+									var c = (Coordinate)p.getUserData();
+									return c != null && tiles.tileIndex(c.x, c.y) == t;
+								})
+								.toList();
+					})
+					.flatMap(List::stream)
+					.toList();
+		}
+		
 		private List<PathObject> filterByPredicate(PathObject pathObject, List<? extends PathObject> list, BiPredicate<PathObject, PathObject> predicate) {
 			return list.stream()
 					.filter(p -> predicate.test(pathObject, p))
@@ -958,39 +1163,181 @@ public class DelaunayTools {
 		
 		/**
 		 * Get clusters of connected objects, where connections are made between neighboring objects that meet the specified predicate.
-		 * @param predicate predicate used to determine if two otherwise neighboring objects are considered connected
+		 * The predicate is tested once for each pair of neighbors on the calling thread, with the object that comes 
+		 * first in {@link #getPathObjects()} as the first argument; it does not need to be thread-safe.
+		 * @param predicate predicate used to determine if two otherwise neighboring objects are considered connected;
+		 *                  may be null to connect all neighbors
 		 * @return a list of clusters, where each cluster is a collection of connected objects
 		 */
 		public List<Collection<PathObject>> getClusters(BiPredicate<PathObject, PathObject> predicate) {
-			var alreadyClustered = new HashSet<PathObject>();
-			var output = new ArrayList<Collection<PathObject>>();
-			var neighbors = getFilteredNeighbors(predicate);
-			for (var pathObject : getPathObjects()) {
-				if (!alreadyClustered.contains(pathObject)) {
-					var cluster = buildCluster(pathObject, neighbors, alreadyClustered);
-					output.add(cluster);
+			var clusterGraph = getGraph();
+			if (predicate != null) {
+				// Test the predicate sequentially, rather than using CellGraph.filterEdges (which is parallelized)
+				var edges = new EdgeBuffer();
+				for (int i = 0; i < clusterGraph.nNodes(); i++) {
+					var pathObject = clusterGraph.getPathObject(i);
+					for (int k = 0; k < clusterGraph.degree(i); k++) {
+						int j = clusterGraph.getNeighbor(i, k);
+						if (j > i && predicate.test(pathObject, clusterGraph.getPathObject(j)))
+							edges.add(i, j, clusterGraph.getWeight(i, k));
+					}
 				}
+				clusterGraph = edges.toGraph(clusterGraph.getPathObjects());
 			}
-			return output;
+			return new ArrayList<>(clusterGraph.getConnectedComponents());
 		}
 		
-		private Collection<PathObject> buildCluster(PathObject parent, Map<PathObject, List<PathObject>> neighbors, Collection<PathObject> alreadyClustered) {
-			var cluster = new ArrayList<PathObject>();
-			var deque = new ArrayDeque<PathObject>();
-			deque.add(parent);
-			while (!deque.isEmpty()) {
-				var pathObject = deque.pop();
-				if (!alreadyClustered.add(pathObject))
-					continue;
-				
-				cluster.add(pathObject);
-				
-				for (var neighbor : neighbors.get(pathObject)) {
-					if (!alreadyClustered.contains(neighbor))
-						deque.add(neighbor);
+		/**
+		 * Get a graph connecting all neighbors, where each edge is weighted by the distance between the 
+		 * closest vertices of the connected objects.
+		 * The nodes of the graph are in the same order as {@link #getPathObjects()}.
+		 * @return
+		 * @since v0.5.0
+		 */
+		public CellGraph getGraph() {
+			getAllNeighbors();
+			return graph;
+		}
+		
+	}
+	
+	
+	/**
+	 * A growable list of weighted edges between objects, identified by their indices.
+	 */
+	private static class EdgeBuffer {
+		
+		private int size = 0;
+		private int[] sources = new int[16];
+		private int[] targets = new int[16];
+		private double[] distances = new double[16];
+		
+		void add(int source, int target, double distance) {
+			ensureCapacity(size + 1);
+			sources[size] = source;
+			targets[size] = target;
+			distances[size] = distance;
+			size++;
+		}
+		
+		void addAll(EdgeBuffer edges) {
+			ensureCapacity(size + edges.size);
+			System.arraycopy(edges.sources, 0, sources, size, edges.size);
+			System.arraycopy(edges.targets, 0, targets, size, edges.size);
+			System.arraycopy(edges.distances, 0, distances, size, edges.size);
+			size += edges.size;
+		}
+		
+		private void ensureCapacity(int capacity) {
+			if (capacity <= sources.length)
+				return;
+			int newCapacity = Math.max(capacity, sources.length * 2);
+			sources = Arrays.copyOf(sources, newCapacity);
+			targets = Arrays.copyOf(targets, newCapacity);
+			distances = Arrays.copyOf(distances, newCapacity);
+		}
+		
+		int size() {
+			return size;
+		}
+		
+		int source(int i) {
+			return sources[i];
+		}
+		
+		int target(int i) {
+			return targets[i];
+		}
+		
+		double distance(int i) {
+			return distances[i];
+		}
+		
+		/**
+		 * Create a graph from the edges, weighted by distance.
+		 */
+		CellGraph toGraph(List<PathObject> pathObjects) {
+			float[] weights = new float[size];
+			for (int i = 0; i < size; i++)
+				weights[i] = (float)distances[i];
+			return CellGraph.fromEdges(pathObjects, Arrays.copyOf(sources, size), Arrays.copyOf(targets, size), weights);
+		}
+		
+	}
+	
+	
+	/**
+	 * A regular grid of square tiles, each of which is expanded by an overlap when triangulating.
+	 */
+	private static class TileGrid {
+		
+		private final double minX, minY;
+		private final double tileSize;
+		private final double overlap;
+		private final int nx, ny;
+		
+		private TileGrid(Envelope envelope, double tileSize, double overlap) {
+			this.minX = envelope.getMinX();
+			this.minY = envelope.getMinY();
+			this.tileSize = tileSize;
+			this.overlap = overlap;
+			this.nx = (int)Math.max(1, Math.ceil(envelope.getWidth() / tileSize));
+			this.ny = (int)Math.max(1, Math.ceil(envelope.getHeight() / tileSize));
+		}
+		
+		int nTiles() {
+			return nx * ny;
+		}
+		
+		private int tileX(double x) {
+			return (int)Math.max(0, Math.min(nx - 1, Math.floor((x - minX) / tileSize)));
+		}
+		
+		private int tileY(double y) {
+			return (int)Math.max(0, Math.min(ny - 1, Math.floor((y - minY) / tileSize)));
+		}
+		
+		/**
+		 * Get the index of the tile whose core contains the specified location.
+		 */
+		int tileIndex(double x, double y) {
+			return tileY(y) * nx + tileX(x);
+		}
+		
+		/**
+		 * Get the envelope of a tile, including the overlap.
+		 */
+		Envelope getEnvelope(int tile) {
+			double x = minX + (tile % nx) * tileSize;
+			double y = minY + (tile / nx) * tileSize;
+			return new Envelope(x - overlap, x + tileSize + overlap, y - overlap, y + tileSize + overlap);
+		}
+		
+		/**
+		 * Get the indices of the coordinates within each tile, including the overlap.
+		 */
+		int[][] groupCoordinates(Coordinate[] coords) {
+			int[] counts = new int[nTiles()];
+			for (var c : coords) {
+				for (int ty = tileY(c.y - overlap); ty <= tileY(c.y + overlap); ty++) {
+					for (int tx = tileX(c.x - overlap); tx <= tileX(c.x + overlap); tx++)
+						counts[ty * nx + tx]++;
+				}
+			}
+			int[][] groups = new int[nTiles()][];
+			for (int t = 0; t < groups.length; t++)
+				groups[t] = new int[counts[t]];
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < coords.length; i++) {
+				var c = coords[i];
+				for (int ty = tileY(c.y - overlap); ty <= tileY(c.y + overlap); ty++) {
+					for (int tx = tileX(c.x - overlap); tx <= tileX(c.x + overlap); tx++) {
+						int t = ty * nx + tx;
+						groups[t][counts[t]++] = i;
+					}
 				}
 			}
-			return cluster;
+			return groups;
 		}
 		
 	}
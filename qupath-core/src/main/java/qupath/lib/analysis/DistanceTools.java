@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.locationtech.jts.algorithm.distance.DistanceToPoint;
 import org.locationtech.jts.algorithm.distance.PointPairDistance;
@@ -168,11 +169,6 @@ public class DistanceTools {
 		if (hierarchy.getTMAGrid() != null)
 			logger.warn("Detection centroid distances command currently ignores TMA grid information!");
 		
-		var pathClasses = detections.stream()
-				.map(p -> p.getPathClass())
-				.filter(p -> p != null && p.isValid() && !PathClassTools.isIgnoredClass(p))
-				.collect(Collectors.toSet());
-		
 		var cal = server.getPixelCalibration();
 		String xUnit = cal.getPixelWidthUnit();
 		String yUnit = cal.getPixelHeightUnit();
@@ -182,25 +178,22 @@ public class DistanceTools {
 			throw new IllegalArgumentException("Pixel width & height units do not match! Width " + xUnit + ", height " + yUnit);
 		String unit = xUnit;
 		
-		for (PathClass pathClass : pathClasses) {
-			if (splitClassNames) {
-				var names = PathClassTools.splitNames(pathClass);
-				for (var name : names) {
-					logger.debug("Computing distances for {}", pathClass);
-					var filteredDetections = detections.stream().filter(a -> PathClassTools.containsName(a.getPathClass(), name)).toList();
-					if (!filteredDetections.isEmpty()) {
-						String measurementName = "Distance to detection with " + name + " " + unit;
-						centroidToCentroidDistance2D(detections, filteredDetections, pixelWidth, pixelHeight, measurementName);
-					}
-				}
-			} else {
-				logger.debug("Computing distances for {}", pathClass);
-				var filteredDetections = detections.stream().filter(a -> a.getPathClass() == pathClass).toList();
-				if (!filteredDetections.isEmpty()) {
-					String name = "Distance to detection " + pathClass + " " + unit;
-					centroidToCentroidDistance2D(detections, filteredDetections, pixelWidth, pixelHeight, name);
-				}
-			}
+		// Assign a label to each classification, so that distances for all classifications can be computed in a single pass
+		var classLabels = ClassificationLabels.create(detections, splitClassNames);
+		String[] measurementNames = new String[classLabels.size()];
+		for (int label = 0; label < measurementNames.length; label++) {
+			if (splitClassNames)
+				measurementNames[label] = "Distance to detection with " + classLabels.getName(label) + " " + unit;
+			else
+				measurementNames[label] = "Distance to detection " + classLabels.getName(label) + " " + unit;
+		}
+		
+		// Distances are only calculated between objects on the same plane
+		var detectionsByPlane = detections.stream()
+				.collect(Collectors.groupingBy(p -> PathObjectTools.getROI(p, true).getImagePlane()));
+		for (var planeDetections : detectionsByPlane.values()) {
+			logger.debug("Computing distances for {} detections", planeDetections.size());
+			centroidDistancesByLabel(planeDetections, classLabels, pixelWidth, pixelHeight, measurementNames);
 		}
 		hierarchy.fireObjectMeasurementsChangedEvent(DistanceTools.class, detections);
 	}
@@ -247,6 +240,45 @@ public class DistanceTools {
 		CENTROID_TO_BOUNDS
 	}
 
+	/**
+	 * Compute the distance from the centroid of each object to the nearest centroid of an object with each label, 
+	 * adding the results to the measurement lists.
+	 * All objects are assumed to be on the same plane.
+	 */
+	private static void centroidDistancesByLabel(List<PathObject> pathObjects, ClassificationLabels classLabels, 
+			double pixelWidth, double pixelHeight, String[] measurementNames) {
+		
+		int n = pathObjects.size();
+		double[] x = new double[n];
+		double[] y = new double[n];
+		for (int i = 0; i < n; i++) {
+			var roi = PathObjectTools.getROI(pathObjects.get(i), true);
+			x[i] = roi.getCentroidX() * pixelWidth;
+			y[i] = roi.getCentroidY() * pixelHeight;
+		}
+		
+		// Add each target once for every label it has
+		var tree = classLabels.createLabelledTree(pathObjects, x, y);
+		if (tree.size() == 0)
+			return;
+		
+		int nLabels = measurementNames.length;
+		int chunkSize = 1024;
+		IntStream.range(0, (n + chunkSize - 1) / chunkSize).parallel().forEach(c -> {
+			double[] distances = new double[nLabels];
+			for (int i = c * chunkSize; i < Math.min(n, (c + 1) * chunkSize); i++) {
+				tree.nearestDistanceByLabel(x[i], y[i], distances);
+				try (var ml = pathObjects.get(i).getMeasurementList()) {
+					for (int label = 0; label < nLabels; label++) {
+						// Only add measurements if there are targets on the same plane
+						if (distances[label] != Double.POSITIVE_INFINITY)
+							ml.put(measurementNames[label], distances[label]);
+					}
+				}
+			}
+		});
+	}
+
 	private static void centroidToObjectsDistance2D(Collection<PathObject> sourceObjects, Collection<PathObject> targetObjects, double pixelWidth, double pixelHeight, String measurementName, boolean signedDistances, DistanceType distanceType) {
 		// Use the nucleus ROI, if available, for all centroids (source and target)
 		boolean preferNucleusForCentroids = true;
@@ -346,8 +378,7 @@ public class DistanceTools {
 						}
 					}
 				}
-				STRtree pointTree = pointCoords != null && pointCoords.size() > 1000 ? createCoordinateCache(pointCoords) : null;
-				CoordinateDistance coordinateDistance = new CoordinateDistance();
+				KdTree2D pointTree = pointCoords.size() > 1000 ? createPointTree(pointCoords) : null;
 				
 				int zi = z;
 				int ti = t;
@@ -374,7 +405,7 @@ public class DistanceTools {
 						Coordinate coord = new Coordinate(roi.getCentroidX() * pixelWidth, roi.getCentroidY() * pixelHeight);
 						precisionModel.makePrecise(coord);
 
-						double pointDistance = pointCoords == null ? Double.POSITIVE_INFINITY : computeCoordinateDistance(coord, pointCoords, pointTree, coordinateDistance);
+						double pointDistance = pointTree == null ? computeCoordinateDistance(coord, pointCoords) : pointTree.nearestDistance(coord.x, coord.y);
 						double lineDistance = lineGeometry == null ? Double.POSITIVE_INFINITY : computeDistance(coord, lineGeometry, null, false);
 						double shapeDistance = shapeGeometry == null ? Double.POSITIVE_INFINITY : computeDistance(coord, shapeGeometry, locator, signedDistances);
 						distance = Math.min(lineDistance, Math.min(pointDistance, shapeDistance));
@@ -448,18 +479,25 @@ public class DistanceTools {
 		if (tree.isEmpty())
 			return Double.POSITIVE_INFINITY;
 		var env = new Envelope(coord);
-		var nearest = (Coordinate)tree.nearestNeighbour(env, coord, new CoordinateDistance());
+		var nearest = (Coordinate)tree.nearestNeighbour(env, coord, distance);
 		return nearest == null ? Double.POSITIVE_INFINITY : coord.distance(nearest);
 	}
 	
-	private static double computeCoordinateDistance(Coordinate coord, Collection<Coordinate> targets, STRtree tree, ItemDistance distance) {
-		if (tree != null) {
-			return computeCoordinateDistance(coord, tree, distance);
+	/**
+	 * Create a {@link KdTree2D} for a collection of coordinates.
+	 * This requires much less memory than an {@link STRtree}, and avoids creating objects for each query.
+	 */
+	private static KdTree2D createPointTree(Collection<Coordinate> coords) {
+		int n = coords.size();
+		double[] x = new double[n];
+		double[] y = new double[n];
+		int i = 0;
+		for (var c : coords) {
+			x[i] = c.x;
+			y[i] = c.y;
+			i++;
 		}
-		double d = Double.POSITIVE_INFINITY;
-		for (var target : targets)
-			d = Math.min(d, coord.distance(target));
-		return d;
+		return KdTree2D.build(x, y);
 	}
 	
 	private static class CoordinateDistance implements ItemDistance {
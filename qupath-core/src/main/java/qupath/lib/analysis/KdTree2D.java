@@ -0,0 +1,700 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * A static k-d tree for fast spatial queries with 2D points.
+ * <p>
+ * Points are stored in primitive arrays, and queries don't require creating any objects for each point.
+ * This makes the tree suitable for very large numbers of points (e.g. the centroids of millions of cells).
+ * The tree is immutable after construction, and so queries can be made from multiple threads.
+ * <p>
+ * Each point can optionally have an integer label (e.g. representing a classification).
+ * This makes it possible to find the distance to the nearest point with every label in a single query.
+ * A point may be added more than once with different labels, if needed.
+ * <p>
+ * Query results refer to points using their index in the arrays used to build the tree.
+ * Coordinates are expected to be finite.
+ *
+ * @since v0.5.0
+ */
+public final class KdTree2D {
+
+	/**
+	 * Maximum number of points in a leaf node.
+	 */
+	private static final int LEAF_SIZE = 8;
+
+	/**
+	 * Minimum number of points in a node before its children are built in parallel.
+	 */
+	private static final int PARALLEL_BUILD_THRESHOLD = 65_536;
+
+	private final int n;
+	private final int nLabels;
+
+	// Points, in the order that they are stored in the tree
+	private final double[] xs;
+	private final double[] ys;
+	private final int[] labels;
+	private final int[] indices;
+
+	// Bounding box of each node, using implicit (heap) indexing
+	private final double[] minX;
+	private final double[] minY;
+	private final double[] maxX;
+	private final double[] maxY;
+
+	// Bit mask of the labels within each node; labels >= 63 share the last bit
+	private final long[] masks;
+
+	private KdTree2D(double[] x, double[] y, int[] labels) {
+		if (x.length != y.length)
+			throw new IllegalArgumentException("Number of x (" + x.length + ") and y (" + y.length + ") coordinates must be the same");
+		if (labels != null && labels.length != x.length)
+			throw new IllegalArgumentException("Number of labels (" + labels.length + ") must be the same as the number of points (" + x.length + ")");
+		this.n = x.length;
+		int maxLabel = -1;
+		if (labels != null) {
+			for (int label : labels) {
+				if (label < 0)
+					throw new IllegalArgumentException("Labels must not be negative!");
+				maxLabel = Math.max(maxLabel, label);
+			}
+		}
+		this.nLabels = maxLabel + 1;
+
+		int nNodes = computeNodeCount(n);
+		minX = new double[nNodes];
+		minY = new double[nNodes];
+		maxX = new double[nNodes];
+		maxY = new double[nNodes];
+		masks = labels == null ? null : new long[nNodes];
+
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		if (n > 0)
+			new BuildTask(x, y, labels, order, 0, 0, n).invoke();
+
+		xs = new double[n];
+		ys = new double[n];
+		this.labels = labels == null ? null : new int[n];
+		for (int i = 0; i < n; i++) {
+			int ind = order[i];
+			xs[i] = x[ind];
+			ys[i] = y[ind];
+			if (labels != null)
+				this.labels[i] = labels[ind];
+		}
+		this.indices = order;
+	}
+
+	/**
+	 * Build a tree from arrays of x and y coordinates.
+	 * @param x x-coordinates
+	 * @param y y-coordinates; must be the same length as x
+	 * @return a new tree
+	 */
+	public static KdTree2D build(double[] x, double[] y) {
+		return new KdTree2D(x, y, null);
+	}
+
+	/**
+	 * Build a tree from arrays of x and y coordinates, with a label for each point.
+	 * @param x x-coordinates
+	 * @param y y-coordinates; must be the same length as x
+	 * @param labels labels for each point; must be the same length as x, and no label may be negative.
+	 *               Labels should be small integers, since arrays with length equal to the maximum label are used for queries.
+	 * @return a new tree
+	 */
+	public static KdTree2D build(double[] x, double[] y, int[] labels) {
+		return new KdTree2D(x, y, labels);
+	}
+
+	/**
+	 * Get the number of points in the tree.
+	 * @return
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Get the number of distinct label values, defined as the maximum label + 1.
+	 * This is 0 if the tree has no labels.
+	 * @return
+	 */
+	public int nLabels() {
+		return nLabels;
+	}
+
+	/**
+	 * Find the nearest point to the specified coordinates.
+	 * @param x
+	 * @param y
+	 * @return the index of the nearest point, or -1 if the tree is empty
+	 */
+	public int nearest(double x, double y) {
+		if (n == 0)
+			return -1;
+		var search = new NearestSearch(x, y);
+		search.search(0, 0, n);
+		return indices[search.best];
+	}
+
+	/**
+	 * Find the distance to the nearest point.
+	 * @param x
+	 * @param y
+	 * @return the distance to the nearest point, or {@code Double.POSITIVE_INFINITY} if the tree is empty
+	 */
+	public double nearestDistance(double x, double y) {
+		if (n == 0)
+			return Double.POSITIVE_INFINITY;
+		var search = new NearestSearch(x, y);
+		search.search(0, 0, n);
+		return Math.sqrt(search.bestDist2);
+	}
+
+	/**
+	 * Find the k nearest points to the specified coordinates.
+	 * If several points are the same distance away, it is undefined which will be returned.
+	 *
+	 * @param x
+	 * @param y
+	 * @param k the number of neighbors to find
+	 * @param indices array to store the indices of the nearest points, in ascending order of distance; length must be at least k
+	 * @param distances optional array to store the distances to the nearest points; length must be at least k if not null
+	 * @return the number of points found; this is {@code min(k, size())}
+	 */
+	public int nearest(double x, double y, int k, int[] indices, double[] distances) {
+		if (k <= 0 || n == 0)
+			return 0;
+		var search = new KNearestSearch(x, y, k);
+		search.search(0, 0, n);
+		for (int i = 0; i < search.count; i++) {
+			indices[i] = this.indices[search.nearest[i]];
+			if (distances != null)
+				distances[i] = Math.sqrt(search.dist2[i]);
+		}
+		return search.count;
+	}
+
+	/**
+	 * Find the distance to the nearest point with each label, in a single search.
+	 *
+	 * @param x
+	 * @param y
+	 * @param distances optional array to store the output; if null or too short, a new array is created.
+	 * @return an array of length at least {@link #nLabels()}, where each entry gives the distance to the nearest point with the
+	 *         corresponding label, or {@code Double.POSITIVE_INFINITY} if there are no points with the label
+	 */
+	public double[] nearestDistanceByLabel(double x, double y, double[] distances) {
+		if (distances == null || distances.length < nLabels)
+			distances = new double[nLabels];
+		Arrays.fill(distances, Double.POSITIVE_INFINITY);
+		if (n > 0 && nLabels > 0) {
+			new LabelSearch(x, y, distances).search(0, 0, n);
+			for (int i = 0; i < nLabels; i++)
+				distances[i] = Math.sqrt(distances[i]);
+		}
+		return distances;
+	}
+
+	/**
+	 * Count the number of points within a specified radius, inclusive.
+	 * @param x
+	 * @param y
+	 * @param radius
+	 * @return
+	 */
+	public int countWithinRadius(double x, double y, double radius) {
+		if (n == 0 || !(radius >= 0))
+			return 0;
+		return countWithinRadius(0, 0, n, x, y, radius * radius);
+	}
+
+	/**
+	 * Count the number of points with each label within a specified radius, inclusive.
+	 * @param x
+	 * @param y
+	 * @param radius
+	 * @param counts optional array to store the output; if null or too short, a new array is created.
+	 * @return an array of length at least {@link #nLabels()}, where each entry gives the number of points with the corresponding label
+	 */
+	public int[] countWithinRadiusByLabel(double x, double y, double radius, int[] counts) {
+		if (counts == null || counts.length < nLabels)
+			counts = new int[nLabels];
+		Arrays.fill(counts, 0);
+		if (n > 0 && nLabels > 0 && radius >= 0)
+			countWithinRadiusByLabel(0, 0, n, x, y, radius * radius, counts);
+		return counts;
+	}
+
+	/**
+	 * Count the number of points within each of several radii, inclusive, in a single traversal.
+	 * This is useful for computing cumulative statistics, such as Ripley's K function.
+	 * @param x
+	 * @param y
+	 * @param radii the radii, which must be sorted in ascending order
+	 * @param counts optional array to store the output; if null or too short, a new array is created.
+	 * @return an array of length at least {@code radii.length}, where each entry gives the number of points within the corresponding radius
+	 */
+	public int[] countWithinRadii(double x, double y, double[] radii, int[] counts) {
+		int m = radii.length;
+		if (counts == null || counts.length < m)
+			counts = new int[m];
+		Arrays.fill(counts, 0);
+		if (n == 0 || m == 0 || !(radii[0] >= 0))
+			return counts;
+		double[] radii2 = new double[m];
+		for (int j = 0; j < m; j++) {
+			if (j > 0 && radii[j] < radii[j-1])
+				throw new IllegalArgumentException("Radii must be sorted in ascending order");
+			radii2[j] = radii[j] * radii[j];
+		}
+		// Count points in each annulus, then accumulate
+		countWithinRadii(0, 0, n, x, y, radii2, counts);
+		for (int j = 1; j < m; j++)
+			counts[j] += counts[j-1];
+		return counts;
+	}
+
+
+	/**
+	 * Pass the index of every point within a specified radius, inclusive, to a consumer.
+	 * Points are visited in the same order for repeated queries, and the number of points visited
+	 * is the same as returned by {@link #countWithinRadius(double, double, double)}.
+	 * @param x
+	 * @param y
+	 * @param radius
+	 * @param action consumer to receive the index of each point
+	 */
+	public void forEachWithinRadius(double x, double y, double radius, IntConsumer action) {
+		if (n > 0 && radius >= 0)
+			forEachWithinRadius(0, 0, n, x, y, radius * radius, action);
+	}
+
+	private int countWithinRadius(int node, int lo, int hi, double x, double y, double radius2) {
+		if (boxDistance2(node, x, y) > radius2)
+			return 0;
+		if (boxMaxDistance2(node, x, y) <= radius2)
+			return hi - lo;
+		if (hi - lo <= LEAF_SIZE) {
+			int count = 0;
+			for (int i = lo; i < hi; i++) {
+				if (distance2(i, x, y) <= radius2)
+					count++;
+			}
+			return count;
+		}
+		int mid = (lo + hi) >>> 1;
+		return countWithinRadius(2*node+1, lo, mid, x, y, radius2) +
+				countWithinRadius(2*node+2, mid, hi, x, y, radius2);
+	}
+
+	private void forEachWithinRadius(int node, int lo, int hi, double x, double y, double radius2, IntConsumer action) {
+		if (boxDistance2(node, x, y) > radius2)
+			return;
+		// Use the same tests as countWithinRadius, so that the results are always consistent
+		if (boxMaxDistance2(node, x, y) <= radius2) {
+			for (int i = lo; i < hi; i++)
+				action.accept(indices[i]);
+			return;
+		}
+		if (hi - lo <= LEAF_SIZE) {
+			for (int i = lo; i < hi; i++) {
+				if (distance2(i, x, y) <= radius2)
+					action.accept(indices[i]);
+			}
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		forEachWithinRadius(2*node+1, lo, mid, x, y, radius2, action);
+		forEachWithinRadius(2*node+2, mid, hi, x, y, radius2, action);
+	}
+
+	private void countWithinRadiusByLabel(int node, int lo, int hi, double x, double y, double radius2, int[] counts) {
+		if (boxDistance2(node, x, y) > radius2)
+			return;
+		if (hi - lo <= LEAF_SIZE || boxMaxDistance2(node, x, y) <= radius2) {
+			boolean inside = hi - lo > LEAF_SIZE;
+			for (int i = lo; i < hi; i++) {
+				if (inside || distance2(i, x, y) <= radius2)
+					counts[labels[i]]++;
+			}
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		countWithinRadiusByLabel(2*node+1, lo, mid, x, y, radius2, counts);
+		countWithinRadiusByLabel(2*node+2, mid, hi, x, y, radius2, counts);
+	}
+
+	private void countWithinRadii(int node, int lo, int hi, double x, double y, double[] radii2, int[] counts) {
+		int m = radii2.length;
+		if (boxDistance2(node, x, y) > radii2[m-1])
+			return;
+		if (boxMaxDistance2(node, x, y) <= radii2[0]) {
+			counts[0] += hi - lo;
+			return;
+		}
+		if (hi - lo <= LEAF_SIZE) {
+			for (int i = lo; i < hi; i++) {
+				double d2 = distance2(i, x, y);
+				if (d2 <= radii2[m-1]) {
+					// Find the first radius containing the point
+					int ind = Arrays.binarySearch(radii2, d2);
+					if (ind < 0)
+						ind = -ind - 1;
+					else {
+						while (ind > 0 && radii2[ind-1] == d2)
+							ind--;
+					}
+					counts[ind]++;
+				}
+			}
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		countWithinRadii(2*node+1, lo, mid, x, y, radii2, counts);
+		countWithinRadii(2*node+2, mid, hi, x, y, radii2, counts);
+	}
+
+	private double distance2(int i, double x, double y) {
+		double dx = xs[i] - x;
+		double dy = ys[i] - y;
+		return dx*dx + dy*dy;
+	}
+
+	/**
+	 * Squared distance from a point to the closest point in the bounding box of a node.
+	 */
+	private double boxDistance2(int node, double x, double y) {
+		double dx = Math.max(0, Math.max(minX[node] - x, x - maxX[node]));
+		double dy = Math.max(0, Math.max(minY[node] - y, y - maxY[node]));
+		return dx*dx + dy*dy;
+	}
+
+	/**
+	 * Squared distance from a point to the furthest point in the bounding box of a node.
+	 */
+	private double boxMaxDistance2(int node, double x, double y) {
+		double dx = Math.max(Math.abs(x - minX[node]), Math.abs(x - maxX[node]));
+		double dy = Math.max(Math.abs(y - minY[node]), Math.abs(y - maxY[node]));
+		return dx*dx + dy*dy;
+	}
+
+	private static long labelBit(int label) {
+		return 1L << Math.min(label, 63);
+	}
+
+	/**
+	 * Compute the number of nodes needed to store a tree with n points, using implicit indexing.
+	 */
+	private static int computeNodeCount(int n) {
+		int depth = 0;
+		int size = n;
+		while (size > LEAF_SIZE) {
+			size = (size + 1) / 2;
+			depth++;
+		}
+		return (1 << (depth + 1)) - 1;
+	}
+
+
+	private class NearestSearch {
+
+		private final double x, y;
+		private double bestDist2 = Double.POSITIVE_INFINITY;
+		private int best = -1;
+
+		NearestSearch(double x, double y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		void search(int node, int lo, int hi) {
+			if (hi - lo <= LEAF_SIZE) {
+				for (int i = lo; i < hi; i++) {
+					double d2 = distance2(i, x, y);
+					if (d2 < bestDist2) {
+						bestDist2 = d2;
+						best = i;
+					}
+				}
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			int left = 2*node+1;
+			int right = left+1;
+			double dLeft = boxDistance2(left, x, y);
+			double dRight = boxDistance2(right, x, y);
+			if (dLeft <= dRight) {
+				if (dLeft < bestDist2)
+					search(left, lo, mid);
+				if (dRight < bestDist2)
+					search(right, mid, hi);
+			} else {
+				if (dRight < bestDist2)
+					search(right, mid, hi);
+				if (dLeft < bestDist2)
+					search(left, lo, mid);
+			}
+		}
+
+	}
+
+
+	private class KNearestSearch {
+
+		private final double x, y;
+		private final int k;
+		private final int[] nearest;
+		private final double[] dist2;
+		private int count = 0;
+
+		KNearestSearch(double x, double y, int k) {
+			this.x = x;
+			this.y = y;
+			this.k = Math.min(k, n);
+			this.nearest = new int[this.k];
+			this.dist2 = new double[this.k];
+		}
+
+		private double bound() {
+			return count < k ? Double.POSITIVE_INFINITY : dist2[k-1];
+		}
+
+		private void add(int i, double d2) {
+			int pos = Math.min(count, k-1);
+			while (pos > 0 && dist2[pos-1] > d2) {
+				dist2[pos] = dist2[pos-1];
+				nearest[pos] = nearest[pos-1];
+				pos--;
+			}
+			dist2[pos] = d2;
+			nearest[pos] = i;
+			if (count < k)
+				count++;
+		}
+
+		void search(int node, int lo, int hi) {
+			if (hi - lo <= LEAF_SIZE) {
+				for (int i = lo; i < hi; i++) {
+					double d2 = distance2(i, x, y);
+					if (d2 < bound())
+						add(i, d2);
+				}
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			int left = 2*node+1;
+			int right = left+1;
+			double dLeft = boxDistance2(left, x, y);
+			double dRight = boxDistance2(right, x, y);
+			if (dLeft <= dRight) {
+				if (dLeft < bound())
+					search(left, lo, mid);
+				if (dRight < bound())
+					search(right, mid, hi);
+			} else {
+				if (dRight < bound())
+					search(right, mid, hi);
+				if (dLeft < bound())
+					search(left, lo, mid);
+			}
+		}
+
+	}
+
+
+	/**
+	 * Search for the nearest point with each label.
+	 * Nodes can be skipped if they are further away than the best distance found so far for every label they contain.
+	 */
+	private class LabelSearch {
+
+		private final double x, y;
+		private final double[] bestDist2;
+
+		LabelSearch(double x, double y, double[] bestDist2) {
+			this.x = x;
+			this.y = y;
+			this.bestDist2 = bestDist2;
+		}
+
+		private double bound(int node) {
+			long mask = masks[node];
+			double bound = 0;
+			while (mask != 0) {
+				int label = Long.numberOfTrailingZeros(mask);
+				if (label == 63) {
+					for (int i = 63; i < nLabels; i++)
+						bound = Math.max(bound, bestDist2[i]);
+				} else
+					bound = Math.max(bound, bestDist2[label]);
+				mask &= mask - 1;
+			}
+			return bound;
+		}
+
+		void search(int node, int lo, int hi) {
+			if (hi - lo <= LEAF_SIZE) {
+				for (int i = lo; i < hi; i++) {
+					double d2 = distance2(i, x, y);
+					int label = labels[i];
+					if (d2 < bestDist2[label])
+						bestDist2[label] = d2;
+				}
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			int left = 2*node+1;
+			int right = left+1;
+			double dLeft = boxDistance2(left, x, y);
+			double dRight = boxDistance2(right, x, y);
+			if (dLeft <= dRight) {
+				if (dLeft < bound(left))
+					search(left, lo, mid);
+				if (dRight < bound(right))
+					search(right, mid, hi);
+			} else {
+				if (dRight < bound(right))
+					search(right, mid, hi);
+				if (dLeft < bound(left))
+					search(left, lo, mid);
+			}
+		}
+
+	}
+
+
+	/**
+	 * Build the tree recursively, splitting each node at the median along the axis with the largest extent.
+	 * Large subtrees are built in parallel.
+	 */
+	private class BuildTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final double[] x, y;
+		private final int[] labels;
+		private final int[] order;
+		private final int node, lo, hi;
+
+		BuildTask(double[] x, double[] y, int[] labels, int[] order, int node, int lo, int hi) {
+			this.x = x;
+			this.y = y;
+			this.labels = labels;
+			this.order = order;
+			this.node = node;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			build(node, lo, hi);
+		}
+
+		private void build(int node, int lo, int hi) {
+			double x1 = Double.POSITIVE_INFINITY, y1 = Double.POSITIVE_INFINITY;
+			double x2 = Double.NEGATIVE_INFINITY, y2 = Double.NEGATIVE_INFINITY;
+			long mask = 0L;
+			for (int i = lo; i < hi; i++) {
+				int ind = order[i];
+				double xx = x[ind];
+				double yy = y[ind];
+				if (xx < x1)
+					x1 = xx;
+				if (xx > x2)
+					x2 = xx;
+				if (yy < y1)
+					y1 = yy;
+				if (yy > y2)
+					y2 = yy;
+				if (labels != null)
+					mask |= labelBit(labels[ind]);
+			}
+			minX[node] = x1;
+			minY[node] = y1;
+			maxX[node] = x2;
+			maxY[node] = y2;
+			if (masks != null)
+				masks[node] = mask;
+
+			if (hi - lo <= LEAF_SIZE)
+				return;
+
+			int mid = (lo + hi) >>> 1;
+			select(order, x2 - x1 >= y2 - y1 ? x : y, lo, hi - 1, mid);
+			int left = 2*node+1;
+			int right = left+1;
+			if (hi - lo > PARALLEL_BUILD_THRESHOLD) {
+				invokeAll(
+						new BuildTask(x, y, labels, order, left, lo, mid),
+						new BuildTask(x, y, labels, order, right, mid, hi));
+			} else {
+				build(left, lo, mid);
+				build(right, mid, hi);
+			}
+		}
+
+	}
+
+	/**
+	 * Partially sort the indices between lo and hi (inclusive) so that the value at position k is
+	 * the one that would be there if the indices were fully sorted by the corresponding coordinates.
+	 */
+	private static void select(int[] order, double[] coords, int lo, int hi, int k) {
+		while (hi > lo) {
+			double pivot = coords[order[(lo + hi) >>> 1]];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (coords[order[i]] < pivot)
+					i++;
+				while (coords[order[j]] > pivot)
+					j--;
+				if (i <= j) {
+					int temp = order[i];
+					order[i] = order[j];
+					order[j] = temp;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				break;
+		}
+	}
+
+}
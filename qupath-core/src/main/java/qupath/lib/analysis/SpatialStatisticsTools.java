@@ -0,0 +1,548 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.util.AffineTransformation;
+import org.locationtech.jts.operation.distance.IndexedFacetDistance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.GeneralTools;
+import qupath.lib.images.ImageData;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjectTools;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Static methods for calculating spatial statistics, such as neighborhood composition and
+ * Ripley's K and L functions.
+ * <p>
+ * All calculations are made in 2D using object centroids (preferring the nucleus for cells), and only
+ * between objects on the same plane.
+ * Objects are grouped into spatial tiles that are processed in parallel, and results are
+ * written directly to the measurement lists of the objects.
+ *
+ * @since v0.5.0
+ */
+public class SpatialStatisticsTools {
+
+	private static final Logger logger = LoggerFactory.getLogger(SpatialStatisticsTools.class);
+
+	/**
+	 * Approximate number of points to process in each tile.
+	 */
+	private static final int POINTS_PER_TILE = 4096;
+
+	/**
+	 * Edge correction methods for Ripley's functions.
+	 */
+	public enum EdgeCorrection {
+
+		/**
+		 * No edge correction. Points near the boundary of the study region have fewer neighbors than they 
+		 * would if the region was larger, so K(r) is underestimated as the radius increases.
+		 */
+		NONE,
+
+		/**
+		 * Border correction (also known as 'reduced sample' or 'minus sampling').
+		 * Only points that are at least a distance r from the boundary of the study region are used as 
+		 * reference points when calculating K(r), although all points are counted as neighbors.
+		 * This is unbiased, but uses fewer points for larger radii.
+		 */
+		BORDER
+
+	}
+
+	/**
+	 * For all detections, count the number of other detections with centroids within a fixed radius,
+	 * both in total and for each valid, not-ignored classification.
+	 * Results are added to the detection measurement lists.
+	 * <p>
+	 * If the image contains cells, only cells are used; otherwise all detections are used.
+	 *
+	 * @param imageData
+	 * @param radius the radius, in calibrated units
+	 * @param splitClassNames if true, split the classification name. For example, if an image contains classifications for both "CD3: CD4" and "CD3: CD8",
+	 *                        counts will be calculated for all components (e.g. "CD3", "CD4" and "CD8").
+	 */
+	public static void detectionRadiusCounts(ImageData<?> imageData, double radius, boolean splitClassNames) {
+		var hierarchy = imageData.getHierarchy();
+		var detections = getDetections(hierarchy);
+		var cal = imageData.getServer().getPixelCalibration();
+		radiusCounts2D(detections, radius, cal.getPixelWidth().doubleValue(), cal.getPixelHeight().doubleValue(), getUnit(imageData), splitClassNames);
+		hierarchy.fireObjectMeasurementsChangedEvent(SpatialStatisticsTools.class, detections);
+	}
+
+	/**
+	 * Count the number of other objects with centroids within a fixed radius of the centroid of each object,
+	 * both in total and for each valid, not-ignored classification.
+	 * Results are added to the object measurement lists.
+	 *
+	 * @param pathObjects the objects, which are used both as the source and targets for counting
+	 * @param radius the radius, in the units defined by the pixel width and height
+	 * @param pixelWidth pixel width to use (use 1 for pixel units)
+	 * @param pixelHeight pixel height to use (use 1 for pixel units)
+	 * @param unit the unit for the radius, used in the measurement names
+	 * @param splitClassNames if true, split the classification name when determining classifications
+	 */
+	public static void radiusCounts2D(Collection<PathObject> pathObjects, double radius, double pixelWidth, double pixelHeight, String unit, boolean splitClassNames) {
+		if (!(radius >= 0))
+			throw new IllegalArgumentException("Radius must be >= 0, but was " + radius);
+		var classLabels = ClassificationLabels.create(pathObjects, splitClassNames);
+		String suffix = "within " + GeneralTools.formatNumber(radius, 2) + " " + unit;
+		String totalName = "Detections " + suffix;
+		String[] measurementNames = new String[classLabels.size()];
+		for (int label = 0; label < measurementNames.length; label++) {
+			measurementNames[label] = "Detections " + classLabels.getName(label) + " " + suffix;
+		}
+
+		for (var planeObjects : groupByPlane(pathObjects)) {
+			logger.debug("Computing radius counts for {} objects", planeObjects.size());
+			var centroids = getCentroids(planeObjects, pixelWidth, pixelHeight);
+			double[] x = centroids[0];
+			double[] y = centroids[1];
+			var tree = KdTree2D.build(x, y);
+			var labelledTree = classLabels.createLabelledTree(planeObjects, x, y);
+			int nLabels = measurementNames.length;
+			processByTile(x, y, (order, start, end) -> {
+				int[] counts = new int[nLabels];
+				for (int k = start; k < end; k++) {
+					int i = order[k];
+					var pathObject = planeObjects.get(i);
+					// Exclude the object itself from the counts
+					int total = tree.countWithinRadius(x[i], y[i], radius) - 1;
+					labelledTree.countWithinRadiusByLabel(x[i], y[i], radius, counts);
+					for (int label : classLabels.getLabels(pathObject))
+						counts[label]--;
+					try (var ml = pathObject.getMeasurementList()) {
+						ml.put(totalName, total);
+						for (int label = 0; label < nLabels; label++)
+							ml.put(measurementNames[label], counts[label]);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * For all detections, calculate the fraction of the k nearest other detections that have each
+	 * valid, not-ignored classification.
+	 * Results are added to the detection measurement lists.
+	 * <p>
+	 * If the image contains cells, only cells are used; otherwise all detections are used.
+	 *
+	 * @param imageData
+	 * @param k the number of neighbors to consider
+	 * @param splitClassNames if true, split the classification name. For example, if an image contains classifications for both "CD3: CD4" and "CD3: CD8",
+	 *                        fractions will be calculated for all components (e.g. "CD3", "CD4" and "CD8").
+	 */
+	public static void detectionNeighborClassFractions(ImageData<?> imageData, int k, boolean splitClassNames) {
+		var hierarchy = imageData.getHierarchy();
+		var detections = getDetections(hierarchy);
+		var cal = imageData.getServer().getPixelCalibration();
+		neighborClassFractions2D(detections, k, cal.getPixelWidth().doubleValue(), cal.getPixelHeight().doubleValue(), splitClassNames);
+		hierarchy.fireObjectMeasurementsChangedEvent(SpatialStatisticsTools.class, detections);
+	}
+
+	/**
+	 * Calculate the fraction of the k nearest other objects (by centroid distance) that have each
+	 * valid, not-ignored classification.
+	 * Results are added to the object measurement lists.
+	 * <p>
+	 * If fewer than k other objects are available on the same plane, the fractions are calculated
+	 * using all the objects that are available.
+	 *
+	 * @param pathObjects the objects, which are used both as the source and neighbors
+	 * @param k the number of neighbors to consider
+	 * @param pixelWidth pixel width to use (use 1 for pixel units)
+	 * @param pixelHeight pixel height to use (use 1 for pixel units)
+	 * @param splitClassNames if true, split the classification name when determining classifications
+	 */
+	public static void neighborClassFractions2D(Collection<PathObject> pathObjects, int k, double pixelWidth, double pixelHeight, boolean splitClassNames) {
+		if (k < 1)
+			throw new IllegalArgumentException("Number of neighbors must be >= 1, but was " + k);
+		var classLabels = ClassificationLabels.create(pathObjects, splitClassNames);
+		String[] measurementNames = new String[classLabels.size()];
+		for (int label = 0; label < measurementNames.length; label++) {
+			measurementNames[label] = "Nearest " + k + " detections: " + classLabels.getName(label) + " fraction";
+		}
+
+		for (var planeObjects : groupByPlane(pathObjects)) {
+			logger.debug("Computing neighbor class fractions for {} objects", planeObjects.size());
+			var centroids = getCentroids(planeObjects, pixelWidth, pixelHeight);
+			double[] x = centroids[0];
+			double[] y = centroids[1];
+			var tree = KdTree2D.build(x, y);
+			int[][] objectLabels = planeObjects.stream().map(classLabels::getLabels).toArray(int[][]::new);
+			int nLabels = measurementNames.length;
+			processByTile(x, y, (order, start, end) -> {
+				// Request an extra neighbor, since the object itself will be included
+				int[] neighbors = new int[k + 1];
+				int[] counts = new int[nLabels];
+				for (int ind = start; ind < end; ind++) {
+					int i = order[ind];
+					int nFound = tree.nearest(x[i], y[i], k + 1, neighbors, null);
+					Arrays.fill(counts, 0);
+					int nNeighbors = 0;
+					boolean foundSelf = false;
+					for (int j = 0; j < nFound; j++) {
+						int neighbor = neighbors[j];
+						if (neighbor == i && !foundSelf) {
+							foundSelf = true;
+							continue;
+						}
+						if (nNeighbors == k)
+							break;
+						nNeighbors++;
+						for (int label : objectLabels[neighbor])
+							counts[label]++;
+					}
+					if (nNeighbors == 0)
+						continue;
+					try (var ml = planeObjects.get(i).getMeasurementList()) {
+						for (int label = 0; label < nLabels; label++)
+							ml.put(measurementNames[label], counts[label] / (double)nNeighbors);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Calculate Ripley's K and L functions for the detections inside each annotation, at one or more radii, 
+	 * using border edge correction.
+	 * Results are added to the annotation measurement lists.
+	 *
+	 * @param imageData
+	 * @param radii the radii, in calibrated units
+	 * @see #annotationRipleysFunctions(ImageData, EdgeCorrection, double...)
+	 */
+	public static void annotationRipleysFunctions(ImageData<?> imageData, double... radii) {
+		annotationRipleysFunctions(imageData, EdgeCorrection.BORDER, radii);
+	}
+
+	/**
+	 * Calculate Ripley's K and L functions for the detections inside each annotation, at one or more radii.
+	 * Results are added to the annotation measurement lists.
+	 * <p>
+	 * Detections are assigned to annotations using their centroids, and the annotation is used as the
+	 * study region. If the image contains cells, only cells are used; otherwise all detections are used.
+	 *
+	 * @param imageData
+	 * @param edgeCorrection the edge correction method
+	 * @param radii the radii, in calibrated units
+	 * @see #ripleysK(double[], double[], double[], double, double[])
+	 * @see #ripleysL(double[])
+	 */
+	public static void annotationRipleysFunctions(ImageData<?> imageData, EdgeCorrection edgeCorrection, double... radii) {
+		Objects.requireNonNull(edgeCorrection);
+		var hierarchy = imageData.getHierarchy();
+		var cal = imageData.getServer().getPixelCalibration();
+		double pixelWidth = cal.getPixelWidth().doubleValue();
+		double pixelHeight = cal.getPixelHeight().doubleValue();
+		String unit = getUnit(imageData);
+		boolean cellsOnly = !hierarchy.getCellObjects().isEmpty();
+
+		String[] kNames = new String[radii.length];
+		String[] lNames = new String[radii.length];
+		for (int j = 0; j < radii.length; j++) {
+			String suffix = "at " + GeneralTools.formatNumber(radii[j], 2) + " " + unit;
+			kNames[j] = "Ripley's K " + suffix;
+			lNames[j] = "Ripley's L " + suffix;
+		}
+
+		var annotations = hierarchy.getAnnotationObjects();
+		for (var annotation : annotations) {
+			var roi = annotation.getROI();
+			if (roi == null || !roi.isArea() || roi.isEmpty())
+				continue;
+			var detections = hierarchy.getObjectsForROI(PathDetectionObject.class, roi)
+					.stream()
+					.filter(p -> !cellsOnly || p.isCell())
+					.toList();
+			logger.debug("Computing Ripley's functions for {} detections in {}", detections.size(), annotation);
+			var centroids = getCentroids(detections, pixelWidth, pixelHeight);
+			double[] boundaryDistances = null;
+			if (edgeCorrection == EdgeCorrection.BORDER)
+				boundaryDistances = getBoundaryDistances(roi, centroids[0], centroids[1], pixelWidth, pixelHeight);
+			double[] k = ripleysK(centroids[0], centroids[1], boundaryDistances, roi.getScaledArea(pixelWidth, pixelHeight), radii);
+			double[] l = ripleysL(k);
+			try (var ml = annotation.getMeasurementList()) {
+				for (int j = 0; j < radii.length; j++) {
+					ml.put(kNames[j], k[j]);
+					ml.put(lNames[j], l[j]);
+				}
+			}
+		}
+		hierarchy.fireObjectMeasurementsChangedEvent(SpatialStatisticsTools.class, annotations);
+	}
+
+	/**
+	 * Calculate Ripley's K function for a set of points, without edge correction.
+	 * <p>
+	 * This is defined as {@code K(r) = A / (n (n - 1)) * sum_i sum_{j != i} I(d_ij <= r)},
+	 * where {@code A} is the area of the study region and {@code n} is the number of points.
+	 * For complete spatial randomness, {@code K(r)} is approximately {@code pi r^2}
+	 * (or somewhat lower for larger radii, because of edge effects).
+	 *
+	 * @param x x-coordinates of the points
+	 * @param y y-coordinates of the points
+	 * @param area the area of the study region
+	 * @param radii the radii at which the function should be calculated
+	 * @return an array with the values of the function for each radius; values are NaN if there are fewer than 2 points
+	 * @see #ripleysK(double[], double[], double[], double, double[])
+	 */
+	public static double[] ripleysK(double[] x, double[] y, double area, double[] radii) {
+		return ripleysK(x, y, null, area, radii);
+	}
+
+	/**
+	 * Calculate Ripley's K function for a set of points, optionally with border edge correction.
+	 * <p>
+	 * With border correction, only points with a distance to the boundary of the study region that is at least 
+	 * {@code r} are used as reference points, so that none of their neighbors within {@code r} can be outside the region.
+	 * This gives {@code K(r) = A / ((n - 1) n_r) * sum_{i: b_i >= r} sum_{j != i} I(d_ij <= r)}, 
+	 * where {@code b_i} is the distance from point {@code i} to the boundary and {@code n_r} is the number of 
+	 * reference points.
+	 * For complete spatial randomness, {@code K(r)} is approximately {@code pi r^2} for all radii.
+	 *
+	 * @param x x-coordinates of the points
+	 * @param y y-coordinates of the points
+	 * @param boundaryDistances distance from each point to the boundary of the study region, or null if no edge correction should be applied
+	 * @param area the area of the study region
+	 * @param radii the radii at which the function should be calculated
+	 * @return an array with the values of the function for each radius; values are NaN if there are fewer than 2 points, 
+	 *         or if no points are far enough from the boundary
+	 * @see EdgeCorrection#BORDER
+	 */
+	public static double[] ripleysK(double[] x, double[] y, double[] boundaryDistances, double area, double[] radii) {
+		if (x.length != y.length)
+			throw new IllegalArgumentException("Number of x and y coordinates must match! " + x.length + " vs. " + y.length);
+		if (boundaryDistances != null && boundaryDistances.length != x.length)
+			throw new IllegalArgumentException("Number of boundary distances must match the number of points! " + boundaryDistances.length + " vs. " + x.length);
+		int n = x.length;
+		int m = radii.length;
+		double[] result = new double[m];
+		if (n < 2) {
+			Arrays.fill(result, Double.NaN);
+			return result;
+		}
+
+		// Sort the radii, so that all can be counted in a single traversal of the tree
+		int[] radiusOrder = IntStream.range(0, m).boxed()
+				.sorted((i, j) -> Double.compare(radii[i], radii[j]))
+				.mapToInt(Integer::intValue)
+				.toArray();
+		double[] sortedRadii = new double[m];
+		for (int j = 0; j < m; j++)
+			sortedRadii[j] = radii[radiusOrder[j]];
+
+		var tree = KdTree2D.build(x, y);
+		long[] totals = new long[m];
+		long[] nReference = new long[m];
+		processByTile(x, y, (order, start, end) -> {
+			long[] tileTotals = new long[m];
+			long[] tileReference = new long[m];
+			int[] counts = new int[m];
+			for (int ind = start; ind < end; ind++) {
+				int i = order[ind];
+				// Radii are sorted, so if the point is too close to the boundary for one radius it is too close for all larger radii
+				int mPoint = m;
+				if (boundaryDistances != null) {
+					while (mPoint > 0 && !(boundaryDistances[i] >= sortedRadii[mPoint-1]))
+						mPoint--;
+					if (mPoint == 0)
+						continue;
+				}
+				tree.countWithinRadii(x[i], y[i], sortedRadii, counts);
+				// Exclude the point itself from the counts
+				for (int j = 0; j < mPoint; j++) {
+					tileTotals[j] += counts[j] - 1;
+					tileReference[j]++;
+				}
+			}
+			synchronized (totals) {
+				for (int j = 0; j < m; j++) {
+					totals[j] += tileTotals[j];
+					nReference[j] += tileReference[j];
+				}
+			}
+		});
+
+		for (int j = 0; j < m; j++) {
+			if (nReference[j] == 0)
+				result[radiusOrder[j]] = Double.NaN;
+			else
+				result[radiusOrder[j]] = totals[j] * area / ((double)nReference[j] * (n - 1));
+		}
+		return result;
+	}
+
+	/**
+	 * Calculate Ripley's L function from Ripley's K function, where {@code L(r) = sqrt(K(r) / pi)}.
+	 * For complete spatial randomness, {@code L(r)} is approximately {@code r}.
+	 *
+	 * @param k values of Ripley's K function
+	 * @return values of Ripley's L function
+	 * @see #ripleysK(double[], double[], double, double[])
+	 */
+	public static double[] ripleysL(double[] k) {
+		double[] l = new double[k.length];
+		for (int j = 0; j < k.length; j++)
+			l[j] = Math.sqrt(k[j] / Math.PI);
+		return l;
+	}
+
+
+	/**
+	 * Process a subset of points, given by {@code order[start]} to {@code order[end-1]} (exclusive).
+	 */
+	@FunctionalInterface
+	private static interface TileTask {
+
+		void process(int[] order, int start, int end);
+
+	}
+
+	/**
+	 * Group points into square tiles and process the tiles in parallel.
+	 * Points within the same tile are close together, and so tend to access the same parts of a spatial index.
+	 */
+	private static void processByTile(double[] x, double[] y, TileTask task) {
+		int n = x.length;
+		if (n == 0)
+			return;
+		int nTilesTarget = n / POINTS_PER_TILE;
+		if (nTilesTarget <= 1) {
+			task.process(IntStream.range(0, n).toArray(), 0, n);
+			return;
+		}
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxX = Math.max(maxX, x[i]);
+			maxY = Math.max(maxY, y[i]);
+		}
+		double width = maxX - minX;
+		double height = maxY - minY;
+		double tileSize = width > 0 && height > 0 ? Math.sqrt(width * height / nTilesTarget) : Math.max(width, height) / nTilesTarget;
+		if (!(tileSize > 0) || !Double.isFinite(tileSize)) {
+			task.process(IntStream.range(0, n).toArray(), 0, n);
+			return;
+		}
+		int nx = (int)Math.max(1, Math.min(nTilesTarget, Math.ceil(width / tileSize)));
+		int ny = (int)Math.max(1, Math.min(nTilesTarget, Math.ceil(height / tileSize)));
+		int nTiles = nx * ny;
+
+		// Sort the points by tile (a counting sort)
+		int[] tiles = new int[n];
+		int[] offsets = new int[nTiles + 1];
+		for (int i = 0; i < n; i++) {
+			int tx = Math.min(nx - 1, (int)((x[i] - minX) / tileSize));
+			int ty = Math.min(ny - 1, (int)((y[i] - minY) / tileSize));
+			int tile = ty * nx + tx;
+			tiles[i] = tile;
+			offsets[tile + 1]++;
+		}
+		for (int t = 0; t < nTiles; t++)
+			offsets[t + 1] += offsets[t];
+		int[] order = new int[n];
+		int[] positions = Arrays.copyOf(offsets, nTiles);
+		for (int i = 0; i < n; i++)
+			order[positions[tiles[i]]++] = i;
+
+		IntStream.range(0, nTiles).parallel().forEach(t -> {
+			if (offsets[t] < offsets[t + 1])
+				task.process(order, offsets[t], offsets[t + 1]);
+		});
+	}
+
+	/**
+	 * Get the centroids of objects as a 2D array {@code {x, y}}, scaled by the pixel width and height.
+	 */
+	private static double[][] getCentroids(List<? extends PathObject> pathObjects, double pixelWidth, double pixelHeight) {
+		int n = pathObjects.size();
+		double[] x = new double[n];
+		double[] y = new double[n];
+		for (int i = 0; i < n; i++) {
+			var roi = PathObjectTools.getROI(pathObjects.get(i), true);
+			x[i] = roi.getCentroidX() * pixelWidth;
+			y[i] = roi.getCentroidY() * pixelHeight;
+		}
+		return new double[][] {x, y};
+	}
+
+	/**
+	 * Get the distance from each point to the boundary of a ROI, scaled by the pixel width and height.
+	 */
+	private static double[] getBoundaryDistances(ROI roi, double[] x, double[] y, double pixelWidth, double pixelHeight) {
+		var geometry = roi.getGeometry();
+		if (pixelWidth != 1 || pixelHeight != 1)
+			geometry = AffineTransformation.scaleInstance(pixelWidth, pixelHeight).transform(geometry);
+		var factory = geometry.getFactory();
+		var boundaryDistance = new IndexedFacetDistance(geometry.getBoundary());
+		double[] distances = new double[x.length];
+		for (int i = 0; i < x.length; i++)
+			distances[i] = boundaryDistance.distance(factory.createPoint(new Coordinate(x[i], y[i])));
+		return distances;
+	}
+
+	private static Collection<List<PathObject>> groupByPlane(Collection<PathObject> pathObjects) {
+		return pathObjects.stream()
+				.filter(p -> p.hasROI())
+				.collect(Collectors.groupingBy(p -> PathObjectTools.getROI(p, true).getImagePlane()))
+				.values();
+	}
+
+	private static Collection<PathObject> getDetections(PathObjectHierarchy hierarchy) {
+		var detections = hierarchy.getCellObjects();
+		if (detections.isEmpty())
+			detections = hierarchy.getDetectionObjects();
+		if (hierarchy.getTMAGrid() != null)
+			logger.warn("Spatial statistics currently ignore TMA grid information!");
+		return detections;
+	}
+
+	private static String getUnit(ImageData<?> imageData) {
+		var cal = imageData.getServer().getPixelCalibration();
+		String xUnit = cal.getPixelWidthUnit();
+		String yUnit = cal.getPixelHeightUnit();
+		if (!xUnit.equals(yUnit))
+			throw new IllegalArgumentException("Pixel width & height units do not match! Width " + xUnit + ", height " + yUnit);
+		return xUnit;
+	}
+
+}
@@ -28,23 +28,33 @@ import java.awt.image.ColorModel;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import qupath.lib.awt.common.BufferedImageTools;
 import qupath.lib.color.ColorModelFactory;
+import qupath.lib.common.GeneralTools;
+import qupath.lib.common.ThreadTools;
 import qupath.lib.images.servers.ImageServerMetadata.ChannelType;
+import qupath.lib.images.servers.cache.TileScheduler;
+import qupath.lib.images.servers.cache.TileScheduler.Priority;
 import qupath.lib.regions.RegionRequest;
 
 /**
@@ -62,14 +72,14 @@ public abstract class AbstractTileableImageServer extends AbstractImageServer<Bu
 	private static final Logger logger = LoggerFactory.getLogger(AbstractTileableImageServer.class);
 	
 	private ColorModel colorModel;
-	private Map<String, BufferedImage> emptyTileMap = new HashMap<>();
+	private Map<String, BufferedImage> emptyTileMap = new ConcurrentHashMap<>();
 	
-	private transient Set<TileRequest> emptyTiles = new HashSet<>();
+	private transient Set<TileRequest> emptyTiles = ConcurrentHashMap.newKeySet();
 	
 	private static final Long ZERO = Long.valueOf(0L);
 	
 	// Maintain a record of tiles that could not be cached, so we warn for each only once
-	private transient Set<RegionRequest> failedCacheTiles = new HashSet<>();
+	private transient Set<RegionRequest> failedCacheTiles = ConcurrentHashMap.newKeySet();
 		
 	protected AbstractTileableImageServer() {
 		super(BufferedImage.class);
@@ -172,6 +182,11 @@ public abstract class AbstractTileableImageServer extends AbstractImageServer<Bu
 	 */
 	private int duplicateRequestClashCount = 0;
 	
+	/**
+	 * Permits limiting the number of threads used to read tiles for this server (in addition to the requesting thread).
+	 */
+	private transient volatile Semaphore tileReadPermits;
+	
 	private static class TileTask extends FutureTask<BufferedImage> {
 		
 		private Thread thread;
@@ -207,6 +222,19 @@ public abstract class AbstractTileableImageServer extends AbstractImageServer<Bu
 				return imgCached;
 			}
 		}
+		
+		// Try the second-level cache, if available
+		var diskCache = useDiskTileCache() ? ImageServerProvider.getDiskTileCache() : null;
+		if (diskCache != null) {
+			diskCache.registerServerPath(request.getPath());
+			var imgDisk = diskCache.get(request);
+			if (imgDisk != null) {
+				logger.trace("Returning tile from disk cache: {}", request);
+				if (cache != null)
+					cache.put(request, imgDisk);
+				return imgDisk;
+			}
+		}
 		logger.trace("Reading tile: {}", request);
 		
 		BufferedImage imgCached;
@@ -220,7 +248,10 @@ public abstract class AbstractTileableImageServer extends AbstractImageServer<Bu
 				logger.debug("Duplicate request for a pending tile ({} total) - {}", duplicateRequestClashCount, tileRequest.getRegionRequest());
 			}
 			imgCached = futureTask.get();
-		} catch (ExecutionException | InterruptedException e) {
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
 			if (e.getCause() instanceof IOException)
 				throw (IOException)e.getCause();
 			throw new IOException(e);
@@ -246,6 +277,32 @@ public abstract class AbstractTileableImageServer extends AbstractImageServer<Bu
 		return imgCached;
 	}
 	
+	/**
+	 * Returns true if tiles evicted from the tile cache may be written to the disk cache (if available), 
+	 * so that they don't need to be read again later.
+	 * <p>
+	 * The default implementation returns false. Subclasses should only return true if their tiles are 
+	 * expensive to read and their pixels can never change.
+	 * 
+	 * @return
+	 * @since v0.5.0
+	 * @see ImageServerProvider#setDiskTileCache(qupath.lib.images.servers.cache.DiskTileCache)
+	 */
+	protected boolean useDiskTileCache() {
+		return false;
+	}
+
+	/**
+	 * Close the server, removing any of its tiles from the disk cache.
+	 */
+	@Override
+	public void close() throws Exception {
+		super.close();
+		var diskCache = useDiskTileCache() ? ImageServerProvider.getDiskTileCache() : null;
+		if (diskCache != null)
+			diskCache.removeServer(getPath());
+	}
+	
 	/**
 	 * Create the default (blank) RGB image for this server.
 	 * <p>
@@ -291,43 +348,49 @@ public abstract class AbstractTileableImageServer extends AbstractImageServer<Bu
 			}
 		}
 		
-		// Ensure all tiles are either cached or pending before we continue
-		prerequestTiles(tiles);
-		
+		// Request all the tiles we need - in parallel, if several need to be read
 		long startTime = System.currentTimeMillis();
+		Map<TileRequest, BufferedImage> tileMap = getTiles(tiles);
+		
 		// Handle the general case for RGB
 		int width = (int)Math.max(1, Math.round(request.getWidth() / request.getDownsample()));
 		int height = (int)Math.max(1, Math.round(request.getHeight() / request.getDownsample()));
 		if (isRGB()) {
 			BufferedImage imgResult = createDefaultRGBImage(width, height);
-			Graphics2D g2d = imgResult.createGraphics();
-			g2d.scale(1.0/request.getDownsample(), 1.0/request.getDownsample());
-			g2d.translate(-request.getX(), -request.getY());
-			// Interpolate if downsampling
-			if (request.getDownsample() > 1)
-				g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-			
-			// Requests could be parallelized, but should consider the number of threads created/what happens if one blocks
-//			Map<TileRequest, BufferedImage> map = tiles.stream()
-//					.collect(Collectors.toMap(tileRequest -> tileRequest,
-//							tileRequest -> {
-//					try {
-//						return getTile(tileRequest);
-//					} catch (Exception ex) {
-//						return null;
-//					}
-//					}));
-//			for (TileRequest tileRequest : tiles) {
-//				BufferedImage imgTile = map.get(tileRequest);
-//				if (imgTile != null)
-//					g2d.drawImage(imgTile, tileRequest.getImageX(), tileRequest.getImageY(), tileRequest.getImageWidth(), tileRequest.getImageHeight(), null);
-//			}
-			
-			for (TileRequest tileRequest : tiles) {
-				BufferedImage imgTile = getTile(tileRequest);
-				g2d.drawImage(imgTile, tileRequest.getImageX(), tileRequest.getImageY(), tileRequest.getImageWidth(), tileRequest.getImageHeight(), null);
+			double tileDownsample = tiles.iterator().next().getDownsample();
+			Graphics2D g2d = null;
+			if (GeneralTools.almostTheSame(tileDownsample, request.getDownsample(), 1e-6)) {
+				// No rescaling needed, so copy pixels directly wherever we can (this is much faster than drawing)
+				int xOrigin = (int)Math.round(request.getX() / tileDownsample);
+				int yOrigin = (int)Math.round(request.getY() / tileDownsample);
+				for (TileRequest tileRequest : tiles) {
+					BufferedImage imgTile = tileMap.get(tileRequest);
+					if (imgTile == null)
+						continue;
+					int dx = tileRequest.getTileX() - xOrigin;
+					int dy = tileRequest.getTileY() - yOrigin;
+					if (canCopyPixels(imgTile, imgResult)) {
+						copyPixels(imgTile.getRaster(), dx, dy, imgResult.getRaster());
+					} else {
+						if (g2d == null)
+							g2d = imgResult.createGraphics();
+						g2d.drawImage(imgTile, dx, dy, null);
+					}
+				}
+			} else {
+				g2d = imgResult.createGraphics();
+				g2d.scale(1.0/request.getDownsample(), 1.0/request.getDownsample());
+				g2d.translate(-request.getX(), -request.getY());
+				// Interpolate if downsampling
+				if (request.getDownsample() > 1)
+					g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				for (TileRequest tileRequest : tiles) {
+					BufferedImage imgTile = tileMap.get(tileRequest);
+					g2d.drawImage(imgTile, tileRequest.getImageX(), tileRequest.getImageY(), tileRequest.getImageWidth(), tileRequest.getImageHeight(), null);
+				}
 			}
-			g2d.dispose();
+			if (g2d != null)
+				g2d.dispose();
 			
 			long endTime = System.currentTimeMillis();
 			logger.trace("Requested " + tiles.size() + " tiles in " + (endTime - startTime) + " ms (RGB)");
@@ -356,10 +419,21 @@ public abstract class AbstractTileableImageServer extends AbstractImageServer<Bu
 				tileMaxY = Math.max(tileRequest.getTileY() + tileRequest.getTileHeight(), tileMaxY);
 			}
 			
+			// If we need to downsample, write each tile directly into the output raster - 
+			// rather than assembling, cropping & resizing a larger raster at the resolution of the tiles
+			int regionWidth = (int)Math.round((request.getX() + request.getWidth()) / tileDownsample) - (int)Math.round(request.getX() / tileDownsample);
+			int regionHeight = (int)Math.round((request.getY() + request.getHeight()) / tileDownsample) - (int)Math.round(request.getY() / tileDownsample);
+			if (regionWidth >= width && regionHeight >= height && (regionWidth > width || regionHeight > height)) {
+				var imgResult = resampleTiles(request, tiles, tileMap, tileDownsample, width, height);
+				long endTime = System.currentTimeMillis();
+				logger.trace("Requested " + tiles.size() + " tiles in " + (endTime - startTime) + " ms (non-RGB, resampled)");
+				return imgResult;
+			}
+			
 			boolean isEmptyRegion = true;
 			if (singleTile) {
 				// Use the raster directly, if appropriate (because copying can be expensive)
-				BufferedImage imgTile = getTile(tiles.iterator().next());
+				BufferedImage imgTile = tileMap.get(tiles.iterator().next());
 				if (imgTile != null) {
 					raster = imgTile.getRaster();
 					colorModel = imgTile.getColorModel();
@@ -368,7 +442,7 @@ public abstract class AbstractTileableImageServer extends AbstractImageServer<Bu
 				}
 			} else {
 				for (var tileRequest : tiles) {
-					BufferedImage imgTile = getTile(tileRequest);
+					BufferedImage imgTile = tileMap.get(tileRequest);
 					if (imgTile != null && !isEmptyTile(imgTile)) {
 						isEmptyRegion = false;
 						// Figure out coordinates
@@ -447,6 +521,64 @@ public abstract class AbstractTileableImageServer extends AbstractImageServer<Bu
 		}
 	}
 	
+	/**
+	 * Create a downsampled image for a region request, by adding the contribution of each tile to the 
+	 * output raster in turn.
+	 * This avoids allocating a raster at the resolution of the tiles.
+	 * <p>
+	 * Area averaging is used if {@link #allowSmoothInterpolation()} returns true, otherwise nearest neighbor.
+	 * 
+	 * @param request the region request
+	 * @param tiles the tiles needed for the request
+	 * @param tileMap map containing the image for each tile
+	 * @param tileDownsample the downsample of the tiles
+	 * @param width the width of the output image
+	 * @param height the height of the output image
+	 * @return the downsampled image, or null if there were no tiles available
+	 * @throws IOException 
+	 */
+	private BufferedImage resampleTiles(RegionRequest request, Collection<TileRequest> tiles, Map<TileRequest, BufferedImage> tileMap,
+			double tileDownsample, int width, int height) throws IOException {
+		// Calculate the requested region mapped to the pyramidal level
+		int xStart = (int)Math.round(request.getX() / tileDownsample);
+		int yStart = (int)Math.round(request.getY() / tileDownsample);
+		int xEnd = (int)Math.round((request.getX() + request.getWidth()) / tileDownsample);
+		int yEnd = (int)Math.round((request.getY() + request.getHeight()) / tileDownsample);
+		if (xEnd > getWidth() || yEnd > getHeight())
+			logger.warn("Region request is too large for {}x{} image: {}", getWidth(), getHeight(), request);
+		
+		// The resampler requires tiles in order of increasing y
+		List<TileRequest> sortedTiles = new ArrayList<>(tiles);
+		sortedTiles.sort(Comparator.comparingInt(TileRequest::getTileY));
+		
+		TileResampler resampler = null;
+		BufferedImage imgFirst = null;
+		boolean hasEmptyTile = false;
+		for (var tileRequest : sortedTiles) {
+			var imgTile = tileMap.get(tileRequest);
+			if (imgTile == null)
+				continue;
+			if (isEmptyTile(imgTile)) {
+				hasEmptyTile = true;
+				continue;
+			}
+			if (resampler == null) {
+				imgFirst = imgTile;
+				resampler = new TileResampler(
+						imgTile.getRaster().createCompatibleWritableRaster(width, height),
+						xStart, yStart,
+						(xEnd - xStart) / (double)width,
+						(yEnd - yStart) / (double)height,
+						allowSmoothInterpolation());
+			}
+			resampler.addTile(imgTile.getRaster(), tileRequest.getTileX(), tileRequest.getTileY());
+		}
+		// Maybe we don't have anything at all (which is not an error if the image is sparse!)
+		if (resampler == null)
+			return hasEmptyTile ? getEmptyTile(width, height) : null;
+		return new BufferedImage(imgFirst.getColorModel(), resampler.build(), imgFirst.isAlphaPremultiplied(), null);
+	}
+	
 	/**
 	 * Ensure all tiles in a list are either cached or requested.
 	 * If a tile is neither, then a blocking request is made so that the tile will be present later.
@@ -466,6 +598,159 @@ public abstract class AbstractTileableImageServer extends AbstractImageServer<Bu
 		}
 	}
 	
+	/**
+	 * Get all the tiles needed for a region request.
+	 * If more than one tile needs to be read (i.e. it is not already cached), the tiles are read in parallel 
+	 * up to the limit given by {@link #getMaxParallelTileReads()}.
+	 * @param tiles
+	 * @return a map of tile requests to tiles; values may be null if no tile could be read
+	 * @throws IOException
+	 */
+	private Map<TileRequest, BufferedImage> getTiles(Collection<TileRequest> tiles) throws IOException {
+		int maxWorkers = Math.min(getMaxParallelTileReads(), countTilesToRead(tiles)) - 1;
+		if (maxWorkers <= 0) {
+			// Ensure all tiles are either cached or pending before we continue
+			prerequestTiles(tiles);
+			Map<TileRequest, BufferedImage> map = new HashMap<>();
+			for (var tile : tiles)
+				map.put(tile, getTile(tile));
+			return map;
+		}
+		return getTilesParallel(tiles, maxWorkers);
+	}
+	
+	/**
+	 * Read tiles using the calling thread and up to maxWorkers additional threads.
+	 * <p>
+	 * Additional reads are submitted to the shared {@link TileScheduler} as a task group with the same 
+	 * priority as the calling task, so that reading tiles for a batch job cannot delay interactive requests.
+	 * If the calling thread isn't running a scheduled task, {@link Priority#BATCH} is used.
+	 * <p>
+	 * Because the calling thread takes tiles from the same queue as the workers, it never waits for a tile 
+	 * that hasn't been started - even if the thread pool is saturated (e.g. because of nested requests).
+	 * It only needs to wait for tiles that are already being read by other threads.
+	 * This keeps the method deadlock-free when combined with the deduplication of pending tiles.
+	 * 
+	 * @param tiles
+	 * @param maxWorkers
+	 * @return
+	 * @throws IOException
+	 */
+	private Map<TileRequest, BufferedImage> getTilesParallel(Collection<TileRequest> tiles, int maxWorkers) throws IOException {
+		Map<TileRequest, CompletableFuture<BufferedImage>> results = new HashMap<>();
+		for (var tile : tiles)
+			results.put(tile, new CompletableFuture<>());
+		var queue = new ConcurrentLinkedQueue<>(tiles);
+		Runnable readQueuedTiles = () -> {
+			TileRequest tile;
+			while ((tile = queue.poll()) != null) {
+				var future = results.get(tile);
+				try {
+					future.complete(getTile(tile));
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			}
+		};
+		
+		// Submit workers, limited by the number of reads permitted for this server
+		var permits = getTileReadPermits();
+		var priority = TileScheduler.getCurrentPriority();
+		var group = TileScheduler.getInstance().createGroup(priority == null ? Priority.BATCH : priority, maxWorkers);
+		// All tiles belong to this server, so any request can be used to apply the scheduler's per-server limit
+		var request = tiles.iterator().next().getRegionRequest();
+		List<Future<?>> workers = new ArrayList<>();
+		for (int i = 0; i < maxWorkers; i++) {
+			if (!permits.tryAcquire())
+				break;
+			workers.add(group.submit(request, () -> {
+				try {
+					readQueuedTiles.run();
+				} finally {
+					permits.release();
+				}
+			}));
+		}
+		
+		// Read tiles in this thread as well
+		readQueuedTiles.run();
+		
+		// Cancel any workers that haven't started (they would find the queue empty anyway)
+		for (var worker : workers) {
+			if (worker.cancel(false))
+				permits.release();
+		}
+		
+		Map<TileRequest, BufferedImage> map = new HashMap<>();
+		for (var entry : results.entrySet()) {
+			try {
+				map.put(entry.getKey(), entry.getValue().get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException ioe)
+					throw ioe;
+				throw new IOException(e.getCause());
+			}
+		}
+		return map;
+	}
+	
+	/**
+	 * Count the tiles that aren't already cached, and so would need to be read.
+	 * @param tiles
+	 * @return
+	 */
+	private int countTilesToRead(Collection<TileRequest> tiles) {
+		var cache = getCache();
+		int count = 0;
+		for (var tile : tiles) {
+			if (!emptyTiles.contains(tile) && (cache == null || !cache.containsKey(tile.getRegionRequest())))
+				count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Get the maximum number of tiles that may be read in parallel for this server.
+	 * This is used when a region request needs to read several tiles that are not already cached.
+	 * <p>
+	 * The default implementation returns {@link ThreadTools#getParallelism()}. 
+	 * Subclasses can return 1 to read all tiles for a region sequentially, e.g. if reading is 
+	 * not thread-safe or parallel reads would not be beneficial.
+	 * 
+	 * @return the maximum number of tiles to read in parallel, including the tile read by the requesting thread
+	 * @since v0.5.0
+	 */
+	protected int getMaxParallelTileReads() {
+		return ThreadTools.getParallelism();
+	}
+	
+	private Semaphore getTileReadPermits() {
+		if (tileReadPermits == null) {
+			synchronized (this) {
+				if (tileReadPermits == null)
+					// The requesting thread doesn't need a permit
+					tileReadPermits = new Semaphore(Math.max(0, getMaxParallelTileReads() - 1));
+			}
+		}
+		return tileReadPermits;
+	}
+	
+	/**
+	 * Returns true if pixels can be copied directly between the rasters of two images, 
+	 * without needing to convert them.
+	 * @param source
+	 * @param dest
+	 * @return
+	 */
+	private static boolean canCopyPixels(BufferedImage source, BufferedImage dest) {
+		int type = source.getType();
+		return type != BufferedImage.TYPE_CUSTOM && type == dest.getType() && 
+				source.isAlphaPremultiplied() == dest.isAlphaPremultiplied();
+	}
+	
 	/**
 	 * This method essentially wraps a call to {@link WritableRaster#setRect(int, int, Raster)}, while working 
 	 * around an inconvenient JDK bug: https://bugs.openjdk.java.net/browse/JDK-4847156
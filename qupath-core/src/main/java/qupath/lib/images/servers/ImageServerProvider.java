@@ -23,6 +23,7 @@
 
 package qupath.lib.images.servers;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
@@ -44,6 +45,8 @@ import org.slf4j.LoggerFactory;
 
 import qupath.lib.common.GeneralTools;
 import qupath.lib.images.servers.ImageServerBuilder.UriImageSupport;
+import qupath.lib.images.servers.cache.DiskTileCache;
+import qupath.lib.images.servers.cache.TileCache;
 import qupath.lib.regions.RegionRequest;
 
 /**
@@ -60,17 +63,25 @@ public class ImageServerProvider {
 	
 	private static Map<Class<?>, Map<RegionRequest, ?>> cacheMap = new HashMap<>();
 	
+	private static DiskTileCache diskTileCache;
+	
 	@SuppressWarnings("rawtypes")
 	private static ServiceLoader<ImageServerBuilder> serviceLoader = ServiceLoader.load(ImageServerBuilder.class);
 	
 	/**
 	 * Set the cache to be used for image tiles of a specific type.
+	 * <p>
+	 * The cache is shared by all servers, and so may be accessed from many threads concurrently.
+	 * A {@link qupath.lib.images.servers.cache.TileCache TileCache} is recommended, since it limits the 
+	 * memory used by cached tiles without requiring a single lock.
 	 * @param <T>
 	 * @param cache
 	 * @param cls
 	 */
 	public static <T> void setCache(Map<RegionRequest, T> cache, final Class<T> cls) {
 		cacheMap.put(cls, cache);
+		if (cls == BufferedImage.class)
+			updateDiskTileCacheListener();
 	}
 	
 	/**
@@ -84,6 +95,43 @@ public class ImageServerProvider {
 		return (Map<RegionRequest, T>)cacheMap.get(cls);
 	}
 	
+	/**
+	 * Set a second-level cache to store tiles evicted from the cache for {@link BufferedImage} tiles.
+	 * <p>
+	 * Tiles are only written to the disk cache if the cache set with {@link #setCache(Map, Class)} is a 
+	 * {@link TileCache}, and the server has opted in (see {@link AbstractTileableImageServer#useDiskTileCache()}).
+	 * Any previous disk cache is closed.
+	 * @param cache the disk cache, or null if tiles should not be written to disk
+	 * @since v0.5.0
+	 */
+	public static synchronized void setDiskTileCache(DiskTileCache cache) {
+		var previous = diskTileCache;
+		diskTileCache = cache;
+		updateDiskTileCacheListener();
+		if (previous != null && previous != cache)
+			previous.close();
+	}
+	
+	/**
+	 * Get the second-level cache used to store tiles evicted from the main tile cache.
+	 * @return the disk cache, or null if none has been set
+	 * @since v0.5.0
+	 * @see #setDiskTileCache(DiskTileCache)
+	 */
+	public static DiskTileCache getDiskTileCache() {
+		return diskTileCache;
+	}
+	
+	private static void updateDiskTileCacheListener() {
+		var cache = getCache(BufferedImage.class);
+		if (cache instanceof TileCache<BufferedImage> tileCache) {
+			var diskCache = diskTileCache;
+			tileCache.setEvictionListener(diskCache == null ? null : diskCache::putAsync);
+		} else if (cache != null && diskTileCache != null) {
+			logger.warn("Disk tile cache can only be used along with a TileCache");
+		}
+	}
+	
 	/**
 	 * Replace the default service loader with another.
 	 * <p>
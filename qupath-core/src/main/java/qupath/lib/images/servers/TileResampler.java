@@ -0,0 +1,330 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Helper class to downsample a region of an image tile-by-tile, writing the contribution of each tile
+ * directly to the output raster.
+ * <p>
+ * This avoids needing to assemble a (potentially very large) raster at the resolution of the tiles,
+ * before cropping and resizing it.
+ * <p>
+ * Two modes are supported:
+ * <ul>
+ *   <li><b>Area averaging:</b> each output pixel is the mean of all input pixels it covers, weighted by
+ *   the fraction of each input pixel that is covered</li>
+ *   <li><b>Nearest neighbor:</b> each output pixel takes the value of the input pixel at its center</li>
+ * </ul>
+ * Pixels that are covered by an output pixel but belong to no tile (e.g. for sparse images) are treated as zero.
+ * <p>
+ * This is intended for downsampling only, i.e. each output pixel should correspond to at least one input pixel
+ * in each dimension.
+ * <p>
+ * When area averaging, tiles must be added in order of increasing y-coordinate.
+ * Sums are then only stored for the band of output rows overlapping the current row of tiles, and each output row 
+ * is written as soon as it is complete.
+ * Instances are not thread-safe.
+ *
+ * @since v0.5.0
+ */
+final class TileResampler {
+
+	private final WritableRaster output;
+	private final int width;
+	private final int height;
+	private final int nBands;
+	private final double x0;
+	private final double y0;
+	private final double scaleX;
+	private final double scaleY;
+	private final boolean areaAveraging;
+
+	// Accumulated (weighted) sums for area averaging, with one array per band.
+	// Each array contains bandCapacity rows, starting from output row bandStart.
+	private double[][] sums;
+	private int bandStart = 0;
+	private int bandCapacity = 0;
+	private int lastTileY = Integer.MIN_VALUE;
+
+	// Input coordinates sampled for each output column and row when using nearest neighbor
+	private int[] sourceX;
+	private int[] sourceY;
+
+	/**
+	 * Create a resampler that writes to the specified raster.
+	 * @param output the output raster; this should be zero-filled and have the same number of bands and
+	 *               transfer type as the tiles
+	 * @param x0 x-coordinate of the output origin, in the coordinate space of the tiles
+	 * @param y0 y-coordinate of the output origin, in the coordinate space of the tiles
+	 * @param scaleX number of input pixels per output pixel horizontally; must be &ge; 1
+	 * @param scaleY number of input pixels per output pixel vertically; must be &ge; 1
+	 * @param areaAveraging if true, use area averaging; otherwise use nearest neighbor
+	 */
+	TileResampler(WritableRaster output, double x0, double y0, double scaleX, double scaleY, boolean areaAveraging) {
+		if (!(scaleX >= 1 && scaleY >= 1))
+			throw new IllegalArgumentException("Scale factors must be >= 1, but were " + scaleX + " and " + scaleY);
+		this.output = output;
+		this.width = output.getWidth();
+		this.height = output.getHeight();
+		this.nBands = output.getNumBands();
+		this.x0 = x0;
+		this.y0 = y0;
+		this.scaleX = scaleX;
+		this.scaleY = scaleY;
+		this.areaAveraging = areaAveraging;
+		if (areaAveraging) {
+			sums = new double[nBands][0];
+		} else {
+			sourceX = new int[width];
+			for (int x = 0; x < width; x++)
+				sourceX[x] = (int)Math.floor(x0 + (x + 0.5) * scaleX);
+			sourceY = new int[height];
+			for (int y = 0; y < height; y++)
+				sourceY[y] = (int)Math.floor(y0 + (y + 0.5) * scaleY);
+		}
+	}
+
+	/**
+	 * Add the pixels of a tile.
+	 * @param tile raster containing the pixels of the tile
+	 * @param tileX x-coordinate of the tile origin, in the coordinate space of the tiles
+	 * @param tileY y-coordinate of the tile origin, in the coordinate space of the tiles
+	 * @throws IllegalArgumentException if area averaging and tileY is less than the y-coordinate of a previous tile
+	 */
+	void addTile(Raster tile, int tileX, int tileY) {
+		if (areaAveraging)
+			addTileAreaAveraging(tile, tileX, tileY);
+		else
+			addTileNearest(tile, tileX, tileY);
+	}
+
+	private void addTileNearest(Raster tile, int tileX, int tileY) {
+		int tileWidth = tile.getWidth();
+		int tileHeight = tile.getHeight();
+		int minX = tile.getMinX();
+		int minY = tile.getMinY();
+		// Output pixels are sampled at increasing input coordinates, so we only need the first & last in the tile
+		int xStart = firstIndexAtLeast(sourceX, tileX);
+		int xEnd = firstIndexAtLeast(sourceX, tileX + tileWidth);
+		int yStart = firstIndexAtLeast(sourceY, tileY);
+		int yEnd = firstIndexAtLeast(sourceY, tileY + tileHeight);
+		Object elements = null;
+		for (int y = yStart; y < yEnd; y++) {
+			int ty = sourceY[y] - tileY + minY;
+			for (int x = xStart; x < xEnd; x++) {
+				elements = tile.getDataElements(sourceX[x] - tileX + minX, ty, elements);
+				output.setDataElements(x, y, elements);
+			}
+		}
+	}
+
+	private static int firstIndexAtLeast(int[] values, int target) {
+		int low = 0;
+		int high = values.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (values[mid] < target)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private void addTileAreaAveraging(Raster tile, int tileX, int tileY) {
+		if (tileY < lastTileY)
+			throw new IllegalArgumentException("Tiles must be added in order of increasing y (" + tileY + " < " + lastTileY + ")");
+		lastTileY = tileY;
+		int tileWidth = tile.getWidth();
+		int tileHeight = tile.getHeight();
+
+		// Later tiles cannot contribute to rows that end before this tile starts
+		writeRows(outputIndex(tileY, y0, scaleY, height));
+		ensureBandContains(outputIndex(tileY + tileHeight, y0, scaleY, height - 1));
+
+		// Each input pixel overlaps at most two output pixels in each dimension,
+		// because the scale is >= 1
+		int[] col1 = new int[tileWidth];
+		int[] col2 = new int[tileWidth];
+		double[] colWeight1 = new double[tileWidth];
+		double[] colWeight2 = new double[tileWidth];
+		int xFirst = -1, xLast = -1;
+		for (int i = 0; i < tileWidth; i++) {
+			if (computeOverlap(tileX + i, x0, scaleX, width, col1, col2, colWeight1, colWeight2, i)) {
+				if (xFirst < 0)
+					xFirst = i;
+				xLast = i;
+			}
+		}
+		if (xFirst < 0)
+			return;
+
+		int[] row1 = new int[1];
+		int[] row2 = new int[1];
+		double[] rowWeight1 = new double[1];
+		double[] rowWeight2 = new double[1];
+		int nSamples = xLast - xFirst + 1;
+		double[] samples = new double[nSamples];
+		for (int j = 0; j < tileHeight; j++) {
+			if (!computeOverlap(tileY + j, y0, scaleY, height, row1, row2, rowWeight1, rowWeight2, 0))
+				continue;
+			int offset1 = (row1[0] - bandStart) * width;
+			int offset2 = row2[0] < 0 ? -1 : (row2[0] - bandStart) * width;
+			for (int b = 0; b < nBands; b++) {
+				samples = tile.getSamples(tile.getMinX() + xFirst, tile.getMinY() + j, nSamples, 1, b, samples);
+				double[] sum = sums[b];
+				for (int i = xFirst; i <= xLast; i++) {
+					double val = samples[i - xFirst];
+					if (val == 0)
+						continue;
+					int c1 = col1[i];
+					if (c1 < 0)
+						continue;
+					int c2 = col2[i];
+					double w1 = colWeight1[i] * val;
+					sum[offset1 + c1] += w1 * rowWeight1[0];
+					if (offset2 >= 0)
+						sum[offset2 + c1] += w1 * rowWeight2[0];
+					if (c2 >= 0) {
+						double w2 = colWeight2[i] * val;
+						sum[offset1 + c2] += w2 * rowWeight1[0];
+						if (offset2 >= 0)
+							sum[offset2 + c2] += w2 * rowWeight2[0];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the index of the output pixel containing an input coordinate, clamped to the range 0 to max.
+	 */
+	private static int outputIndex(int coord, double origin, double scale, int max) {
+		// Use the same calculation as computeOverlap
+		int ind = (int)Math.floor((coord - origin) / scale);
+		return Math.max(0, Math.min(max, ind));
+	}
+
+	/**
+	 * Ensure the sums include all rows up to and including the specified row.
+	 */
+	private void ensureBandContains(int row) {
+		int nRows = row - bandStart + 1;
+		if (nRows <= bandCapacity)
+			return;
+		for (int b = 0; b < nBands; b++)
+			sums[b] = Arrays.copyOf(sums[b], nRows * width);
+		bandCapacity = nRows;
+	}
+
+	/**
+	 * Write all rows before the specified row to the output, and remove them from the sums.
+	 */
+	private void writeRows(int endRow) {
+		if (endRow <= bandStart)
+			return;
+		int nRows = Math.min(endRow - bandStart, bandCapacity);
+		double area = scaleX * scaleY;
+		boolean isInteger = isIntegerType(output.getTransferType());
+		double[] row = new double[width];
+		for (int b = 0; b < nBands; b++) {
+			double[] sum = sums[b];
+			for (int r = 0; r < nRows; r++) {
+				int offset = r * width;
+				for (int x = 0; x < width; x++) {
+					double val = sum[offset + x] / area;
+					row[x] = isInteger ? Math.round(val) : val;
+				}
+				output.setSamples(0, bandStart + r, width, 1, b, row);
+			}
+			// Move the remaining rows to the start of the band
+			int nValues = nRows * width;
+			System.arraycopy(sum, nValues, sum, 0, sum.length - nValues);
+			Arrays.fill(sum, sum.length - nValues, sum.length, 0.0);
+		}
+		bandStart = endRow;
+	}
+
+	/**
+	 * Compute the output pixels overlapped by the input pixel at a specified coordinate, in one dimension.
+	 * Results are stored in the arrays at the specified index; an output index of -1 indicates no overlap.
+	 * @return true if the input pixel overlaps at least one output pixel, false otherwise
+	 */
+	private static boolean computeOverlap(int coord, double origin, double scale, int n,
+			int[] ind1, int[] ind2, double[] weight1, double[] weight2, int i) {
+		// Input pixel covers [start, start+1) in output coordinates, scaled to have a length of 1/scale
+		double start = (coord - origin) / scale;
+		double end = (coord + 1 - origin) / scale;
+		ind1[i] = -1;
+		ind2[i] = -1;
+		if (end <= 0 || start >= n)
+			return false;
+		int first = (int)Math.floor(start);
+		double boundary = first + 1;
+		if (first < 0) {
+			// Only the part from 0 onwards overlaps the output
+			ind1[i] = 0;
+			weight1[i] = Math.min(end, 1.0) * scale;
+			return true;
+		}
+		ind1[i] = first;
+		if (end <= boundary || boundary >= n) {
+			weight1[i] = (Math.min(end, boundary) - start) * scale;
+		} else {
+			weight1[i] = (boundary - start) * scale;
+			ind2[i] = first + 1;
+			weight2[i] = (end - boundary) * scale;
+		}
+		return true;
+	}
+
+	/**
+	 * Complete resampling, and return the output raster.
+	 * This should be called once, after all tiles have been added.
+	 * @return the output raster, as passed to the constructor
+	 */
+	WritableRaster build() {
+		if (!areaAveraging)
+			return output;
+		writeRows(height);
+		sums = null;
+		return output;
+	}
+
+	private static boolean isIntegerType(int transferType) {
+		switch (transferType) {
+		case DataBuffer.TYPE_BYTE:
+		case DataBuffer.TYPE_SHORT:
+		case DataBuffer.TYPE_USHORT:
+		case DataBuffer.TYPE_INT:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,549 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers.cache;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.ThreadTools;
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * A second-level cache that stores the pixels of image tiles in memory-mapped files on a local disk.
+ * <p>
+ * This is intended to hold tiles that have been evicted from a {@link TileCache}, for servers where
+ * decoding tiles is expensive (e.g. JPEG2000 or large SVS files).
+ * Retrieving a tile from the disk cache requires only copying the raw pixels, which is generally much faster
+ * than decoding them again.
+ * <p>
+ * Tiles are appended to fixed-size segment files within a temporary subdirectory of the scratch directory.
+ * When the disk quota would be exceeded, the oldest segment is reused and all the tiles it contains are discarded.
+ * Segment files are never deleted while the cache is open, because the disk space used by a memory-mapped file 
+ * is not reliably freed until the mapping is garbage collected.
+ * All files are deleted when the cache is closed, or when the JVM exits.
+ * <p>
+ * Only tiles from server paths registered with {@link #registerServerPath(String)} are stored.
+ * Servers should only be registered if their pixels cannot change, since tiles are never updated once they
+ * have been written.
+ *
+ * @since v0.5.0
+ * @see qupath.lib.images.servers.ImageServerProvider#setDiskTileCache(DiskTileCache)
+ */
+public class DiskTileCache implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(DiskTileCache.class);
+
+	private static final long MIN_SEGMENT_SIZE = 16L * 1024L * 1024L;
+	private static final long MAX_SEGMENT_SIZE = 1024L * 1024L * 1024L;
+
+	/**
+	 * Maximum number of tiles waiting to be written by {@link #putAsync(RegionRequest, BufferedImage)}.
+	 * Further tiles are dropped, to avoid holding on to evicted tiles for too long.
+	 */
+	private static final int MAX_PENDING_WRITES = 64;
+
+	private final Path directory;
+	private final long maxSizeBytes;
+	private final long segmentSize;
+	private final int maxSegments;
+
+	private final Map<RegionRequest, Location> index = new ConcurrentHashMap<>();
+	private final Set<String> serverPaths = ConcurrentHashMap.newKeySet();
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Deque<Segment> segments = new ArrayDeque<>();
+	private Segment currentSegment;
+	private int segmentCount = 0;
+	private boolean closed = false;
+
+	private final ExecutorService writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<>(MAX_PENDING_WRITES),
+			ThreadTools.createThreadFactory("disk-tile-cache-writer-", true),
+			new ThreadPoolExecutor.DiscardPolicy());
+
+	private final Thread shutdownHook;
+
+	/**
+	 * Create a new disk cache in a temporary subdirectory of the specified scratch directory.
+	 * @param scratchDirectory directory within which the cache files should be written; this will be created if necessary
+	 * @param maxSizeBytes maximum size of the files written to disk, in bytes
+	 * @throws IOException if the cache directory could not be created
+	 */
+	public DiskTileCache(Path scratchDirectory, long maxSizeBytes) throws IOException {
+		if (maxSizeBytes < MIN_SEGMENT_SIZE)
+			throw new IllegalArgumentException("Disk cache size must be at least " + MIN_SEGMENT_SIZE + " bytes");
+		Files.createDirectories(scratchDirectory);
+		this.directory = Files.createTempDirectory(scratchDirectory, "qupath-tile-cache-");
+		this.maxSizeBytes = maxSizeBytes;
+		this.segmentSize = Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, maxSizeBytes / 16));
+		this.maxSegments = (int)Math.max(1L, maxSizeBytes / segmentSize);
+		this.shutdownHook = new Thread(this::deleteFiles, "disk-tile-cache-cleanup");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+		logger.info("Created disk tile cache at {} ({} MB)", directory, maxSizeBytes / 1024 / 1024);
+	}
+
+	/**
+	 * Get the directory containing the cache files.
+	 * @return
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Get the maximum size of all cache files, in bytes.
+	 * @return
+	 */
+	public long getMaxSizeBytes() {
+		return maxSizeBytes;
+	}
+
+	/**
+	 * Get the current size of all cache files, in bytes.
+	 * Note that this is the space reserved on disk, which may be greater than the total size of tiles stored.
+	 * @return
+	 */
+	public long getSizeBytes() {
+		lock.readLock().lock();
+		try {
+			return segments.size() * segmentSize;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the number of tiles currently stored.
+	 * @return
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * Register a server path, so that its tiles may be stored in the cache.
+	 * @param serverPath
+	 */
+	public void registerServerPath(String serverPath) {
+		if (serverPath != null)
+			serverPaths.add(serverPath);
+	}
+
+	/**
+	 * Check if a server path has been registered.
+	 * @param serverPath
+	 * @return
+	 */
+	public boolean isRegistered(String serverPath) {
+		return serverPath != null && serverPaths.contains(serverPath);
+	}
+
+	/**
+	 * Check if the cache contains a tile for a specified request.
+	 * @param request
+	 * @return
+	 */
+	public boolean containsKey(RegionRequest request) {
+		return index.containsKey(request);
+	}
+
+	/**
+	 * Store a tile in the cache, writing it on a background thread.
+	 * This returns immediately, and so is suitable for use as an eviction listener for a {@link TileCache} 
+	 * (which may be called from any thread that adds a tile, including the UI thread).
+	 * If too many tiles are already waiting to be written, the tile is not stored.
+	 *
+	 * @param request the region request corresponding to the tile
+	 * @param img the tile
+	 * @see #put(RegionRequest, BufferedImage)
+	 */
+	public void putAsync(RegionRequest request, BufferedImage img) {
+		if (img == null || !isRegistered(request.getPath()) || index.containsKey(request))
+			return;
+		writer.execute(() -> put(request, img));
+	}
+
+	/**
+	 * Store a tile in the cache.
+	 * This does nothing if the server path is not registered, or the tile is already stored.
+	 *
+	 * @param request the region request corresponding to the tile
+	 * @param img the tile
+	 * @return true if the tile was written to the cache, false otherwise
+	 * @see #putAsync(RegionRequest, BufferedImage)
+	 */
+	public boolean put(RegionRequest request, BufferedImage img) {
+		if (img == null || !isRegistered(request.getPath()) || index.containsKey(request))
+			return false;
+
+		WritableRaster raster = img.getRaster();
+		// We need a raster that exactly fits its data buffer, so we can recreate it later
+		if (raster.getParent() != null || raster.getMinX() != 0 || raster.getMinY() != 0 ||
+				raster.getSampleModel().getWidth() != raster.getWidth() || raster.getSampleModel().getHeight() != raster.getHeight()) {
+			var raster2 = raster.createCompatibleWritableRaster(raster.getWidth(), raster.getHeight());
+			raster2.setRect(-raster.getMinX(), -raster.getMinY(), raster);
+			raster = raster2;
+		}
+		DataBuffer buffer = raster.getDataBuffer();
+		int bytesPerElement = DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+		long length = (long)buffer.getSize() * bytesPerElement * buffer.getNumBanks();
+		if (length > segmentSize) {
+			logger.debug("Tile is too large for disk cache ({} bytes): {}", length, request);
+			return false;
+		}
+
+		// Reserve space for the tile
+		Segment segment;
+		int generation;
+		int offset;
+		lock.writeLock().lock();
+		try {
+			if (closed)
+				return false;
+			if (currentSegment == null || currentSegment.position + length > segmentSize) {
+				try {
+					currentSegment = nextSegment();
+				} catch (IOException e) {
+					logger.warn("Unable to create disk cache segment: {}", e.getLocalizedMessage());
+					logger.debug(e.getLocalizedMessage(), e);
+					currentSegment = null;
+					return false;
+				}
+			}
+			segment = currentSegment;
+			generation = segment.generation;
+			offset = (int)segment.position;
+			segment.position += length;
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		// Write the pixels - this can happen concurrently for different tiles
+		lock.readLock().lock();
+		try {
+			// Check the segment hasn't been reused while waiting for the lock
+			if (closed || segment.generation != generation)
+				return false;
+			ByteBuffer bb = segment.buffer.duplicate().order(ByteOrder.nativeOrder());
+			for (int b = 0; b < buffer.getNumBanks(); b++) {
+				bb.position(offset + (int)((long)b * buffer.getSize() * bytesPerElement));
+				writeBank(buffer, b, bb);
+			}
+			var location = new Location(request, segment, generation, offset, raster.getSampleModel(), img.getColorModel(), img.isAlphaPremultiplied(), buffer);
+			synchronized (segment) {
+				segment.locations.add(location);
+			}
+			index.put(request, location);
+			return true;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get a tile from the cache.
+	 * @param request
+	 * @return the tile, or null if no tile is stored for the request
+	 */
+	public BufferedImage get(RegionRequest request) {
+		var location = index.get(request);
+		if (location == null)
+			return null;
+		lock.readLock().lock();
+		try {
+			if (closed || location.segment.generation != location.generation)
+				return null;
+			ByteBuffer bb = location.segment.buffer.duplicate().order(ByteOrder.nativeOrder());
+			int bytesPerElement = DataBuffer.getDataTypeSize(location.dataType) / 8;
+			DataBuffer buffer = createDataBuffer(location);
+			for (int b = 0; b < location.numBanks; b++) {
+				bb.position(location.offset + (int)((long)b * location.size * bytesPerElement));
+				readBank(bb, buffer, b);
+			}
+			WritableRaster raster = Raster.createWritableRaster(location.sampleModel, buffer, null);
+			return new BufferedImage(location.colorModel, raster, location.alphaPremultiplied, null);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove all tiles for a specified server path, and deregister the path.
+	 * This should be called when a server is closed.
+	 * The disk space is reclaimed when the segments containing the tiles are reused.
+	 * @param serverPath
+	 */
+	public void removeServer(String serverPath) {
+		serverPaths.remove(serverPath);
+		index.keySet().removeIf(r -> serverPath.equals(r.getPath()));
+	}
+
+	/**
+	 * Get an empty segment to write to.
+	 * This creates a new segment if the quota allows, otherwise the oldest segment is reused.
+	 * Must be called while holding the write lock.
+	 * @return
+	 * @throws IOException
+	 */
+	private Segment nextSegment() throws IOException {
+		if (segments.size() >= maxSegments) {
+			var segment = segments.removeFirst();
+			discardTiles(segment);
+			segment.position = 0L;
+			segments.addLast(segment);
+			logger.trace("Reusing disk cache segment {}", segment.path);
+			return segment;
+		}
+		var path = directory.resolve("segment-" + (segmentCount++) + ".bin");
+		try (var channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// The mapping remains valid after the channel is closed
+			var buffer = channel.map(MapMode.READ_WRITE, 0, segmentSize);
+			var segment = new Segment(path, buffer);
+			segments.addLast(segment);
+			logger.trace("Created disk cache segment {}", path);
+			return segment;
+		}
+	}
+
+	/**
+	 * Remove all tiles stored in a segment from the index, and invalidate any existing locations.
+	 * Must be called while holding the write lock.
+	 * @param segment
+	 */
+	private void discardTiles(Segment segment) {
+		segment.generation++;
+		List<Location> locations;
+		synchronized (segment) {
+			locations = new ArrayList<>(segment.locations);
+			segment.locations.clear();
+		}
+		// Tiles may have been stored again in a newer segment, so only remove the entry if it is unchanged
+		for (var location : locations)
+			index.remove(location.request, location);
+		logger.trace("Discarded {} tiles from disk cache segment {}", locations.size(), segment.path);
+	}
+
+	private static void deleteFile(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			// On some platforms, a file cannot be deleted while it is mapped
+			logger.debug("Unable to delete {} - will try again on exit", path);
+			path.toFile().deleteOnExit();
+		}
+	}
+
+	private void deleteFiles() {
+		lock.writeLock().lock();
+		try {
+			closed = true;
+			while (!segments.isEmpty()) {
+				var segment = segments.removeFirst();
+				discardTiles(segment);
+				deleteFile(segment.path);
+			}
+			currentSegment = null;
+			index.clear();
+			deleteFile(directory);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Close the cache, deleting all files.
+	 */
+	@Override
+	public void close() {
+		writer.shutdownNow();
+		deleteFiles();
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			// Already shutting down
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("DiskTileCache: %d tiles, %.1f/%.1f MB (%s)",
+				size(), getSizeBytes()/(1024.0*1024.0), maxSizeBytes/(1024.0*1024.0), directory);
+	}
+
+
+	private static void writeBank(DataBuffer buffer, int bank, ByteBuffer bb) {
+		int offset = buffer.getOffsets()[bank];
+		int size = buffer.getSize();
+		switch (buffer.getDataType()) {
+		case DataBuffer.TYPE_BYTE:
+			bb.put(((DataBufferByte)buffer).getData(bank), offset, size);
+			break;
+		case DataBuffer.TYPE_USHORT:
+			bb.asShortBuffer().put(((DataBufferUShort)buffer).getData(bank), offset, size);
+			break;
+		case DataBuffer.TYPE_SHORT:
+			bb.asShortBuffer().put(((DataBufferShort)buffer).getData(bank), offset, size);
+			break;
+		case DataBuffer.TYPE_INT:
+			bb.asIntBuffer().put(((DataBufferInt)buffer).getData(bank), offset, size);
+			break;
+		case DataBuffer.TYPE_FLOAT:
+			bb.asFloatBuffer().put(((DataBufferFloat)buffer).getData(bank), offset, size);
+			break;
+		case DataBuffer.TYPE_DOUBLE:
+			bb.asDoubleBuffer().put(((DataBufferDouble)buffer).getData(bank), offset, size);
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported data type " + buffer.getDataType());
+		}
+	}
+
+	private static void readBank(ByteBuffer bb, DataBuffer buffer, int bank) {
+		switch (buffer.getDataType()) {
+		case DataBuffer.TYPE_BYTE:
+			bb.get(((DataBufferByte)buffer).getData(bank));
+			break;
+		case DataBuffer.TYPE_USHORT:
+			bb.asShortBuffer().get(((DataBufferUShort)buffer).getData(bank));
+			break;
+		case DataBuffer.TYPE_SHORT:
+			bb.asShortBuffer().get(((DataBufferShort)buffer).getData(bank));
+			break;
+		case DataBuffer.TYPE_INT:
+			bb.asIntBuffer().get(((DataBufferInt)buffer).getData(bank));
+			break;
+		case DataBuffer.TYPE_FLOAT:
+			bb.asFloatBuffer().get(((DataBufferFloat)buffer).getData(bank));
+			break;
+		case DataBuffer.TYPE_DOUBLE:
+			bb.asDoubleBuffer().get(((DataBufferDouble)buffer).getData(bank));
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported data type " + buffer.getDataType());
+		}
+	}
+
+	private static DataBuffer createDataBuffer(Location location) {
+		int n = location.numBanks;
+		int size = location.size;
+		// Offsets are zero, since only the used elements are stored
+		int[] offsets = new int[n];
+		switch (location.dataType) {
+		case DataBuffer.TYPE_BYTE:
+			return new DataBufferByte(new byte[n][size], size, offsets);
+		case DataBuffer.TYPE_USHORT:
+			return new DataBufferUShort(new short[n][size], size, offsets);
+		case DataBuffer.TYPE_SHORT:
+			return new DataBufferShort(new short[n][size], size, offsets);
+		case DataBuffer.TYPE_INT:
+			return new DataBufferInt(new int[n][size], size, offsets);
+		case DataBuffer.TYPE_FLOAT:
+			return new DataBufferFloat(new float[n][size], size, offsets);
+		case DataBuffer.TYPE_DOUBLE:
+			return new DataBufferDouble(new double[n][size], size, offsets);
+		default:
+			throw new IllegalArgumentException("Unsupported data type " + location.dataType);
+		}
+	}
+
+
+	private static class Segment {
+
+		private final Path path;
+		private final MappedByteBuffer buffer;
+		private final List<Location> locations = new ArrayList<>();
+		// Guarded by the lock
+		private long position = 0L;
+		private int generation = 0;
+
+		private Segment(Path path, MappedByteBuffer buffer) {
+			this.path = path;
+			this.buffer = buffer;
+		}
+
+	}
+
+
+	private static class Location {
+
+		private final RegionRequest request;
+		private final Segment segment;
+		private final int generation;
+		private final int offset;
+		private final SampleModel sampleModel;
+		private final ColorModel colorModel;
+		private final boolean alphaPremultiplied;
+		private final int dataType;
+		private final int numBanks;
+		private final int size;
+
+		private Location(RegionRequest request, Segment segment, int generation, int offset, SampleModel sampleModel, ColorModel colorModel, boolean alphaPremultiplied, DataBuffer buffer) {
+			this.request = request;
+			this.segment = segment;
+			this.generation = generation;
+			this.offset = offset;
+			this.sampleModel = sampleModel;
+			this.colorModel = colorModel;
+			this.alphaPremultiplied = alphaPremultiplied;
+			this.dataType = buffer.getDataType();
+			this.numBanks = buffer.getNumBanks();
+			this.size = buffer.getSize();
+		}
+
+	}
+
+}
@@ -0,0 +1,500 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers.cache;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Thread-safe cache for image tiles, which limits its contents according to their estimated size in bytes.
+ * <p>
+ * Entries are distributed across independently-locked segments, so that concurrent requests for
+ * different tiles don't need to wait on a single monitor.
+ * Each segment keeps its entries in access order. Whenever the total size exceeds the limit, the
+ * least-recently-used entry of the older of two candidate segments is evicted, which gives a
+ * close approximation to a global LRU policy without needing a global lock.
+ * <p>
+ * Unlike a segmented cache where each segment has its own fixed budget, the size limit here is shared:
+ * any tile that is no larger than the full cache size can be stored, regardless of the number of segments.
+ * <p>
+ * Hit, miss and eviction counts are recorded for each server path, and can be queried with
+ * {@link #getStatistics(String)}.
+ * Note that only calls to {@link #get(Object)} contribute to hit &amp; miss counts; {@link #containsKey(Object)}
+ * can be used to check for a tile without influencing the statistics (or the eviction order).
+ * <p>
+ * Null keys and values are not supported.
+ *
+ * @param <T> type of tile stored in the cache (generally {@link BufferedImage})
+ * @since v0.5.0
+ */
+public class TileCache<T> extends AbstractMap<RegionRequest, T> {
+
+	private static final Logger logger = LoggerFactory.getLogger(TileCache.class);
+
+	private final ToLongFunction<? super T> sizeEstimator;
+	private final long maxSizeBytes;
+
+	private final Segment<T>[] segments;
+	private final int segmentMask;
+
+	private final AtomicLong sizeBytes = new AtomicLong();
+	private final AtomicInteger evictionCounter = new AtomicInteger();
+
+	private final Map<String, TileCacheStatistics> statistics = new ConcurrentHashMap<>();
+
+	private volatile BiConsumer<? super RegionRequest, ? super T> evictionListener;
+
+	private transient Set<Entry<RegionRequest, T>> entrySet;
+
+	/**
+	 * Create a new tile cache.
+	 * @param sizeEstimator function to estimate the size of each tile, in bytes
+	 * @param maxSizeBytes maximum total size of all tiles in the cache, in bytes
+	 * @param concurrencyLevel estimated number of threads that access the cache concurrently;
+	 *                         this is used to determine the number of segments
+	 */
+	@SuppressWarnings("unchecked")
+	public TileCache(ToLongFunction<? super T> sizeEstimator, long maxSizeBytes, int concurrencyLevel) {
+		Objects.requireNonNull(sizeEstimator, "Size estimator must not be null");
+		if (maxSizeBytes <= 0)
+			throw new IllegalArgumentException("Maximum cache size must be > 0, but was " + maxSizeBytes);
+		this.sizeEstimator = sizeEstimator;
+		this.maxSizeBytes = maxSizeBytes;
+		// Use a power of 2 for the number of segments, so we can use a mask to find them
+		int nSegments = Integer.highestOneBit(Math.max(1, Math.min(concurrencyLevel, 1 << 12)) * 2 - 1);
+		this.segments = new Segment[nSegments];
+		for (int i = 0; i < nSegments; i++)
+			segments[i] = new Segment<>();
+		this.segmentMask = nSegments - 1;
+	}
+
+	/**
+	 * Create a new tile cache, using a concurrency level determined by the number of available processors.
+	 * @param sizeEstimator function to estimate the size of each tile, in bytes
+	 * @param maxSizeBytes maximum total size of all tiles in the cache, in bytes
+	 */
+	public TileCache(ToLongFunction<? super T> sizeEstimator, long maxSizeBytes) {
+		this(sizeEstimator, maxSizeBytes, Runtime.getRuntime().availableProcessors() * 4);
+	}
+
+	/**
+	 * Create a new tile cache for {@link BufferedImage} tiles, using {@link #estimateSize(BufferedImage)}
+	 * to determine the size of each tile.
+	 * @param maxSizeBytes maximum total size of all tiles in the cache, in bytes
+	 * @return
+	 */
+	public static TileCache<BufferedImage> createBufferedImageCache(long maxSizeBytes) {
+		return new TileCache<>(TileCache::estimateSize, maxSizeBytes);
+	}
+
+	/**
+	 * Estimate the size of a {@link BufferedImage} in bytes, based upon its data buffer.
+	 * <p>
+	 * This isn't particularly exact (and doesn't try to deal with anything beyond pixels),
+	 * but gives a good enough guide to help with caching.
+	 * @param img
+	 * @return the estimated size in bytes, or 0 if the image is null
+	 */
+	public static long estimateSize(BufferedImage img) {
+		if (img == null)
+			return 0;
+		DataBuffer data = img.getRaster().getDataBuffer();
+		return (long)data.getSize() * (long)(DataBuffer.getDataTypeSize(data.getDataType())/8) * data.getNumBanks();
+	}
+
+	/**
+	 * Get the maximum size of the cache, in bytes.
+	 * @return
+	 */
+	public long getMaxSizeBytes() {
+		return maxSizeBytes;
+	}
+
+	/**
+	 * Get the current estimated size of all tiles in the cache, in bytes.
+	 * @return
+	 */
+	public long getSizeBytes() {
+		return sizeBytes.get();
+	}
+
+	/**
+	 * Get the statistics for all tiles requested for a specific server path.
+	 * @param serverPath the server path, as returned by {@link RegionRequest#getPath()}
+	 * @return the statistics, or null if the cache has never been accessed for the server
+	 */
+	public TileCacheStatistics getStatistics(String serverPath) {
+		return statistics.get(serverPath);
+	}
+
+	/**
+	 * Get an unmodifiable snapshot of the statistics for all server paths that have accessed the cache.
+	 * @return
+	 */
+	public Map<String, TileCacheStatistics> getAllStatistics() {
+		return Collections.unmodifiableMap(new LinkedHashMap<>(statistics));
+	}
+
+	/**
+	 * Reset the hit, miss and eviction counts for all servers.
+	 * Counts of the tiles and bytes currently held are retained.
+	 */
+	public void resetStatistics() {
+		for (var stats : statistics.values())
+			stats.resetCounts();
+	}
+
+	/**
+	 * Set a listener to be notified whenever a tile is evicted to make space for other tiles.
+	 * This can be used to pass the tile to a second-level cache, such as a {@link DiskTileCache}.
+	 * <p>
+	 * The listener is not notified when tiles are removed explicitly, or when the cache is cleared.
+	 * It is called from the thread that added the tile that triggered the eviction, without holding
+	 * any locks, and so should return quickly.
+	 * @param listener the listener, or null if no listener is required
+	 */
+	public void setEvictionListener(BiConsumer<? super RegionRequest, ? super T> listener) {
+		this.evictionListener = listener;
+	}
+
+	/**
+	 * Get the listener notified whenever a tile is evicted.
+	 * @return the listener, or null if no listener has been set
+	 * @see #setEvictionListener(BiConsumer)
+	 */
+	public BiConsumer<? super RegionRequest, ? super T> getEvictionListener() {
+		return evictionListener;
+	}
+
+	private TileCacheStatistics statistics(RegionRequest request) {
+		var path = request.getPath();
+		return statistics.computeIfAbsent(path == null ? "" : path, p -> new TileCacheStatistics());
+	}
+
+	private Segment<T> segmentFor(Object key) {
+		// Spread the hash bits, as RegionRequests with similar coordinates can have similar hash codes
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return segments[h & segmentMask];
+	}
+
+	@Override
+	public T get(Object key) {
+		if (!(key instanceof RegionRequest))
+			return null;
+		var request = (RegionRequest)key;
+		var segment = segmentFor(request);
+		CacheEntry<T> entry;
+		synchronized (segment) {
+			entry = segment.map.get(request);
+			if (entry != null)
+				entry.lastAccess = System.nanoTime();
+		}
+		var stats = statistics(request);
+		if (entry == null) {
+			stats.recordMiss();
+			return null;
+		}
+		stats.recordHit();
+		return entry.value;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (!(key instanceof RegionRequest))
+			return false;
+		var segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.map.containsKey(key);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * If the size of the value exceeds the maximum size of the cache, then it will not be stored.
+	 */
+	@Override
+	public T put(RegionRequest key, T value) {
+		Objects.requireNonNull(key, "Tile cache does not support null keys");
+		Objects.requireNonNull(value, "Tile cache does not support null values");
+		long size = Math.max(0L, sizeEstimator.applyAsLong(value));
+		if (size > maxSizeBytes) {
+			logger.debug("Tile is too large to cache ({} bytes, max is {} bytes): {}", size, maxSizeBytes, key);
+			return remove(key);
+		}
+		var entry = new CacheEntry<>(value, size);
+		var segment = segmentFor(key);
+		CacheEntry<T> previous;
+		synchronized (segment) {
+			previous = segment.map.put(key, entry);
+			segment.sizeBytes += size;
+			if (previous != null)
+				segment.sizeBytes -= previous.size;
+		}
+		var stats = statistics(key);
+		stats.recordAdded(size);
+		if (previous != null)
+			stats.recordRemoved(previous.size);
+		long total = sizeBytes.addAndGet(previous == null ? size : size - previous.size);
+		if (total > maxSizeBytes)
+			evict();
+		return previous == null ? null : previous.value;
+	}
+
+	@Override
+	public T remove(Object key) {
+		if (!(key instanceof RegionRequest))
+			return null;
+		var segment = segmentFor(key);
+		CacheEntry<T> previous;
+		synchronized (segment) {
+			previous = segment.map.remove(key);
+			if (previous != null)
+				segment.sizeBytes -= previous.size;
+		}
+		if (previous == null)
+			return null;
+		sizeBytes.addAndGet(-previous.size);
+		statistics((RegionRequest)key).recordRemoved(previous.size);
+		return previous.value;
+	}
+
+	/**
+	 * Remove entries until the total size is within the limit.
+	 */
+	private void evict() {
+		int nSegments = segments.length;
+		while (sizeBytes.get() > maxSizeBytes) {
+			// Choose the older of two candidate segments
+			int ind = evictionCounter.getAndIncrement();
+			var segment = segments[ind & segmentMask];
+			if (nSegments > 1) {
+				var segment2 = segments[(ind + nSegments/2) & segmentMask];
+				if (segment2.eldestAccess() < segment.eldestAccess())
+					segment = segment2;
+			}
+			Entry<RegionRequest, CacheEntry<T>> eldest = null;
+			synchronized (segment) {
+				var iter = segment.map.entrySet().iterator();
+				if (iter.hasNext()) {
+					eldest = iter.next();
+					iter.remove();
+					segment.sizeBytes -= eldest.getValue().size;
+				}
+			}
+			if (eldest != null) {
+				long size = eldest.getValue().size;
+				sizeBytes.addAndGet(-size);
+				var stats = statistics(eldest.getKey());
+				stats.recordRemoved(size);
+				stats.recordEviction();
+				logger.trace("Evicted tile {} ({} bytes)", eldest.getKey(), size);
+				var listener = evictionListener;
+				if (listener != null) {
+					try {
+						listener.accept(eldest.getKey(), eldest.getValue().value);
+					} catch (RuntimeException e) {
+						logger.warn("Exception in tile cache eviction listener: {}", e.getLocalizedMessage());
+						logger.debug(e.getLocalizedMessage(), e);
+					}
+				}
+			} else if (sizeBytes.get() > maxSizeBytes && isEmpty()) {
+				// Shouldn't happen... but avoid any risk of looping indefinitely
+				logger.warn("Tile cache is empty, but size is estimated to be {} bytes", sizeBytes.get());
+				break;
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (var segment : segments) {
+			synchronized (segment) {
+				size += segment.map.size();
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (var segment : segments) {
+			synchronized (segment) {
+				if (!segment.map.isEmpty())
+					return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		for (var segment : segments) {
+			List<Entry<RegionRequest, CacheEntry<T>>> removed;
+			synchronized (segment) {
+				removed = new ArrayList<>(segment.map.entrySet());
+				segment.map.clear();
+				segment.sizeBytes = 0;
+			}
+			for (var entry : removed) {
+				long size = entry.getValue().size;
+				sizeBytes.addAndGet(-size);
+				statistics(entry.getKey()).recordRemoved(size);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The entry set is weakly consistent: iterators return a snapshot of each segment at the time
+	 * it is reached, and do not throw {@link java.util.ConcurrentModificationException}.
+	 * Removing an entry via the iterator removes it from the cache.
+	 * Iterating does not update the eviction order.
+	 */
+	@Override
+	public Set<Entry<RegionRequest, T>> entrySet() {
+		if (entrySet == null)
+			entrySet = new EntrySet();
+		return entrySet;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TileCache: %d tiles, %.1f/%.1f MB",
+				size(), sizeBytes.get()/(1024.0*1024.0), maxSizeBytes/(1024.0*1024.0));
+	}
+
+
+	private static class CacheEntry<T> {
+
+		private final T value;
+		private final long size;
+		private volatile long lastAccess = System.nanoTime();
+
+		private CacheEntry(T value, long size) {
+			this.value = value;
+			this.size = size;
+		}
+
+	}
+
+
+	private static class Segment<T> {
+
+		private final LinkedHashMap<RegionRequest, CacheEntry<T>> map = new LinkedHashMap<>(16, 0.75f, true);
+		private long sizeBytes = 0L;
+
+		private synchronized long eldestAccess() {
+			if (map.isEmpty())
+				return Long.MAX_VALUE;
+			return map.values().iterator().next().lastAccess;
+		}
+
+	}
+
+
+	private class EntrySet extends AbstractSet<Entry<RegionRequest, T>> {
+
+		@Override
+		public Iterator<Entry<RegionRequest, T>> iterator() {
+			return new EntryIterator();
+		}
+
+		@Override
+		public int size() {
+			return TileCache.this.size();
+		}
+
+		@Override
+		public void clear() {
+			TileCache.this.clear();
+		}
+
+	}
+
+
+	private class EntryIterator implements Iterator<Entry<RegionRequest, T>> {
+
+		private int segmentIndex = 0;
+		private Iterator<Entry<RegionRequest, T>> current = Collections.emptyIterator();
+		private Entry<RegionRequest, T> lastReturned;
+
+		@Override
+		public boolean hasNext() {
+			while (!current.hasNext() && segmentIndex < segments.length) {
+				var segment = segments[segmentIndex++];
+				List<Entry<RegionRequest, T>> snapshot;
+				synchronized (segment) {
+					snapshot = new ArrayList<>(segment.map.size());
+					for (var entry : segment.map.entrySet())
+						snapshot.add(new SimpleImmutableEntry<>(entry.getKey(), entry.getValue().value));
+				}
+				current = snapshot.iterator();
+			}
+			return current.hasNext();
+		}
+
+		@Override
+		public Entry<RegionRequest, T> next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			lastReturned = current.next();
+			return lastReturned;
+		}
+
+		@Override
+		public void remove() {
+			if (lastReturned == null)
+				throw new IllegalStateException();
+			TileCache.this.remove(lastReturned.getKey());
+			lastReturned = null;
+		}
+
+	}
+
+}
@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics describing how a {@link TileCache} is used for a single server.
+ * <p>
+ * Values are updated concurrently, so may change between calls.
+ *
+ * @since v0.5.0
+ */
+public class TileCacheStatistics {
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final AtomicLong tileCount = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+
+	TileCacheStatistics() {}
+
+	void recordHit() {
+		hits.increment();
+	}
+
+	void recordMiss() {
+		misses.increment();
+	}
+
+	void recordEviction() {
+		evictions.increment();
+	}
+
+	void recordAdded(long size) {
+		tileCount.incrementAndGet();
+		bytes.addAndGet(size);
+	}
+
+	void recordRemoved(long size) {
+		tileCount.decrementAndGet();
+		bytes.addAndGet(-size);
+	}
+
+	void resetCounts() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+
+	/**
+	 * Number of requests for which a cached tile was returned.
+	 * @return
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Number of requests for which no cached tile was available.
+	 * @return
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Number of tiles that have been removed from the cache to make space for other tiles.
+	 * @return
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Number of tiles currently held in the cache.
+	 * @return
+	 */
+	public long getTileCount() {
+		return tileCount.get();
+	}
+
+	/**
+	 * Estimated size of all tiles currently held in the cache, in bytes.
+	 * @return
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Proportion of requests for which a cached tile was returned, or {@code Double.NaN} if there
+	 * have been no requests.
+	 * @return
+	 */
+	public double getHitRate() {
+		long h = getHitCount();
+		long total = h + getMissCount();
+		return total == 0 ? Double.NaN : (double)h / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Tile cache statistics: %d tiles (%.1f MB), %d hits, %d misses, %d evictions",
+				getTileCount(), getBytes()/(1024.0*1024.0), getHitCount(), getMissCount(), getEvictionCount());
+	}
+
+}
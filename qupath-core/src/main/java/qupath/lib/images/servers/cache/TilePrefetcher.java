@@ -0,0 +1,332 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers.cache;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.ThreadTools;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerProvider;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.images.servers.cache.TileScheduler.Priority;
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Warm the tile cache ahead of use, by reading tiles in the background with {@link Priority#PREFETCH} priority.
+ * <p>
+ * Prefetches are grouped by an <i>owner</i> (e.g. a viewer, or a batch job).
+ * Each call to {@link #prefetch(Object, ImageServer, Collection)} replaces all prefetches for the same owner
+ * that have not yet started, so that stale predictions are discarded as soon as a new prediction is available.
+ * <p>
+ * For batch processing where the order of requests is known in advance, a {@link PrefetchPlan} can be used
+ * to keep a fixed number of requests ahead of the consumer.
+ * <p>
+ * Prefetching only has an effect if a tile cache has been set with {@link ImageServerProvider#setCache(Map, Class)}.
+ *
+ * @since v0.5.0
+ */
+public class TilePrefetcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(TilePrefetcher.class);
+
+	private static final TilePrefetcher INSTANCE = new TilePrefetcher(TileScheduler.getInstance());
+
+	private final TileScheduler scheduler;
+
+	private final Map<Object, AtomicLong> generations = new ConcurrentHashMap<>();
+
+	private final LongAdder prefetchedCount = new LongAdder();
+	private final LongAdder skippedCount = new LongAdder();
+
+	private volatile boolean enabled = true;
+
+	/**
+	 * Create a prefetcher that submits tile requests to the specified scheduler.
+	 * Generally {@link #getInstance()} should be used instead, so that prefetching competes fairly with other requests.
+	 * @param scheduler the scheduler used to read tiles
+	 */
+	public TilePrefetcher(TileScheduler scheduler) {
+		this.scheduler = Objects.requireNonNull(scheduler);
+	}
+
+	/**
+	 * Get the shared prefetcher instance.
+	 * @return
+	 */
+	public static TilePrefetcher getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Set whether prefetching is enabled. If disabled, all pending prefetches are cancelled and
+	 * new requests are ignored.
+	 * @param enabled
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		if (!enabled)
+			cancelAll();
+	}
+
+	/**
+	 * Returns true if prefetching is enabled.
+	 * @return
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Request that the tiles needed for the specified regions are read in the background,
+	 * replacing any pending prefetches for the same owner.
+	 * <p>
+	 * Regions are prefetched in the order provided, so the most important should come first.
+	 *
+	 * @param owner the object requesting the prefetch; used to identify stale prefetches
+	 * @param server the server from which tiles should be read
+	 * @param regions the regions to prefetch; these will be split into tiles using the server's
+	 *                {@link qupath.lib.images.servers.TileRequestManager TileRequestManager}
+	 */
+	public void prefetch(Object owner, ImageServer<BufferedImage> server, Collection<RegionRequest> regions) {
+		long generation = nextGeneration(owner);
+		scheduler.cancel(owner);
+		submit(owner, generation, server, regions);
+	}
+
+	/**
+	 * Cancel all pending prefetches for the specified owner.
+	 * Prefetches that have already started will complete, but the tiles will not be discarded.
+	 * @param owner
+	 */
+	public void cancel(Object owner) {
+		nextGeneration(owner);
+		scheduler.cancel(owner);
+		generations.remove(owner);
+	}
+
+	/**
+	 * Cancel all pending prefetches, for all owners.
+	 */
+	public void cancelAll() {
+		for (var owner : new ArrayList<>(generations.keySet()))
+			cancel(owner);
+	}
+
+	/**
+	 * Create a plan to prefetch a known sequence of regions, keeping a fixed number of regions ahead of the consumer.
+	 * The default number of regions to prefetch is based on {@link ThreadTools#getParallelism()}.
+	 *
+	 * @param server the server from which tiles should be read
+	 * @param regions the regions, in the order in which they are expected to be requested
+	 * @return a plan; {@link PrefetchPlan#start()} must be called to begin prefetching
+	 */
+	public PrefetchPlan createPlan(ImageServer<BufferedImage> server, List<RegionRequest> regions) {
+		int parallelism = ThreadTools.getParallelism();
+		return createPlan(server, regions, parallelism, parallelism);
+	}
+
+	/**
+	 * Create a plan to prefetch a known sequence of regions, keeping a fixed number of regions ahead of the consumer.
+	 *
+	 * @param server the server from which tiles should be read
+	 * @param regions the regions, in the order in which they are expected to be requested
+	 * @param nActive the number of regions expected to be processed concurrently by the consumer;
+	 *                these will be skipped, since the consumer will read them anyway
+	 * @param lookahead the number of regions to prefetch beyond those currently being processed
+	 * @return a plan; {@link PrefetchPlan#start()} must be called to begin prefetching
+	 */
+	public PrefetchPlan createPlan(ImageServer<BufferedImage> server, List<RegionRequest> regions, int nActive, int lookahead) {
+		return new PrefetchPlan(server, regions, nActive, lookahead);
+	}
+
+	/**
+	 * Get the number of tiles read by this prefetcher.
+	 * @return
+	 */
+	public long getPrefetchedCount() {
+		return prefetchedCount.sum();
+	}
+
+	/**
+	 * Get the number of tiles skipped by this prefetcher, because they were already cached or
+	 * the prefetch was stale before it started.
+	 * @return
+	 */
+	public long getSkippedCount() {
+		return skippedCount.sum();
+	}
+
+	private long nextGeneration(Object owner) {
+		return generations.computeIfAbsent(owner, o -> new AtomicLong()).incrementAndGet();
+	}
+
+	private boolean isCurrent(Object owner, long generation) {
+		var current = generations.get(owner);
+		return current != null && current.get() == generation;
+	}
+
+	private void submit(Object owner, long generation, ImageServer<BufferedImage> server, Collection<RegionRequest> regions) {
+		if (!enabled || regions.isEmpty())
+			return;
+		var cache = ImageServerProvider.getCache(BufferedImage.class);
+		if (cache == null)
+			return;
+		var manager = server.getTileRequestManager();
+		for (var region : regions) {
+			for (var tile : manager.getTileRequests(region)) {
+				if (!cache.containsKey(tile.getRegionRequest()))
+					scheduler.submit(Priority.PREFETCH, tile.getRegionRequest(), owner, TileScheduler.NO_DEADLINE,
+							new PrefetchTask(owner, generation, server, tile));
+			}
+		}
+	}
+
+
+	private class PrefetchTask implements Runnable {
+
+		private final Object owner;
+		private final long generation;
+		private final ImageServer<BufferedImage> server;
+		private final TileRequest tile;
+
+		private PrefetchTask(Object owner, long generation, ImageServer<BufferedImage> server, TileRequest tile) {
+			this.owner = owner;
+			this.generation = generation;
+			this.server = server;
+			this.tile = tile;
+		}
+
+		@Override
+		public void run() {
+			var cache = ImageServerProvider.getCache(BufferedImage.class);
+			if (!enabled || cache == null || !isCurrent(owner, generation) || cache.containsKey(tile.getRegionRequest())) {
+				skippedCount.increment();
+				return;
+			}
+			try {
+				// Reading a single tile adds it to the cache
+				server.readRegion(tile.getRegionRequest());
+				prefetchedCount.increment();
+			} catch (Exception e) {
+				logger.debug("Unable to prefetch tile {}: {}", tile, e.getLocalizedMessage());
+			}
+		}
+
+	}
+
+
+	/**
+	 * A plan to prefetch a known sequence of regions, keeping a fixed number of regions ahead of the consumer.
+	 * <p>
+	 * The consumer should call {@link #advance()} each time it has finished with a region,
+	 * and {@link #close()} when it is done (or cancelled).
+	 * Regions are assumed to be requested approximately in order, although they may be processed in parallel.
+	 */
+	public class PrefetchPlan implements AutoCloseable {
+
+		private final ImageServer<BufferedImage> server;
+		private final List<RegionRequest> regions;
+		private final int nActive;
+		private final int lookahead;
+
+		private final AtomicInteger consumed = new AtomicInteger();
+		private final AtomicInteger submitted = new AtomicInteger();
+		private volatile boolean closed = false;
+
+		private PrefetchPlan(ImageServer<BufferedImage> server, List<RegionRequest> regions, int nActive, int lookahead) {
+			Objects.requireNonNull(server);
+			this.server = server;
+			this.regions = List.copyOf(regions);
+			this.nActive = Math.max(0, nActive);
+			this.lookahead = Math.max(0, lookahead);
+			// Skip the regions that will be processed immediately
+			this.submitted.set(Math.min(this.nActive, this.regions.size()));
+			// Register the plan as an owner
+			nextGeneration(this);
+		}
+
+		/**
+		 * Start prefetching.
+		 * @return this plan
+		 */
+		public PrefetchPlan start() {
+			submitUpTo(nActive + lookahead);
+			return this;
+		}
+
+		/**
+		 * Notify the plan that a region has been processed, so that another may be prefetched.
+		 */
+		public void advance() {
+			int n = consumed.incrementAndGet();
+			submitUpTo(n + nActive + lookahead);
+		}
+
+		private void submitUpTo(int end) {
+			if (closed)
+				return;
+			end = Math.min(end, regions.size());
+			while (true) {
+				int current = submitted.get();
+				if (current >= end)
+					return;
+				if (submitted.compareAndSet(current, end)) {
+					var generation = generations.get(this);
+					if (generation != null)
+						submit(this, generation.get(), server, regions.subList(current, end));
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Get the total number of regions in the plan.
+		 * @return
+		 */
+		public int size() {
+			return regions.size();
+		}
+
+		/**
+		 * Stop prefetching, and cancel any pending prefetches that have not started.
+		 */
+		@Override
+		public void close() {
+			closed = true;
+			cancel(this);
+		}
+
+	}
+
+}
@@ -0,0 +1,748 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers.cache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.ThreadTools;
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Scheduler for tile requests and tile-based processing, shared by the viewer and background tasks.
+ * <p>
+ * All tasks run on a single pool of threads, but are queued according to a {@link Priority}.
+ * Queued tasks with a higher priority always start before those with a lower priority, and the number of threads
+ * that can be used by each priority is capped so that interactive requests can always start promptly - even
+ * when a long-running batch job is underway.
+ * <p>
+ * Additional concurrency limits can be applied
+ * <ul>
+ *   <li>per server, based upon the path of the {@link RegionRequest} associated with a task (if any), and</li>
+ *   <li>per {@link TaskGroup}, which can be used to limit the threads used for a single job.</li>
+ * </ul>
+ * Tasks can optionally have an <i>owner</i> and a <i>deadline</i>.
+ * Queued tasks can be cancelled by owner, and any task that has not started by its deadline is cancelled
+ * automatically.
+ * This is useful for interactive requests that become irrelevant (e.g. when the viewer moves).
+ * <p>
+ * Tasks that have started are never interrupted by the scheduler, but may be cancelled by the caller.
+ *
+ * @since v0.5.0
+ */
+public class TileScheduler {
+
+	private static final Logger logger = LoggerFactory.getLogger(TileScheduler.class);
+
+	/**
+	 * Priority classes for scheduled tasks, in order of decreasing priority.
+	 */
+	public enum Priority {
+
+		/**
+		 * Requests that a user is waiting for, e.g. tiles for the visible region of a viewer.
+		 */
+		INTERACTIVE(Thread.NORM_PRIORITY + 1),
+
+		/**
+		 * Speculative requests that are likely to be needed soon, e.g. tiles just outside a viewer.
+		 */
+		PREFETCH(Thread.MIN_PRIORITY),
+
+		/**
+		 * Background processing, e.g. detection, export or measurement.
+		 */
+		BATCH(Thread.NORM_PRIORITY);
+
+		private final int threadPriority;
+
+		Priority(int threadPriority) {
+			this.threadPriority = threadPriority;
+		}
+
+	}
+
+	/**
+	 * Deadline value indicating that a task should never expire.
+	 */
+	public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	private static final TileScheduler INSTANCE = new TileScheduler(
+			Math.max(8, Math.min(Runtime.getRuntime().availableProcessors() * 4, 32)));
+
+	private static final ThreadLocal<TileScheduler> CURRENT_SCHEDULER = new ThreadLocal<>();
+
+	private static final ThreadLocal<Priority> CURRENT_PRIORITY = new ThreadLocal<>();
+
+	private final int maxThreads;
+	private final ThreadPoolExecutor pool;
+
+	// All fields below are guarded by this lock
+	private final Object lock = new Object();
+
+	private final Map<Priority, Map<LaneKey, Lane>> lanes = new EnumMap<>(Priority.class);
+	private final Map<Priority, Integer> maxConcurrent = new EnumMap<>(Priority.class);
+	private final Map<Priority, Integer> activeByPriority = new EnumMap<>(Priority.class);
+	private final Map<String, Integer> activeByServer = new HashMap<>();
+	private final Map<String, Integer> maxConcurrentByServer = new HashMap<>();
+	private int maxConcurrentPerServer;
+	private int active = 0;
+
+	private final AtomicLong sequence = new AtomicLong();
+	private final AtomicLong expiredCount = new AtomicLong();
+
+	/**
+	 * Create a new scheduler with its own threads.
+	 * Generally {@link #getInstance()} should be used instead, so that all tasks compete fairly for the same threads.
+	 * <p>
+	 * By default, a quarter of the threads are reserved for interactive tasks, and prefetching can use at
+	 * most a quarter of the threads.
+	 * The same limit that applies to batch tasks also applies to any individual server.
+	 *
+	 * @param maxThreads the maximum number of threads to use
+	 */
+	public TileScheduler(int maxThreads) {
+		if (maxThreads < 1)
+			throw new IllegalArgumentException("Number of threads must be >= 1, but requested number is " + maxThreads);
+		this.maxThreads = maxThreads;
+		int reserved = maxThreads == 1 ? 0 : Math.max(1, maxThreads / 4);
+		for (var priority : Priority.values()) {
+			lanes.put(priority, new LinkedHashMap<>());
+			activeByPriority.put(priority, 0);
+		}
+		maxConcurrent.put(Priority.INTERACTIVE, maxThreads);
+		maxConcurrent.put(Priority.PREFETCH, Math.max(1, maxThreads / 4));
+		maxConcurrent.put(Priority.BATCH, maxThreads - reserved);
+		maxConcurrentPerServer = maxThreads - reserved;
+		// We manage the number of active tasks ourselves, so the executor queue is normally empty
+		pool = new ThreadPoolExecutor(maxThreads, maxThreads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+				ThreadTools.createThreadFactory("tile-scheduler-", true));
+		pool.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Get the shared scheduler instance.
+	 * @return
+	 */
+	public static TileScheduler getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Get the priority of the scheduled task running in the current thread.
+	 * This can be used to submit subtasks with the same priority as the task that needs them.
+	 * @return the priority, or null if the current thread is not running a scheduled task
+	 */
+	public static Priority getCurrentPriority() {
+		return CURRENT_PRIORITY.get();
+	}
+
+	/**
+	 * Get a deadline that is a specified number of milliseconds from now.
+	 * @param millis
+	 * @return a deadline, based on {@link System#nanoTime()}
+	 */
+	public static long deadlineAfter(long millis) {
+		return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * Get the maximum number of threads used by this scheduler.
+	 * @return
+	 */
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Set the maximum number of tasks with the specified priority that may run concurrently.
+	 * @param priority
+	 * @param max the maximum number of tasks; this will be clipped to the range 1 to {@link #getMaxThreads()}
+	 */
+	public void setMaxConcurrent(Priority priority, int max) {
+		synchronized (lock) {
+			maxConcurrent.put(priority, clipThreads(max));
+		}
+		dispatch();
+	}
+
+	/**
+	 * Get the maximum number of tasks with the specified priority that may run concurrently.
+	 * @param priority
+	 * @return
+	 */
+	public int getMaxConcurrent(Priority priority) {
+		synchronized (lock) {
+			return maxConcurrent.get(priority);
+		}
+	}
+
+	/**
+	 * Set the default maximum number of tasks that may run concurrently for any single server.
+	 * @param max the maximum number of tasks; this will be clipped to the range 1 to {@link #getMaxThreads()}
+	 * @see #setMaxConcurrentForServer(String, int)
+	 */
+	public void setMaxConcurrentPerServer(int max) {
+		synchronized (lock) {
+			maxConcurrentPerServer = clipThreads(max);
+		}
+		dispatch();
+	}
+
+	/**
+	 * Get the default maximum number of tasks that may run concurrently for any single server.
+	 * @return
+	 */
+	public int getMaxConcurrentPerServer() {
+		synchronized (lock) {
+			return maxConcurrentPerServer;
+		}
+	}
+
+	/**
+	 * Set the maximum number of tasks that may run concurrently for a specific server.
+	 * This can be used to limit requests to a server with low capacity, such as a remote server.
+	 * @param serverPath the server path, as returned by {@link RegionRequest#getPath()}
+	 * @param max the maximum number of tasks, or &le; 0 to use the default
+	 */
+	public void setMaxConcurrentForServer(String serverPath, int max) {
+		Objects.requireNonNull(serverPath);
+		synchronized (lock) {
+			if (max <= 0)
+				maxConcurrentByServer.remove(serverPath);
+			else
+				maxConcurrentByServer.put(serverPath, clipThreads(max));
+		}
+		dispatch();
+	}
+
+	private int clipThreads(int n) {
+		return Math.max(1, Math.min(maxThreads, n));
+	}
+
+	/**
+	 * Submit a task.
+	 * @param <V>
+	 * @param priority the priority of the task
+	 * @param request the region associated with the task, used to apply per-server limits; may be null
+	 * @param owner the owner of the task, which can be used to cancel or expire it later; may be null
+	 * @param deadline the time (from {@link System#nanoTime()}) by which the task must start, or {@link #NO_DEADLINE}
+	 * @param callable the task to run
+	 * @return a future for the task
+	 */
+	public <V> Task<V> submit(Priority priority, RegionRequest request, Object owner, long deadline, Callable<V> callable) {
+		var task = new Task<>(callable, null, priority, null, request, owner, deadline);
+		enqueue(task);
+		return task;
+	}
+
+	/**
+	 * Submit a task.
+	 * If the runnable is itself a {@link Future}, it will be cancelled if the task is cancelled
+	 * or expires before it starts.
+	 * @param priority the priority of the task
+	 * @param request the region associated with the task, used to apply per-server limits; may be null
+	 * @param owner the owner of the task, which can be used to cancel or expire it later; may be null
+	 * @param deadline the time (from {@link System#nanoTime()}) by which the task must start, or {@link #NO_DEADLINE}
+	 * @param runnable the task to run
+	 * @return a future for the task
+	 */
+	public Task<?> submit(Priority priority, RegionRequest request, Object owner, long deadline, Runnable runnable) {
+		var task = new Task<>(Executors.callable(runnable), runnable, priority, null, request, owner, deadline);
+		enqueue(task);
+		return task;
+	}
+
+	/**
+	 * Create a group of tasks that share a priority and a concurrency limit.
+	 * This is useful for a job that should use a fixed number of threads, regardless of how many other tasks are running.
+	 * @param priority the priority for all tasks in the group
+	 * @param maxConcurrent the maximum number of tasks in the group that may run concurrently, or &le; 0 for no limit
+	 * @return a new group
+	 */
+	public TaskGroup createGroup(Priority priority, int maxConcurrent) {
+		return new TaskGroup(priority, maxConcurrent <= 0 ? Integer.MAX_VALUE : maxConcurrent);
+	}
+
+	/**
+	 * Cancel all queued tasks for the specified owner.
+	 * Tasks that have already started are not affected.
+	 * @param owner
+	 * @return the number of tasks that were cancelled
+	 */
+	public int cancel(Object owner) {
+		var cancelled = removeQueued(t -> t.owner == owner);
+		for (var task : cancelled)
+			task.cancel(false);
+		dispatch();
+		return cancelled.size();
+	}
+
+	/**
+	 * Update the deadline for queued tasks belonging to the specified owner, so that they are cancelled
+	 * if they have not started by the deadline.
+	 * This is intended for interactive requests that become less relevant over time, e.g. when the viewer moves.
+	 * Deadlines are never extended by this method.
+	 *
+	 * @param owner the owner of the tasks
+	 * @param filter optional filter, to select only tasks with specific regions; if null, all tasks for the owner are affected
+	 * @param deadline the new deadline (from {@link System#nanoTime()})
+	 * @return the number of tasks affected
+	 */
+	public int expire(Object owner, Predicate<? super RegionRequest> filter, long deadline) {
+		int n = 0;
+		synchronized (lock) {
+			for (var laneMap : lanes.values()) {
+				for (var lane : laneMap.values()) {
+					for (var task : lane.tasks) {
+						if (task.owner == owner && (filter == null || filter.test(task.request))) {
+							if (task.deadline == NO_DEADLINE || deadline - task.deadline < 0)
+								task.deadline = deadline;
+							n++;
+						}
+					}
+				}
+			}
+		}
+		// Remove any tasks that have already expired
+		dispatch();
+		return n;
+	}
+
+	/**
+	 * Get the number of tasks currently running with the specified priority.
+	 * @param priority
+	 * @return
+	 */
+	public int getActiveCount(Priority priority) {
+		synchronized (lock) {
+			return activeByPriority.get(priority);
+		}
+	}
+
+	/**
+	 * Get the number of tasks currently queued with the specified priority.
+	 * This may include tasks that have been cancelled, but not yet removed from the queue.
+	 * @param priority
+	 * @return
+	 */
+	public int getQueuedCount(Priority priority) {
+		synchronized (lock) {
+			return lanes.get(priority).values().stream().mapToInt(l -> l.tasks.size()).sum();
+		}
+	}
+
+	/**
+	 * Get the total number of tasks that were cancelled because they had not started by their deadline.
+	 * @return
+	 */
+	public long getExpiredCount() {
+		return expiredCount.get();
+	}
+
+
+	private void enqueue(Task<?> task) {
+		synchronized (lock) {
+			var key = new LaneKey(task.group, task.getServerPath());
+			lanes.get(task.priority).computeIfAbsent(key, k -> new Lane()).tasks.add(task);
+		}
+		dispatch();
+	}
+
+	private List<Task<?>> removeQueued(Predicate<Task<?>> predicate) {
+		List<Task<?>> removed = new ArrayList<>();
+		synchronized (lock) {
+			for (var laneMap : lanes.values()) {
+				var iterLanes = laneMap.values().iterator();
+				while (iterLanes.hasNext()) {
+					var lane = iterLanes.next();
+					var iter = lane.tasks.iterator();
+					while (iter.hasNext()) {
+						var task = iter.next();
+						if (predicate.test(task)) {
+							iter.remove();
+							removed.add(task);
+						}
+					}
+					if (lane.tasks.isEmpty())
+						iterLanes.remove();
+				}
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Try to remove a specific task from the queue, so that it can be run elsewhere.
+	 */
+	private boolean tryClaim(Task<?> task) {
+		synchronized (lock) {
+			var laneMap = lanes.get(task.priority);
+			var key = new LaneKey(task.group, task.getServerPath());
+			var lane = laneMap.get(key);
+			if (lane == null || !lane.tasks.remove(task))
+				return false;
+			if (lane.tasks.isEmpty())
+				laneMap.remove(key);
+			return true;
+		}
+	}
+
+	/**
+	 * Start as many queued tasks as the limits allow.
+	 */
+	private void dispatch() {
+		List<Task<?>> toCancel = null;
+		List<Task<?>> toStart = null;
+		synchronized (lock) {
+			long now = System.nanoTime();
+			for (var priority : Priority.values()) {
+				if (active >= maxThreads)
+					break;
+				var laneMap = lanes.get(priority);
+				while (active < maxThreads && activeByPriority.get(priority) < maxConcurrent.get(priority)) {
+					// Find the eligible lane with the oldest task
+					Lane best = null;
+					var iterLanes = laneMap.values().iterator();
+					while (iterLanes.hasNext()) {
+						var lane = iterLanes.next();
+						// Discard tasks at the head of the lane that can no longer run
+						Task<?> head;
+						while ((head = lane.tasks.peekFirst()) != null) {
+							if (head.isDone()) {
+								lane.tasks.pollFirst();
+							} else if (head.deadline != NO_DEADLINE && now - head.deadline > 0) {
+								lane.tasks.pollFirst();
+								if (toCancel == null)
+									toCancel = new ArrayList<>();
+								toCancel.add(head);
+							} else
+								break;
+						}
+						if (head == null) {
+							iterLanes.remove();
+							continue;
+						}
+						if (!canStart(head))
+							continue;
+						if (best == null || head.sequence < best.tasks.peekFirst().sequence)
+							best = lane;
+					}
+					if (best == null)
+						break;
+					var task = best.tasks.pollFirst();
+					markStarted(task);
+					if (toStart == null)
+						toStart = new ArrayList<>();
+					toStart.add(task);
+				}
+			}
+		}
+		if (toCancel != null) {
+			// Cancel asynchronously, since cancellation can trigger callbacks that submit more tasks
+			expiredCount.addAndGet(toCancel.size());
+			for (var task : toCancel)
+				pool.execute(() -> task.cancel(false));
+		}
+		if (toStart != null) {
+			for (var task : toStart)
+				pool.execute(() -> runTask(task));
+		}
+	}
+
+	private boolean canStart(Task<?> task) {
+		if (task.group != null && task.group.active >= task.group.maxConcurrent)
+			return false;
+		var serverPath = task.getServerPath();
+		if (serverPath != null) {
+			int maxServer = maxConcurrentByServer.getOrDefault(serverPath, maxConcurrentPerServer);
+			if (activeByServer.getOrDefault(serverPath, 0) >= maxServer)
+				return false;
+		}
+		return true;
+	}
+
+	private void markStarted(Task<?> task) {
+		active++;
+		activeByPriority.merge(task.priority, 1, Integer::sum);
+		var serverPath = task.getServerPath();
+		if (serverPath != null)
+			activeByServer.merge(serverPath, 1, Integer::sum);
+		if (task.group != null)
+			task.group.active++;
+	}
+
+	private void markFinished(Task<?> task) {
+		active--;
+		activeByPriority.merge(task.priority, -1, Integer::sum);
+		var serverPath = task.getServerPath();
+		if (serverPath != null)
+			activeByServer.computeIfPresent(serverPath, (k, v) -> v <= 1 ? null : v - 1);
+		if (task.group != null)
+			task.group.active--;
+	}
+
+	private void runTask(Task<?> task) {
+		var thread = Thread.currentThread();
+		int previousPriority = thread.getPriority();
+		try {
+			CURRENT_SCHEDULER.set(this);
+			CURRENT_PRIORITY.set(task.priority);
+			if (previousPriority != task.priority.threadPriority)
+				thread.setPriority(task.priority.threadPriority);
+			task.run();
+		} catch (Throwable t) {
+			logger.warn("Error running scheduled task: {}", t.getLocalizedMessage(), t);
+		} finally {
+			if (thread.getPriority() != previousPriority)
+				thread.setPriority(previousPriority);
+			CURRENT_SCHEDULER.remove();
+			CURRENT_PRIORITY.remove();
+			synchronized (lock) {
+				markFinished(task);
+			}
+			dispatch();
+		}
+	}
+
+
+	/**
+	 * A task that has been submitted to the scheduler.
+	 * <p>
+	 * If {@link #get()} is called from a scheduler thread while the task is still queued, the task is run immediately
+	 * in the calling thread.
+	 * This avoids deadlocks whenever a task waits for other tasks that cannot start because of concurrency limits.
+	 *
+	 * @param <V>
+	 */
+	public class Task<V> extends FutureTask<V> {
+
+		private final Object runnable;
+		private final Priority priority;
+		private final TaskGroup group;
+		private final RegionRequest request;
+		private final Object owner;
+		private final long sequence = TileScheduler.this.sequence.incrementAndGet();
+
+		// Guarded by the scheduler lock
+		private long deadline;
+
+		private Task(Callable<V> callable, Object runnable, Priority priority, TaskGroup group,
+				RegionRequest request, Object owner, long deadline) {
+			super(callable);
+			this.runnable = runnable;
+			this.priority = Objects.requireNonNull(priority);
+			this.group = group;
+			this.request = request;
+			this.owner = owner;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Get the priority of the task.
+		 * @return
+		 */
+		public Priority getPriority() {
+			return priority;
+		}
+
+		/**
+		 * Get the region associated with the task, if available.
+		 * @return the region, or null if no region was specified
+		 */
+		public RegionRequest getRequest() {
+			return request;
+		}
+
+		/**
+		 * Get the owner of the task, if available.
+		 * @return the owner, or null if no owner was specified
+		 */
+		public Object getOwner() {
+			return owner;
+		}
+
+		private String getServerPath() {
+			return request == null ? null : request.getPath();
+		}
+
+		@Override
+		public V get() throws InterruptedException, ExecutionException {
+			runIfQueued();
+			return super.get();
+		}
+
+		@Override
+		public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			runIfQueued();
+			return super.get(timeout, unit);
+		}
+
+		private void runIfQueued() {
+			if (!isDone() && CURRENT_SCHEDULER.get() == TileScheduler.this && tryClaim(this)) {
+				var previous = CURRENT_PRIORITY.get();
+				try {
+					CURRENT_PRIORITY.set(priority);
+					run();
+				} finally {
+					CURRENT_PRIORITY.set(previous);
+				}
+			}
+		}
+
+		@Override
+		protected void done() {
+			if (isCancelled() && runnable instanceof Future<?> future)
+				future.cancel(false);
+		}
+
+	}
+
+
+	/**
+	 * A group of tasks that share a priority and a concurrency limit.
+	 * <p>
+	 * A group can also be used as an {@link Executor}, and as the owner of its tasks.
+	 */
+	public class TaskGroup implements Executor {
+
+		private final Priority priority;
+		private final int maxConcurrent;
+
+		// Guarded by the scheduler lock
+		private int active = 0;
+
+		private TaskGroup(Priority priority, int maxConcurrent) {
+			this.priority = Objects.requireNonNull(priority);
+			this.maxConcurrent = maxConcurrent;
+		}
+
+		/**
+		 * Get the priority of tasks in this group.
+		 * @return
+		 */
+		public Priority getPriority() {
+			return priority;
+		}
+
+		/**
+		 * Submit a task to the group.
+		 * @param <V>
+		 * @param request the region associated with the task, used to apply per-server limits; may be null
+		 * @param callable the task to run
+		 * @return a future for the task
+		 */
+		public <V> Task<V> submit(RegionRequest request, Callable<V> callable) {
+			var task = new Task<>(callable, null, priority, this, request, this, NO_DEADLINE);
+			enqueue(task);
+			return task;
+		}
+
+		/**
+		 * Submit a task to the group.
+		 * @param request the region associated with the task, used to apply per-server limits; may be null
+		 * @param runnable the task to run
+		 * @return a future for the task
+		 */
+		public Task<?> submit(RegionRequest request, Runnable runnable) {
+			var task = new Task<>(Executors.callable(runnable), runnable, priority, this, request, this, NO_DEADLINE);
+			enqueue(task);
+			return task;
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			submit(null, command);
+		}
+
+		/**
+		 * Cancel all queued tasks in the group.
+		 * Tasks that have already started are not affected.
+		 * @return the number of tasks that were cancelled
+		 */
+		public int cancel() {
+			return TileScheduler.this.cancel(this);
+		}
+
+	}
+
+
+	private static class Lane {
+
+		private final ArrayDeque<Task<?>> tasks = new ArrayDeque<>();
+
+	}
+
+
+	/**
+	 * Tasks are queued in lanes, so that tasks that are blocked by a concurrency limit do not prevent
+	 * others from starting.
+	 */
+	private static class LaneKey {
+
+		private final TaskGroup group;
+		private final String serverPath;
+
+		private LaneKey(TaskGroup group, String serverPath) {
+			this.group = group;
+			this.serverPath = serverPath;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(group, serverPath);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof LaneKey))
+				return false;
+			var other = (LaneKey)obj;
+			return group == other.group && Objects.equals(serverPath, other.serverPath);
+		}
+
+	}
+
+}
@@ -0,0 +1,4 @@
+/**
+ * Caching of image tiles, shared between {@link qupath.lib.images.servers.ImageServer ImageServers}.
+ */
+package qupath.lib.images.servers.cache;
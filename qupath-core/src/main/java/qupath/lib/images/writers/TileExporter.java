@@ -37,8 +37,8 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -53,6 +53,9 @@ import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.LabeledImageServer;
 import qupath.lib.images.servers.ImageServerMetadata.ChannelType;
 import qupath.lib.images.servers.TransformedServerBuilder;
+import qupath.lib.images.servers.cache.TilePrefetcher;
+import qupath.lib.images.servers.cache.TileScheduler;
+import qupath.lib.images.servers.cache.TileScheduler.Priority;
 import qupath.lib.io.GsonTools;
 import qupath.lib.objects.PathAnnotationObject;
 import qupath.lib.objects.PathObject;
@@ -587,7 +590,12 @@ public class TileExporter  {
 		if (requests.size() > 1)
 			logger.info("Exporting {} tiles", requests.size());
 
-		var pool = Executors.newFixedThreadPool(ThreadTools.getParallelism(), ThreadTools.createThreadFactory("tile-exporter", true));
+		var group = TileScheduler.getInstance().createGroup(Priority.BATCH, ThreadTools.getParallelism());
+		List<Future<?>> futures = new ArrayList<>();
+		
+		// Read tiles for upcoming regions in the background, while earlier regions are being written
+		var prefetchPlan = TilePrefetcher.getInstance().createPlan(server, 
+				requests.stream().map(r -> r.request).toList()).start();
 
 		String imageName = GeneralTools.stripInvalidFilenameChars(
 				GeneralTools.stripExtension(server.getMetadata().getName())
@@ -653,10 +661,17 @@ public class TileExporter  {
 					exportImageName,
 					exportLabelName));
 
-			if (taskImage != null)
-				pool.submit(taskImage);
+			if (taskImage != null) {
+				futures.add(group.submit(r.request, () -> {
+					try {
+						taskImage.run();
+					} finally {
+						prefetchPlan.advance();
+					}
+				}));
+			}
 			if (taskLabels != null) {
-				pool.submit(taskLabels);
+				futures.add(group.submit(r.request.updatePath(serverLabeled.getPath()), taskLabels));
 			}
 		}
 		
@@ -695,14 +710,21 @@ public class TileExporter  {
 			}
 		}
 
-		pool.shutdown();
 		try {
-			pool.awaitTermination(24, TimeUnit.HOURS);
+			for (var future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					logger.error("Error exporting tile: {}", e.getLocalizedMessage(), e);
+				}
+			}
 		} catch (InterruptedException e) {
-			pool.shutdownNow();
+			group.cancel();
 			logger.error("Tile export interrupted: {}", e.getLocalizedMessage());
 			logger.error("", e);
 			throw new IOException(e);
+		} finally {
+			prefetchPlan.close();
 		}
 	}
 	
@@ -0,0 +1,1323 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.color.ColorDeconvolutionStains;
+import qupath.lib.images.ImageData.ImageType;
+import qupath.lib.measurements.ColumnarMeasurementStore;
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementList.MeasurementListType;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.PathRootObject;
+import qupath.lib.objects.PathTileObject;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.DefaultTMAGrid;
+import qupath.lib.objects.hierarchy.DeferredObjectSource;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.plugins.workflow.Workflow;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.RoiBinaryIO;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Reader and writer for the columnar .qpdata format.
+ * <p>
+ * Rather than serializing the object hierarchy recursively, objects are flattened in depth-first order
+ * (with the root object first) and written in chunks. Within each chunk, the properties of all objects
+ * are stored together in columns (e.g. object types, parent indices, IDs, classifications, ROIs and measurements),
+ * and each chunk is compressed independently.
+ * This means that chunks can be encoded and decoded in parallel, and objects do not need to be created
+ * through Java serialization.
+ * <p>
+ * The file layout is
+ * <ol>
+ *   <li>the magic bytes {@link #MAGIC}, followed by an integer format version</li>
+ *   <li>a length-prefixed header, written using Java serialization, containing the image metadata and
+ *       the classifications referenced by the objects</li>
+ *   <li>the total number of objects and the number of chunks</li>
+ *   <li>for each chunk, the number of objects, chunk flags, the bounds of the ROIs it contains,
+ *       its uncompressed and compressed lengths, and the compressed data</li>
+ * </ol>
+ * Detections are never written in the same chunk as other objects. If all the detections in a chunk have parents
+ * that are either in the same chunk or are not detections, the chunk is flagged as deferrable.
+ * Deferrable chunks can be kept in their compressed form when reading, and decoded only when the hierarchy
+ * is queried for a region that overlaps their bounds (see {@link DeferredObjectSource}).
+ * <p>
+ * When reading, float measurement lists for detections are created using a new {@link ColumnarMeasurementStore}
+ * shared by all the detections that are read, rather than as standalone lists.
+ * The store is not referenced by the hierarchy, so its memory is reclaimed once the detections have been removed.
+ * <p>
+ * Only core object types are supported. If a hierarchy contains any other objects,
+ * {@link #write(OutputStream, String, ImageType, ColorDeconvolutionStains, Workflow, Map, PathObjectHierarchy)} returns false
+ * without writing anything, so that the caller can use Java serialization instead.
+ */
+final class ColumnarImageDataIO {
+
+	private static final Logger logger = LoggerFactory.getLogger(ColumnarImageDataIO.class);
+
+	/**
+	 * Bytes at the start of every columnar data file.
+	 * These can't be confused with Java serialization, which always starts with 0xACED.
+	 */
+	static final byte[] MAGIC = {(byte)0x89, 'Q', 'P', 'D', 'A', 'T', 'A', 0x1A};
+
+	/**
+	 * Version of the columnar format, written after {@link #MAGIC}.
+	 */
+	static final int FORMAT_VERSION = 2;
+
+	/**
+	 * Maximum number of objects to store in each chunk.
+	 */
+	static final int CHUNK_SIZE = 10_000;
+
+	private static final byte TYPE_ROOT = 0;
+	private static final byte TYPE_ANNOTATION = 1;
+	private static final byte TYPE_DETECTION = 2;
+	private static final byte TYPE_CELL = 3;
+	private static final byte TYPE_TILE = 4;
+	private static final byte TYPE_TMA_CORE = 5;
+
+	private static final int FLAG_LOCKED = 1;
+	private static final int FLAG_MISSING = 1 << 1;
+	private static final int FLAG_NAME = 1 << 2;
+	private static final int FLAG_COLOR = 1 << 3;
+	private static final int FLAG_PROBABILITY = 1 << 4;
+	private static final int FLAG_METADATA = 1 << 5;
+	private static final int FLAG_NUCLEUS = 1 << 6;
+
+	/**
+	 * Chunk flag indicating that the chunk contains only detections, and can be decoded independently
+	 * once their non-detection parents have been read.
+	 */
+	private static final int CHUNK_DEFERRABLE = 1;
+
+	private ColumnarImageDataIO() {
+		throw new AssertionError();
+	}
+
+
+	/**
+	 * Contents read from a columnar data file.
+	 */
+	static class Contents {
+
+		private String serverJson;
+		private ImageType imageType;
+		private ColorDeconvolutionStains stains;
+		private Workflow workflow;
+		private Map<String, Object> properties;
+		private PathObjectHierarchy hierarchy;
+
+		String getServerJson() {
+			return serverJson;
+		}
+
+		ImageType getImageType() {
+			return imageType;
+		}
+
+		ColorDeconvolutionStains getStains() {
+			return stains;
+		}
+
+		Workflow getWorkflow() {
+			return workflow;
+		}
+
+		Map<String, Object> getProperties() {
+			return properties;
+		}
+
+		/**
+		 * Get the hierarchy, or null if it was not requested.
+		 * @return
+		 */
+		PathObjectHierarchy getHierarchy() {
+			return hierarchy;
+		}
+
+	}
+
+
+	/**
+	 * Check if a stream contains columnar data, without consuming any bytes.
+	 * @param stream a stream that supports mark and reset
+	 * @return
+	 * @throws IOException
+	 */
+	static boolean isColumnar(InputStream stream) throws IOException {
+		if (!stream.markSupported())
+			throw new IllegalArgumentException("Stream must support mark and reset");
+		stream.mark(MAGIC.length);
+		try {
+			return Arrays.equals(MAGIC, stream.readNBytes(MAGIC.length));
+		} finally {
+			stream.reset();
+		}
+	}
+
+
+	/**
+	 * Write image data in the columnar format.
+	 * @param stream the output stream; this is not closed
+	 * @param serverJson JSON representation of the server
+	 * @param imageType
+	 * @param stains
+	 * @param workflow
+	 * @param properties serializable properties
+	 * @param hierarchy
+	 * @return true if the data was written, false if the hierarchy contains objects that cannot be represented
+	 *         (in which case nothing is written)
+	 * @throws IOException
+	 */
+	static boolean write(OutputStream stream, String serverJson, ImageType imageType, ColorDeconvolutionStains stains,
+			Workflow workflow, Map<String, Object> properties, PathObjectHierarchy hierarchy) throws IOException {
+
+		FlatHierarchy flat;
+		synchronized (hierarchy) {
+			hierarchy.loadDeferredObjects();
+			flat = FlatHierarchy.create(hierarchy);
+		}
+		if (flat == null)
+			return false;
+
+		// Encode chunks in parallel, but write them in order
+		int[] chunkStarts = flat.getChunkStarts();
+		int[] chunkFlags = flat.getChunkFlags(chunkStarts);
+		int nChunks = chunkStarts.length - 1;
+		List<CompletableFuture<EncodedChunk>> futures = new ArrayList<>(nChunks);
+		for (int c = 0; c < nChunks; c++) {
+			int start = chunkStarts[c];
+			int end = chunkStarts[c+1];
+			int flags = chunkFlags[c];
+			futures.add(CompletableFuture.supplyAsync(() -> {
+				try {
+					return encodeChunk(flat, start, end, flags, true);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}));
+		}
+
+		byte[] header = createHeader(serverJson, imageType, stains, workflow, properties, flat);
+		writeChunks(stream, header, flat.size, futures, null, null);
+		logger.debug("Wrote {} objects in {} chunks", flat.size, nChunks);
+		return true;
+	}
+
+	/**
+	 * Create a snapshot of image data in the columnar format, which can be written later.
+	 * <p>
+	 * The hierarchy is locked while the snapshot is created, and each chunk is encoded without compression.
+	 * This is usually much faster than writing the data, so the hierarchy can continue to be used
+	 * while the snapshot is compressed and written.
+	 * 
+	 * @param serverJson JSON representation of the server
+	 * @param imageType
+	 * @param stains
+	 * @param workflow
+	 * @param properties serializable properties
+	 * @param hierarchy
+	 * @return the snapshot, or null if the hierarchy contains objects that cannot be represented
+	 * @throws IOException
+	 * @see Snapshot#write(OutputStream, DoubleConsumer, BooleanSupplier)
+	 */
+	static Snapshot createSnapshot(String serverJson, ImageType imageType, ColorDeconvolutionStains stains,
+			Workflow workflow, Map<String, Object> properties, PathObjectHierarchy hierarchy) throws IOException {
+
+		FlatHierarchy flat;
+		List<EncodedChunk> chunks = new ArrayList<>();
+		synchronized (hierarchy) {
+			hierarchy.loadDeferredObjects();
+			flat = FlatHierarchy.create(hierarchy);
+			if (flat == null)
+				return null;
+			int[] chunkStarts = flat.getChunkStarts();
+			int[] chunkFlags = flat.getChunkFlags(chunkStarts);
+			int nChunks = chunkStarts.length - 1;
+			List<CompletableFuture<EncodedChunk>> futures = new ArrayList<>(nChunks);
+			for (int c = 0; c < nChunks; c++) {
+				int start = chunkStarts[c];
+				int end = chunkStarts[c+1];
+				int flags = chunkFlags[c];
+				futures.add(CompletableFuture.supplyAsync(() -> {
+					try {
+						return encodeChunk(flat, start, end, flags, false);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}));
+			}
+			for (var future : futures)
+				chunks.add(join(future));
+		}
+		byte[] header = createHeader(serverJson, imageType, stains, workflow, properties, flat);
+		return new Snapshot(header, flat.size, chunks);
+	}
+
+
+	/**
+	 * Image data that has been encoded, but not yet compressed or written.
+	 * A snapshot is independent of the hierarchy used to create it, and should only be written once.
+	 */
+	static class Snapshot {
+
+		private final byte[] header;
+		private final int nObjects;
+		private final List<EncodedChunk> chunks;
+
+		private Snapshot(byte[] header, int nObjects, List<EncodedChunk> chunks) {
+			this.header = header;
+			this.nObjects = nObjects;
+			this.chunks = chunks;
+		}
+
+		/**
+		 * Compress the chunks in parallel, and write them in order.
+		 * @param stream the output stream; this is not closed
+		 * @param progress optional consumer to receive the fraction of chunks written
+		 * @param isCancelled optional supplier to check if writing should stop early
+		 * @throws IOException
+		 * @throws InterruptedIOException if writing was cancelled
+		 */
+		void write(OutputStream stream, DoubleConsumer progress, BooleanSupplier isCancelled) throws IOException {
+			List<CompletableFuture<EncodedChunk>> futures = new ArrayList<>(chunks.size());
+			for (var chunk : chunks)
+				futures.add(CompletableFuture.supplyAsync(() -> chunk.compress()));
+			writeChunks(stream, header, nObjects, futures, progress, isCancelled);
+			logger.debug("Wrote {} objects in {} chunks", nObjects, chunks.size());
+		}
+
+	}
+
+
+	private static byte[] createHeader(String serverJson, ImageType imageType, ColorDeconvolutionStains stains,
+			Workflow workflow, Map<String, Object> properties, FlatHierarchy flat) throws IOException {
+		var headerBytes = new ByteArrayOutputStream();
+		try (var headerStream = new ObjectOutputStream(headerBytes)) {
+			headerStream.writeObject(serverJson);
+			headerStream.writeObject(Locale.getDefault(Locale.Category.FORMAT));
+			headerStream.writeObject(imageType);
+			headerStream.writeObject(stains);
+			headerStream.writeObject(workflow);
+			headerStream.writeObject(properties);
+			headerStream.writeObject(flat.pathClasses.keySet().toArray(PathClass[]::new));
+			headerStream.writeInt(flat.tmaGridWidth);
+			headerStream.writeObject(flat.tmaCoreIndices);
+		}
+		return headerBytes.toByteArray();
+	}
+
+	private static void writeChunks(OutputStream stream, byte[] header, int nObjects, List<CompletableFuture<EncodedChunk>> futures,
+			DoubleConsumer progress, BooleanSupplier isCancelled) throws IOException {
+		var out = new DataOutputStream(stream);
+		out.write(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+
+		out.writeInt(header.length);
+		out.write(header);
+
+		int nChunks = futures.size();
+		out.writeInt(nObjects);
+		out.writeInt(nChunks);
+		int count = 0;
+		for (var future : futures) {
+			if (isCancelled != null && isCancelled.getAsBoolean()) {
+				futures.forEach(f -> f.cancel(false));
+				throw new InterruptedIOException("Writing image data cancelled");
+			}
+			var chunk = join(future);
+			chunk.header.write(out);
+			out.write(chunk.bytes);
+			count++;
+			if (progress != null)
+				progress.accept(count / (double)nChunks);
+		}
+		out.flush();
+	}
+
+
+	/**
+	 * Read image data in the columnar format.
+	 * @param stream the input stream, positioned at the start of {@link #MAGIC}; this is not closed
+	 * @param readHierarchy if false, only the header is read
+	 * @return
+	 * @throws IOException
+	 */
+	static Contents read(InputStream stream, boolean readHierarchy) throws IOException {
+		return read(stream, readHierarchy, false);
+	}
+
+	/**
+	 * Read image data in the columnar format, optionally deferring the decoding of detections.
+	 * @param stream the input stream, positioned at the start of {@link #MAGIC}; this is not closed
+	 * @param readHierarchy if false, only the header is read
+	 * @param deferDetections if true, deferrable chunks of detections are retained in compressed form and
+	 *                        only decoded when they are requested by the hierarchy
+	 * @return
+	 * @throws IOException
+	 */
+	static Contents read(InputStream stream, boolean readHierarchy, boolean deferDetections) throws IOException {
+		var in = new DataInputStream(stream);
+		if (!Arrays.equals(MAGIC, in.readNBytes(MAGIC.length)))
+			throw new IOException("Input stream does not contain columnar QuPath data");
+		int version = in.readInt();
+		if (version > FORMAT_VERSION)
+			throw new IOException("Unsupported columnar data file version " + version + " (maximum supported version is " + FORMAT_VERSION + ")");
+
+		var contents = new Contents();
+		PathClass[] pathClasses;
+		int tmaGridWidth;
+		int[] tmaCoreIndices;
+		byte[] headerBytes = new byte[in.readInt()];
+		in.readFully(headerBytes);
+		try (var headerStream = PathIO.createObjectInputStream(new ByteArrayInputStream(headerBytes))) {
+			contents.serverJson = (String)headerStream.readObject();
+			// Locale is stored for information only - it isn't needed to read the binary data
+			headerStream.readObject();
+			contents.imageType = (ImageType)headerStream.readObject();
+			contents.stains = (ColorDeconvolutionStains)headerStream.readObject();
+			contents.workflow = (Workflow)headerStream.readObject();
+			@SuppressWarnings("unchecked")
+			var properties = (Map<String, Object>)headerStream.readObject();
+			contents.properties = properties;
+			pathClasses = (PathClass[])headerStream.readObject();
+			tmaGridWidth = headerStream.readInt();
+			tmaCoreIndices = (int[])headerStream.readObject();
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException("Unable to read data file header", e);
+		}
+		if (!readHierarchy)
+			return contents;
+
+		var hierarchy = new PathObjectHierarchy();
+		var root = hierarchy.getRootObject();
+		var store = new ColumnarMeasurementStore();
+		int nObjects = in.readInt();
+		int nChunks = in.readInt();
+
+		// Decode chunks in parallel, as soon as they have been read
+		List<CompletableFuture<DecodedChunk>> futures = new ArrayList<>(nChunks);
+		List<Integer> offsets = new ArrayList<>(nChunks);
+		List<DeferredChunk> deferred = new ArrayList<>();
+		int offset = 0;
+		for (int c = 0; c < nChunks; c++) {
+			var header = ChunkHeader.read(in, version);
+			byte[] bytes = new byte[header.compressedLength];
+			in.readFully(bytes);
+			if (deferDetections && (header.flags & CHUNK_DEFERRABLE) != 0) {
+				deferred.add(new DeferredChunk(header, bytes, offset));
+			} else {
+				futures.add(CompletableFuture.supplyAsync(() -> {
+					try {
+						return decodeChunk(header, bytes, pathClasses, root, store);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}));
+				offsets.add(offset);
+			}
+			offset += header.nObjects;
+		}
+		if (offset != nObjects)
+			throw new IOException("Expected " + nObjects + " objects, but found " + offset);
+		// Deferred objects remain null
+		PathObject[] objects = new PathObject[nObjects];
+		int[] parents = new int[nObjects];
+		for (int c = 0; c < futures.size(); c++) {
+			var chunk = join(futures.get(c));
+			int chunkOffset = offsets.get(c);
+			System.arraycopy(chunk.objects, 0, objects, chunkOffset, chunk.objects.length);
+			System.arraycopy(chunk.parents, 0, parents, chunkOffset, chunk.parents.length);
+		}
+
+		// Link objects to their parents, adding all the children of each parent together.
+		// TMA cores are added when the grid is set.
+		boolean[] skip = new boolean[nObjects];
+		List<TMACoreObject> cores = new ArrayList<>(tmaCoreIndices.length);
+		for (int ind : tmaCoreIndices) {
+			skip[ind] = true;
+			cores.add((TMACoreObject)objects[ind]);
+		}
+		int[] childCounts = new int[nObjects];
+		for (int i = 1; i < nObjects; i++) {
+			if (!skip[i] && objects[i] != null)
+				childCounts[parents[i]]++;
+		}
+		Map<Integer, List<PathObject>> children = new HashMap<>();
+		for (int i = 1; i < nObjects; i++) {
+			if (skip[i] || objects[i] == null)
+				continue;
+			int p = parents[i];
+			children.computeIfAbsent(p, k -> new ArrayList<>(childCounts[k])).add(objects[i]);
+		}
+		for (var entry : children.entrySet())
+			objects[entry.getKey()].addChildObjects(entry.getValue());
+		if (tmaGridWidth > 0)
+			hierarchy.setTMAGrid(DefaultTMAGrid.create(cores, tmaGridWidth));
+
+		if (!deferred.isEmpty()) {
+			// Deferred detections can only have parents that aren't detections (or are in the same chunk)
+			Map<Integer, PathObject> possibleParents = new HashMap<>();
+			for (int i = 0; i < nObjects; i++) {
+				var pathObject = objects[i];
+				if (pathObject != null && !pathObject.isDetection())
+					possibleParents.put(i, pathObject);
+			}
+			hierarchy.setDeferredObjectSource(new DeferredChunks(deferred, possibleParents, pathClasses, store));
+			logger.debug("Read {} objects in {} chunks ({} chunks deferred)", nObjects, nChunks, deferred.size());
+		} else
+			logger.debug("Read {} objects in {} chunks", nObjects, nChunks);
+		contents.hierarchy = hierarchy;
+		return contents;
+	}
+
+
+	private static <T> T join(CompletableFuture<T> future) throws IOException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			var cause = e.getCause();
+			if (cause instanceof UncheckedIOException uioe)
+				throw uioe.getCause();
+			throw new IOException(cause);
+		}
+	}
+
+
+	/**
+	 * Objects in a hierarchy, in depth-first order.
+	 */
+	private static class FlatHierarchy {
+
+		private List<PathObject> objects;
+		private byte[] types;
+		private int[] parents;
+		private int size;
+
+		private Map<PathClass, Integer> pathClasses = new LinkedHashMap<>();
+		private int tmaGridWidth = -1;
+		private int[] tmaCoreIndices = new int[0];
+
+		/**
+		 * Flatten the hierarchy.
+		 * @param hierarchy
+		 * @return the flattened hierarchy, or null if it contains objects that cannot be written
+		 */
+		static FlatHierarchy create(PathObjectHierarchy hierarchy) {
+			var flat = new FlatHierarchy();
+			int capacity = hierarchy.nObjects() + 1;
+			flat.objects = new ArrayList<>(capacity);
+			flat.types = new byte[capacity];
+			flat.parents = new int[capacity];
+			if (!flat.add(hierarchy.getRootObject(), -1))
+				return null;
+
+			var grid = hierarchy.getTMAGrid();
+			if (grid != null) {
+				var cores = grid.getTMACoreList();
+				// Cores should all be children of the root object
+				Map<PathObject, Integer> rootChildren = new HashMap<>();
+				for (int i = 1; i < flat.size; i++) {
+					if (flat.parents[i] == 0)
+						rootChildren.put(flat.objects.get(i), i);
+				}
+				int[] indices = new int[cores.size()];
+				for (int i = 0; i < indices.length; i++) {
+					var ind = rootChildren.get(cores.get(i));
+					if (ind == null) {
+						logger.debug("TMA core {} is not a child of the root object", cores.get(i));
+						return null;
+					}
+					indices[i] = ind;
+				}
+				flat.tmaGridWidth = grid.getGridWidth();
+				flat.tmaCoreIndices = indices;
+			}
+			return flat;
+		}
+
+		/**
+		 * Determine where each chunk should start.
+		 * A new chunk is started whenever the current chunk is full, or when switching between
+		 * detections and other objects.
+		 * @return the start index of each chunk, followed by the total number of objects
+		 */
+		private int[] getChunkStarts() {
+			List<Integer> starts = new ArrayList<>();
+			int start = 0;
+			starts.add(start);
+			for (int i = 1; i < size; i++) {
+				if (i - start >= CHUNK_SIZE || isDetectionType(types[i]) != isDetectionType(types[start])) {
+					start = i;
+					starts.add(start);
+				}
+			}
+			starts.add(size);
+			return starts.stream().mapToInt(Integer::intValue).toArray();
+		}
+
+		/**
+		 * Determine the flags for each chunk.
+		 * A chunk is deferrable if it contains only detections, and no detection it contains has a parent or child 
+		 * in a different chunk that is also a detection.
+		 * @param chunkStarts
+		 * @return
+		 */
+		private int[] getChunkFlags(int[] chunkStarts) {
+			int nChunks = chunkStarts.length - 1;
+			boolean[] deferrable = new boolean[nChunks];
+			int[] chunkIndices = new int[size];
+			for (int c = 0; c < nChunks; c++) {
+				deferrable[c] = isDetectionType(types[chunkStarts[c]]);
+				Arrays.fill(chunkIndices, chunkStarts[c], chunkStarts[c+1], c);
+			}
+			for (int i = 1; i < size; i++) {
+				int p = parents[i];
+				int c = chunkIndices[i];
+				int cp = chunkIndices[p];
+				if (c != cp && isDetectionType(types[p])) {
+					deferrable[c] = false;
+					deferrable[cp] = false;
+				}
+			}
+			int[] flags = new int[nChunks];
+			for (int c = 0; c < nChunks; c++)
+				flags[c] = deferrable[c] ? CHUNK_DEFERRABLE : 0;
+			return flags;
+		}
+
+		private boolean add(PathObject pathObject, int parent) {
+			byte type = getType(pathObject);
+			if (type < 0) {
+				logger.debug("Object {} of class {} cannot be written in columnar format", pathObject, pathObject.getClass().getName());
+				return false;
+			}
+			int ind = size;
+			if (ind == types.length) {
+				types = Arrays.copyOf(types, ind * 2);
+				parents = Arrays.copyOf(parents, ind * 2);
+			}
+			objects.add(pathObject);
+			types[ind] = type;
+			parents[ind] = parent;
+			size++;
+			if (type != TYPE_ROOT) {
+				var pathClass = pathObject.getPathClass();
+				if (pathClass != null)
+					pathClasses.putIfAbsent(pathClass, pathClasses.size());
+			}
+			for (var child : pathObject.getChildObjectsAsArray()) {
+				if (!add(child, ind))
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Get the type code for an object, or -1 if it is not supported.
+		 */
+		private static byte getType(PathObject pathObject) {
+			var cls = pathObject.getClass();
+			if (cls == PathRootObject.class)
+				return TYPE_ROOT;
+			if (cls == PathAnnotationObject.class)
+				return TYPE_ANNOTATION;
+			if (cls == TMACoreObject.class)
+				return TYPE_TMA_CORE;
+			byte type;
+			if (cls == PathDetectionObject.class)
+				type = TYPE_DETECTION;
+			else if (cls == PathCellObject.class)
+				type = TYPE_CELL;
+			else if (cls == PathTileObject.class)
+				type = TYPE_TILE;
+			else
+				return -1;
+			// Detection metadata is unmodifiable, so couldn't be restored
+			return pathObject.getMetadata().isEmpty() ? type : -1;
+		}
+
+	}
+
+
+	private static class ChunkHeader {
+
+		private int nObjects;
+		private int flags;
+		private double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		private double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		private int minZ = Integer.MAX_VALUE, maxZ = Integer.MIN_VALUE;
+		private int minT = Integer.MAX_VALUE, maxT = Integer.MIN_VALUE;
+		private int uncompressedLength;
+		private int compressedLength;
+
+		private void updateBounds(ROI roi) {
+			minX = Math.min(minX, roi.getBoundsX());
+			minY = Math.min(minY, roi.getBoundsY());
+			maxX = Math.max(maxX, roi.getBoundsX() + roi.getBoundsWidth());
+			maxY = Math.max(maxY, roi.getBoundsY() + roi.getBoundsHeight());
+			minZ = Math.min(minZ, roi.getZ());
+			maxZ = Math.max(maxZ, roi.getZ());
+			minT = Math.min(minT, roi.getT());
+			maxT = Math.max(maxT, roi.getT());
+		}
+
+		/**
+		 * Check if any ROI in the chunk might intersect a region.
+		 * Bounds are inclusive, so that ROIs with zero width or height are not missed.
+		 */
+		private boolean intersects(ImageRegion region) {
+			if (region.getZ() < minZ || region.getZ() > maxZ || region.getT() < minT || region.getT() > maxT)
+				return false;
+			return minX <= region.getMaxX() && maxX >= region.getMinX() &&
+					minY <= region.getMaxY() && maxY >= region.getMinY();
+		}
+
+		private void write(DataOutput out) throws IOException {
+			out.writeInt(nObjects);
+			out.writeInt(flags);
+			out.writeDouble(minX);
+			out.writeDouble(minY);
+			out.writeDouble(maxX);
+			out.writeDouble(maxY);
+			out.writeInt(minZ);
+			out.writeInt(maxZ);
+			out.writeInt(minT);
+			out.writeInt(maxT);
+			out.writeInt(uncompressedLength);
+			out.writeInt(compressedLength);
+		}
+
+		private static ChunkHeader read(DataInputStream in, int version) throws IOException {
+			var header = new ChunkHeader();
+			header.nObjects = in.readInt();
+			if (version >= 2)
+				header.flags = in.readInt();
+			header.minX = in.readDouble();
+			header.minY = in.readDouble();
+			header.maxX = in.readDouble();
+			header.maxY = in.readDouble();
+			header.minZ = in.readInt();
+			header.maxZ = in.readInt();
+			header.minT = in.readInt();
+			header.maxT = in.readInt();
+			header.uncompressedLength = in.readInt();
+			header.compressedLength = in.readInt();
+			return header;
+		}
+
+	}
+
+
+	private static class EncodedChunk {
+
+		private final ChunkHeader header;
+		private final byte[] bytes;
+
+		private EncodedChunk(ChunkHeader header, byte[] bytes) {
+			this.header = header;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Compress a chunk that was encoded without compression.
+		 * @return
+		 */
+		private EncodedChunk compress() {
+			var compressed = deflate(bytes);
+			header.compressedLength = compressed.length;
+			return new EncodedChunk(header, compressed);
+		}
+
+	}
+
+
+	/**
+	 * A chunk that has been read, but not decoded.
+	 */
+	private static class DeferredChunk {
+
+		private final ChunkHeader header;
+		private final byte[] bytes;
+		private final int start;
+
+		private DeferredChunk(ChunkHeader header, byte[] bytes, int start) {
+			this.header = header;
+			this.bytes = bytes;
+			this.start = start;
+		}
+
+	}
+
+
+	/**
+	 * Source of detections from deferred chunks, which are decoded when they are first requested.
+	 * Only the compressed chunks are retained, which typically require a fraction of the memory of the objects.
+	 */
+	private static class DeferredChunks implements DeferredObjectSource {
+
+		private final List<DeferredChunk> chunks;
+		private final Map<Integer, PathObject> possibleParents;
+		private final PathClass[] pathClasses;
+		private final ColumnarMeasurementStore store;
+		private int size;
+
+		private DeferredChunks(List<DeferredChunk> chunks, Map<Integer, PathObject> possibleParents, PathClass[] pathClasses,
+				ColumnarMeasurementStore store) {
+			this.chunks = new ArrayList<>(chunks);
+			this.possibleParents = possibleParents;
+			this.pathClasses = pathClasses;
+			this.store = store;
+			this.size = chunks.stream().mapToInt(c -> c.header.nObjects).sum();
+		}
+
+		@Override
+		public synchronized Map<PathObject, List<PathObject>> loadObjects(ImageRegion region) {
+			List<DeferredChunk> selected = new ArrayList<>();
+			for (var chunk : chunks) {
+				if (region == null || chunk.header.intersects(region))
+					selected.add(chunk);
+			}
+			if (selected.isEmpty())
+				return Collections.emptyMap();
+
+			List<CompletableFuture<DecodedChunk>> futures = new ArrayList<>(selected.size());
+			for (var chunk : selected) {
+				futures.add(CompletableFuture.supplyAsync(() -> {
+					try {
+						return decodeChunk(chunk.header, chunk.bytes, pathClasses, null, store);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}));
+			}
+			Map<PathObject, List<PathObject>> loaded = new LinkedHashMap<>();
+			for (int c = 0; c < selected.size(); c++) {
+				DecodedChunk decoded;
+				try {
+					decoded = join(futures.get(c));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				int start = selected.get(c).start;
+				// Link objects within the chunk, and group the others by their (resident) parent
+				Map<PathObject, List<PathObject>> children = new LinkedHashMap<>();
+				for (int i = 0; i < decoded.objects.length; i++) {
+					int p = decoded.parents[i];
+					PathObject parent;
+					if (p >= start && p < start + decoded.objects.length) {
+						parent = decoded.objects[p - start];
+						children.computeIfAbsent(parent, k -> new ArrayList<>()).add(decoded.objects[i]);
+					} else {
+						parent = possibleParents.get(p);
+						if (parent == null)
+							throw new UncheckedIOException(new IOException("Parent " + p + " of deferred object not found"));
+						loaded.computeIfAbsent(parent, k -> new ArrayList<>()).add(decoded.objects[i]);
+					}
+				}
+				for (var entry : children.entrySet())
+					entry.getKey().addChildObjects(entry.getValue());
+			}
+			chunks.removeAll(selected);
+			size -= selected.stream().mapToInt(c -> c.header.nObjects).sum();
+			return loaded;
+		}
+
+		@Override
+		public synchronized int size() {
+			return size;
+		}
+
+	}
+
+
+	private static class DecodedChunk {
+
+		private final PathObject[] objects;
+		private final int[] parents;
+
+		private DecodedChunk(PathObject[] objects, int[] parents) {
+			this.objects = objects;
+			this.parents = parents;
+		}
+
+	}
+
+
+	/**
+	 * A group of measurement lists with the same names and type, stored as a matrix.
+	 */
+	private static class MeasurementSchema {
+
+		private final MeasurementListType type;
+		private final List<String> names;
+
+		private MeasurementSchema(MeasurementListType type, List<String> names) {
+			this.type = type;
+			this.names = names;
+		}
+
+	}
+
+
+	private static EncodedChunk encodeChunk(FlatHierarchy flat, int start, int end, int chunkFlags, boolean compress) throws IOException {
+		int n = end - start;
+		var header = new ChunkHeader();
+		header.nObjects = n;
+		header.flags = chunkFlags;
+		var bytes = new ByteArrayOutputStream();
+		var deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+		OutputStream target = compress ? new DeflaterOutputStream(bytes, deflater) : bytes;
+		try (var out = new DataOutputStream(new BufferedOutputStream(target, 64 * 1024))) {
+			var objects = flat.objects.subList(start, end);
+
+			// Types & parents
+			out.write(flat.types, start, n);
+			for (int i = start; i < end; i++)
+				out.writeInt(flat.parents[i]);
+
+			// IDs
+			for (var pathObject : objects)
+				out.writeLong(pathObject.getID().getMostSignificantBits());
+			for (var pathObject : objects)
+				out.writeLong(pathObject.getID().getLeastSignificantBits());
+
+			// Flags
+			byte[] flags = new byte[n];
+			for (int i = 0; i < n; i++) {
+				var pathObject = objects.get(i);
+				boolean isRoot = flat.types[start + i] == TYPE_ROOT;
+				int f = 0;
+				if (!isRoot && pathObject.isLocked())
+					f |= FLAG_LOCKED;
+				if (pathObject instanceof TMACoreObject core && core.isMissing())
+					f |= FLAG_MISSING;
+				if (pathObject.getName() != null)
+					f |= FLAG_NAME;
+				if (pathObject.getColor() != null)
+					f |= FLAG_COLOR;
+				if (!isRoot && !Double.isNaN(pathObject.getClassProbability()))
+					f |= FLAG_PROBABILITY;
+				if (!pathObject.getMetadata().isEmpty())
+					f |= FLAG_METADATA;
+				if (pathObject instanceof PathCellObject cell && cell.hasNucleus())
+					f |= FLAG_NUCLEUS;
+				flags[i] = (byte)f;
+			}
+			out.write(flags);
+
+			// Classifications
+			for (int i = 0; i < n; i++) {
+				var pathClass = flat.types[start + i] == TYPE_ROOT ? null : objects.get(i).getPathClass();
+				out.writeInt(pathClass == null ? -1 : flat.pathClasses.get(pathClass));
+			}
+			for (int i = 0; i < n; i++) {
+				if ((flags[i] & FLAG_PROBABILITY) != 0)
+					out.writeDouble(objects.get(i).getClassProbability());
+			}
+
+			// Names, colors & metadata
+			for (int i = 0; i < n; i++) {
+				if ((flags[i] & FLAG_NAME) != 0)
+					writeString(out, objects.get(i).getName());
+			}
+			for (int i = 0; i < n; i++) {
+				if ((flags[i] & FLAG_COLOR) != 0)
+					out.writeInt(objects.get(i).getColor());
+			}
+			for (int i = 0; i < n; i++) {
+				if ((flags[i] & FLAG_METADATA) != 0) {
+					var metadata = objects.get(i).getMetadata();
+					out.writeInt(metadata.size());
+					for (var entry : metadata.entrySet()) {
+						writeString(out, entry.getKey());
+						writeString(out, entry.getValue());
+					}
+				}
+			}
+
+			// ROIs
+			for (int i = 0; i < n; i++) {
+				if (flat.types[start + i] == TYPE_ROOT)
+					continue;
+				var roi = objects.get(i).getROI();
+				RoiBinaryIO.writeROI(out, roi);
+				if (roi != null)
+					header.updateBounds(roi);
+			}
+			for (int i = 0; i < n; i++) {
+				if ((flags[i] & FLAG_NUCLEUS) != 0)
+					RoiBinaryIO.writeROI(out, ((PathCellObject)objects.get(i)).getNucleusROI());
+			}
+
+			writeMeasurements(out, objects);
+
+			out.flush();
+			header.uncompressedLength = out.size();
+		} finally {
+			if (deflater != null)
+				deflater.end();
+		}
+		header.compressedLength = bytes.size();
+		return new EncodedChunk(header, bytes.toByteArray());
+	}
+
+
+	/**
+	 * Write measurements as one matrix for each distinct combination of names and list type.
+	 */
+	private static void writeMeasurements(DataOutputStream out, List<PathObject> objects) throws IOException {
+		int n = objects.size();
+		Map<MeasurementListType, Map<List<String>, Integer>> schemaMap = new EnumMap<>(MeasurementListType.class);
+		List<MeasurementSchema> schemas = new ArrayList<>();
+		int[] schemaIndices = new int[n];
+		double[][] values = new double[n][];
+		for (int i = 0; i < n; i++) {
+			var pathObject = objects.get(i);
+			if (!pathObject.hasMeasurements()) {
+				schemaIndices[i] = -1;
+				continue;
+			}
+			var list = pathObject.getMeasurementList();
+			double[] v;
+			List<String> names;
+			synchronized (list) {
+				names = list.getMeasurementNames();
+				v = new double[names.size()];
+				for (int j = 0; j < v.length; j++)
+					v[j] = list.getMeasurementValue(j);
+			}
+			var type = getListType(list, v);
+			var map = schemaMap.computeIfAbsent(type, t -> new HashMap<>());
+			var ind = map.get(names);
+			if (ind == null) {
+				ind = schemas.size();
+				map.put(names, ind);
+				schemas.add(new MeasurementSchema(type, List.copyOf(names)));
+			}
+			schemaIndices[i] = ind;
+			values[i] = v;
+		}
+
+		out.writeInt(schemas.size());
+		for (var schema : schemas) {
+			out.writeByte(schema.type.ordinal());
+			out.writeInt(schema.names.size());
+			for (var name : schema.names)
+				writeString(out, name);
+		}
+		for (int ind : schemaIndices)
+			out.writeInt(ind);
+		for (int s = 0; s < schemas.size(); s++) {
+			boolean isFloat = schemas.get(s).type == MeasurementListType.FLOAT;
+			for (int i = 0; i < n; i++) {
+				if (schemaIndices[i] != s)
+					continue;
+				for (double v : values[i]) {
+					if (isFloat)
+						out.writeFloat((float)v);
+					else
+						out.writeDouble(v);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Determine the type of measurement list to restore.
+	 * Fixed-size lists are stored as floats if that can be done without loss of precision.
+	 */
+	private static MeasurementListType getListType(MeasurementList list, double[] values) {
+		if (list.supportsDynamicMeasurements())
+			return MeasurementListType.GENERAL;
+		for (double v : values) {
+			if ((float)v != v && !Double.isNaN(v))
+				return MeasurementListType.DOUBLE;
+		}
+		return MeasurementListType.FLOAT;
+	}
+
+
+	private static DecodedChunk decodeChunk(ChunkHeader header, byte[] compressed, PathClass[] pathClasses, PathObject root,
+			ColumnarMeasurementStore store) throws IOException {
+		var buffer = ByteBuffer.wrap(inflate(compressed, header.uncompressedLength));
+		int n = header.nObjects;
+
+		byte[] types = new byte[n];
+		buffer.get(types);
+		int[] parents = new int[n];
+		buffer.asIntBuffer().get(parents);
+		skip(buffer, n * Integer.BYTES);
+
+		long[] msb = new long[n];
+		buffer.asLongBuffer().get(msb);
+		skip(buffer, n * Long.BYTES);
+		long[] lsb = new long[n];
+		buffer.asLongBuffer().get(lsb);
+		skip(buffer, n * Long.BYTES);
+
+		byte[] flags = new byte[n];
+		buffer.get(flags);
+
+		int[] classIndices = new int[n];
+		buffer.asIntBuffer().get(classIndices);
+		skip(buffer, n * Integer.BYTES);
+		double[] probabilities = new double[n];
+		Arrays.fill(probabilities, Double.NaN);
+		for (int i = 0; i < n; i++) {
+			if ((flags[i] & FLAG_PROBABILITY) != 0)
+				probabilities[i] = buffer.getDouble();
+		}
+
+		String[] names = new String[n];
+		for (int i = 0; i < n; i++) {
+			if ((flags[i] & FLAG_NAME) != 0)
+				names[i] = readString(buffer);
+		}
+		int[] colors = new int[n];
+		for (int i = 0; i < n; i++) {
+			if ((flags[i] & FLAG_COLOR) != 0)
+				colors[i] = buffer.getInt();
+		}
+		List<Map<String, String>> metadata = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			if ((flags[i] & FLAG_METADATA) != 0) {
+				int size = buffer.getInt();
+				Map<String, String> map = new LinkedHashMap<>();
+				for (int j = 0; j < size; j++)
+					map.put(readString(buffer), readString(buffer));
+				metadata.add(map);
+			} else
+				metadata.add(null);
+		}
+
+		ROI[] rois = new ROI[n];
+		for (int i = 0; i < n; i++) {
+			if (types[i] != TYPE_ROOT)
+				rois[i] = RoiBinaryIO.readROI(buffer);
+		}
+		ROI[] nuclei = new ROI[n];
+		for (int i = 0; i < n; i++) {
+			if ((flags[i] & FLAG_NUCLEUS) != 0)
+				nuclei[i] = RoiBinaryIO.readROI(buffer);
+		}
+
+		var measurements = readMeasurements(buffer, n, types, store);
+
+		PathObject[] objects = new PathObject[n];
+		for (int i = 0; i < n; i++) {
+			var roi = rois[i];
+			var ml = measurements[i];
+			PathObject pathObject;
+			switch (types[i]) {
+			case TYPE_ROOT:
+				pathObject = root;
+				if (ml != null)
+					pathObject.getMeasurementList().putAll(ml);
+				break;
+			case TYPE_ANNOTATION:
+				pathObject = PathObjects.createAnnotationObject(roi, null, ml);
+				break;
+			case TYPE_DETECTION:
+				pathObject = PathObjects.createDetectionObject(roi, null, ml);
+				break;
+			case TYPE_CELL:
+				pathObject = PathObjects.createCellObject(roi, nuclei[i], null, ml);
+				break;
+			case TYPE_TILE:
+				pathObject = PathObjects.createTileObject(roi, null, ml);
+				break;
+			case TYPE_TMA_CORE:
+				var core = PathObjects.createTMACoreObject(roi.getBoundsX(), roi.getBoundsY(), roi.getBoundsWidth(), roi.getBoundsHeight(),
+						(flags[i] & FLAG_MISSING) != 0, roi.getImagePlane());
+				// Retain the original ROI, even if it isn't an ellipse
+				core.setROI(roi);
+				if (ml != null)
+					core.getMeasurementList().putAll(ml);
+				pathObject = core;
+				break;
+			default:
+				throw new IOException("Unknown object type " + types[i]);
+			}
+			pathObject.setID(new UUID(msb[i], lsb[i]));
+			// Color must be set after the classification, because setting a classification resets the color
+			if (classIndices[i] >= 0 || !Double.isNaN(probabilities[i]))
+				pathObject.setPathClass(classIndices[i] < 0 ? null : pathClasses[classIndices[i]], probabilities[i]);
+			if (names[i] != null)
+				pathObject.setName(names[i]);
+			if ((flags[i] & FLAG_COLOR) != 0)
+				pathObject.setColor(colors[i]);
+			if ((flags[i] & FLAG_LOCKED) != 0)
+				pathObject.setLocked(true);
+			if (metadata.get(i) != null)
+				pathObject.getMetadata().putAll(metadata.get(i));
+			objects[i] = pathObject;
+		}
+		return new DecodedChunk(objects, parents);
+	}
+
+	private static MeasurementList[] readMeasurements(ByteBuffer buffer, int n, byte[] types, ColumnarMeasurementStore store) {
+		int nSchemas = buffer.getInt();
+		List<MeasurementSchema> schemas = new ArrayList<>(nSchemas);
+		for (int s = 0; s < nSchemas; s++) {
+			var type = MeasurementListType.values()[buffer.get()];
+			String[] names = new String[buffer.getInt()];
+			for (int j = 0; j < names.length; j++)
+				names[j] = readString(buffer);
+			schemas.add(new MeasurementSchema(type, Arrays.asList(names)));
+		}
+		int[] schemaIndices = new int[n];
+		buffer.asIntBuffer().get(schemaIndices);
+		skip(buffer, n * Integer.BYTES);
+
+		MeasurementList[] lists = new MeasurementList[n];
+		for (int s = 0; s < nSchemas; s++) {
+			var schema = schemas.get(s);
+			boolean isFloat = schema.type == MeasurementListType.FLOAT;
+			for (int i = 0; i < n; i++) {
+				if (schemaIndices[i] != s)
+					continue;
+				MeasurementList list;
+				if (isFloat && store != null && isDetectionType(types[i]))
+					list = MeasurementListFactory.createMeasurementList(store);
+				else
+					list = MeasurementListFactory.createMeasurementList(schema.names.size(), schema.type);
+				for (var name : schema.names)
+					list.put(name, isFloat ? buffer.getFloat() : buffer.getDouble());
+				list.close();
+				lists[i] = list;
+			}
+		}
+		return lists;
+	}
+
+
+	private static boolean isDetectionType(byte type) {
+		return type == TYPE_DETECTION || type == TYPE_CELL || type == TYPE_TILE;
+	}
+
+
+	private static byte[] deflate(byte[] bytes) {
+		var deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			var out = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+			byte[] buffer = new byte[64 * 1024];
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buffer);
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] compressed, int length) throws IOException {
+		var inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			byte[] bytes = new byte[length];
+			int offset = 0;
+			while (offset < length) {
+				int count = inflater.inflate(bytes, offset, length - offset);
+				if (count == 0 && (inflater.finished() || inflater.needsInput()))
+					throw new IOException("Unexpected end of compressed chunk");
+				offset += count;
+			}
+			return bytes;
+		} catch (DataFormatException e) {
+			throw new IOException("Unable to decompress chunk", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static void skip(ByteBuffer buffer, int nBytes) {
+		buffer.position(buffer.position() + nBytes);
+	}
+
+	private static void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0)
+			return null;
+		var value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+		skip(buffer, length);
+		return value;
+	}
+
+}
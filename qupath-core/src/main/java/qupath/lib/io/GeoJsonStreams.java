@@ -0,0 +1,275 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import qupath.lib.io.PathIO.GeoJsonExportOptions;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjectTools;
+
+/**
+ * Streaming GeoJSON reader and writer for {@link PathObject PathObjects}.
+ * <p>
+ * Rather than building a tree for the entire JSON document, features are read and written one at a time.
+ * When reading, only the JSON for a bounded number of features is held in memory at once, and converting
+ * features to objects (which is dominated by geometry parsing) can optionally be performed in parallel.
+ * Objects are always passed on in the order in which they appear in the input.
+ */
+final class GeoJsonStreams {
+
+	/**
+	 * Number of features to parse together, when parsing in parallel.
+	 */
+	private static final int BATCH_SIZE = 1000;
+
+	private GeoJsonStreams() {
+		throw new AssertionError();
+	}
+
+
+	/**
+	 * Write objects as GeoJSON.
+	 * The output is the same as would be written by {@link GsonTools}, but objects are converted one at a time.
+	 * @param writer the output; this is flushed but not closed
+	 * @param pathObjects the objects to write
+	 * @param options export options
+	 * @throws IOException
+	 */
+	static void writeObjects(Writer writer, Collection<? extends PathObject> pathObjects, Collection<GeoJsonExportOptions> options) throws IOException {
+		var gson = GsonTools.getInstance(options.contains(GeoJsonExportOptions.PRETTY_JSON));
+		boolean excludeMeasurements = options.contains(GeoJsonExportOptions.EXCLUDE_MEASUREMENTS);
+		var out = gson.newJsonWriter(writer);
+		// Gson always writes leniently, so that NaN measurements are supported
+		out.setLenient(true);
+
+		if (options.contains(GeoJsonExportOptions.FEATURE_COLLECTION)) {
+			// Child objects are never included in a feature collection
+			out.beginObject();
+			out.name("type");
+			out.value("FeatureCollection");
+			out.name("features");
+			out.beginArray();
+			for (var pathObject : pathObjects)
+				QuPathTypeAdapters.PathObjectTypeAdapter.INSTANCE.write(out, prepareObject(pathObject, excludeMeasurements));
+			out.endArray();
+			out.endObject();
+		} else if (pathObjects.size() == 1) {
+			writeObject(gson, out, prepareObject(pathObjects.iterator().next(), excludeMeasurements));
+		} else {
+			out.beginArray();
+			for (var pathObject : pathObjects)
+				writeObject(gson, out, prepareObject(pathObject, excludeMeasurements));
+			out.endArray();
+		}
+		out.flush();
+	}
+
+	private static PathObject prepareObject(PathObject pathObject, boolean excludeMeasurements) {
+		if (excludeMeasurements)
+			return PathObjectTools.transformObject(pathObject, null, false);
+		return pathObject;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends PathObject> void writeObject(Gson gson, JsonWriter out, T pathObject) throws IOException {
+		// Use the adapter for the runtime type, as Gson would when writing a collection
+		gson.getAdapter((Class<T>)pathObject.getClass()).write(out, pathObject);
+	}
+
+
+	/**
+	 * Read objects from GeoJSON, passing each to a consumer as soon as it is available.
+	 * <p>
+	 * The input may be a Feature, FeatureCollection or geometry, or an array of these - as supported by
+	 * {@link GsonTools#parseObjectsFromGeoJSON(JsonElement)}.
+	 * The features of a FeatureCollection are read one at a time, regardless of where the "features" property occurs.
+	 *
+	 * @param reader the input; this is not closed
+	 * @param consumer consumer for the objects, which is always called from the current thread
+	 * @param parallel if true, convert features to objects in parallel
+	 * @return the number of objects read
+	 * @throws IOException
+	 */
+	static int readObjects(Reader reader, Consumer<? super PathObject> consumer, boolean parallel) throws IOException {
+		var gson = GsonTools.getInstance();
+		var in = gson.newJsonReader(reader);
+		var parser = new FeatureParser(gson, consumer, parallel);
+		try {
+			if (in.peek() == JsonToken.END_DOCUMENT)
+				return 0;
+		} catch (EOFException e) {
+			// Empty input
+			return 0;
+		}
+		readElement(gson, in, parser);
+		return parser.finish();
+	}
+
+	private static void readElement(Gson gson, JsonReader in, FeatureParser parser) throws IOException {
+		switch (in.peek()) {
+		case BEGIN_ARRAY:
+			in.beginArray();
+			while (in.hasNext())
+				readElement(gson, in, parser);
+			in.endArray();
+			break;
+		case BEGIN_OBJECT:
+			readObject(gson, in, parser);
+			break;
+		default:
+			in.skipValue();
+		}
+	}
+
+	/**
+	 * Read a JSON object, streaming any features it contains.
+	 * Everything else is read into a (small) JSON object, which is parsed as a single element.
+	 */
+	private static void readObject(Gson gson, JsonReader in, FeatureParser parser) throws IOException {
+		var obj = new JsonObject();
+		boolean isFeatureCollection = false;
+		in.beginObject();
+		while (in.hasNext()) {
+			String name = in.nextName();
+			if ("features".equals(name) && in.peek() == JsonToken.BEGIN_ARRAY && isPossibleFeatureCollection(obj)) {
+				isFeatureCollection = true;
+				in.beginArray();
+				while (in.hasNext()) {
+					if (in.peek() == JsonToken.BEGIN_OBJECT) {
+						JsonObject feature = gson.fromJson(in, JsonObject.class);
+						// Members of a feature collection are always features, even if the type is missing
+						if (!feature.has("type"))
+							feature.addProperty("type", "Feature");
+						parser.add(feature);
+					} else
+						in.skipValue();
+				}
+				in.endArray();
+			} else
+				obj.add(name, gson.fromJson(in, JsonElement.class));
+		}
+		in.endObject();
+		if (!isFeatureCollection)
+			parser.add(obj);
+	}
+
+	private static boolean isPossibleFeatureCollection(JsonObject obj) {
+		var type = obj.get("type");
+		return type == null || (type.isJsonPrimitive() && "FeatureCollection".equals(type.getAsString()));
+	}
+
+
+	/**
+	 * Convert JSON elements to objects, optionally in parallel, while preserving their order.
+	 */
+	private static class FeatureParser {
+
+		private final Gson gson;
+		private final Consumer<? super PathObject> consumer;
+		private final boolean parallel;
+		private final int maxPending = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+
+		private final Deque<CompletableFuture<List<PathObject>>> pending = new ArrayDeque<>();
+		private List<JsonElement> batch = new ArrayList<>();
+		private int count = 0;
+
+		private FeatureParser(Gson gson, Consumer<? super PathObject> consumer, boolean parallel) {
+			this.gson = gson;
+			this.consumer = consumer;
+			this.parallel = parallel;
+		}
+
+		private void add(JsonElement element) throws IOException {
+			batch.add(element);
+			if (!parallel || batch.size() >= BATCH_SIZE)
+				submitBatch();
+		}
+
+		private void submitBatch() throws IOException {
+			if (batch.isEmpty())
+				return;
+			var elements = batch;
+			batch = new ArrayList<>();
+			if (!parallel) {
+				accept(parse(elements));
+				return;
+			}
+			pending.add(CompletableFuture.supplyAsync(() -> parse(elements)));
+			// Limit the number of features held in memory
+			while (pending.size() > maxPending)
+				accept(join(pending.poll()));
+		}
+
+		private int finish() throws IOException {
+			submitBatch();
+			while (!pending.isEmpty())
+				accept(join(pending.poll()));
+			return count;
+		}
+
+		private List<PathObject> parse(List<JsonElement> elements) {
+			List<PathObject> pathObjects = new ArrayList<>(elements.size());
+			for (var element : elements)
+				GsonTools.addPathObjects(element, pathObjects, gson);
+			return pathObjects;
+		}
+
+		private void accept(List<PathObject> pathObjects) {
+			for (var pathObject : pathObjects)
+				consumer.accept(pathObject);
+			count += pathObjects.size();
+		}
+
+		private static <T> T join(CompletableFuture<T> future) throws IOException {
+			try {
+				return future.join();
+			} catch (CompletionException e) {
+				var cause = e.getCause();
+				if (cause instanceof RuntimeException re)
+					throw re;
+				throw new IOException(cause);
+			}
+		}
+
+	}
+
+}
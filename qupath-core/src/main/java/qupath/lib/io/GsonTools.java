@@ -371,7 +371,7 @@ public class GsonTools {
 	 * @param gson
 	 * @return
 	 */
-	private static boolean addPathObjects(JsonElement element, List<PathObject> pathObjects, Gson gson) {
+	static boolean addPathObjects(JsonElement element, List<PathObject> pathObjects, Gson gson) {
 		if (element == null)
 			return false;
 		if (element.isJsonArray()) {
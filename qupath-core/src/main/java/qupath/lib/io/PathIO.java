@@ -23,10 +23,8 @@
 
 package qupath.lib.io;
 
-import com.google.gson.JsonElement;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonSyntaxException;
-import com.google.gson.reflect.TypeToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.lib.color.ColorDeconvolutionStains;
@@ -37,12 +35,12 @@ import qupath.lib.images.servers.ImageServerBuilder.DefaultImageServerBuilder;
 import qupath.lib.images.servers.ImageServerBuilder.ServerBuilder;
 import qupath.lib.images.servers.ImageServerProvider;
 import qupath.lib.objects.PathObject;
-import qupath.lib.objects.PathObjectTools;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.plugins.workflow.Workflow;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -51,6 +49,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.ObjectInputFilter;
 import java.io.ObjectInputFilter.FilterInfo;
 import java.io.ObjectInputFilter.Status;
@@ -78,6 +77,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -122,6 +124,49 @@ public class PathIO {
 	
 	private static int requestedDataFileVersion = DATA_FILE_VERSION - 1;
 	
+	/**
+	 * Format used to store the object hierarchy within a .qpdata file.
+	 * @since v0.5.0
+	 */
+	public enum DataFileFormat {
+		/**
+		 * Write all data using Java serialization, as used by QuPath v0.4.x and earlier.
+		 */
+		SERIALIZED,
+		/**
+		 * Write objects in compressed chunks, with object properties stored as columns.
+		 * This is much faster to read and write for large hierarchies, and can be read and written in parallel.
+		 * It can't be read by QuPath v0.4.x and earlier.
+		 */
+		COLUMNAR
+	}
+	
+	private static DataFileFormat dataFileFormat = DataFileFormat.COLUMNAR;
+	
+	/**
+	 * Get the format used when writing .qpdata files.
+	 * @return
+	 * @since v0.5.0
+	 * @see #setDataFileFormat(DataFileFormat)
+	 */
+	public static DataFileFormat getDataFileFormat() {
+		return dataFileFormat;
+	}
+	
+	/**
+	 * Set the format used when writing .qpdata files.
+	 * Files in either format can be read, regardless of this setting.
+	 * <p>
+	 * If {@link DataFileFormat#COLUMNAR} is requested but the hierarchy contains objects that it doesn't support 
+	 * (e.g. custom object classes), then {@link DataFileFormat#SERIALIZED} is used instead.
+	 * @param format
+	 * @since v0.5.0
+	 */
+	public static void setDataFileFormat(DataFileFormat format) {
+		Objects.requireNonNull(format);
+		dataFileFormat = format;
+	}
+	
 	/**
 	 * Get the requested version for .qpdata files.
 	 * 
@@ -203,8 +248,11 @@ public class PathIO {
 	 * @since 0.3
 	 */
 	public static <T> ServerBuilder<T> extractServerBuilder(Path file) throws IOException {
-		try (InputStream fileIn = Files.newInputStream(file)) {
-			ObjectInputStream inStream = createObjectInputStream(new BufferedInputStream(fileIn));
+		try (InputStream fileIn = new BufferedInputStream(Files.newInputStream(file))) {
+			if (ColumnarImageDataIO.isColumnar(fileIn))
+				return extractServerBuilder(ColumnarImageDataIO.read(fileIn, false).getServerJson(), true);
+			
+			ObjectInputStream inStream = createObjectInputStream(fileIn);
 			
 			// Check the first line, then read the server path if it is valid
 			String firstLine = inStream.readUTF();
@@ -295,7 +343,7 @@ public class PathIO {
 			return null;
 		logger.info("Reading data from {}...", path.getFileName().toString());
 		try (InputStream stream = Files.newInputStream(path)) {
-			imageData = readImageDataSerialized(stream, imageData, server, cls);	
+			imageData = readImageData(stream, imageData, server, cls);	
 			// Set the last saved path (actually the path from which this was opened)
 			if (imageData != null)
 				imageData.setLastSavedPath(path.toAbsolutePath().toString(), true);
@@ -391,46 +439,7 @@ public class PathIO {
 				}
 			}
 
-			// Create an entirely new ImageData if necessary
-			var existingBuilder = imageData == null || imageData.getServer() == null ? null : imageData.getServer().getBuilder();
-			if (imageData == null || !Objects.equals(serverBuilder, existingBuilder)) {
-				// Create a new server if we need to
-				if (server == null) {
-					try {
-						server = serverBuilder.build();
-					} catch (Exception e) {
-						logger.error(e.getLocalizedMessage());
-					};
-					if (server == null) {
-						logger.error("Warning: Unable to build server with " + serverBuilder);
-						//							throw new RuntimeException("Warning: Unable to create server for path " + serverPath);
-					}
-				}
-				// TODO: Make this less clumsy... but for now we need to ensure we have a fully-initialized hierarchy (which deserialization alone doesn't achieve)
-				PathObjectHierarchy hierarchy2 = new PathObjectHierarchy();
-				hierarchy2.setHierarchy(hierarchy);
-				hierarchy = hierarchy2;
-
-				imageData = new ImageData<>(server, hierarchy, imageType);
-			} else {
-				if (imageType != null)
-					imageData.setImageType(imageType);
-				// Set the new hierarchy
-				if (hierarchy != null)
-					imageData.getHierarchy().setHierarchy(hierarchy);
-			}
-			// Set the other properties we have just read
-			if (workflow != null) {
-				imageData.getHistoryWorkflow().clear();
-				imageData.getHistoryWorkflow().addSteps(workflow.getSteps());
-			}
-			if (stains != null) {
-				imageData.setColorDeconvolutionStains(stains);
-			}
-			if (propertyMap != null) {
-				for (Entry<String, Object> entry : propertyMap.entrySet())
-					imageData.setProperty(entry.getKey(), entry.getValue());
-			}
+			imageData = updateImageData(imageData, server, serverBuilder, hierarchy, imageType, stains, workflow, propertyMap);
 
 			long endTime = System.currentTimeMillis();
 
@@ -438,7 +447,7 @@ public class PathIO {
 			//					logger.error(String.format("%s does not contain a valid QUPath object hierarchy!", file.getAbsolutePath()));
 			//					return null;
 			//				}
-			logger.debug(String.format("Hierarchy with %d object(s) read in %.2f seconds", hierarchy.nObjects(), (endTime - startTime)/1000.));
+			logger.debug(String.format("Hierarchy with %d object(s) read in %.2f seconds", imageData.getHierarchy().nObjects(), (endTime - startTime)/1000.));
 
 		} catch (ClassNotFoundException e1) {
 			logger.warn("Class not found reading image data", e1);
@@ -450,6 +459,68 @@ public class PathIO {
 	}
 	
 	
+	private static <T> ImageData<T> readImageDataColumnar(final InputStream stream, ImageData<T> imageData, ImageServer<T> server, Class<T> cls, boolean lazyDetections) throws IOException {
+		long startTime = System.currentTimeMillis();
+		var contents = ColumnarImageDataIO.read(stream, true, lazyDetections);
+		// Don't log warnings if we are provided with a server
+		ServerBuilder<T> serverBuilder = extractServerBuilder(contents.getServerJson(), server == null);
+		imageData = updateImageData(imageData, server, serverBuilder, contents.getHierarchy(), contents.getImageType(),
+				contents.getStains(), contents.getWorkflow(), contents.getProperties());
+		long endTime = System.currentTimeMillis();
+		logger.debug(String.format("Hierarchy with %d object(s) read in %.2f seconds", imageData.getHierarchy().nObjects(), (endTime - startTime)/1000.));
+		return imageData;
+	}
+	
+	/**
+	 * Update an existing {@link ImageData} with the contents read from a data file, or create a new one if necessary.
+	 */
+	private static <T> ImageData<T> updateImageData(ImageData<T> imageData, ImageServer<T> server, ServerBuilder<T> serverBuilder,
+			PathObjectHierarchy hierarchy, ImageData.ImageType imageType, ColorDeconvolutionStains stains, Workflow workflow, Map<String, Object> propertyMap) {
+		// Create an entirely new ImageData if necessary
+		var existingBuilder = imageData == null || imageData.getServer() == null ? null : imageData.getServer().getBuilder();
+		if (imageData == null || !Objects.equals(serverBuilder, existingBuilder)) {
+			// Create a new server if we need to
+			if (server == null) {
+				try {
+					server = serverBuilder.build();
+				} catch (Exception e) {
+					logger.error(e.getLocalizedMessage());
+				};
+				if (server == null) {
+					logger.error("Warning: Unable to build server with " + serverBuilder);
+					//							throw new RuntimeException("Warning: Unable to create server for path " + serverPath);
+				}
+			}
+			// TODO: Make this less clumsy... but for now we need to ensure we have a fully-initialized hierarchy (which deserialization alone doesn't achieve)
+			PathObjectHierarchy hierarchy2 = new PathObjectHierarchy();
+			hierarchy2.setHierarchy(hierarchy);
+			hierarchy = hierarchy2;
+
+			imageData = new ImageData<>(server, hierarchy, imageType);
+		} else {
+			if (imageType != null)
+				imageData.setImageType(imageType);
+			// Set the new hierarchy
+			if (hierarchy != null)
+				imageData.getHierarchy().setHierarchy(hierarchy);
+		}
+		// Set the other properties we have just read
+		if (workflow != null) {
+			imageData.getHistoryWorkflow().clear();
+			imageData.getHistoryWorkflow().addSteps(workflow.getSteps());
+		}
+		if (stains != null) {
+			imageData.setColorDeconvolutionStains(stains);
+		}
+		if (propertyMap != null) {
+			for (Entry<String, Object> entry : propertyMap.entrySet())
+				imageData.setProperty(entry.getKey(), entry.getValue());
+		}
+
+		return imageData;
+	}
+	
+	
 //	/**
 //	 * Test if a specified file can be identified as a zip file.
 //	 * 
@@ -484,7 +555,33 @@ public class PathIO {
 	 * @throws IOException
 	 */
 	public static <T> ImageData<T> readImageData(final InputStream stream, ImageData<T> imageData, ImageServer<T> server, Class<T> cls) throws IOException {
-		return readImageDataSerialized(stream, imageData, server, cls);
+		return readImageData(stream, imageData, server, cls, false);
+	}
+	
+	/**
+	 * Read ImageData from an InputStream into an existing ImageData object, or creating a new one if required, 
+	 * optionally deferring the loading of detections.
+	 * <p>
+	 * If detections are loaded lazily, annotations and other objects are read immediately but detections are only
+	 * added to the hierarchy when they are first needed, e.g. when a region containing them is requested.
+	 * This can make large data files much faster to open, and reduce memory use if only part of the image is viewed.
+	 * Lazy loading is only supported by the columnar data format; for other files, the flag is ignored.
+	 * 
+	 * @param stream
+	 * @param imageData
+	 * @param server an ImageServer to use rather than any that might be stored within the serialized data.  Should be null to use the serialized path to build a new server.
+	 * @param cls
+	 * @param lazyDetections if true, defer loading detections until they are requested
+	 * @return
+	 * @throws IOException
+	 * @since v0.5.0
+	 * @see PathObjectHierarchy#setDeferredObjectSource(qupath.lib.objects.hierarchy.DeferredObjectSource)
+	 */
+	public static <T> ImageData<T> readImageData(final InputStream stream, ImageData<T> imageData, ImageServer<T> server, Class<T> cls, boolean lazyDetections) throws IOException {
+		var bufferedStream = new BufferedInputStream(stream);
+		if (ColumnarImageDataIO.isColumnar(bufferedStream))
+			return readImageDataColumnar(bufferedStream, imageData, server, cls, lazyDetections);
+		return readImageDataSerialized(bufferedStream, imageData, server, cls);
 	}
 
 	
@@ -577,7 +674,107 @@ public class PathIO {
 	}
 	
 
+	/**
+	 * Create a snapshot of an {@link ImageData} that can be written later, possibly from another thread.
+	 * <p>
+	 * This is intended to support saving image data in the background, while the image data continues 
+	 * to be used (and modified). Creating the snapshot is usually much faster than writing the data, since 
+	 * any compression is deferred until {@link ImageDataSnapshot#write(OutputStream, DoubleConsumer, BooleanSupplier)}
+	 * is called - although if the columnar format can't be used, the data is fully serialized in memory.
+	 * <p>
+	 * Note that the snapshot retains an uncompressed copy of the object hierarchy, so may require a substantial amount of memory.
+	 * 
+	 * @param imageData
+	 * @return
+	 * @throws IOException
+	 * @since v0.5.0
+	 * @see #getDataFileFormat()
+	 */
+	public static ImageDataSnapshot createImageDataSnapshot(final ImageData<?> imageData) throws IOException {
+		long startTime = System.currentTimeMillis();
+		PathObjectHierarchy hierarchy = imageData.getHierarchy();
+		ImageDataSnapshot snapshot = null;
+		if (dataFileFormat == DataFileFormat.COLUMNAR) {
+			var columnar = ColumnarImageDataIO.createSnapshot(createServerJson(imageData), imageData.getImageType(),
+					imageData.getColorDeconvolutionStains(), imageData.getHistoryWorkflow(), getSerializableProperties(imageData), hierarchy);
+			if (columnar == null)
+				logger.warn("Hierarchy contains objects that are not supported by the columnar data format - will use serialization instead");
+			else
+				snapshot = new ImageDataSnapshot(columnar, null);
+		}
+		if (snapshot == null) {
+			var bytes = new ByteArrayOutputStream();
+			writeImageDataObjectStream(bytes, imageData);
+			snapshot = new ImageDataSnapshot(null, bytes.toByteArray());
+		}
+		long endTime = System.currentTimeMillis();
+		logger.debug("Snapshot of image data with {} object(s) created in {} ms", hierarchy.nObjects(), endTime - startTime);
+		return snapshot;
+	}
+	
+	/**
+	 * Snapshot of an {@link ImageData}, which can be written without accessing the original image data.
+	 * @since v0.5.0
+	 * @see PathIO#createImageDataSnapshot(ImageData)
+	 */
+	public static class ImageDataSnapshot {
+		
+		private static final int BLOCK_SIZE = 1024 * 1024;
+		
+		private final ColumnarImageDataIO.Snapshot columnar;
+		private final byte[] serialized;
+		
+		private ImageDataSnapshot(ColumnarImageDataIO.Snapshot columnar, byte[] serialized) {
+			this.columnar = columnar;
+			this.serialized = serialized;
+		}
+		
+		/**
+		 * Write the snapshot to an output stream, in the same format as {@link PathIO#writeImageData(OutputStream, ImageData)}.
+		 * Compression is applied in parallel where possible.
+		 * A snapshot should only be written once.
+		 * 
+		 * @param stream the output stream; this is not closed
+		 * @param progress optional consumer to receive progress updates, as a value between 0 and 1
+		 * @param isCancelled optional supplier that is checked periodically; if it returns true, writing stops early
+		 * @throws IOException
+		 * @throws InterruptedIOException if writing was cancelled
+		 */
+		public void write(OutputStream stream, DoubleConsumer progress, BooleanSupplier isCancelled) throws IOException {
+			long startTime = System.currentTimeMillis();
+			var outputStream = new BufferedOutputStream(stream);
+			if (columnar != null) {
+				columnar.write(outputStream, progress, isCancelled);
+			} else {
+				for (int offset = 0; offset < serialized.length; offset += BLOCK_SIZE) {
+					if (isCancelled != null && isCancelled.getAsBoolean())
+						throw new InterruptedIOException("Writing image data cancelled");
+					int length = Math.min(BLOCK_SIZE, serialized.length - offset);
+					outputStream.write(serialized, offset, length);
+					if (progress != null)
+						progress.accept((offset + length) / (double)serialized.length);
+				}
+			}
+			outputStream.flush();
+			long endTime = System.currentTimeMillis();
+			logger.info(String.format("Image data written in %.2f seconds", (endTime - startTime)/1000.));
+		}
+		
+	}
+	
+
 	private static void writeImageDataSerialized(final OutputStream stream, final ImageData<?> imageData) throws IOException {
+		
+		if (dataFileFormat == DataFileFormat.COLUMNAR && writeImageDataColumnar(stream, imageData))
+			return;
+		
+		writeImageDataObjectStream(stream, imageData);
+	}
+	
+	/**
+	 * Write image data using Java serialization.
+	 */
+	private static void writeImageDataObjectStream(final OutputStream stream, final ImageData<?> imageData) throws IOException {
 				
 		try (OutputStream outputStream = new BufferedOutputStream(stream)) {
 			long startTime = System.currentTimeMillis();
@@ -588,7 +785,6 @@ public class PathIO {
 			outStream.writeUTF("Data file version " + DATA_FILE_VERSION);
 			
 			// Try to write a backwards-compatible image path
-			var server = imageData.getServer();
 //			var uris = server.getURIs();
 //			String path;
 //			if (uris.size() == 1) {
@@ -603,13 +799,7 @@ public class PathIO {
 //			outStream.writeObject("Image path: " + path);
 			
 			// Write JSON object including QuPath version and ServerBuilder
-			// Note that the builder may be null, in which case the server cannot be recreated
-			var builder = server.getBuilder();
-			if (builder == null)
-				logger.warn("Server {} does not provide a builder - it will not be possible to recover the ImageServer from this data file", server);
-			var wrapper = ServerBuilderWrapper.create(builder, server.getPath());
-			String json = GsonTools.getInstance().toJson(wrapper);
-			outStream.writeObject(json);
+			outStream.writeObject(createServerJson(imageData));
 			
 			// Write the current locale
 			outStream.writeObject(Locale.getDefault(Category.FORMAT));
@@ -625,13 +815,7 @@ public class PathIO {
 			outStream.writeObject(hierarchy);
 			
 			// Write any remaining (serializable) properties
-			Map<String, Object> map = new HashMap<>();
-			for (Entry<String, Object> entry : imageData.getProperties().entrySet()) {
-				if (serializableObject(entry.getValue()))
-					map.put(entry.getKey(), entry.getValue());
-				else
-					logger.warn("Property not serializable and will not be saved!  Key: " + entry.getKey() + ", Value: " + entry.getValue());
-			}
+			Map<String, Object> map = getSerializableProperties(imageData);
 			if (map != null)
 				outStream.writeObject(map);
 			
@@ -643,6 +827,54 @@ public class PathIO {
 		}
 	}
 	
+	/**
+	 * Write image data in the columnar format.
+	 * @return true if the data was written, false if the hierarchy can't be represented in the columnar format 
+	 *         (in which case nothing is written)
+	 */
+	private static boolean writeImageDataColumnar(final OutputStream stream, final ImageData<?> imageData) throws IOException {
+		long startTime = System.currentTimeMillis();
+		var outputStream = new BufferedOutputStream(stream);
+		PathObjectHierarchy hierarchy = imageData.getHierarchy();
+		logger.info(String.format("Writing object hierarchy with %d object(s)...", hierarchy.nObjects()));
+		if (!ColumnarImageDataIO.write(outputStream, createServerJson(imageData), imageData.getImageType(),
+				imageData.getColorDeconvolutionStains(), imageData.getHistoryWorkflow(), getSerializableProperties(imageData), hierarchy)) {
+			logger.warn("Hierarchy contains objects that are not supported by the columnar data format - will use serialization instead");
+			return false;
+		}
+		outputStream.close();
+		long endTime = System.currentTimeMillis();
+		logger.info(String.format("Image data written in %.2f seconds", (endTime - startTime)/1000.));
+		return true;
+	}
+	
+	/**
+	 * Create a JSON representation of the server, including the QuPath version and {@link ServerBuilder}.
+	 */
+	private static String createServerJson(final ImageData<?> imageData) {
+		// Note that the builder may be null, in which case the server cannot be recreated
+		var server = imageData.getServer();
+		var builder = server.getBuilder();
+		if (builder == null)
+			logger.warn("Server {} does not provide a builder - it will not be possible to recover the ImageServer from this data file", server);
+		var wrapper = ServerBuilderWrapper.create(builder, server.getPath());
+		return GsonTools.getInstance().toJson(wrapper);
+	}
+	
+	/**
+	 * Get all the properties of the image data that can be serialized.
+	 */
+	private static Map<String, Object> getSerializableProperties(final ImageData<?> imageData) {
+		Map<String, Object> map = new HashMap<>();
+		for (Entry<String, Object> entry : imageData.getProperties().entrySet()) {
+			if (serializableObject(entry.getValue()))
+				map.put(entry.getKey(), entry.getValue());
+			else
+				logger.warn("Property not serializable and will not be saved!  Key: " + entry.getKey() + ", Value: " + entry.getValue());
+		}
+		return map;
+	}
+	
 	/**
 	 * Read a hierarchy from a .qpdata file.
 	 * 
@@ -681,11 +913,34 @@ public class PathIO {
 	 * @throws IOException 
 	 */
 	public static PathObjectHierarchy readHierarchy(final InputStream fileIn) throws IOException {
+		return readHierarchy(fileIn, false);
+	}
+	
+	/**
+	 * Read a {@link PathObjectHierarchy} from a saved data file (omitting all other contents), 
+	 * optionally deferring the loading of detections until they are needed.
+	 * Lazy loading is only supported by the columnar data format; for other files, the flag is ignored.
+	 * 
+	 * @param fileIn
+	 * @param lazyDetections if true, defer loading detections until they are requested
+	 * @return
+	 * @throws IOException 
+	 * @since v0.5.0
+	 * @see #readImageData(InputStream, ImageData, ImageServer, Class, boolean)
+	 */
+	public static PathObjectHierarchy readHierarchy(final InputStream fileIn, boolean lazyDetections) throws IOException {
+
+		var bufferedStream = new BufferedInputStream(fileIn);
+		if (ColumnarImageDataIO.isColumnar(bufferedStream)) {
+			try (bufferedStream) {
+				return ColumnarImageDataIO.read(bufferedStream, true, lazyDetections).getHierarchy();
+			}
+		}
 
 		Locale locale = Locale.getDefault(Category.FORMAT);
 		boolean localeChanged = false;
 
-		try (ObjectInputStream inStream = createObjectInputStream(new BufferedInputStream(fileIn))) {
+		try (ObjectInputStream inStream = createObjectInputStream(bufferedStream)) {
 			
 			if (!inStream.readUTF().startsWith("Data file version")) {
 				logger.error("Input stream is not from a valid QuPath data file!");
@@ -813,18 +1068,44 @@ public class PathIO {
 	 *  <li>anything else: the element is skipped, since a PathObject cannot be read from it
 	 * </ul>
 	 * If the element is a JSON array, its individual elements are handled as above.
+	 * <p>
+	 * Since v0.5.0, the JSON is read incrementally and features are parsed in parallel, 
+	 * so that the full JSON tree is never held in memory.
 	 * 
 	 * @param stream the input stream containing JSON data to read
 	 * @return a list containing any PathObjects that could be parsed from the stream
 	 * @throws IOException
 	 * @throws JsonSyntaxException 
 	 * @throws JsonParseException 
+	 * @see #readObjectsFromGeoJSON(InputStream, Consumer, boolean)
 	 */
 	public static List<PathObject> readObjectsFromGeoJSON(InputStream stream) throws IOException, JsonSyntaxException, JsonParseException {
-		var gson = GsonTools.getInstance();
+		List<PathObject> pathObjects = new ArrayList<>();
+		readObjectsFromGeoJSON(stream, pathObjects::add, true);
+		return pathObjects;
+	}
+	
+	/**
+	 * Read {@link PathObject PathObjects} from an input stream containing GeoJSON, passing each object to a consumer 
+	 * as soon as it has been read.
+	 * <p>
+	 * This supports the same GeoJSON representations as {@link #readObjectsFromGeoJSON(InputStream)}, but features are 
+	 * read and converted one at a time, so that memory use is bounded if the consumer does not retain the objects.
+	 * Converting features to objects (mostly parsing geometries) can optionally be done in parallel; 
+	 * either way, the consumer is called from the current thread with objects in the order they occur in the input.
+	 * 
+	 * @param stream the input stream containing JSON data to read; this is closed after reading
+	 * @param consumer consumer to accept each object
+	 * @param parallel if true, convert features to objects in parallel
+	 * @return the number of objects read
+	 * @throws IOException
+	 * @throws JsonSyntaxException 
+	 * @throws JsonParseException 
+	 * @since v0.5.0
+	 */
+	public static int readObjectsFromGeoJSON(InputStream stream, Consumer<? super PathObject> consumer, boolean parallel) throws IOException, JsonSyntaxException, JsonParseException {
 		try (var reader = new InputStreamReader(new BufferedInputStream(stream), StandardCharsets.UTF_8)) {
-			var element = gson.fromJson(reader, JsonElement.class);
-			return GsonTools.parseObjectsFromGeoJSON(element);
+			return GeoJsonStreams.readObjects(reader, consumer, parallel);
 		}
 	}
 	
@@ -927,21 +1208,10 @@ public class PathIO {
 	 */
 	public static void exportObjectsAsGeoJSON(OutputStream stream, Collection<? extends PathObject> pathObjects, GeoJsonExportOptions... options) throws IOException {
 		Collection<GeoJsonExportOptions> optionList = Arrays.asList(options);
-		
-		// If exclude measurements, 'transform' each PathObject to get rid of measurements
-		if (optionList.contains(GeoJsonExportOptions.EXCLUDE_MEASUREMENTS))
-			pathObjects = pathObjects.stream().map(e -> PathObjectTools.transformObject(e, null, false)).toList();
-		
+		// Objects are written one at a time (and, if necessary, stripped of measurements one at a time)
+		// so that the memory required doesn't grow with the number of objects
 		var writer = new OutputStreamWriter(new BufferedOutputStream(stream), StandardCharsets.UTF_8);
-		var gson = GsonTools.getInstance(optionList.contains(GeoJsonExportOptions.PRETTY_JSON));
-		
-		if (optionList.contains(GeoJsonExportOptions.FEATURE_COLLECTION))
-			gson.toJson(FeatureCollection.wrap(pathObjects), writer);
-		else if (pathObjects.size() == 1) {
-			gson.toJson(pathObjects.iterator().next(), writer);
-		} else {
-			gson.toJson(pathObjects, new TypeToken<List<PathObject>>() {}.getType(), writer);				
-		}
+		GeoJsonStreams.writeObjects(writer, pathObjects, optionList);
 		writer.flush();
 	}
 	
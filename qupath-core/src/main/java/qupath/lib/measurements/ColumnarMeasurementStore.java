@@ -0,0 +1,399 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.measurements;
+
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Shared, columnar storage for the measurements of many objects.
+ * <p>
+ * Each {@link MeasurementList} created by a store is assigned a 'slot', and its values are stored in one
+ * float column per measurement name - rather than in an array owned by the list itself.
+ * Columns are divided into large chunks, which are allocated only when a value is first set.
+ * Measurement names are shared between all lists with the same names in the same order.
+ * <p>
+ * This means that each list requires only a few bytes beyond its values, which can greatly reduce
+ * memory use and garbage collection overhead when there are millions of detections.
+ * It also makes it possible to read a single measurement for many objects efficiently, using
+ * {@link #getValues(List, Function, String, double[])}.
+ * <p>
+ * Slots are never reused, so the storage of a list is only reclaimed when all the lists created by the
+ * store (and the store itself) can be garbage collected.
+ * Stores are therefore best used for objects that share a lifetime, such as the detections read from one data file.
+ * <p>
+ * Lists created by a store are serialized as standalone float lists, without the store.
+ *
+ * @since v0.5.0
+ * @see MeasurementListFactory#createMeasurementList(ColumnarMeasurementStore)
+ */
+public final class ColumnarMeasurementStore {
+
+	private final AtomicInteger nextSlot = new AtomicInteger();
+
+	private final Map<String, Column> columns = new ConcurrentHashMap<>();
+	private final Map<List<String>, Schema> schemas = new ConcurrentHashMap<>();
+	private final Schema emptySchema = new Schema(this, Collections.emptyList());
+
+	/**
+	 * Create a new, empty store.
+	 */
+	public ColumnarMeasurementStore() {
+		schemas.put(emptySchema.names, emptySchema);
+	}
+
+	/**
+	 * Create a new, empty measurement list that stores its values in this store.
+	 * @return
+	 */
+	public MeasurementList createMeasurementList() {
+		int slot = nextSlot.getAndIncrement();
+		if (slot < 0) {
+			nextSlot.set(Integer.MIN_VALUE);
+			throw new IllegalStateException("Maximum number of measurement lists exceeded for store");
+		}
+		return new ColumnarMeasurementList(slot, emptySchema);
+	}
+
+	/**
+	 * Get the number of measurement lists that have been created by this store.
+	 * @return
+	 */
+	public int size() {
+		return Math.max(0, nextSlot.get());
+	}
+
+	/**
+	 * Get the number of distinct measurement names that have values in this store.
+	 * @return
+	 */
+	public int nColumns() {
+		return columns.size();
+	}
+
+	/**
+	 * Query whether a measurement list stores its values in this store.
+	 * @param list
+	 * @return
+	 */
+	public boolean contains(MeasurementList list) {
+		return list instanceof ColumnarMeasurementList && ((ColumnarMeasurementList)list).schema.store == this;
+	}
+
+	/**
+	 * Get the values of a single measurement for a list of items.
+	 * <p>
+	 * This is equivalent to calling {@code MeasurementList.get(name)} for the measurement list of each item,
+	 * but avoids looking up the measurement name for each item whenever consecutive lists were created by
+	 * a {@link ColumnarMeasurementStore} and have the same measurement names.
+	 * Values are then read directly from the column.
+	 *
+	 * @param <T> the type of item, e.g. a PathObject
+	 * @param items the items
+	 * @param measurementListFunction function to get the measurement list from each item
+	 * @param name the measurement name
+	 * @param values optional array to store the output; if null or too short, a new array is created
+	 * @return an array containing the value for each item in the first {@code items.size()} entries,
+	 *         or {@code Double.NaN} for any item that does not have the measurement
+	 */
+	public static <T> double[] getValues(List<? extends T> items, Function<? super T, ? extends MeasurementList> measurementListFunction,
+			String name, double[] values) {
+		int n = items.size();
+		if (values == null || values.length < n)
+			values = new double[n];
+		Schema lastSchema = null;
+		Column lastColumn = null;
+		int i = 0;
+		for (T item : items) {
+			var list = measurementListFunction.apply(item);
+			if (list instanceof ColumnarMeasurementList) {
+				var columnarList = (ColumnarMeasurementList)list;
+				var schema = columnarList.schema;
+				if (schema != lastSchema) {
+					lastSchema = schema;
+					lastColumn = schema.getColumn(name);
+				}
+				values[i] = lastColumn == null ? Double.NaN : lastColumn.get(columnarList.slot);
+			} else
+				values[i] = list == null ? Double.NaN : list.get(name);
+			i++;
+		}
+		return values;
+	}
+
+	private Column getColumn(String name) {
+		return columns.computeIfAbsent(name, n -> new Column());
+	}
+
+	private Schema getSchema(List<String> names) {
+		var schema = schemas.get(names);
+		if (schema != null)
+			return schema;
+		return schemas.computeIfAbsent(names, n -> new Schema(this, n));
+	}
+
+	@Override
+	public String toString() {
+		return "ColumnarMeasurementStore [lists=" + size() + ", columns=" + nColumns() + "]";
+	}
+
+
+	/**
+	 * A single measurement column, stored in chunks of floats.
+	 */
+	private static class Column {
+
+		private static final int CHUNK_BITS = 12;
+		private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+		private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+		private volatile float[][] chunks = new float[0][];
+
+		double get(int slot) {
+			var chunks = this.chunks;
+			int c = slot >>> CHUNK_BITS;
+			if (c >= chunks.length || chunks[c] == null)
+				return Double.NaN;
+			return chunks[c][slot & CHUNK_MASK];
+		}
+
+		void set(int slot, double value) {
+			getChunk(slot >>> CHUNK_BITS)[slot & CHUNK_MASK] = (float)value;
+		}
+
+		private float[] getChunk(int c) {
+			var chunks = this.chunks;
+			if (c < chunks.length && chunks[c] != null)
+				return chunks[c];
+			synchronized (this) {
+				chunks = this.chunks;
+				if (c >= chunks.length)
+					chunks = Arrays.copyOf(chunks, Math.max(c + 1, chunks.length * 2));
+				else if (chunks[c] != null)
+					return chunks[c];
+				else
+					chunks = chunks.clone();
+				float[] chunk = new float[CHUNK_SIZE];
+				Arrays.fill(chunk, Float.NaN);
+				chunks[c] = chunk;
+				this.chunks = chunks;
+				return chunk;
+			}
+		}
+
+	}
+
+
+	/**
+	 * Measurement names shared by all lists with the same names, in the same order.
+	 * Schemas are immutable, and changing the names of a list means switching to a different schema.
+	 */
+	private static class Schema {
+
+		private final ColumnarMeasurementStore store;
+		private final List<String> names;
+		private final Map<String, Integer> indices;
+		private final Column[] columns;
+
+		// Cache schemas created by appending a name, since measurements are usually added one at a time
+		private final Map<String, Schema> appended = new ConcurrentHashMap<>();
+
+		private Schema(ColumnarMeasurementStore store, List<String> names) {
+			this.store = store;
+			this.names = Collections.unmodifiableList(new ArrayList<>(names));
+			this.indices = new HashMap<>();
+			this.columns = new Column[names.size()];
+			int i = 0;
+			for (var name : this.names) {
+				indices.put(name, i);
+				columns[i] = store.getColumn(name);
+				i++;
+			}
+		}
+
+		int indexOf(String name) {
+			var ind = indices.get(name);
+			return ind == null ? -1 : ind.intValue();
+		}
+
+		Column getColumn(String name) {
+			int ind = indexOf(name);
+			return ind < 0 ? null : columns[ind];
+		}
+
+		Schema append(String name) {
+			var schema = appended.get(name);
+			if (schema != null)
+				return schema;
+			return appended.computeIfAbsent(name, n -> {
+				var newNames = new ArrayList<String>(names.size() + 1);
+				newNames.addAll(names);
+				newNames.add(n);
+				return store.getSchema(newNames);
+			});
+		}
+
+		Schema remove(List<String> namesToRemove) {
+			var newNames = new ArrayList<>(names);
+			if (!newNames.removeAll(namesToRemove))
+				return this;
+			return store.getSchema(newNames);
+		}
+
+	}
+
+
+	private static class ColumnarMeasurementList implements MeasurementList {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient int slot;
+		private transient volatile Schema schema;
+
+		private ColumnarMeasurementList(int slot, Schema schema) {
+			this.slot = slot;
+			this.schema = schema;
+		}
+
+		@Override
+		public Measurement putMeasurement(Measurement measurement) {
+			if (measurement.isDynamic())
+				throw new UnsupportedOperationException("This MeasurementList does not support dynamic measurements");
+			put(measurement.getName(), measurement.getValue());
+			return null;
+		}
+
+		@Override
+		public synchronized void put(String name, double value) {
+			var schema = this.schema;
+			int ind = schema.indexOf(name);
+			if (ind < 0) {
+				schema = schema.append(name);
+				ind = schema.columns.length - 1;
+			}
+			// Set the value before the name becomes visible
+			schema.columns[ind].set(slot, value);
+			this.schema = schema;
+		}
+
+		@Override
+		public List<String> getMeasurementNames() {
+			return schema.names;
+		}
+
+		@Override
+		public String getMeasurementName(int ind) {
+			return schema.names.get(ind);
+		}
+
+		@Override
+		public double getMeasurementValue(int ind) {
+			var schema = this.schema;
+			if (ind >= 0 && ind < schema.columns.length)
+				return schema.columns[ind].get(slot);
+			return Double.NaN;
+		}
+
+		@Override
+		public double get(String name) {
+			var column = schema.getColumn(name);
+			return column == null ? Double.NaN : column.get(slot);
+		}
+
+		@Override
+		public boolean containsKey(String name) {
+			return schema.indexOf(name) >= 0;
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return schema.names.isEmpty();
+		}
+
+		@Override
+		public int size() {
+			return schema.names.size();
+		}
+
+		@Override
+		public boolean supportsDynamicMeasurements() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// Names are always shared, so there is nothing to compact
+		}
+
+		@Override
+		public synchronized void removeMeasurements(String... measurementNames) {
+			schema = schema.remove(Arrays.asList(measurementNames));
+		}
+
+		@Override
+		public synchronized void clear() {
+			schema = schema.store.emptySchema;
+		}
+
+		@Override
+		public Map<String, Number> asMap() {
+			return new MeasurementsMap(this);
+		}
+
+		/**
+		 * Serialize as a standalone list, since the store is shared.
+		 * @return
+		 * @throws ObjectStreamException
+		 */
+		private synchronized Object writeReplace() throws ObjectStreamException {
+			var list = new NumericMeasurementList.FloatList(size());
+			for (int i = 0; i < size(); i++)
+				list.put(getMeasurementName(i), getMeasurementValue(i));
+			list.close();
+			return list;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			int n = size();
+			sb.append("[");
+			for (int i = 0; i < n; i++) {
+				sb.append(getMeasurementName(i)).append(": ").append(getMeasurementValue(i));
+				if (i < n - 1)
+					sb.append(", ");
+			}
+			sb.append("]");
+			return sb.toString();
+		}
+
+	}
+
+}
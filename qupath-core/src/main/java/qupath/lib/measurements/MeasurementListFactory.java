@@ -52,4 +52,16 @@ public class MeasurementListFactory {
 			return new DefaultMeasurementList(capacity);
 		}
 	}
+	
+	/**
+	 * Create a measurement list that stores its values in a shared columnar store.
+	 * This is more memory-efficient than a float list whenever there are many objects with similar measurements.
+	 * @param store
+	 * @return
+	 * @since v0.5.0
+	 * @see ColumnarMeasurementStore
+	 */
+	public static MeasurementList createMeasurementList(ColumnarMeasurementStore store) {
+		return store.createMeasurementList();
+	}
 }
@@ -0,0 +1,225 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.measurements;
+
+import java.nio.BufferOverflowException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Static methods to extract measurements for many items into a dense matrix, e.g. to use as features for a classifier.
+ * <p>
+ * Output matrices have one row per item and one column per measurement name, and are stored in row-major order.
+ * Missing measurements are represented by {@code Float.NaN}.
+ * <p>
+ * Rather than looking up each name for each item, the indices of the requested measurements are resolved once for
+ * each distinct list of measurement names. Since closed float and double lists (and lists created by a
+ * {@link ColumnarMeasurementStore}) share the same name list whenever they contain the same measurements,
+ * this usually means that names are resolved only a handful of times - regardless of the number of items.
+ * Large inputs are processed in parallel.
+ *
+ * @since v0.5.0
+ */
+public final class MeasurementMatrix {
+
+	/**
+	 * Number of rows to extract in each parallel task.
+	 */
+	private static final int CHUNK_SIZE = 4096;
+
+	private MeasurementMatrix() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Extract a matrix of measurements.
+	 *
+	 * @param <T> the type of item, e.g. a PathObject
+	 * @param items the items; the matrix will have one row per item
+	 * @param measurementListFunction function to get the measurement list from each item
+	 * @param names the measurement names; the matrix will have one column per name
+	 * @param output optional array to store the output; if null or too short, a new array is created
+	 * @return an array containing the matrix in its first {@code items.size() * names.size()} entries
+	 * @throws IllegalArgumentException if the matrix would be too large to store in an array
+	 */
+	public static <T> float[] extract(List<? extends T> items, Function<? super T, ? extends MeasurementList> measurementListFunction,
+			List<String> names, float[] output) throws IllegalArgumentException {
+		var list = toRandomAccess(items);
+		int nRows = list.size();
+		int nCols = names.size();
+		int length = checkedLength(nRows, nCols);
+		if (output == null || output.length < length)
+			output = new float[length];
+		var out = output;
+		var resolver = new NameResolver(names);
+		processChunks(nRows, (start, end) -> {
+			var indices = resolver.new Indices();
+			for (int i = start; i < end; i++)
+				indices.fill(measurementListFunction.apply(list.get(i)), out, i * nCols);
+		});
+		return output;
+	}
+
+	/**
+	 * Extract a matrix of measurements, writing the output to a buffer.
+	 * Values are written from the current position of the buffer, and the position is incremented
+	 * by the number of values written.
+	 *
+	 * @param <T> the type of item, e.g. a PathObject
+	 * @param items the items; the matrix will have one row per item
+	 * @param measurementListFunction function to get the measurement list from each item
+	 * @param names the measurement names; the matrix will have one column per name
+	 * @param buffer buffer to store the output
+	 * @throws BufferOverflowException if the buffer does not have space for the matrix
+	 */
+	public static <T> void extract(List<? extends T> items, Function<? super T, ? extends MeasurementList> measurementListFunction,
+			List<String> names, FloatBuffer buffer) throws BufferOverflowException {
+		var list = toRandomAccess(items);
+		int nRows = list.size();
+		int nCols = names.size();
+		long length = (long)nRows * nCols;
+		if (buffer.remaining() < length)
+			throw new BufferOverflowException();
+		int offset = buffer.position();
+		var resolver = new NameResolver(names);
+		processChunks(nRows, (start, end) -> {
+			// Use absolute puts on a duplicate, so that each task has its own buffer state
+			var buf = buffer.duplicate();
+			var indices = resolver.new Indices();
+			float[] row = new float[nCols];
+			for (int i = start; i < end; i++) {
+				indices.fill(measurementListFunction.apply(list.get(i)), row, 0);
+				buf.put(offset + i * nCols, row);
+			}
+		});
+		buffer.position(offset + (int)length);
+	}
+
+
+	private static <T> List<T> toRandomAccess(List<T> items) {
+		if (items instanceof RandomAccess)
+			return items;
+		return new ArrayList<>(items);
+	}
+
+	private static int checkedLength(int nRows, int nCols) {
+		long length = (long)nRows * nCols;
+		if (length > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Cannot create a matrix with " + nRows + " rows and " + nCols + " columns");
+		return (int)length;
+	}
+
+	private static void processChunks(int n, ChunkTask task) {
+		if (n <= CHUNK_SIZE) {
+			task.process(0, n);
+			return;
+		}
+		int nChunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		IntStream.range(0, nChunks).parallel().forEach(c -> {
+			int start = c * CHUNK_SIZE;
+			task.process(start, Math.min(n, start + CHUNK_SIZE));
+		});
+	}
+
+	@FunctionalInterface
+	private static interface ChunkTask {
+
+		void process(int start, int end);
+
+	}
+
+
+	/**
+	 * Helper class to map the requested measurement names to indices within a measurement list.
+	 */
+	private static class NameResolver {
+
+		private final int nCols;
+		private final Map<String, Integer> firstColumns = new HashMap<>();
+		private final int[] duplicateOf;
+
+		private NameResolver(List<String> names) {
+			nCols = names.size();
+			duplicateOf = new int[nCols];
+			for (int c = 0; c < nCols; c++) {
+				// Duplicate names refer to the first column with the same name
+				var first = firstColumns.putIfAbsent(names.get(c), c);
+				duplicateOf[c] = first == null ? -1 : first.intValue();
+			}
+		}
+
+		/**
+		 * Indices for the most recent list of measurement names.
+		 * This is not thread-safe, so each task should create its own instance.
+		 */
+		private class Indices {
+
+			private List<String> lastNames;
+			private int[] lastIndices;
+
+			void fill(MeasurementList list, float[] output, int offset) {
+				if (list == null) {
+					Arrays.fill(output, offset, offset + nCols, Float.NaN);
+					return;
+				}
+				var names = list.getMeasurementNames();
+				// Shared name lists mean that we can usually reuse the indices
+				if (names != lastNames) {
+					lastIndices = resolve(names);
+					lastNames = names;
+				}
+				int[] indices = lastIndices;
+				for (int c = 0; c < nCols; c++) {
+					int ind = indices[c];
+					output[offset + c] = ind < 0 ? Float.NaN : (float)list.getMeasurementValue(ind);
+				}
+			}
+
+		}
+
+		private int[] resolve(List<String> names) {
+			int[] indices = new int[nCols];
+			Arrays.fill(indices, -1);
+			int i = 0;
+			for (var name : names) {
+				var c = firstColumns.get(name);
+				if (c != null && indices[c] < 0)
+					indices[c] = i;
+				i++;
+			}
+			for (int c = 0; c < nCols; c++) {
+				if (duplicateOf[c] >= 0)
+					indices[c] = indices[duplicateOf[c]];
+			}
+			return indices;
+		}
+
+	}
+
+}
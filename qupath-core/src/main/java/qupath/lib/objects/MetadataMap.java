@@ -27,108 +27,128 @@ import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
-import java.util.Collection;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Helper class for storing metadata key/value pairs.
  * <p>
- * Currently wraps a {@link LinkedHashMap}, but this implementation may change.
+ * Keys are stored in immutable lists that are shared between all maps with the same keys in the same order, 
+ * while values are stored in an array. This means that the memory required for each map is low when 
+ * many objects have metadata with the same keys.
+ * The result of adding a key to each shared list is cached, so that adding keys to many maps in the same order 
+ * doesn't require new lists to be created or looked up.
+ * Iteration order is the order in which keys were added.
  * <p>
  * Serializes itself reasonably efficiently by using Object arrays.
  * 
  * @author Pete Bankhead
  *
  */
-class MetadataMap implements Map<String, String>, Externalizable {
-	
-	private static final Logger logger = LoggerFactory.getLogger(MetadataMap.class);
+class MetadataMap extends AbstractMap<String, String> implements Externalizable {
 	
 	private static final long serialVersionUID = 1L;
 	
-	private Map<String, String> map;
+	private static final String[] EMPTY_VALUES = new String[0];
+	
+	private Keys keys = Keys.EMPTY;
+	private String[] values = EMPTY_VALUES;
+	
+	private transient Set<Entry<String, String>> entrySet;
+	private transient int modCount;
 	
 	public MetadataMap() {}
 
 	@Override
 	public int size() {
-		return getMapInternal().size();
-	}
-
-	@Override
-	public boolean isEmpty() {
-		return getMapInternal().isEmpty();
+		return keys.names.size();
 	}
 
 	@Override
 	public boolean containsKey(Object key) {
-		return getMapInternal().containsKey(key);
-	}
-
-	@Override
-	public boolean containsValue(Object value) {
-		return getMapInternal().containsValue(value);
+		return keys.indexOf(key) >= 0;
 	}
 
 	@Override
 	public String get(Object key) {
-		return getMapInternal().get(key);
+		int ind = keys.indexOf(key);
+		return ind < 0 ? null : values[ind];
 	}
 
 	@Override
 	public String put(String key, String value) {
-		return getMapInternalOrCreate().put(key, value);
+		int ind = keys.indexOf(key);
+		if (ind >= 0) {
+			var previous = values[ind];
+			values[ind] = value;
+			return previous;
+		}
+		keys = keys.append(key);
+		values = Arrays.copyOf(values, values.length + 1);
+		values[values.length - 1] = value;
+		modCount++;
+		return null;
 	}
 
 	@Override
 	public String remove(Object key) {
-		if (map == null)
+		int ind = keys.indexOf(key);
+		if (ind < 0)
 			return null;
-		return map.remove(key);
+		var previous = values[ind];
+		removeAt(ind);
+		return previous;
 	}
-
-	@Override
-	public void putAll(Map<? extends String, ? extends String> m) {
-		if (m.isEmpty())
+	
+	private void removeAt(int ind) {
+		if (keys.names.size() == 1) {
+			clear();
 			return;
-		getMapInternalOrCreate().putAll(m);
+		}
+		var newKeys = Keys.EMPTY;
+		for (int i = 0; i < keys.names.size(); i++) {
+			if (i != ind)
+				newKeys = newKeys.append(keys.names.get(i));
+		}
+		keys = newKeys;
+		var newValues = new String[values.length - 1];
+		System.arraycopy(values, 0, newValues, 0, ind);
+		System.arraycopy(values, ind + 1, newValues, ind, newValues.length - ind);
+		values = newValues;
+		modCount++;
 	}
 
 	@Override
 	public void clear() {
-		if (map == null)
-			return;
-		map.clear();
-		map = null;
-	}
-
-	@Override
-	public Set<String> keySet() {
-		return getMapInternalOrCreate().keySet();
+		keys = Keys.EMPTY;
+		values = EMPTY_VALUES;
+		modCount++;
 	}
 
 	@Override
-	public Collection<String> values() {
-		return getMapInternalOrCreate().values();
+	public Set<Entry<String, String>> entrySet() {
+		if (entrySet == null)
+			entrySet = new EntrySet();
+		return entrySet;
 	}
-
-	@Override
-	public Set<java.util.Map.Entry<String, String>> entrySet() {
-		return getMapInternalOrCreate().entrySet();
-	}
-
+	
 	@Override
 	public void writeExternal(ObjectOutput out) throws IOException {
 		out.writeObject(Integer.valueOf(1));
-		var map = getMapInternal();
-		out.writeObject(map.keySet().toArray());
-		out.writeObject(map.values().toArray());
+		out.writeObject(keys.names.toArray());
+		out.writeObject(Arrays.copyOf(values, values.length, Object[].class));
 	}
 
 	@Override
@@ -138,32 +158,171 @@ class MetadataMap implements Map<String, String>, Externalizable {
 		Object[] keys = (Object[])in.readObject();
 		Object[] values = (Object[])in.readObject();
 		if (keys.length > 0) {
-			var mapInternal = getMapInternalOrCreate();
+			var newKeys = Keys.EMPTY;
+			String[] newValues = new String[keys.length];
 			for (int i = 0; i < keys.length; i++) {
-				mapInternal.put((String)keys[i], (String)values[i]);
+				String key = (String)keys[i];
+				int ind = newKeys.indexOf(key);
+				if (ind < 0) {
+					newKeys = newKeys.append(key);
+					ind = newKeys.names.size() - 1;
+				}
+				newValues[ind] = (String)values[i];
 			}
+			this.keys = newKeys;
+			int n = newKeys.names.size();
+			this.values = n == newValues.length ? newValues : Arrays.copyOf(newValues, n);
 		}
 	}
 	
-	private Map<String, String> getMapInternal() {
-		if (map == null)
-			return Collections.emptyMap();
-		else
-			return map;
+	
+	/**
+	 * Shared, immutable list of keys.
+	 * <p>
+	 * Each list caches the lists created by appending a key to it, since keys are usually added to many maps 
+	 * in the same order. Cached lists are only weakly referenced, so that they can be collected when no 
+	 * map uses them.
+	 */
+	private static class Keys {
+		
+		private static final Keys EMPTY = new Keys(null, Collections.emptyList());
+		
+		/**
+		 * Maximum number of keys to search linearly; longer lists use a map of indices.
+		 */
+		private static final int MAX_LINEAR_SEARCH = 8;
+		
+		// Retain the list this was created from, so that it stays cached while any longer list is in use
+		@SuppressWarnings("unused")
+		private final Keys parent;
+		private final List<String> names;
+		private final Map<String, Integer> indices;
+		
+		private final Map<String, WeakReference<Keys>> appended = new ConcurrentHashMap<>();
+		
+		private Keys(Keys parent, List<String> names) {
+			this.parent = parent;
+			this.names = Collections.unmodifiableList(names);
+			if (names.size() > MAX_LINEAR_SEARCH) {
+				indices = new HashMap<>();
+				for (int i = 0; i < names.size(); i++)
+					indices.put(names.get(i), i);
+			} else
+				indices = null;
+		}
+		
+		int indexOf(Object key) {
+			if (indices != null) {
+				var ind = indices.get(key);
+				return ind == null ? -1 : ind.intValue();
+			}
+			for (int i = 0; i < names.size(); i++) {
+				if (names.get(i).equals(key))
+					return i;
+			}
+			return -1;
+		}
+		
+		/**
+		 * Get the keys created by appending a key to this list.
+		 * The key must not already be in the list.
+		 */
+		Keys append(String key) {
+			var ref = appended.get(key);
+			var keys = ref == null ? null : ref.get();
+			if (keys != null)
+				return keys;
+			synchronized (this) {
+				ref = appended.get(key);
+				keys = ref == null ? null : ref.get();
+				if (keys == null) {
+					var newNames = new ArrayList<String>(names.size() + 1);
+					newNames.addAll(names);
+					newNames.add(key);
+					keys = new Keys(this, newNames);
+					appended.put(key, new WeakReference<>(keys));
+				}
+				return keys;
+			}
+		}
+		
 	}
 	
-	private Map<String, String> getMapInternalOrCreate() {
-		if (map == null) {
-			logger.trace("Creating MetadataMap");
-			map = new LinkedHashMap<>();
+	
+	private class EntrySet extends AbstractSet<Entry<String, String>> {
+
+		@Override
+		public Iterator<Entry<String, String>> iterator() {
+			return new EntryIterator();
+		}
+
+		@Override
+		public int size() {
+			return MetadataMap.this.size();
 		}
-		return map;
+		
+		@Override
+		public void clear() {
+			MetadataMap.this.clear();
+		}
+		
 	}
 	
-	@Override
-	public String toString() {
-		return getMapInternal().toString();
+	
+	private class EntryIterator implements Iterator<Entry<String, String>> {
+		
+		private int next = 0;
+		private int last = -1;
+		private int expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext() {
+			return next < keys.names.size();
+		}
+
+		@Override
+		public Entry<String, String> next() {
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			if (!hasNext())
+				throw new NoSuchElementException();
+			last = next++;
+			return new MetadataEntry(last);
+		}
+		
+		@Override
+		public void remove() {
+			if (last < 0)
+				throw new IllegalStateException();
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			removeAt(last);
+			next = last;
+			last = -1;
+			expectedModCount = modCount;
+		}
+		
+	}
+	
+	
+	/**
+	 * Map entry that writes through to the map.
+	 */
+	private class MetadataEntry extends SimpleEntry<String, String> {
+
+		private static final long serialVersionUID = 1L;
+
+		MetadataEntry(int ind) {
+			super(keys.names.get(ind), values[ind]);
+		}
+		
+		@Override
+		public String setValue(String value) {
+			super.setValue(value);
+			return put(getKey(), value);
+		}
+		
 	}
 	
 
-}
\ No newline at end of file
+}
@@ -27,14 +27,17 @@ import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
 
@@ -66,18 +69,32 @@ public abstract class PathObject implements Externalizable {
 	
 	private static final String METADATA_KEY_ID = "Object ID";
 	
-	private UUID id = UUID.randomUUID();
+	// Store the ID as primitives, since a UUID object would add considerably to the memory required per object
+	private long idMostSigBits;
+	private long idLeastSigBits;
 	
 	private PathObject parent = null;
-	private Collection<PathObject> childList = null; // Collections.synchronizedList(new ArrayList<>(0));
+	private ChildList childList = null;
 	private MeasurementList measurements = null;
 	
 	private MetadataMap metadata = null;
 	
 	private String name = null;
 	private Integer color;
-
-	private transient Collection<PathObject> cachedUnmodifiableChildren = null;
+	
+	/**
+	 * Index of this object within the child list of its parent, or -1 if unknown.
+	 */
+	private int childIndex = -1;
+	
+	/**
+	 * Optional callback to load child objects that belong to this object, but haven't been added yet.
+	 */
+	private transient volatile Runnable deferredChildLoader;
+	
+	{
+		setIDBits(UUID.randomUUID());
+	}
 	
 
 	/**
@@ -313,7 +330,7 @@ public abstract class PathObject implements Externalizable {
 	}
 	
 	private synchronized void addChildObjectImpl(PathObject pathObject) {
-		ensureChildList(nChildObjects() + 1);
+		ensureChildList(childList == null ? 1 : childList.size() + 1);
 		// Make sure the object is removed from any other parent
 		if (pathObject.parent != this) {
 			if (pathObject.parent != null && pathObject.parent.childList != null)
@@ -330,7 +347,7 @@ public abstract class PathObject implements Externalizable {
 	private synchronized void addChildObjectsImpl(Collection<? extends PathObject> pathObjects) {
 		if (pathObjects == null || pathObjects.isEmpty())
 			return;
-		ensureChildList(nChildObjects() + pathObjects.size());
+		ensureChildList(childList == null ? pathObjects.size() : childList.size() + pathObjects.size());
 		// Make sure the object is removed from any other parent
 		Iterator<? extends PathObject> iter = pathObjects.iterator();
 		PathObject lastBatchRemoveParent = null;
@@ -347,7 +364,7 @@ public abstract class PathObject implements Externalizable {
 				// Warning! It's crucial to check both for the Collection returned from getChildObjects(), since this may be 
 				// an unmodifiable collection backed by something else.  It's troublesome to predict how equals/hashCode will deal with this
 				// (e.g. passing through or not... Collections.unmodifiableList behaves differently from Collections.unmodifiableCollection)
-				if (previousParent.getChildObjects().equals(pathObjects) || previousParent.childList.equals(pathObjects)) {
+				if (previousParent.childList.unmodifiableView.equals(pathObjects) || previousParent.childList.equals(pathObjects)) {
 					isChildList = true;
 					lastBatchRemoveParent = previousParent;
 					break;
@@ -389,16 +406,13 @@ public abstract class PathObject implements Externalizable {
 	
 	
 	/**
-	 * When using an ArrayList previously, this method could (somewhat) improve object removal performance.
+	 * Remove objects from a child list.
+	 * This is fast because each object records its index within the list of its parent, so no search is required.
 	 * 
 	 * @param list
 	 * @param toRemove
 	 */
-	private static <T> void removeAllQuickly(Collection<T> list, Collection<T> toRemove) {
-		int size = 10;
-		if (!(toRemove instanceof Set)  && toRemove.size() > size) {
-			toRemove = new HashSet<>(toRemove);
-		}
+	private static void removeAllQuickly(ChildList list, Collection<? extends PathObject> toRemove) {
 		list.removeAll(toRemove);
 	}
 	
@@ -428,7 +442,7 @@ public abstract class PathObject implements Externalizable {
 	 * @since v0.4.0
 	 */
 	public void removeChildObject(PathObject pathObject) {
-		if (!hasChildObjects())
+		if (childList == null || childList.isEmpty())
 			return;
 		if (pathObject.parent == this)
 			pathObject.parent = null; //.setParent(null);
@@ -452,7 +466,7 @@ public abstract class PathObject implements Externalizable {
 	 * @since v0.4.0
 	 */
 	public synchronized void removeChildObjects(Collection<PathObject> pathObjects) {
-		if (!hasChildObjects())
+		if (childList == null || childList.isEmpty())
 			return;
 		for (PathObject pathObject : pathObjects) {
 			if (pathObject.parent == this)
@@ -479,7 +493,7 @@ public abstract class PathObject implements Externalizable {
 	 * @since v0.4.0
 	 */
 	public void clearChildObjects() {
-		if (!hasChildObjects())
+		if (childList == null || childList.isEmpty())
 			return;
 		synchronized (childList) {
 			for (PathObject pathObject : childList) {
@@ -508,6 +522,7 @@ public abstract class PathObject implements Externalizable {
 	 * @see #nDescendants()
 	 */
 	public int nChildObjects() {
+		loadDeferredChildObjects();
 		return childList == null ? 0 : childList.size();
 	}
 	
@@ -537,9 +552,36 @@ public abstract class PathObject implements Externalizable {
 	 * @since v0.4.0, replaces {@link #hasChildren()} for more consistent naming
 	 */
 	public boolean hasChildObjects() {
+		loadDeferredChildObjects();
 		return childList != null && !childList.isEmpty();
 	}
 	
+	/**
+	 * Set a callback to load child objects that belong to this object, but haven't been added yet.
+	 * The callback is run before the child objects are accessed through this object, and should add the 
+	 * objects as children (and then remove the callback).
+	 * <p>
+	 * This is used by {@link PathObjectHierarchy} to support loading detections lazily, and is not generally 
+	 * needed elsewhere.
+	 * 
+	 * @param loader the callback, or null if there are no child objects waiting to be loaded
+	 * @since v0.5.0
+	 * @see PathObjectHierarchy#setDeferredObjectSource(qupath.lib.objects.hierarchy.DeferredObjectSource)
+	 */
+	public void setDeferredChildLoader(Runnable loader) {
+		this.deferredChildLoader = loader;
+	}
+	
+	/**
+	 * Load any child objects that haven't been added yet.
+	 * This must not be called while synchronized on this object, since loading requires the hierarchy lock.
+	 */
+	private void loadDeferredChildObjects() {
+		var loader = deferredChildLoader;
+		if (loader != null)
+			loader.run();
+	}
+	
 	/**
 	 * Legacy method to check for child objects.
 	 * @return
@@ -650,7 +692,7 @@ public abstract class PathObject implements Externalizable {
 	public Collection<PathObject> getChildObjects() {
 		if (!hasChildObjects())
 			return Collections.emptyList();
-		return cachedUnmodifiableChildren;
+		return childList.unmodifiableView;
 	}
 	
 	/**
@@ -699,6 +741,7 @@ public abstract class PathObject implements Externalizable {
 	 * @return
 	 */
 	public PathObject[] getChildObjectsAsArray() {
+		loadDeferredChildObjects();
 		return childList == null ? new PathObject[0] : childList.toArray(PathObject[]::new);
 	}
 	
@@ -936,16 +979,7 @@ public abstract class PathObject implements Externalizable {
 	 * @see #refreshID()
 	 */
 	public UUID getID() {
-		// Make extra sure we always have an ID when requested
-		if (id == null) {
-			synchronized (this) {
-				if (id == null) {
-					logger.debug("Generating a new UUID on request");
-					id = UUID.randomUUID();
-				}
-			}
-		}
-		return id;
+		return new UUID(idMostSigBits, idLeastSigBits);
 	}
 	
 	/**
@@ -968,7 +1002,12 @@ public abstract class PathObject implements Externalizable {
 	public void setID(UUID id) throws IllegalArgumentException {
 		if (id == null)
 			throw new IllegalArgumentException("ID of an object cannot be null!");
-		this.id = id;
+		setIDBits(id);
+	}
+	
+	private void setIDBits(UUID id) {
+		this.idMostSigBits = id.getMostSignificantBits();
+		this.idLeastSigBits = id.getLeastSignificantBits();
 	}
 	
 	/**
@@ -989,18 +1028,9 @@ public abstract class PathObject implements Externalizable {
 			synchronized (this) {
 				if (childList != null)
 					return;
-				// Set default capacity to something reasonable, taking into consideration 
-				// the load factor (we don't want to expand immediately)
-				int n = 8;
-				float loadFactor = 0.75f;
-				if (capacity > 0)
-					n = (int)Math.max(n, Math.ceil(capacity / loadFactor));
-				childList = Collections.synchronizedSet(new LinkedHashSet<>(n, loadFactor));
-				cachedUnmodifiableChildren = Collections.unmodifiableCollection(childList);
+				childList = new ChildList(Math.max(4, capacity));
 			}
 		}
-//			childList = new TreeSet<PathObject>(DefaultPathObjectComparator.getInstance());
-//			childList = new ArrayList<PathObject>();
 	}
 	
 	/**
@@ -1090,7 +1120,7 @@ public abstract class PathObject implements Externalizable {
 		// This is not currently used, but exists in case future QuPath versions need 
 		// improved flexibility while wanting v0.4.0 to still be able to open the data files.
 		if (PathIO.getRequestedDataFileVersion() >= 4) {
-			out.writeObject(id);
+			out.writeObject(getID());
 			// Number of additional fields to write as objects
 			int nFields = 1;
 			if (metadata != null) {
@@ -1107,8 +1137,8 @@ public abstract class PathObject implements Externalizable {
 			if (metadata != null) {
 				tempMetadata.putAll(metadata);
 			}
-			if (id != null && !tempMetadata.containsKey(METADATA_KEY_ID))
-				tempMetadata.put(METADATA_KEY_ID, id.toString());
+			if (!tempMetadata.containsKey(METADATA_KEY_ID))
+				tempMetadata.put(METADATA_KEY_ID, getID().toString());
 			
 			// We always have metadata now
 			out.writeObject(tempMetadata);
@@ -1150,7 +1180,7 @@ public abstract class PathObject implements Externalizable {
 		
 		// If we have a UUID, then we're working with a data file version of at least 4
 		if (nextObject instanceof UUID) {
-			id = (UUID)nextObject;
+			setIDBits((UUID)nextObject);
 			// Here we've stored the number of object fields (for future expansion)
 			int nFields = in.readInt();
 			for (int i = 0; i < nFields; i++) {
@@ -1182,7 +1212,7 @@ public abstract class PathObject implements Externalizable {
 				// Try to parse UUID from metadata map if we can
 				if (idString != null && idString.length() <= 36 && idString.contains("-")) {
 					try {
-						id = UUID.fromString(idString);
+						setIDBits(UUID.fromString(idString));
 						if (metadata.size() == 1)
 							metadata = null;
 						else
@@ -1202,10 +1232,6 @@ public abstract class PathObject implements Externalizable {
 			}
 		}
 		
-		// Ensure we have an ID
-		if (id == null)
-			id = UUID.randomUUID();
-		
 		// Read child objects
 		int nChildObjects = in.readInt();
 		if (nChildObjects > 0) {
@@ -1221,4 +1247,209 @@ public abstract class PathObject implements Externalizable {
 		
 	}
 	
-}
\ No newline at end of file
+	
+	/**
+	 * Array-backed collection of child objects.
+	 * <p>
+	 * This requires much less memory than a {@link LinkedHashSet}, while still supporting fast removal.
+	 * Each object records its index within the array, so that it can be found without searching. 
+	 * Removed objects leave a gap in the array, and the array is compacted whenever there are too many gaps.
+	 * Iteration order is the order in which objects were added, and each object can only be added once.
+	 * <p>
+	 * Methods are synchronized on the list itself; callers should also synchronize on the list when iterating.
+	 */
+	private static class ChildList extends AbstractCollection<PathObject> {
+		
+		private PathObject[] objects;
+		private int end = 0;
+		private int size = 0;
+		private int modCount = 0;
+		
+		private final Collection<PathObject> unmodifiableView = Collections.unmodifiableCollection(this);
+		
+		private ChildList(int capacity) {
+			objects = new PathObject[capacity];
+		}
+		
+		@Override
+		public synchronized int size() {
+			return size;
+		}
+		
+		@Override
+		public synchronized boolean contains(Object o) {
+			if (o instanceof PathObject pathObject) {
+				int ind = pathObject.childIndex;
+				return ind >= 0 && ind < end && objects[ind] == pathObject;
+			}
+			return false;
+		}
+		
+		@Override
+		public synchronized boolean add(PathObject pathObject) {
+			if (contains(pathObject))
+				return false;
+			if (end == objects.length) {
+				// Compact rather than expand if there are a lot of gaps
+				if (end - size > end / 4)
+					compact();
+				else
+					objects = Arrays.copyOf(objects, Math.max(end + 4, end + (end >> 1)));
+			}
+			pathObject.childIndex = end;
+			objects[end++] = pathObject;
+			size++;
+			modCount++;
+			return true;
+		}
+		
+		@Override
+		public synchronized boolean addAll(Collection<? extends PathObject> c) {
+			int required = end + c.size();
+			if (required > objects.length)
+				objects = Arrays.copyOf(objects, required);
+			boolean changed = false;
+			for (var pathObject : c)
+				changed |= add(pathObject);
+			return changed;
+		}
+		
+		@Override
+		public synchronized boolean remove(Object o) {
+			if (!contains(o))
+				return false;
+			removeAt(((PathObject)o).childIndex);
+			compactIfNeeded();
+			return true;
+		}
+		
+		@Override
+		public synchronized boolean removeAll(Collection<?> c) {
+			if (c == this || c == unmodifiableView) {
+				boolean changed = size > 0;
+				clear();
+				return changed;
+			}
+			boolean changed = false;
+			for (var o : c) {
+				if (contains(o)) {
+					removeAt(((PathObject)o).childIndex);
+					changed = true;
+				}
+			}
+			compactIfNeeded();
+			return changed;
+		}
+		
+		/**
+		 * Clear the list.
+		 * Note that this does not reset the index stored in each object, since they may have already been 
+		 * added to another list.
+		 */
+		@Override
+		public synchronized void clear() {
+			Arrays.fill(objects, 0, end, null);
+			end = 0;
+			size = 0;
+			modCount++;
+		}
+		
+		@Override
+		public synchronized Object[] toArray() {
+			return toArray(new Object[size]);
+		}
+		
+		@Override
+		@SuppressWarnings("unchecked")
+		public synchronized <T> T[] toArray(T[] a) {
+			if (a.length < size)
+				a = (T[])java.lang.reflect.Array.newInstance(a.getClass().getComponentType(), size);
+			int i = 0;
+			for (int j = 0; j < end; j++) {
+				if (objects[j] != null)
+					a[i++] = (T)objects[j];
+			}
+			if (a.length > size)
+				a[size] = null;
+			return a;
+		}
+		
+		@Override
+		public Iterator<PathObject> iterator() {
+			return new Iterator<>() {
+				
+				private int next = advance(0);
+				private int last = -1;
+				private int expectedModCount = modCount;
+				
+				private int advance(int ind) {
+					while (ind < end && objects[ind] == null)
+						ind++;
+					return ind;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return next < end;
+				}
+
+				@Override
+				public PathObject next() {
+					if (modCount != expectedModCount)
+						throw new ConcurrentModificationException();
+					if (next >= end)
+						throw new NoSuchElementException();
+					last = next;
+					next = advance(next + 1);
+					return objects[last];
+				}
+				
+				@Override
+				public void remove() {
+					if (last < 0)
+						throw new IllegalStateException();
+					if (modCount != expectedModCount)
+						throw new ConcurrentModificationException();
+					synchronized (ChildList.this) {
+						// Don't compact during iteration, since this would change the indices
+						removeAt(last);
+						expectedModCount = modCount;
+					}
+					last = -1;
+				}
+				
+			};
+		}
+		
+		private void removeAt(int ind) {
+			objects[ind].childIndex = -1;
+			objects[ind] = null;
+			size--;
+			modCount++;
+			// Trim any gaps at the end
+			while (end > 0 && objects[end-1] == null)
+				end--;
+		}
+		
+		private void compactIfNeeded() {
+			if (end - size > Math.max(16, size))
+				compact();
+		}
+		
+		private void compact() {
+			int n = 0;
+			for (int i = 0; i < end; i++) {
+				var pathObject = objects[i];
+				if (pathObject != null) {
+					pathObject.childIndex = n;
+					objects[n++] = pathObject;
+				}
+			}
+			Arrays.fill(objects, n, end, null);
+			end = n;
+			modCount++;
+		}
+		
+	}
+	
+}
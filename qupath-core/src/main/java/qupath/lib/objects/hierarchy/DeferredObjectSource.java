@@ -0,0 +1,63 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import java.util.List;
+import java.util.Map;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.regions.ImageRegion;
+
+/**
+ * Source of detection objects that belong to a {@link PathObjectHierarchy}, but have not yet been added to it.
+ * <p>
+ * This makes it possible to open a hierarchy quickly with only the annotations (and other non-detection objects) resident,
+ * and to load detections on demand whenever the hierarchy is queried for a region that contains them.
+ * <p>
+ * Implementations should be thread-safe. Each object should be returned only once.
+ *
+ * @since v0.5.0
+ * @see PathObjectHierarchy#setDeferredObjectSource(DeferredObjectSource)
+ */
+public interface DeferredObjectSource {
+
+	/**
+	 * Load all objects that might intersect the specified region.
+	 * This may return more objects than are strictly needed, but must not return fewer.
+	 * <p>
+	 * Loaded objects are returned grouped by the parent object to which they should be added.
+	 * Parents should already be in the hierarchy, and the loaded objects should already
+	 * contain any of their own descendants that are also returned.
+	 *
+	 * @param region the region of interest, or null if all remaining objects should be loaded
+	 * @return a map of parents and the objects that should be added to them as children
+	 * @throws java.io.UncheckedIOException if the objects could not be read
+	 */
+	Map<PathObject, List<PathObject>> loadObjects(ImageRegion region);
+
+	/**
+	 * Get the number of objects that have not yet been loaded.
+	 * @return
+	 */
+	int size();
+
+}
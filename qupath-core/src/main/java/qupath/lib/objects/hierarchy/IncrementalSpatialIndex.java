@@ -0,0 +1,520 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * A spatial index that can be updated one item at a time, while permitting lock-free queries from other threads.
+ * <p>
+ * Items are stored in a small number of immutable, STR-packed R-trees (in the style of a log-structured merge tree)
+ * along with a short, append-only list of recent additions.
+ * When the list of additions is full, it is packed into a new tree and merged with any existing trees of a similar size.
+ * <p>
+ * Removing or moving an item does not modify any tree. Rather, a map from each item to its current entry
+ * is used to identify entries that are no longer valid, and these are dropped whenever trees are merged.
+ * If the proportion of invalid entries becomes too large, all trees are rebuilt.
+ * <p>
+ * Writes should be made from one thread at a time, and are synchronized on the index.
+ * Queries may be made from any thread without locking, and see a consistent view of the trees
+ * (although they may or may not include changes made concurrently with the query).
+ *
+ * @param <T> the type of item stored in the index
+ * @since v0.5.0
+ */
+class IncrementalSpatialIndex<T> {
+
+	/**
+	 * Maximum number of children per tree node.
+	 */
+	private static final int NODE_CAPACITY = 16;
+
+	/**
+	 * Maximum number of recent additions to store before packing them into a tree.
+	 */
+	private static final int PENDING_CAPACITY = 1024;
+
+	/**
+	 * Minimum number of entries to create a parallel sort.
+	 */
+	private static final int MIN_PARALLEL_SORT = 8192;
+
+	private volatile Snapshot<T> snapshot = new Snapshot<>(new ConcurrentHashMap<>(), createTrees(null), createPending(), 0);
+
+	/**
+	 * Number of entries in all trees & pending additions that are no longer valid.
+	 */
+	private int nStale = 0;
+
+	/**
+	 * Replace the contents of the index with the specified items, packing them into a single tree.
+	 * <p>
+	 * Queries made during the build use the previous contents of the index.
+	 * @param items the items to add
+	 * @param boundsFun function to extract the bounds of each item
+	 */
+	synchronized void build(Collection<? extends T> items, BoundsFunction<? super T> boundsFun) {
+		var live = new ConcurrentHashMap<T, Entry<T>>(Math.max(16, items.size() * 4 / 3 + 1));
+		double[] bounds = new double[4];
+		for (var item : items) {
+			boundsFun.getBounds(item, bounds);
+			live.put(item, new Entry<>(item, bounds));
+		}
+		var tree = PackedTree.build(live.values());
+		snapshot = new Snapshot<>(live, createTrees(tree), createPending(), 0);
+		nStale = 0;
+	}
+
+	/**
+	 * Add an item to the index, or update its bounds if it is already present.
+	 * If the item is present with the same bounds, this does nothing.
+	 * @param item
+	 * @param minX
+	 * @param minY
+	 * @param maxX
+	 * @param maxY
+	 * @return the entry for the item
+	 */
+	synchronized Entry<T> put(T item, double minX, double minY, double maxX, double maxY) {
+		var current = snapshot;
+		var previous = current.live.get(item);
+		if (previous != null && previous.hasBounds(minX, minY, maxX, maxY))
+			return previous;
+
+		var entry = new Entry<>(item, minX, minY, maxX, maxY);
+
+		// Append to the pending entries first, so that the entry is visible to queries when it becomes live
+		var pending = current.pending;
+		int nPending = current.nPending;
+		var trees = current.trees;
+		if (nPending == pending.length) {
+			trees = flush(current.live, trees, pending, nPending);
+			pending = createPending();
+			nPending = 0;
+		}
+		pending[nPending++] = entry;
+		current = new Snapshot<>(current.live, trees, pending, nPending);
+		snapshot = current;
+
+		current.live.put(item, entry);
+		if (previous != null) {
+			nStale++;
+			compactIfNeeded();
+		}
+		return entry;
+	}
+
+	/**
+	 * Add multiple items to the index, or update their bounds if they are already present.
+	 * <p>
+	 * This is equivalent to calling {@link #put(Object, double, double, double, double)} for each item,
+	 * but packs all new entries into a single tree rather than adding them to the pending entries.
+	 * @param items the items to add
+	 * @param boundsFun function to extract the bounds of each item
+	 */
+	synchronized void putAll(Collection<? extends T> items, BoundsFunction<? super T> boundsFun) {
+		if (items.size() < PENDING_CAPACITY) {
+			double[] bounds = new double[4];
+			for (var item : items) {
+				boundsFun.getBounds(item, bounds);
+				put(item, bounds[0], bounds[1], bounds[2], bounds[3]);
+			}
+			return;
+		}
+		var current = snapshot;
+		var live = current.live;
+		Map<T, Entry<T>> newEntries = new LinkedHashMap<>(items.size() * 4 / 3 + 1);
+		double[] bounds = new double[4];
+		for (var item : items) {
+			boundsFun.getBounds(item, bounds);
+			var previous = live.get(item);
+			if (previous == null || !previous.hasBounds(bounds[0], bounds[1], bounds[2], bounds[3]))
+				newEntries.put(item, new Entry<>(item, bounds));
+		}
+		if (newEntries.isEmpty())
+			return;
+
+		// Pack the pending entries alongside the new ones, so that they don't need to be checked separately
+		List<Entry<T>> entries = new ArrayList<>(newEntries.size() + current.nPending);
+		entries.addAll(newEntries.values());
+		int nRemoved = addLiveEntries(live, Arrays.asList(current.pending).subList(0, current.nPending), entries);
+		var trees = current.trees;
+		int n = trees.length;
+		while (n > 0 && trees[n-1].size() <= entries.size() * 2) {
+			nRemoved += addLiveEntries(live, trees[n-1].entries(), entries);
+			n--;
+		}
+		nStale = Math.max(0, nStale - nRemoved);
+		var newTrees = Arrays.copyOf(trees, n + 1);
+		newTrees[n] = PackedTree.build(entries);
+
+		// Publish the tree before the entries become live, so that they are always visible to queries
+		snapshot = new Snapshot<>(live, newTrees, createPending(), 0);
+		for (var entry : newEntries.values()) {
+			if (live.put(entry.item, entry) != null)
+				nStale++;
+		}
+		compactIfNeeded();
+	}
+
+	/**
+	 * Remove an item from the index.
+	 * @param item
+	 * @return true if the item was removed, false if it was not found
+	 */
+	synchronized boolean remove(T item) {
+		if (snapshot.live.remove(item) == null)
+			return false;
+		nStale++;
+		compactIfNeeded();
+		return true;
+	}
+
+	/**
+	 * Get the current entry for an item.
+	 * @param item
+	 * @return the entry, or null if the item is not in the index
+	 */
+	Entry<T> getEntry(T item) {
+		return snapshot.live.get(item);
+	}
+
+	/**
+	 * Get all the current entries.
+	 * The returned collection is weakly consistent, and should not be modified.
+	 * @return
+	 */
+	Collection<Entry<T>> getEntries() {
+		return snapshot.live.values();
+	}
+
+	/**
+	 * Get the number of items in the index.
+	 * @return
+	 */
+	int size() {
+		return snapshot.live.size();
+	}
+
+	/**
+	 * Visit all items with bounds intersecting the specified rectangle.
+	 * Each item is visited at most once.
+	 * @param minX
+	 * @param minY
+	 * @param maxX
+	 * @param maxY
+	 * @param visitor predicate called for each item; if this returns false, the query stops
+	 * @return true if the query visited all items, false if it was stopped by the visitor
+	 */
+	boolean query(double minX, double minY, double maxX, double maxY, Predicate<? super T> visitor) {
+		var current = snapshot;
+		var live = current.live;
+		for (var tree : current.trees) {
+			if (!tree.query(minX, minY, maxX, maxY, live, visitor))
+				return false;
+		}
+		var pending = current.pending;
+		for (int i = 0; i < current.nPending; i++) {
+			var entry = pending[i];
+			if (entry.intersects(minX, minY, maxX, maxY) && live.get(entry.item) == entry && !visitor.test(entry.item))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Pack pending entries into a new tree, merging with existing trees of a similar size.
+	 */
+	private PackedTree<T>[] flush(Map<T, Entry<T>> live, PackedTree<T>[] trees, Entry<T>[] pending, int nPending) {
+		List<Entry<T>> entries = new ArrayList<>(nPending);
+		int nRemoved = addLiveEntries(live, Arrays.asList(pending).subList(0, nPending), entries);
+		// Trees are stored largest first; merge while the smallest is not much larger than the new entries
+		int n = trees.length;
+		while (n > 0 && trees[n-1].size() <= entries.size() * 2) {
+			nRemoved += addLiveEntries(live, trees[n-1].entries(), entries);
+			n--;
+		}
+		nStale = Math.max(0, nStale - nRemoved);
+		if (entries.isEmpty())
+			return Arrays.copyOf(trees, n);
+		var newTrees = Arrays.copyOf(trees, n + 1);
+		newTrees[n] = PackedTree.build(entries);
+		return newTrees;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Entry<T>[] createPending() {
+		return new Entry[PENDING_CAPACITY];
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> PackedTree<T>[] createTrees(PackedTree<T> tree) {
+		if (tree == null || tree.size() == 0)
+			return new PackedTree[0];
+		return new PackedTree[] {tree};
+	}
+
+	private static <T> int addLiveEntries(Map<T, Entry<T>> live, List<Entry<T>> entries, List<Entry<T>> output) {
+		int nRemoved = 0;
+		for (var entry : entries) {
+			if (live.get(entry.item) == entry)
+				output.add(entry);
+			else
+				nRemoved++;
+		}
+		return nRemoved;
+	}
+
+	/**
+	 * Rebuild all trees if more than half of all entries are no longer valid.
+	 */
+	private void compactIfNeeded() {
+		var current = snapshot;
+		if (nStale <= PENDING_CAPACITY || nStale <= current.live.size())
+			return;
+		var tree = PackedTree.build(current.live.values());
+		snapshot = new Snapshot<>(current.live, createTrees(tree), createPending(), 0);
+		nStale = 0;
+	}
+
+
+	/**
+	 * Function to extract the bounds of an item.
+	 * @param <T>
+	 */
+	@FunctionalInterface
+	static interface BoundsFunction<T> {
+
+		/**
+		 * Set the bounds of the item in the array as [minX, minY, maxX, maxY].
+		 * @param item
+		 * @param bounds
+		 */
+		void getBounds(T item, double[] bounds);
+
+	}
+
+
+	/**
+	 * An item in the index, along with its bounds at the time it was added.
+	 * @param <T>
+	 */
+	static class Entry<T> {
+
+		private final T item;
+		private final double minX, minY, maxX, maxY;
+
+		/**
+		 * Mark that may be used by the writer, e.g. to identify entries that were not updated during a pass
+		 * through all items. It is not used by the index itself.
+		 */
+		int mark;
+
+		private Entry(T item, double[] bounds) {
+			this(item, bounds[0], bounds[1], bounds[2], bounds[3]);
+		}
+
+		private Entry(T item, double minX, double minY, double maxX, double maxY) {
+			this.item = item;
+			this.minX = minX;
+			this.minY = minY;
+			this.maxX = maxX;
+			this.maxY = maxY;
+		}
+
+		T getItem() {
+			return item;
+		}
+
+		private boolean hasBounds(double minX, double minY, double maxX, double maxY) {
+			return this.minX == minX && this.minY == minY && this.maxX == maxX && this.maxY == maxY;
+		}
+
+		private boolean intersects(double minX, double minY, double maxX, double maxY) {
+			return this.minX <= maxX && this.maxX >= minX && this.minY <= maxY && this.maxY >= minY;
+		}
+
+		private double centerX() {
+			return (minX + maxX) / 2.0;
+		}
+
+		private double centerY() {
+			return (minY + maxY) / 2.0;
+		}
+
+	}
+
+
+	private static class Snapshot<T> {
+
+		private final ConcurrentHashMap<T, Entry<T>> live;
+		private final PackedTree<T>[] trees;
+		private final Entry<T>[] pending;
+		private final int nPending;
+
+		private Snapshot(ConcurrentHashMap<T, Entry<T>> live, PackedTree<T>[] trees, Entry<T>[] pending, int nPending) {
+			this.live = live;
+			this.trees = trees;
+			this.pending = pending;
+			this.nPending = nPending;
+		}
+
+	}
+
+
+	/**
+	 * An immutable R-tree, bulk-loaded using the Sort-Tile-Recursive algorithm.
+	 * Node bounds are stored in flat arrays, with nodes at each level packed consecutively.
+	 */
+	private static class PackedTree<T> {
+
+		private final Entry<T>[] entries;
+
+		/**
+		 * Node bounds for each level, starting with the leaves. Each node has 4 values [minX, minY, maxX, maxY].
+		 */
+		private final double[][] levels;
+
+		private PackedTree(Entry<T>[] entries, double[][] levels) {
+			this.entries = entries;
+			this.levels = levels;
+		}
+
+		static <T> PackedTree<T> build(Collection<Entry<T>> collection) {
+			@SuppressWarnings("unchecked")
+			Entry<T>[] entries = collection.toArray(Entry[]::new);
+			int n = entries.length;
+			if (n == 0)
+				return new PackedTree<>(entries, new double[0][]);
+
+			// Sort by x, then split into vertical slices and sort each by y
+			sort(entries, 0, n, Comparator.comparingDouble(Entry::centerX));
+			int nLeaves = ceilDiv(n, NODE_CAPACITY);
+			int nSlices = (int)Math.ceil(Math.sqrt(nLeaves));
+			int sliceSize = nSlices * NODE_CAPACITY;
+			Comparator<Entry<T>> compareY = Comparator.comparingDouble(Entry::centerY);
+			for (int start = 0; start < n; start += sliceSize)
+				sort(entries, start, Math.min(n, start + sliceSize), compareY);
+
+			// Compute node bounds, working upwards from the leaves
+			List<double[]> levels = new ArrayList<>();
+			double[] leaves = new double[nLeaves * 4];
+			for (int i = 0; i < nLeaves; i++) {
+				int offset = i * 4;
+				leaves[offset] = Double.POSITIVE_INFINITY;
+				leaves[offset+1] = Double.POSITIVE_INFINITY;
+				leaves[offset+2] = Double.NEGATIVE_INFINITY;
+				leaves[offset+3] = Double.NEGATIVE_INFINITY;
+				int end = Math.min(n, (i+1) * NODE_CAPACITY);
+				for (int j = i * NODE_CAPACITY; j < end; j++) {
+					var entry = entries[j];
+					leaves[offset] = Math.min(leaves[offset], entry.minX);
+					leaves[offset+1] = Math.min(leaves[offset+1], entry.minY);
+					leaves[offset+2] = Math.max(leaves[offset+2], entry.maxX);
+					leaves[offset+3] = Math.max(leaves[offset+3], entry.maxY);
+				}
+			}
+			levels.add(leaves);
+			double[] children = leaves;
+			while (children.length > 4) {
+				int nChildren = children.length / 4;
+				int nNodes = ceilDiv(nChildren, NODE_CAPACITY);
+				double[] nodes = new double[nNodes * 4];
+				for (int i = 0; i < nNodes; i++) {
+					int offset = i * 4;
+					nodes[offset] = Double.POSITIVE_INFINITY;
+					nodes[offset+1] = Double.POSITIVE_INFINITY;
+					nodes[offset+2] = Double.NEGATIVE_INFINITY;
+					nodes[offset+3] = Double.NEGATIVE_INFINITY;
+					int end = Math.min(nChildren, (i+1) * NODE_CAPACITY);
+					for (int j = i * NODE_CAPACITY; j < end; j++) {
+						nodes[offset] = Math.min(nodes[offset], children[j*4]);
+						nodes[offset+1] = Math.min(nodes[offset+1], children[j*4+1]);
+						nodes[offset+2] = Math.max(nodes[offset+2], children[j*4+2]);
+						nodes[offset+3] = Math.max(nodes[offset+3], children[j*4+3]);
+					}
+				}
+				levels.add(nodes);
+				children = nodes;
+			}
+			return new PackedTree<>(entries, levels.toArray(double[][]::new));
+		}
+
+		private static <T> void sort(Entry<T>[] entries, int from, int to, Comparator<Entry<T>> comparator) {
+			if (to - from >= MIN_PARALLEL_SORT)
+				Arrays.parallelSort(entries, from, to, comparator);
+			else
+				Arrays.sort(entries, from, to, comparator);
+		}
+
+		private static int ceilDiv(int x, int y) {
+			return (x + y - 1) / y;
+		}
+
+		int size() {
+			return entries.length;
+		}
+
+		List<Entry<T>> entries() {
+			return Arrays.asList(entries);
+		}
+
+		boolean query(double minX, double minY, double maxX, double maxY, Map<T, Entry<T>> live, Predicate<? super T> visitor) {
+			if (levels.length == 0)
+				return true;
+			return query(levels.length-1, 0, minX, minY, maxX, maxY, live, visitor);
+		}
+
+		private boolean query(int level, int node, double minX, double minY, double maxX, double maxY, Map<T, Entry<T>> live, Predicate<? super T> visitor) {
+			double[] bounds = levels[level];
+			int offset = node * 4;
+			if (bounds[offset] > maxX || bounds[offset+2] < minX || bounds[offset+1] > maxY || bounds[offset+3] < minY)
+				return true;
+			int start = node * NODE_CAPACITY;
+			if (level == 0) {
+				int end = Math.min(entries.length, start + NODE_CAPACITY);
+				for (int i = start; i < end; i++) {
+					var entry = entries[i];
+					if (entry.intersects(minX, minY, maxX, maxY) && live.get(entry.item) == entry && !visitor.test(entry.item))
+						return false;
+				}
+			} else {
+				int end = Math.min(levels[level-1].length / 4, start + NODE_CAPACITY);
+				for (int i = start; i < end; i++) {
+					if (!query(level-1, i, minX, minY, maxX, maxY, live, visitor))
+						return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+}
@@ -23,6 +23,8 @@
 
 package qupath.lib.objects.hierarchy;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -31,11 +33,13 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -69,6 +73,11 @@ import qupath.lib.roi.interfaces.ROI;
  * Note: Be cautious when deserializing - it may not result in a hierarchy in a valid state.
  * As a workaround, you can construct a new PathObjectHierarchy and call setHierarchy(deserializedHierarchy) to
  * ensure that you have a properly-constructed hierarchy with the same data within it.
+ * <p>
+ * Since v0.5.0, detections may be loaded lazily from a {@link DeferredObjectSource}.
+ * These are added to the hierarchy automatically whenever they are needed to answer a query,
+ * before the structure of the hierarchy is changed, or when the child objects of any object that 
+ * might be their parent are accessed.
  * 
  * @author Pete Bankhead
  *
@@ -107,6 +116,15 @@ public final class PathObjectHierarchy implements Serializable {
 
 	// Cache enabling faster access of objects according to location
 	private transient PathObjectTileCache tileCache = new PathObjectTileCache(this);
+	
+	// Optional source of detections that haven't been loaded yet
+	private transient volatile DeferredObjectSource deferredObjects;
+	
+	// Objects that load the deferred objects when their child lists are accessed
+	private transient List<PathObject> deferredParents;
+	
+	// Set while this hierarchy accesses child lists in a way that doesn't need deferred objects to be loaded
+	private static final ThreadLocal<PathObjectHierarchy> IGNORE_DEFERRED = new ThreadLocal<>();
 
 	/**
 	 * Default constructor, creates an empty hierarchy.
@@ -122,7 +140,147 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return
 	 */
 	public synchronized boolean isEmpty() {
-		return (tmaGrid == null || tmaGrid.nCores() == 0) && !rootObject.hasChildObjects();// && featureMaps.isEmpty();
+		return (tmaGrid == null || tmaGrid.nCores() == 0) && !hasDeferredObjects() && !rootObject.hasChildObjects();// && featureMaps.isEmpty();
+	}
+	
+	/**
+	 * Set a source of detections that belong to this hierarchy, but should only be loaded when they are needed.
+	 * <p>
+	 * Objects are requested from the source whenever the hierarchy is queried for a region (or class) that might contain them, 
+	 * and all remaining objects are loaded before any change that could alter the structure of the hierarchy.
+	 * All remaining objects are also loaded when the child objects of any object that isn't a detection are accessed 
+	 * (e.g. with {@link PathObject#getChildObjects()}), so that code traversing the child lists sees all objects.
+	 * Loading objects in this way does not fire any events, since the hierarchy is not considered to have changed.
+	 * <p>
+	 * The parents of all objects provided by the source must already be in this hierarchy, and must not be detections.
+	 * 
+	 * @param source the source of objects, or null if there are no objects waiting to be loaded
+	 * @since v0.5.0
+	 * @see #loadDeferredObjects()
+	 */
+	public synchronized void setDeferredObjectSource(DeferredObjectSource source) {
+		this.deferredObjects = source == null || source.size() == 0 ? null : source;
+		updateDeferredParents();
+	}
+	
+	/**
+	 * Set the callbacks that load deferred objects when the child lists of possible parents are accessed, 
+	 * or remove them if there are no deferred objects.
+	 * This should only be called while synchronized on the hierarchy.
+	 */
+	private void updateDeferredParents() {
+		if (deferredParents != null) {
+			for (var parent : deferredParents)
+				parent.setDeferredChildLoader(null);
+			deferredParents = null;
+		}
+		if (deferredObjects == null)
+			return;
+		List<PathObject> parents = new ArrayList<>();
+		callIgnoringDeferred(() -> {
+			parents.add(rootObject);
+			for (var pathObject : PathObjectTools.getDescendantObjects(rootObject, null, null)) {
+				if (!pathObject.isDetection())
+					parents.add(pathObject);
+			}
+			return null;
+		});
+		Runnable loader = () -> {
+			if (IGNORE_DEFERRED.get() != this)
+				loadDeferredObjects();
+		};
+		for (var parent : parents)
+			parent.setDeferredChildLoader(loader);
+		deferredParents = parents;
+	}
+	
+	/**
+	 * Access child lists in this thread without loading deferred objects.
+	 * This should be used when deferred objects are not required, or have already been loaded.
+	 * @param <T>
+	 * @param supplier
+	 * @return the value from the supplier
+	 */
+	<T> T callIgnoringDeferred(Supplier<T> supplier) {
+		var previous = IGNORE_DEFERRED.get();
+		IGNORE_DEFERRED.set(this);
+		try {
+			return supplier.get();
+		} finally {
+			if (previous == null)
+				IGNORE_DEFERRED.remove();
+			else
+				IGNORE_DEFERRED.set(previous);
+		}
+	}
+	
+	/**
+	 * Check if the hierarchy contains objects that have not been loaded yet.
+	 * @return true if there are objects waiting to be loaded from a {@link DeferredObjectSource}
+	 * @since v0.5.0
+	 * @see #setDeferredObjectSource(DeferredObjectSource)
+	 */
+	public boolean hasDeferredObjects() {
+		return deferredObjects != null;
+	}
+	
+	/**
+	 * Load any objects that have not yet been loaded from a {@link DeferredObjectSource}.
+	 * This is called automatically whenever all objects are needed, but may be called beforehand 
+	 * to avoid loading them later (e.g. on a UI thread).
+	 * @since v0.5.0
+	 * @see #setDeferredObjectSource(DeferredObjectSource)
+	 */
+	public void loadDeferredObjects() {
+		loadDeferredObjects(null, null);
+	}
+	
+	/**
+	 * Load objects from the deferred object source that may be required to answer a query.
+	 * @param cls the class of objects requested, or null if objects of any class may be required
+	 * @param region the region of interest, or null if all objects should be loaded
+	 */
+	private void loadDeferredObjects(Class<? extends PathObject> cls, ImageRegion region) {
+		// Deferred objects are always detections
+		if (deferredObjects == null || (cls != null && 
+				!PathDetectionObject.class.isAssignableFrom(cls) && !cls.isAssignableFrom(PathDetectionObject.class)))
+			return;
+		synchronized (this) {
+			var source = deferredObjects;
+			if (source == null)
+				return;
+			var loaded = source.loadObjects(region);
+			if (source.size() == 0) {
+				deferredObjects = null;
+				updateDeferredParents();
+			}
+			if (loaded.isEmpty())
+				return;
+			List<PathObject> added = callIgnoringDeferred(() -> {
+				List<PathObject> list = new ArrayList<>();
+				for (var entry : loaded.entrySet()) {
+					entry.getKey().addChildObjects(entry.getValue());
+					for (var pathObject : entry.getValue()) {
+						list.add(pathObject);
+						PathObjectTools.getDescendantObjects(pathObject, list, null);
+					}
+				}
+				return list;
+			});
+			logger.debug("Loaded {} deferred objects", added.size());
+			tileCache.updateObjects(added);
+		}
+	}
+	
+	/**
+	 * Load all deferred objects if any of the specified objects might have deferred descendants.
+	 * Deferred objects are always detections with parents that are not detections (or are deferred too), 
+	 * so this is only needed if non-detection objects are involved.
+	 * @param pathObjects
+	 */
+	private void loadDeferredObjects(Collection<? extends PathObject> pathObjects) {
+		if (deferredObjects != null && pathObjects.stream().anyMatch(p -> !p.isDetection()))
+			loadDeferredObjects();
 	}
 	
 	/**
@@ -255,7 +413,8 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return true if the hierarchy changed as a result of this call, false otherwise
 	 */
 	public synchronized boolean insertPathObject(PathObject pathObject, boolean fireChangeEvents) {
-		return insertPathObject(getRootObject(), pathObject, fireChangeEvents, !fireChangeEvents);
+		loadDeferredObjects();
+		return insertPathObject(getRootObject(), pathObject, fireChangeEvents, null, null);
 	}
 	
 	/**
@@ -266,6 +425,7 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return true if the hierarchy changed as a result of this call, false otherwise
 	 */
 	public synchronized boolean insertPathObjects(Collection<? extends PathObject> pathObjects) {
+		loadDeferredObjects();
 		var selectedObjects =  new ArrayList<>(pathObjects);
 		int nObjects = selectedObjects.size();
 		selectedObjects.removeIf(p -> p.isTMACore());
@@ -277,22 +437,196 @@ public final class PathObjectHierarchy implements Serializable {
 		removeObjects(selectedObjects, true);
 		selectedObjects.sort(PathObjectHierarchy.HIERARCHY_COMPARATOR.reversed());
 		boolean singleObject = selectedObjects.size() == 1;
-		// We don't want to reset caches for every object if we have only detections, since previously-inserted objects don't impact the potential parent
-		boolean allDetections = selectedObjects.stream().allMatch(p -> p.isDetection());
+		if (singleObject) {
+			insertPathObject(getRootObject(), selectedObjects.get(0), true, null, null);
+			return true;
+		}
+		// Record the changes so that they can be described by a single event
+		var changes = new ObjectChanges();
+		// Detections can't be parents of other objects, so can be inserted together after everything else.
+		// Existing detections are also reassigned to new parents together, after all the parents have been inserted.
+		List<PathObject> detections = new ArrayList<>();
+		Map<PathObject, PathObject> insertedParents = new LinkedHashMap<>();
 		for (var pathObject : selectedObjects) {
-//			hierarchy.insertPathObject(pathObject, true);
-			insertPathObject(getRootObject(), pathObject, singleObject, !singleObject && !allDetections);
-//			insertPathObject(pathObject, selectedObjects.size() == 1);
+			if (pathObject.isDetection())
+				detections.add(pathObject);
+			else
+				insertPathObject(getRootObject(), pathObject, false, changes, insertedParents);
 		}
-		if (!singleObject)
-			fireHierarchyChangedEvent(this);
+		reassignDetections(insertedParents, changes);
+		insertDetections(detections, changes);
+		fireHierarchyChangedEvent(this, getRootObject(), changes);
 		return true;
 	}
 	
+	/**
+	 * Reassign detections that are already in the hierarchy to objects that were inserted with 
+	 * {@link #insertPathObject(PathObject, PathObject, boolean, ObjectChanges, Map)}.
+	 * <p>
+	 * This gives the same result as reassigning detections as each object is inserted: 
+	 * a detection is moved to an inserted object if it is a child of the object's parent at the time of insertion 
+	 * (or a child of the root object, if that parent is a TMA core) and its centroid falls inside the object's ROI.
+	 * However, here the new parent for each detection is determined in parallel, and all detections 
+	 * are then moved at the end.
+	 * 
+	 * @param insertedParents map of inserted objects to their parent at the time of insertion, in order of insertion
+	 * @param changes object used to record the changes
+	 */
+	private synchronized void reassignDetections(Map<PathObject, PathObject> insertedParents, ObjectChanges changes) {
+		// Find the detections that could possibly be reassigned
+		Set<PathObject> previousParents = new LinkedHashSet<>();
+		Map<PathObject, Integer> insertionOrder = new HashMap<>();
+		for (var entry : insertedParents.entrySet()) {
+			var inserted = entry.getKey();
+			var roi = inserted.getROI();
+			if (!roi.isArea() || roi.isEmpty())
+				continue;
+			insertionOrder.put(inserted, insertionOrder.size());
+			var parent = entry.getValue();
+			previousParents.add(parent);
+			if (parent.isTMACore())
+				previousParents.add(parent.getParent());
+		}
+		List<PathObject> detections = new ArrayList<>();
+		for (var parent : previousParents) {
+			for (var child : parent.getChildObjectsAsArray()) {
+				if (child.isDetection())
+					detections.add(child);
+			}
+		}
+		if (detections.isEmpty())
+			return;
+		
+		long startTime = System.currentTimeMillis();
+		// Index the inserted objects, since only these can become new parents
+		var index = new IncrementalSpatialIndex<PathObject>();
+		index.build(insertionOrder.keySet(), (p, bounds) -> {
+			var roi = p.getROI();
+			bounds[0] = roi.getBoundsX();
+			bounds[1] = roi.getBoundsY();
+			bounds[2] = roi.getBoundsX() + roi.getBoundsWidth();
+			bounds[3] = roi.getBoundsY() + roi.getBoundsHeight();
+		});
+		var newParents = detections.parallelStream()
+				.map(detection -> findNewParentForDetection(detection, index, insertedParents, insertionOrder))
+				.toList();
+		
+		// Group the detections that need to move by their previous & new parents
+		Map<PathObject, List<PathObject>> toRemove = new LinkedHashMap<>();
+		Map<PathObject, List<PathObject>> toAdd = new LinkedHashMap<>();
+		int nMoved = 0;
+		for (int i = 0; i < detections.size(); i++) {
+			var detection = detections.get(i);
+			var parent = newParents.get(i);
+			if (parent == detection.getParent())
+				continue;
+			toRemove.computeIfAbsent(detection.getParent(), p -> new ArrayList<>()).add(detection);
+			toAdd.computeIfAbsent(parent, p -> new ArrayList<>()).add(detection);
+			changes.moved.add(detection);
+			nMoved++;
+		}
+		for (var entry : toRemove.entrySet())
+			entry.getKey().removeChildObjects(entry.getValue());
+		for (var entry : toAdd.entrySet())
+			entry.getKey().addChildObjects(entry.getValue());
+		
+		long endTime = System.currentTimeMillis();
+		logger.debug("Reassigned {}/{} detections in {} ms", nMoved, detections.size(), endTime - startTime);
+	}
+	
+	/**
+	 * Determine the parent a detection should have after the specified objects have been inserted.
+	 * This is thread-safe, provided that the hierarchy is not modified concurrently.
+	 * @param detection the detection
+	 * @param index spatial index containing the inserted objects with area ROIs
+	 * @param insertedParents map of inserted objects to their parent at the time of insertion
+	 * @param insertionOrder map of inserted objects with area ROIs to the order in which they were inserted
+	 * @return the new parent, or the current parent if the detection should not be moved
+	 */
+	private PathObject findNewParentForDetection(PathObject detection, IncrementalSpatialIndex<PathObject> index, 
+			Map<PathObject, PathObject> insertedParents, Map<PathObject, Integer> insertionOrder) {
+		var roi = detection.getROI();
+		List<PathObject> candidates = new ArrayList<>();
+		index.query(roi.getBoundsX(), roi.getBoundsY(), roi.getBoundsX() + roi.getBoundsWidth(), roi.getBoundsY() + roi.getBoundsHeight(), 
+				candidates::add);
+		var parent = detection.getParent();
+		if (candidates.isEmpty())
+			return parent;
+		candidates.sort(Comparator.comparingInt(insertionOrder::get));
+		for (var candidate : candidates) {
+			var candidateParent = insertedParents.get(candidate);
+			if ((candidateParent == parent || (candidateParent.isTMACore() && candidateParent.getParent() == parent)) &&
+					samePlane(candidate.getROI(), detection.getROI(), false) &&
+					tileCache.containsCentroid(candidate, detection))
+				parent = candidate;
+		}
+		return parent;
+	}
+	
+	/**
+	 * Insert detections below the smallest annotation or TMA core that contains each centroid, 
+	 * or below the root object if there is no such parent.
+	 * <p>
+	 * This gives the same result as inserting detections one at a time, but parents are found in parallel 
+	 * and children are then added to each parent in a single step.
+	 * The detections should not already be in the hierarchy.
+	 * 
+	 * @param detections the detections to insert
+	 * @param changes object used to record the changes
+	 */
+	private synchronized void insertDetections(List<PathObject> detections, ObjectChanges changes) {
+		if (detections.isEmpty())
+			return;
+		long startTime = System.currentTimeMillis();
+		// Construct the cache now, rather than from within the parallel stream
+		tileCache.ensureCacheConstructed();
+		var rootObject = getRootObject();
+		var parents = detections.parallelStream()
+				.map(this::findParentForDetection)
+				.toList();
+		
+		// Group detections by parent, retaining the insertion order
+		Map<PathObject, List<PathObject>> childMap = new LinkedHashMap<>();
+		for (int i = 0; i < detections.size(); i++) {
+			var pathObject = detections.get(i);
+			var parent = parents.get(i);
+			changes.recordAddition(pathObject, parent);
+			childMap.computeIfAbsent(parent, p -> new ArrayList<>()).add(pathObject);
+		}
+		for (var entry : childMap.entrySet())
+			entry.getKey().addChildObjects(entry.getValue());
+		
+		long endTime = System.currentTimeMillis();
+		logger.debug("Inserted {} detections below {} parents in {} ms", 
+				detections.size(), childMap.size() - (childMap.containsKey(rootObject) ? 1 : 0), endTime - startTime);
+	}
+	
+	/**
+	 * Find the parent for a detection that is to be inserted into the hierarchy.
+	 * This is thread-safe, provided that the hierarchy is not modified concurrently.
+	 * @param detection
+	 * @return the smallest annotation or TMA core containing the centroid of the detection, or the root object
+	 */
+	private PathObject findParentForDetection(PathObject detection) {
+		var region = ImageRegion.createInstance(detection.getROI());
+		List<PathObject> possibleParents = new ArrayList<>();
+		tileCache.getObjectsForRegion(PathAnnotationObject.class, region, possibleParents, true);
+		if (tmaGrid != null)
+			tileCache.getObjectsForRegion(TMACoreObject.class, region, possibleParents, true);
+		if (possibleParents.size() > 1)
+			possibleParents.sort(HIERARCHY_COMPARATOR);
+		for (var possibleParent : possibleParents) {
+			if (tileCache.containsCentroid(possibleParent, detection))
+				return possibleParent;
+		}
+		return getRootObject();
+	}
+	
 	/**
 	 * Attempt to resolve the parent-child relationships between all objects within the hierarchy.
 	 */
 	public synchronized void resolveHierarchy() {
+		loadDeferredObjects();
 		List<? extends PathObject> tmaCores = tmaGrid == null ? Collections.emptyList() : tmaGrid.getTMACoreList();
 		var annotations = getAnnotationObjects();
 		if (annotations.isEmpty() && tmaCores.isEmpty()) {
@@ -322,10 +656,14 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @param pathObjectParent the first potential parent; this can be used to help filter out 'impossible' parents to aid performance
 	 * @param pathObject the object to insert
 	 * @param fireChangeEvents if true, fire hierarchy change events after inserting the object
-	 * @param resetCache if true, reset the tile cache after adding the object; this is only used if fireChangeEvents is false
+	 * @param changes optional object used to record the changes, if fireChangeEvents is false
+	 * @param insertedParents optional map used to defer reassigning existing detections to the inserted object; 
+	 *                        if provided, the object is stored along with its new parent, and 
+	 *                        {@link #reassignDetections(Map, ObjectChanges)} must be called later
 	 * @return
 	 */
-	private synchronized boolean insertPathObject(PathObject pathObjectParent, PathObject pathObject, boolean fireChangeEvents, boolean resetCache) {
+	private synchronized boolean insertPathObject(PathObject pathObjectParent, PathObject pathObject, boolean fireChangeEvents, ObjectChanges changes, 
+			Map<PathObject, PathObject> insertedParents) {
 		
 		if (pathObject.isTMACore()) {
 			logger.warn("TMA core objects cannot be inserted - use resolveHierarchy() instead");
@@ -370,22 +708,40 @@ public final class PathObjectHierarchy implements Serializable {
 					return false;
 				
 				// Reassign child objects if we need to
-				Collection<PathObject> previousChildren = pathObject.isDetection() ? new ArrayList<>() : new ArrayList<>(possibleParent.getChildObjects());
+				Collection<PathObject> previousChildren;
+				if (pathObject.isDetection())
+					previousChildren = new ArrayList<>();
+				else if (insertedParents != null) {
+					// Detections will be reassigned later
+					insertedParents.put(pathObject, possibleParent);
+					previousChildren = possibleParent.getChildObjects().stream().filter(p -> !p.isDetection()).collect(Collectors.toCollection(ArrayList::new));
+				} else
+					previousChildren = new ArrayList<>(possibleParent.getChildObjects());
 				// Can't reassign TMA core objects (these must be directly below the root object)
 				previousChildren.removeIf(p -> p.isTMACore());
 				// Beware that we could have 'orphaned' detections
-				if (possibleParent.isTMACore())
+				if (possibleParent.isTMACore() && insertedParents == null)
 					possibleParent.getParent().getChildObjects().stream().filter(p -> p.isDetection()).forEach(previousChildren::add);
+				var objectChanges = changes == null ? new ObjectChanges() : changes;
+				objectChanges.recordAddition(pathObject, possibleParent);
 				possibleParent.addChildObject(pathObject);
 				if (!previousChildren.isEmpty()) {
-					pathObject.addChildObjects(filterObjectsForROI(pathObject.getROI(), previousChildren));
+					var newChildren = filterObjectsForROI(pathObject.getROI(), previousChildren);
+					pathObject.addChildObjects(newChildren);
+					objectChanges.moved.addAll(newChildren);
 				}
 				
 				// Notify listeners of changes, if required
 				if (fireChangeEvents)
-					fireObjectAddedEvent(this, pathObject);
-				else if (resetCache)
-					tileCache.resetCache();
+					fireObjectAddedEvent(this, pathObject, objectChanges);
+				else {
+					// Update the cache immediately, since the object might be a parent of the next object inserted
+					List<PathObject> added = new ArrayList<>();
+					added.add(pathObject);
+					if (pathObject.hasChildObjects())
+						PathObjectTools.getDescendantObjects(pathObject, added, null);
+					tileCache.updateObjects(added);
+				}
 				return true;
 			}
 		}
@@ -421,6 +777,7 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return
 	 */
 	private synchronized boolean removeObject(PathObject pathObject, boolean keepChildren, boolean fireEvent) {
+		loadDeferredObjects(Collections.singletonList(pathObject));
 		// Check the object is within the hierarchy & has a valid parent (from which it can be removed)
 		PathObject pathObjectParent = pathObject.getParent();
 		if (!inHierarchy(pathObject) || pathObjectParent == null) {
@@ -430,6 +787,7 @@ public final class PathObjectHierarchy implements Serializable {
 
 		// Can't keep children if there aren't any
 		boolean hasChildren = pathObject.hasChildObjects();
+		List<PathObject> children = keepChildren && hasChildren ? new ArrayList<>(pathObject.getChildObjects()) : Collections.emptyList();
 		
 		pathObjectParent.removeChildObject(pathObject);
 
@@ -437,14 +795,17 @@ public final class PathObjectHierarchy implements Serializable {
 		if (keepChildren && hasChildren) {
 			// We create a new array list because getPathObjectList returns an unmodifiable collection
 //			List<PathObject> list = new ArrayList<>(pathObject.getPathObjectList());
-			pathObjectParent.addChildObjects(pathObject.getChildObjects());
+			pathObjectParent.addChildObjects(children);
 //			pathObject.clearPathObjects(); // Clear child objects, just in case
 		}
 		if (fireEvent) {
 			if (keepChildren || !hasChildren)
-				fireObjectRemovedEvent(this, pathObject, pathObjectParent);
-			else
-				fireHierarchyChangedEvent(this, pathObjectParent);
+				fireObjectRemovedEvent(this, pathObject, pathObjectParent, children);
+			else {
+				var changes = new ObjectChanges();
+				changes.recordRemoval(pathObject);
+				fireHierarchyChangedEvent(this, pathObjectParent, changes);
+			}
 		}
 		return true;
 	}
@@ -460,6 +821,7 @@ public final class PathObjectHierarchy implements Serializable {
 		
 		if (pathObjects.isEmpty())
 			return;
+		loadDeferredObjects(pathObjects);
 		
 		List<PathObject> pathObjectSet = new ArrayList<>(pathObjects);
 		pathObjectSet.sort((o1, o2) -> Integer.compare(o2.getLevel(), o1.getLevel()));
@@ -482,23 +844,29 @@ public final class PathObjectHierarchy implements Serializable {
 			return;
 		
 		// Loop through and remove objects, keeping children if necessary
+		var changes = new ObjectChanges();
 		Set<PathObject> childrenToKeep = new LinkedHashSet<>();
 		for (Entry<PathObject, List<PathObject>> entry : map.entrySet()) {
 			PathObject parent = entry.getKey();
 			List<PathObject> children = entry.getValue();
 			parent.removeChildObjects(children);
-			if (keepChildren) {
-				for (PathObject child : children)
+			for (PathObject child : children) {
+				if (keepChildren) {
 					childrenToKeep.addAll(child.getChildObjects());
+					changes.removed.add(child);
+				} else
+					changes.recordRemoval(child);
 			}
 		}
-		childrenToKeep.removeAll(pathObjects);
+		childrenToKeep.removeAll(new HashSet<>(pathObjects));
 		// Add children back if required (note: this can be quite slow!)
-		tileCache.resetCache();
 		for (PathObject pathObject : childrenToKeep) {
-			addPathObjectImpl(pathObject, false);
+			if (addPathObjectImpl(pathObject, false))
+				changes.moved.add(pathObject);
+			else
+				changes.recordRemoval(pathObject);
 		}
-		fireHierarchyChangedEvent(this);
+		fireHierarchyChangedEvent(this, getRootObject(), changes);
 		
 		// This previously could result in child objects being deleted even if keepChildren was 
 		// true, depending upon the order in which objects were removed.
@@ -539,10 +907,15 @@ public final class PathObjectHierarchy implements Serializable {
 	
 	// TODO: Be very cautious about this!!!!  Use of tileCache inside a synchronized method might lead to deadlocks?
 	private synchronized boolean addPathObjectToList(PathObject pathObjectParent, PathObject pathObject, boolean fireChangeEvents) {
+		if (!fireChangeEvents) {
+			pathObjectParent.addChildObject(pathObject);
+			return true;
+		}
+		var changes = new ObjectChanges();
+		changes.recordAddition(pathObject, pathObjectParent);
 		pathObjectParent.addChildObject(pathObject);
-		// Notify listeners of changes, if required
-		if (fireChangeEvents)
-			fireObjectAddedEvent(this, pathObject);
+		// Notify listeners of changes
+		fireObjectAddedEvent(this, pathObject, changes);
 		return true;
 	}
 	
@@ -646,6 +1019,7 @@ public final class PathObjectHierarchy implements Serializable {
 	 */
 	public synchronized boolean addObjects(Collection<? extends PathObject> pathObjects) {
 		boolean changes = false;
+		var objectChanges = new ObjectChanges();
 		int n = pathObjects.size();
 		int counter = 0;
 		for (PathObject pathObject : pathObjects) {
@@ -654,11 +1028,12 @@ public final class PathObjectHierarchy implements Serializable {
 					logger.debug("Adding {} of {}", counter, n);
 			} else if (n > 1000 && counter % 100 == 0)
 				logger.debug("Adding {} of {}", counter, n);
+			objectChanges.recordAddition(pathObject, getRootObject());
 			changes = addPathObjectToList(getRootObject(), pathObject, false) || changes;
 			counter++;
 		}
 		if (changes)
-			fireHierarchyChangedEvent(getRootObject());
+			fireHierarchyChangedEvent(getRootObject(), getRootObject(), objectChanges);
 //			fireChangeEvent(getRootObject());
 		return changes;
 	}
@@ -680,6 +1055,7 @@ public final class PathObjectHierarchy implements Serializable {
 	 * Remove all objects from the hierarchy.
 	 */
 	public synchronized void clearAll() {
+		deferredObjects = null;
 		getRootObject().clearChildObjects();
 		tmaGrid = null;
 		fireHierarchyChangedEvent(getRootObject());
@@ -752,10 +1128,13 @@ public final class PathObjectHierarchy implements Serializable {
 			pathObjects.addAll(tileCache.getObjectsForRegion(cls, null, null, true));
 			return pathObjects;
 		}
+		loadDeferredObjects(cls, null);
 		if (cls == null || cls.isAssignableFrom(PathRootObject.class))
 			pathObjects.add(getRootObject());
 		
-		return PathObjectTools.getDescendantObjects(getRootObject(), pathObjects, cls);
+		// Any deferred objects that could be returned have been loaded
+		var collection = pathObjects;
+		return callIgnoringDeferred(() -> PathObjectTools.getDescendantObjects(getRootObject(), collection, cls));
 	}
 	
 	/**
@@ -818,7 +1197,11 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return
 	 */
 	public synchronized int nObjects() {
-		int count = PathObjectTools.countDescendants(getRootObject());
+		int count = callIgnoringDeferred(() -> PathObjectTools.countDescendants(getRootObject()));
+		// Include objects that haven't been loaded yet, without loading them
+		var source = deferredObjects;
+		if (source != null)
+			count += source.size();
 		return count;
 	}
 	
@@ -832,6 +1215,8 @@ public final class PathObjectHierarchy implements Serializable {
 			return;
 		rootObject = hierarchy.getRootObject();
 		tmaGrid = hierarchy.tmaGrid;
+		deferredObjects = hierarchy.deferredObjects;
+		updateDeferredParents();
 		fireHierarchyChangedEvent(rootObject);
 	}
 	
@@ -847,7 +1232,9 @@ public final class PathObjectHierarchy implements Serializable {
 		if (roi.isEmpty() || !roi.isArea())
 			return Collections.emptyList();
 		
-		Collection<PathObject> pathObjects = tileCache.getObjectsForRegion(cls, ImageRegion.createInstance(roi), new HashSet<>(), true);
+		var region = ImageRegion.createInstance(roi);
+		loadDeferredObjects(cls, region);
+		Collection<PathObject> pathObjects = tileCache.getObjectsForRegion(cls, region, new HashSet<>(), true);
 		return filterObjectsForROI(roi, pathObjects);
 	}
 	
@@ -907,6 +1294,7 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return collection containing identified objects (same as the input collection, if provided)
 	 */
 	public Collection<PathObject> getObjectsForRegion(Class<? extends PathObject> cls, ImageRegion region, Collection<PathObject> pathObjects) {
+		loadDeferredObjects(cls, region);
 		return tileCache.getObjectsForRegion(cls, region, pathObjects, true);
 	}
 	
@@ -918,17 +1306,25 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return
 	 */
 	public boolean hasObjectsForRegion(Class<? extends PathObject> cls, ImageRegion region) {
+		loadDeferredObjects(cls, region);
 		return tileCache.hasObjectsForRegion(cls, region, true);
 	}
 	
 	
-	void fireObjectRemovedEvent(Object source, PathObject pathObject, PathObject previousParent) {
-		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createObjectRemovedEvent(source, this, previousParent, pathObject);
+	void fireObjectRemovedEvent(Object source, PathObject pathObject, PathObject previousParent, Collection<PathObject> movedObjects) {
+		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createObjectRemovedEvent(source, this, previousParent, pathObject, movedObjects);
 		fireEvent(event);
 	}
 
-	void fireObjectAddedEvent(Object source, PathObject pathObject) {
-		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createObjectAddedEvent(source, this, pathObject.getParent(), pathObject);
+	private void fireObjectAddedEvent(Object source, PathObject pathObject, ObjectChanges changes) {
+		changes.moved.removeAll(changes.added);
+		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createObjectAddedEvent(source, this, pathObject.getParent(), pathObject, changes.added, changes.moved);
+		fireEvent(event);
+	}
+	
+	private void fireHierarchyChangedEvent(Object source, PathObject pathObject, ObjectChanges changes) {
+		changes.moved.removeAll(changes.added);
+		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createStructureChangeEvent(source, this, pathObject, changes.added, changes.removed, changes.moved);
 		fireEvent(event);
 	}
 	
@@ -1011,9 +1407,56 @@ public final class PathObjectHierarchy implements Serializable {
 	}
 	
 	
+	/**
+	 * Ensure that any deferred objects are loaded before serializing, since they cannot be serialized separately.
+	 * @param out
+	 * @throws IOException
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		loadDeferredObjects();
+		out.defaultWriteObject();
+	}
+	
 	@Override
 	public String toString() {
 		return "Hierarchy: " + nObjects() + " objects";
 	}
 	
+	
+	/**
+	 * Record the objects added, removed or moved by one or more changes, so that they can be passed to listeners 
+	 * within a single event.
+	 */
+	private class ObjectChanges {
+		
+		private final Set<PathObject> added = new LinkedHashSet<>();
+		private final Set<PathObject> removed = new LinkedHashSet<>();
+		private final Set<PathObject> moved = new LinkedHashSet<>();
+		
+		/**
+		 * Record that an object is about to be added below the specified parent.
+		 * This must be called before the object is added.
+		 */
+		private void recordAddition(PathObject pathObject, PathObject parent) {
+			if (inHierarchy(pathObject)) {
+				if (pathObject.getParent() != parent)
+					moved.add(pathObject);
+			} else {
+				added.add(pathObject);
+				if (pathObject.hasChildObjects())
+					PathObjectTools.getDescendantObjects(pathObject, added, null);
+			}
+		}
+		
+		/**
+		 * Record that an object has been removed, along with all its descendants.
+		 */
+		private void recordRemoval(PathObject pathObject) {
+			removed.add(pathObject);
+			if (pathObject.hasChildObjects())
+				PathObjectTools.getDescendantObjects(pathObject, removed, null);
+		}
+		
+	}
+	
 }
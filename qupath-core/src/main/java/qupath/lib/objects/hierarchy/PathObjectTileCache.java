@@ -23,6 +23,7 @@
 
 package qupath.lib.objects.hierarchy;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -31,22 +32,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.WeakHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
 import org.locationtech.jts.algorithm.locate.PointOnGeometryLocator;
 import org.locationtech.jts.algorithm.locate.SimplePointInAreaLocator;
 import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.LinearRing;
 import org.locationtech.jts.geom.Location;
 import org.locationtech.jts.geom.Polygonal;
 import org.locationtech.jts.geom.prep.PreparedGeometry;
 import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
-import org.locationtech.jts.index.SpatialIndex;
-import org.locationtech.jts.index.quadtree.Quadtree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,18 +52,22 @@ import qupath.lib.objects.PathObjectTools;
 import qupath.lib.objects.TemporaryObject;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
-import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent.HierarchyEventType;
 import qupath.lib.regions.ImageRegion;
 import qupath.lib.roi.interfaces.ROI;
 
 /**
- * A tile cache that keeps a reference to a collection of PathObjects as flat lists.
+ * A tile cache that keeps a reference to a collection of PathObjects in spatial indexes.
  * It endeavors to keep itself synchronized with a PathObjectHierarchy,
  * responding to its change events.
  * <p>
  * In practice, the cache itself is constructed lazily whenever a request is made 
- * through getObjectsForRegion, so as to avoid rebuilding it too often when the hierarchy
- * is changing a lot.
+ * through getObjectsForRegion, so as to avoid building it when it isn't needed.
+ * Afterwards, objects are added, removed or updated individually when the hierarchy fires an event 
+ * describing the change. If the event doesn't identify the objects that changed, the cache is 
+ * resynchronized with the hierarchy lazily on the next request - which requires visiting every object, 
+ * but only updates the spatial index where necessary.
+ * <p>
+ * Requests do not need to acquire a lock, and so can be made while the cache is being updated.
  * 
  * @author Pete Bankhead
  *
@@ -78,24 +79,14 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	private static final Logger logger = LoggerFactory.getLogger(PathObjectTileCache.class);
 	
 	/**
-	 * Largest positive envelope, used when all objects are requested.
-	 */
-	private static final Envelope MAX_ENVELOPE = new Envelope(-Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE);
-	
-	/**
-	 * Keep a map of envelopes per ROI; ROIs should be immutable.
-	 */
-	private Map<ROI, Envelope> envelopeMap = new WeakHashMap<>();
-	
-	/**
-	 * Keep a map of envelopes per object, because potentially an object might have its ROI replaced behind our back...
+	 * Minimum number of objects to add to each spatial index in a single step, rather than one at a time.
 	 */
-	private Map<PathObject, Envelope> lastEnvelopeMap = new WeakHashMap<>();
+	private static final int BULK_UPDATE_THRESHOLD = 1000;
 	
 	/**
 	 * Store a spatial index according to the class of PathObject.
 	 */
-	private Map<Class<? extends PathObject>, SpatialIndex> map = new HashMap<>();
+	private Map<Class<? extends PathObject>, IncrementalSpatialIndex<PathObject>> map = new ConcurrentHashMap<>();
 	
 	/**
 	 * Map to cache Geometries, specifically for annotations.
@@ -105,11 +96,17 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 //	private static final Map<ROI, Coordinate> centroidMap = Collections.synchronizedMap(new WeakHashMap<>());
 
 	private PathObjectHierarchy hierarchy;
-	private boolean isActive = false;
+	private volatile boolean isActive = false;
+	
+	/**
+	 * Flag that the cache may be out of sync with the hierarchy, and needs to be checked before its next use.
+	 */
+	private volatile boolean needsSync = false;
 	
-	private final ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
-    private final Lock r = rwl.readLock();
-    private final Lock w = rwl.writeLock();
+	/**
+	 * Count the number of synchronizations, used to mark entries that were visited.
+	 */
+	private int syncCount = 0;
 	
 	
 	public PathObjectTileCache(PathObjectHierarchy hierarchy) {
@@ -118,36 +115,87 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 			hierarchy.addListener(this);
 	}
 	
+	/**
+	 * Request that the cache is resynchronized with the hierarchy before it is next used.
+	 * This should be called if the hierarchy has changed in a way that hasn't been communicated by an event.
+	 */
 	public void resetCache() {
-		isActive = false;
+		needsSync = true;
 		logger.trace("Cache reset!");
 	}
 	
-//	int cacheCounter = 0;
-
-	private void constructCache(Class<? extends PathObject> limitToClass) {
-		w.lock();
-		try {
-	//		logger.info("Skipping cache reconstruction...");
-			long startTime = System.currentTimeMillis();
-			isActive = true;
-			if (limitToClass == null)
-				map.clear();
-			else
-				map.remove(limitToClass);
-			addToCache(hierarchy.getRootObject(), true, limitToClass);
+	private synchronized void constructCache() {
+		if (isActive && !needsSync)
+			return;
+		long startTime = System.currentTimeMillis();
+		if (isActive) {
+			syncCache();
+			needsSync = false;
 			long endTime = System.currentTimeMillis();
-			logger.debug("Cache reconstructed in " + (endTime - startTime)/1000.);
-		} finally {
-			w.unlock();
+			logger.debug("Cache synchronized in " + (endTime - startTime)/1000.);
+			return;
 		}
-//		cacheCounter += (endTime - startTime);
-//		logger.info("Cache count: " + (cacheCounter)/1000.);
+		// Bulk load all objects, grouped by class
+		// Deferred objects are added to the cache when they are loaded, so don't need to be loaded here
+		Map<Class<? extends PathObject>, List<PathObject>> objects = new HashMap<>();
+		hierarchy.callIgnoringDeferred(() -> {
+			collectObjects(hierarchy.getRootObject(), objects);
+			return null;
+		});
+		for (var entry : objects.entrySet()) {
+			var index = map.computeIfAbsent(entry.getKey(), c -> new IncrementalSpatialIndex<>());
+			index.build(entry.getValue(), PathObjectTileCache::getBounds);
+		}
+		map.keySet().retainAll(objects.keySet());
+		isActive = true;
+		needsSync = false;
+		long endTime = System.currentTimeMillis();
+		logger.debug("Cache constructed in " + (endTime - startTime)/1000.);
 	}
 	
-	private void ensureCacheConstructed() {
-		if (!isActive())
-			constructCache(null);
+	private static void collectObjects(PathObject pathObject, Map<Class<? extends PathObject>, List<PathObject>> objects) {
+		if (pathObject.hasROI())
+			objects.computeIfAbsent(pathObject.getClass(), c -> new ArrayList<>()).add(pathObject);
+		if (!(pathObject instanceof TemporaryObject) && pathObject.hasChildObjects()) {
+			for (PathObject child : pathObject.getChildObjectsAsArray())
+				collectObjects(child, objects);
+		}
+	}
+	
+	/**
+	 * Update the cache for every object in the hierarchy, and remove any objects that were not found.
+	 */
+	private void syncCache() {
+		int mark = ++syncCount;
+		hierarchy.callIgnoringDeferred(() -> {
+			syncObjects(hierarchy.getRootObject(), mark);
+			return null;
+		});
+		for (var index : map.values()) {
+			for (var entry : index.getEntries()) {
+				if (entry.mark != mark)
+					index.remove(entry.getItem());
+			}
+		}
+	}
+	
+	private void syncObjects(PathObject pathObject, int mark) {
+		if (pathObject.hasROI())
+			updateCache(pathObject).mark = mark;
+		if (!(pathObject instanceof TemporaryObject) && pathObject.hasChildObjects()) {
+			for (PathObject child : pathObject.getChildObjectsAsArray())
+				syncObjects(child, mark);
+		}
+	}
+	
+	/**
+	 * Ensure the cache is constructed and synchronized with the hierarchy.
+	 * This is called automatically before each query, but can be called beforehand to avoid 
+	 * multiple threads waiting for the cache to be constructed.
+	 */
+	void ensureCacheConstructed() {
+		if (!isActive || needsSync)
+			constructCache();
 	}
 	
 	// TRUE if the cache has been constructed
@@ -157,34 +205,70 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	
 	/**
 	 * Add a PathObject to the cache, optionally including children.
+	 * If the object is already in the cache, its bounds are updated if necessary.
 	 * 
 	 * @param pathObject
 	 * @param includeChildren
 	 */
-	private void addToCache(PathObject pathObject, boolean includeChildren, Class<? extends PathObject> limitToClass) {
+	private void addToCache(PathObject pathObject, boolean includeChildren) {
 		// If the cache isn't active, we can ignore this... it will be constructed when it is needed
 		if (!isActive())
 			return;
 
-		if (pathObject.hasROI()) {
-			Class<? extends PathObject> cls = pathObject.getClass();
-			if (limitToClass == null || cls == limitToClass) {
-				SpatialIndex mapObjects = map.get(cls);
-				if (mapObjects == null) {
-					mapObjects = createSpatialIndex();
-					map.put(cls, mapObjects);
-				}
-				Envelope envelope = getEnvelope(pathObject);
-				mapObjects.insert(envelope, pathObject);
-			}
-		}
+		if (pathObject.hasROI())
+			updateCache(pathObject);
+		else
+			removeFromCache(pathObject, false);
 		
 		// Add the children
 		if (includeChildren && !(pathObject instanceof TemporaryObject) && pathObject.hasChildObjects()) {
 			for (PathObject child : pathObject.getChildObjectsAsArray())
-				addToCache(child, includeChildren, limitToClass);
+				addToCache(child, includeChildren);
+		}
+	}
+	
+	/**
+	 * Add or update objects in the cache, without their descendants.
+	 * This can be used if objects have been added to the hierarchy, but an event will not be fired immediately.
+	 * 
+	 * @param pathObjects
+	 */
+	synchronized void updateObjects(Collection<? extends PathObject> pathObjects) {
+		if (!isActive())
+			return;
+		if (pathObjects.size() < BULK_UPDATE_THRESHOLD) {
+			for (var pathObject : pathObjects)
+				addToCache(pathObject, false);
+			return;
+		}
+		// Group objects by class, so that each index can be updated in a single step
+		Map<Class<? extends PathObject>, List<PathObject>> objects = new HashMap<>();
+		for (var pathObject : pathObjects) {
+			if (pathObject.hasROI())
+				objects.computeIfAbsent(pathObject.getClass(), c -> new ArrayList<>()).add(pathObject);
+			else
+				removeFromCache(pathObject, false);
+		}
+		for (var entry : objects.entrySet()) {
+			map.computeIfAbsent(entry.getKey(), c -> new IncrementalSpatialIndex<>())
+				.putAll(entry.getValue(), PathObjectTileCache::getBounds);
 		}
 	}
+	
+	private IncrementalSpatialIndex.Entry<PathObject> updateCache(PathObject pathObject) {
+		var roi = pathObject.getROI();
+		var index = map.computeIfAbsent(pathObject.getClass(), c -> new IncrementalSpatialIndex<>());
+		return index.put(pathObject, roi.getBoundsX(), roi.getBoundsY(),
+				roi.getBoundsX() + roi.getBoundsWidth(), roi.getBoundsY() + roi.getBoundsHeight());
+	}
+	
+	private static void getBounds(PathObject pathObject, double[] bounds) {
+		var roi = pathObject.getROI();
+		bounds[0] = roi.getBoundsX();
+		bounds[1] = roi.getBoundsY();
+		bounds[2] = roi.getBoundsX() + roi.getBoundsWidth();
+		bounds[3] = roi.getBoundsY() + roi.getBoundsHeight();
+	}
 
 	Geometry getGeometry(ROI roi) {
 		var geometry = geometryMap.get(roi);
@@ -320,36 +404,8 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	}
 	
 	
-	private SpatialIndex createSpatialIndex() {
-		return new Quadtree();
-//		return new STRtree();
-	}
-	
-	private Envelope getEnvelope(PathObject pathObject) {
-		var envelope = getEnvelope(pathObject.getROI());
-		lastEnvelopeMap.put(pathObject, envelope);
-		return envelope;
-	}
-	
-	private Envelope getEnvelope(ROI roi) {
-		var envelope = envelopeMap.get(roi);
-		if (envelope == null) {
-			envelope = new Envelope(roi.getBoundsX(), roi.getBoundsX() + roi.getBoundsWidth(),
-					roi.getBoundsY(), roi.getBoundsY() + roi.getBoundsHeight());
-			envelopeMap.put(roi, envelope);
-		}
-		return envelope;
-	}
-	
-	private Envelope getEnvelope(ImageRegion region) {
-		return new Envelope(region.getMinX(), region.getMaxX(),
-				region.getMinY(), region.getMaxY());
-	}
-	
-	
-	
 	/**
-	 * This doesn't acquire the lock! The locking is done first.
+	 * Remove a PathObject from the cache, optionally including children.
 	 * 
 	 * @param pathObject
 	 * @param removeChildren
@@ -359,54 +415,24 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 		if (!isActive())
 			return;
 		
-		SpatialIndex mapObjects = map.get(pathObject.getClass());
+		var index = map.get(pathObject.getClass());
+		if (index != null && index.remove(pathObject))
+			logger.trace("Removed {} from cache", pathObject);
 		
-		// We can remove objects from a Quadtree
-		if (mapObjects instanceof Quadtree) {
-			Envelope envelope = lastEnvelopeMap.get(pathObject);
-			envelope = MAX_ENVELOPE;
-			if (envelope != null) {
-				if (mapObjects.remove(envelope, pathObject)) {
-					logger.debug("Removed {} from cache", pathObject);
-				} else
-					logger.debug("Unable to remove {} from cache", pathObject);
-			} else {
-				logger.debug("No envelope found for {}", pathObject);					
-			}
-//				System.err.println("After: " + mapObjects.query(MAX_ENVELOPE).size());
-			// Remove the children
-			if (removeChildren) {
-				for (PathObject child : pathObject.getChildObjectsAsArray())
-					removeFromCache(child, removeChildren);
-			}
-		} else if (mapObjects instanceof SpatialIndex && !removeChildren) {
-			// We can't remove objects from a STRtree, but since we're just removing one object we can rebuild only the cache for this class
-			constructCache(pathObject.getClass());
-		} else {
-			// If we need to remove multiple objects, better to just rebuild the entire cache
-			constructCache(null);
+		// Remove the children
+		if (removeChildren) {
+			for (PathObject child : pathObject.getChildObjectsAsArray())
+				removeFromCache(child, removeChildren);
 		}
 	}
 	
 	
-//	/**
-//	 * Add a PathObject to the cache.  Child objects are not added.
-//	 * @param pathObject
-//	 */
-//	private void addToCache(PathObject pathObject) {
-//		addToCache(pathObject, false);
-//	}
-	
-	
 	/**
 	 * Get all the PathObjects stored in this cache of a specified type and having ROIs with bounds overlapping a specified region.
 	 * This does not guarantee that the ROI (which may not be rectangular) overlaps the region...
 	 * but a quick test is preferred over a more expensive one.
 	 * <p>
 	 * Note that pathObjects will be added to the collection provided, if there is one.
-	 * The same object will be added to this collection multiple times if it overlaps different tiles -
-	 * again in the interests of speed, no check is made.
-	 * However this can be addressed by using a Set as the collection.
 	 * <p>
 	 * If a collection is not provided, another Collection is created & used instead.
 	 * 
@@ -419,143 +445,116 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	public Collection<PathObject> getObjectsForRegion(Class<? extends PathObject> cls, ImageRegion region, Collection<PathObject> pathObjects, boolean includeSubclasses) {
 		ensureCacheConstructed();
 		
-		var envelope = region == null ? MAX_ENVELOPE : getEnvelope(region);
+		double minX = region == null ? Double.NEGATIVE_INFINITY : region.getMinX();
+		double minY = region == null ? Double.NEGATIVE_INFINITY : region.getMinY();
+		double maxX = region == null ? Double.POSITIVE_INFINITY : region.getMaxX();
+		double maxY = region == null ? Double.POSITIVE_INFINITY : region.getMaxY();
 		
 		int z = region == null ? -1 : region.getZ();
 		int t = region == null ? -1 : region.getT();
-		r.lock();
-		try {
-			// Iterate through all the classes, getting objects of the specified class or subclasses thereof
-			for (Entry<Class<? extends PathObject>, SpatialIndex> entry : map.entrySet()) {
-				if (cls == null || (includeSubclasses && cls.isAssignableFrom(entry.getKey())) || cls.isInstance(entry.getKey())) {
-					if (entry.getValue() != null) {
-						var list = entry.getValue().query(envelope);
-						if (list.isEmpty())
-							continue;
-						
-						if (pathObjects == null)
-							pathObjects = new HashSet<>();
-						
-						// Add all objects that have a parent, i.e. might be in the hierarchy
-						for (PathObject pathObject : (List<PathObject>)list) {
-							var roi = pathObject.getROI();
-							if (roi == null || region == null || (roi.getZ() == z && roi.getT() == t)) {
-								if (pathObject.getParent() != null || pathObject.isRootObject()) {
-									if (envelope.intersects(getEnvelope(pathObject)))
-										pathObjects.add(pathObject);
-								}
-							}
+		
+		// Iterate through all the classes, getting objects of the specified class or subclasses thereof
+		Collection<PathObject> results = pathObjects == null ? new HashSet<>() : pathObjects;
+		for (Entry<Class<? extends PathObject>, IncrementalSpatialIndex<PathObject>> entry : map.entrySet()) {
+			if (cls == null || (includeSubclasses && cls.isAssignableFrom(entry.getKey())) || cls.isInstance(entry.getKey())) {
+				entry.getValue().query(minX, minY, maxX, maxY, pathObject -> {
+					// Add all objects that have a parent, i.e. might be in the hierarchy
+					var roi = pathObject.getROI();
+					if (roi != null && (region == null || (roi.getZ() == z && roi.getT() == t))) {
+						if (pathObject.getParent() != null || pathObject.isRootObject()) {
+							// Check the current bounds, in case the ROI has been changed without an event
+							if (intersects(roi, minX, minY, maxX, maxY))
+								results.add(pathObject);
 						}
 					}
-//						pathObjects = entry.getValue().getObjectsForRegion(region, pathObjects);
-				}
+					return true;
+				});
 			}
-	//		logger.info("Objects for " + region + ": " + (pathObjects == null ? 0 : pathObjects.size()));
-			if (pathObjects == null)
-				return Collections.emptySet();
-			return pathObjects;
-		} finally {
-			r.unlock();
 		}
+//		logger.info("Objects for " + region + ": " + (pathObjects == null ? 0 : pathObjects.size()));
+		return results;
+	}
+	
+	private static boolean intersects(ROI roi, double minX, double minY, double maxX, double maxY) {
+		return roi.getBoundsX() <= maxX && roi.getBoundsX() + roi.getBoundsWidth() >= minX &&
+				roi.getBoundsY() <= maxY && roi.getBoundsY() + roi.getBoundsHeight() >= minY;
 	}
 	
 	public boolean hasObjectsForRegion(Class<? extends PathObject> cls, ImageRegion region, boolean includeSubclasses) {
 		ensureCacheConstructed();
 		
-		var envelope = region == null ? MAX_ENVELOPE : getEnvelope(region);
+		double minX = region == null ? Double.NEGATIVE_INFINITY : region.getMinX();
+		double minY = region == null ? Double.NEGATIVE_INFINITY : region.getMinY();
+		double maxX = region == null ? Double.POSITIVE_INFINITY : region.getMaxX();
+		double maxY = region == null ? Double.POSITIVE_INFINITY : region.getMaxY();
 		
 		int z = region == null ? -1 : region.getZ();
 		int t = region == null ? -1 : region.getT();
-		r.lock();
-		try {
-			// Iterate through all the classes, getting objects of the specified class or subclasses thereof
-			for (Entry<Class<? extends PathObject>, SpatialIndex> entry : map.entrySet()) {
-				if (cls == null || cls.isInstance(entry.getKey()) || (includeSubclasses && cls.isAssignableFrom(entry.getKey()))) {
-					if (entry.getValue() != null) {
-						var list = (List<PathObject>)entry.getValue().query(envelope);
-						for (var pathObject : list) {
-							var roi = pathObject.getROI();
-							if (roi == null)
-								continue;
-							if (region == null)
-								return true;
-							if (roi.getZ() != z || roi.getT() != t)
-								continue;
-							if (region.intersects(roi.getBoundsX(), roi.getBoundsY(), roi.getBoundsWidth(), roi.getBoundsHeight())) {
-								return true;
-							}
-						}
-//						if (list.stream().anyMatch(p -> p.hasROI() && 
-//								(region == null || (p.getROI().getZ() == z && p.getROI().getT() == t))))
-//							return true;
-//						if (entry.getValue().hasObjectsForRegion(region))
-//							return true;
-					}
-				}
+		
+		// Iterate through all the classes, getting objects of the specified class or subclasses thereof
+		for (Entry<Class<? extends PathObject>, IncrementalSpatialIndex<PathObject>> entry : map.entrySet()) {
+			if (cls == null || cls.isInstance(entry.getKey()) || (includeSubclasses && cls.isAssignableFrom(entry.getKey()))) {
+				// Stop the query as soon as we find a match
+				boolean found = !entry.getValue().query(minX, minY, maxX, maxY, pathObject -> {
+					var roi = pathObject.getROI();
+					if (roi == null)
+						return true;
+					if (region == null)
+						return false;
+					if (roi.getZ() != z || roi.getT() != t)
+						return true;
+					return !region.intersects(roi.getBoundsX(), roi.getBoundsY(), roi.getBoundsWidth(), roi.getBoundsHeight());
+				});
+				if (found)
+					return true;
 			}
-			return false;
-		} finally {
-			r.unlock();
 		}
+		return false;
 	}
 	
-//	public synchronized Collection<PathObject> getObjectsForRegion(Class<? extends PathObject> cls, Rectangle region, Collection<PathObject> pathObjects) {
-//		ensureCacheConstructed();
-//		
-//		if (pathObjects == null)
-//			pathObjects = new HashSet<>();
-//		
-//		// Iterate through all the classes, getting objects of the specified class or subclasses thereof
-//		if (cls == null) {
-//			for (Class<? extends PathObject> tempClass : map.keySet())
-//				getObjectsForRegion(tempClass, region, pathObjects);
-//			return pathObjects;
-//		}
-//		
-//		// Extract the map for the type
-//		PathObjectTileMap mapObjects = map.get(cls);
-//		if (mapObjects == null)
-//			return pathObjects;
-//		
-//		// Get the objects
-//		return mapObjects.getObjectsForRegion(region, pathObjects);
-//	}
-	
-	
-
-//	@Override
-//	public void pathObjectChanged(PathObjectHierarchy pathObjectHierarchy, PathObject pathObject) {
-//		// Remove, then re-add the object - ignoring children (which shouldn't be changed, as no structural change is associated with this event)
-//		removeFromCache(pathObject, false);
-//		addToCache(pathObject, false);
-//	}
-
 
 	@Override
-	public void hierarchyChanged(final PathObjectHierarchyEvent event) {
-		w.lock();
-		try {
-			boolean singleChange = event.getChangedObjects().size() == 1;
-			PathObject singleObject = singleChange ? event.getChangedObjects().get(0) : null;
-			if (singleChange && event.getEventType() == HierarchyEventType.ADDED) {
-				removeFromCache(singleObject, false);
-				addToCache(singleObject, false, singleObject.getClass());
-			} else if (singleChange && event.getEventType() == HierarchyEventType.REMOVED) {
-				removeFromCache(singleObject, false);
-			} else if (event.getEventType() == HierarchyEventType.OTHER_STRUCTURE_CHANGE || event.getEventType() == HierarchyEventType.CHANGE_OTHER) {
-//				if (singleChange && !singleObject.isRootObject()) {
-//					removeFromCache(singleObject, false);
-//					addToCache(singleObject, false, singleObject.getClass());					
-//				} else
-//				System.err.println(event);
-				if (!event.isChanging())
-					resetCache();
+	public synchronized void hierarchyChanged(final PathObjectHierarchyEvent event) {
+		// If the cache isn't active, we can ignore this... it will be constructed when it is needed
+		if (!isActive)
+			return;
+		// If we know exactly what has been added & removed, we don't need to check anything else 
+		// (moved objects retain the same bounds)
+		if (event.hasStructureDelta()) {
+			for (var pathObject : event.getRemovedObjects())
+				removeFromCache(pathObject, false);
+			updateObjects(event.getAddedObjects());
+			return;
+		}
+		switch (event.getEventType()) {
+		case ADDED:
+			// Children may have been reassigned to the new object, but they will already be in the cache
+			for (var pathObject : event.getChangedObjects())
+				addToCache(pathObject, true);
+			break;
+		case REMOVED:
+			// Removed events are only fired if the children are retained in the hierarchy
+			for (var pathObject : event.getChangedObjects())
+				removeFromCache(pathObject, false);
+			break;
+		case CHANGE_OTHER:
+			// ROIs may have changed - update the bounds of the objects that are still in the hierarchy
+			for (var pathObject : event.getChangedObjects()) {
+				if (pathObject.isRootObject()) {
+					if (!event.isChanging())
+						resetCache();
+				} else if (pathObject.getParent() != null)
+					addToCache(pathObject, false);
 			}
-		} finally {
-			w.unlock();
+			break;
+		case OTHER_STRUCTURE_CHANGE:
+			if (!event.isChanging())
+				resetCache();
+			break;
+		default:
+			// Classification & measurement changes don't influence the cache
+			break;
 		}
-//		else if (event.getEventType() == HierarchyEventType.OBJECT_CHANGE)
-//			resetCache(); // TODO: Check if full change is necessary for object change events			
 	}
 	
 }
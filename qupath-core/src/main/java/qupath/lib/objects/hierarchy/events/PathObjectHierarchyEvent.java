@@ -81,6 +81,11 @@ public class PathObjectHierarchyEvent {
 	private HierarchyEventType type;
 	private List<PathObject> pathObjects;
 	private boolean isChanging;
+	
+	// Objects added, removed or moved within the hierarchy; these are null if not known
+	private List<PathObject> addedObjects;
+	private List<PathObject> removedObjects;
+	private List<PathObject> movedObjects;
 
 	PathObjectHierarchyEvent(final Object source, final PathObjectHierarchy hierarchy, final HierarchyEventType type, final PathObject parentObject, final List<PathObject> pathObjects, final boolean isChanging) {
 		this.source = source;
@@ -91,6 +96,13 @@ public class PathObjectHierarchyEvent {
 		this.isChanging = isChanging;
 	}
 	
+	private PathObjectHierarchyEvent withStructureDelta(Collection<? extends PathObject> added, Collection<? extends PathObject> removed, Collection<? extends PathObject> moved) {
+		this.addedObjects = Collections.unmodifiableList(new ArrayList<>(added));
+		this.removedObjects = Collections.unmodifiableList(new ArrayList<>(removed));
+		this.movedObjects = Collections.unmodifiableList(new ArrayList<>(moved));
+		return this;
+	}
+	
 	@Override
 	public String toString() {
 		return "Hierarchy change event: Source=" + source + ", Type="+type + ", Parent="+parentObject;
@@ -107,6 +119,28 @@ public class PathObjectHierarchyEvent {
 		return new PathObjectHierarchyEvent(source, hierarchy, HierarchyEventType.OTHER_STRUCTURE_CHANGE, parentObject, new ArrayList<>(0), false);						
 	}
 
+	/**
+	 * Create a hierarchy event indicating that the hierarchy structure has been changed, 
+	 * where the objects that were added, removed or moved are known.
+	 * <p>
+	 * Objects should be included in each collection following the rules of {@link #getAddedObjects()}, 
+	 * {@link #getRemovedObjects()} and {@link #getMovedObjects()}.
+	 * 
+	 * @param source
+	 * @param hierarchy
+	 * @param parentObject
+	 * @param addedObjects objects that were added to the hierarchy, including their descendants
+	 * @param removedObjects objects that were removed from the hierarchy, including their descendants
+	 * @param movedObjects objects that remain in the hierarchy, but have a different parent
+	 * @return
+	 * @since v0.5.0
+	 */
+	public static PathObjectHierarchyEvent createStructureChangeEvent(Object source, PathObjectHierarchy hierarchy, PathObject parentObject, 
+			Collection<? extends PathObject> addedObjects, Collection<? extends PathObject> removedObjects, Collection<? extends PathObject> movedObjects) {
+		return createStructureChangeEvent(source, hierarchy, parentObject)
+				.withStructureDelta(addedObjects, removedObjects, movedObjects);
+	}
+
 	/**
 	 * Create a hierarchy event indicated objects were added.
 	 * @param source
@@ -119,6 +153,25 @@ public class PathObjectHierarchyEvent {
 		return new PathObjectHierarchyEvent(source, hierarchy, HierarchyEventType.ADDED, parentObject, Collections.singletonList(pathObjectAdded), false);				
 	}
 
+	/**
+	 * Create a hierarchy event indicating an object was added, where the objects that were added or moved are known.
+	 * @param source
+	 * @param hierarchy
+	 * @param parentObject
+	 * @param pathObjectAdded
+	 * @param addedObjects objects that were added to the hierarchy, i.e. the added object and any of its descendants 
+	 *                     that were not previously in the hierarchy
+	 * @param movedObjects objects that were previously in the hierarchy, but have a different parent 
+	 *                     (e.g. because they have become children of the added object)
+	 * @return
+	 * @since v0.5.0
+	 */
+	public static PathObjectHierarchyEvent createObjectAddedEvent(Object source, PathObjectHierarchy hierarchy, PathObject parentObject, PathObject pathObjectAdded,
+			Collection<? extends PathObject> addedObjects, Collection<? extends PathObject> movedObjects) {
+		return createObjectAddedEvent(source, hierarchy, parentObject, pathObjectAdded)
+				.withStructureDelta(addedObjects, Collections.emptyList(), movedObjects);
+	}
+
 	/**
 	 * Create a hierarchy event indicating objects were removed.
 	 * @param source
@@ -131,6 +184,24 @@ public class PathObjectHierarchyEvent {
 		return new PathObjectHierarchyEvent(source, hierarchy, HierarchyEventType.REMOVED, parentObject, Collections.singletonList(pathObjectRemoved), false);		
 	}
 	
+	/**
+	 * Create a hierarchy event indicating an object was removed, where the objects that were moved are known.
+	 * This should only be used if the descendants of the removed object (if any) remain within the hierarchy.
+	 * @param source
+	 * @param hierarchy
+	 * @param parentObject
+	 * @param pathObjectRemoved
+	 * @param movedObjects objects that remain in the hierarchy, but have a different parent 
+	 *                     (e.g. because they were children of the removed object)
+	 * @return
+	 * @since v0.5.0
+	 */
+	public static PathObjectHierarchyEvent createObjectRemovedEvent(Object source, PathObjectHierarchy hierarchy, PathObject parentObject, PathObject pathObjectRemoved,
+			Collection<? extends PathObject> movedObjects) {
+		return createObjectRemovedEvent(source, hierarchy, parentObject, pathObjectRemoved)
+				.withStructureDelta(Collections.emptyList(), Collections.singletonList(pathObjectRemoved), movedObjects);
+	}
+	
 	/**
 	 * Create a hierarchy event indicating objects have changed in a way consistent with the specified event type.
 	 * @param source
@@ -171,6 +242,50 @@ public class PathObjectHierarchyEvent {
 		return pathObjects;
 	}
 	
+	/**
+	 * Returns true if this is a structure change event that describes exactly which objects were added, removed or moved.
+	 * If so, listeners may use {@link #getAddedObjects()}, {@link #getRemovedObjects()} and {@link #getMovedObjects()} 
+	 * to update themselves incrementally. Otherwise, they should assume that anything below {@link #getStructureChangeBase()} 
+	 * may have changed.
+	 * @return
+	 * @since v0.5.0
+	 */
+	public boolean hasStructureDelta() {
+		return addedObjects != null;
+	}
+	
+	/**
+	 * Get the objects that were added to the hierarchy.
+	 * This includes the descendants of added objects, unless they were already in the hierarchy 
+	 * (in which case they are included in {@link #getMovedObjects()} if their parent has changed).
+	 * @return the added objects, or an empty list if {@link #hasStructureDelta()} returns false
+	 * @since v0.5.0
+	 */
+	public List<PathObject> getAddedObjects() {
+		return addedObjects == null ? Collections.emptyList() : addedObjects;
+	}
+
+	/**
+	 * Get the objects that were removed from the hierarchy.
+	 * This includes the descendants of removed objects, unless they remain in the hierarchy 
+	 * (in which case they are included in {@link #getMovedObjects()} if their parent has changed).
+	 * @return the removed objects, or an empty list if {@link #hasStructureDelta()} returns false
+	 * @since v0.5.0
+	 */
+	public List<PathObject> getRemovedObjects() {
+		return removedObjects == null ? Collections.emptyList() : removedObjects;
+	}
+
+	/**
+	 * Get the objects that were in the hierarchy before and after the change, but which have a different parent.
+	 * The descendants of these objects are only included if their own parent has changed.
+	 * @return the moved objects, or an empty list if {@link #hasStructureDelta()} returns false
+	 * @since v0.5.0
+	 */
+	public List<PathObject> getMovedObjects() {
+		return movedObjects == null ? Collections.emptyList() : movedObjects;
+	}
+	
 	/**
 	 * Get the hierarchy event type.
 	 * @return
@@ -23,6 +23,7 @@
 
 package qupath.lib.plugins;
 
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -30,10 +31,14 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import qupath.lib.geom.ImmutableDimension;
 import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ServerTools;
+import qupath.lib.images.servers.cache.TilePrefetcher;
+import qupath.lib.images.servers.cache.TilePrefetcher.PrefetchPlan;
 import qupath.lib.objects.PathObject;
 import qupath.lib.plugins.parameters.ParameterList;
 import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.RegionRequest;
 import qupath.lib.roi.ROIs;
 import qupath.lib.roi.RoiTools;
 import qupath.lib.roi.interfaces.ROI;
@@ -152,6 +157,16 @@ public abstract class AbstractTileableDetectionPlugin<T> extends AbstractDetecti
 		}
 		manager.setTiles(tileList);
 		
+		// Read the tiles needed for upcoming detection tiles in the background
+		if (imageData.getServer().getImageClass() == BufferedImage.class) {
+			@SuppressWarnings("unchecked")
+			var server = (ImageServer<BufferedImage>)imageData.getServer();
+			var regions = pathROIs.stream()
+					.map(roi -> RegionRequest.createInstance(server.getPath(), downsampleFactor, roi))
+					.toList();
+			manager.setPrefetchPlan(TilePrefetcher.getInstance().createPlan(server, regions).start());
+		}
+		
 		imageData.getHierarchy().fireHierarchyChangedEvent(this);
 	}
 	
@@ -166,6 +181,8 @@ public abstract class AbstractTileableDetectionPlugin<T> extends AbstractDetecti
 		private AtomicInteger countdown;
 		private List<ParallelTileObject> tiles = new ArrayList<>();
 		
+		private volatile PrefetchPlan prefetchPlan;
+		
 		ParallelDetectionTileManager(PathObject parent) {
 			this.parent = parent;
 			this.originalChildObjects = new ArrayList<>(parent.getChildObjects());
@@ -178,15 +195,28 @@ public abstract class AbstractTileableDetectionPlugin<T> extends AbstractDetecti
 			this.parent.addChildObjects(tiles);
 		}
 		
+		void setPrefetchPlan(PrefetchPlan prefetchPlan) {
+			this.prefetchPlan = prefetchPlan;
+		}
+		
 		public void tileComplete(PathObject tile, boolean wasCancelled) {
 			if (wasCancelled)
 				this.wasCancelled = true;
+			var plan = prefetchPlan;
+			if (plan != null) {
+				if (wasCancelled)
+					plan.close();
+				else
+					plan.advance();
+			}
 			int remaining = countdown.decrementAndGet();
 			if (remaining == 0)
 				postprocess();
 		}
 		
 		private void postprocess() {
+			if (prefetchPlan != null)
+				prefetchPlan.close();
 			parent.clearChildObjects();
 			if (wasCancelled) {
 				// If anything was cancelled, then replace the original objects
@@ -25,12 +25,18 @@ package qupath.lib.projects;
 
 import java.awt.Desktop;
 import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeListener;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -45,7 +51,17 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
 import java.util.stream.Collectors;
 
 import javax.imageio.ImageIO;
@@ -59,6 +75,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.reflect.TypeToken;
 import qupath.lib.common.GeneralTools;
+import qupath.lib.common.ThreadTools;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.ImageData.ImageType;
 import qupath.lib.images.servers.ImageServer;
@@ -70,6 +87,7 @@ import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjectTools;
 import qupath.lib.objects.classes.PathClass;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
 import qupath.lib.projects.ResourceManager.ImageResourceManager;
 import qupath.lib.projects.ResourceManager.Manager;
 
@@ -123,6 +141,20 @@ class DefaultProject implements Project<BufferedImage> {
 	private long creationTimestamp;
 	private long modificationTimestamp;
 	
+	/**
+	 * Index of entry summaries and thumbnails, to avoid reading the files for each entry.
+	 */
+	private final ProjectIndex index;
+	
+	private static final ExecutorService thumbnailPool = Executors.newFixedThreadPool(2, ThreadTools.createThreadFactory("project-thumbnails", true));
+	
+	/**
+	 * Pool for writing image data in the background.
+	 * Threads aren't daemon threads, so that pending writes can complete on exit.
+	 */
+	private static final ExecutorService savePool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 5L, TimeUnit.SECONDS,
+			new SynchronousQueue<>(), ThreadTools.createThreadFactory("project-save", false));
+	
 	DefaultProject(final File file) {
 		this.file = file;
 		if (file.isDirectory()) {
@@ -132,6 +164,7 @@ class DefaultProject implements Project<BufferedImage> {
 			this.dirBase = file.getParentFile();
 		creationTimestamp = System.currentTimeMillis();
 		modificationTimestamp = System.currentTimeMillis();
+		index = new ProjectIndex(Paths.get(dirBase.toString(), "data"));
 	}
 	
 	@Override
@@ -326,6 +359,8 @@ class DefaultProject implements Project<BufferedImage> {
 		if (couldRemove && removeAllData && entry instanceof DefaultProjectImageEntry) {
 			((DefaultProjectImageEntry)entry).moveDataToTrash();
 		}
+		if (couldRemove && entry instanceof DefaultProjectImageEntry)
+			index.remove(((DefaultProjectImageEntry)entry).getUniqueName());
 	}
 
 	@Override
@@ -335,9 +370,20 @@ class DefaultProject implements Project<BufferedImage> {
 	}
 	
 	@Override
-	public synchronized void syncChanges() throws IOException {
-		writeProject(getFile());
-		writePathClasses(pathClasses);
+	public void syncChanges() throws IOException {
+		// Wait for any image data being saved in the background, so that the index is up to date
+		// (and the data is written before QuPath exits)
+		List<DefaultProjectImageEntry> entries;
+		synchronized (this) {
+			entries = new ArrayList<>(images);
+		}
+		for (var entry : entries)
+			entry.awaitPendingSave();
+		synchronized (this) {
+			writeProject(getFile());
+			writePathClasses(pathClasses);
+			index.flush();
+		}
 //		if (file.isDirectory())
 //			file = new File(dirBase, "project.qpproj");
 //		var json = new GsonBuilder().setLenient().setPrettyPrinting().create().toJson(this);
@@ -520,10 +566,19 @@ class DefaultProject implements Project<BufferedImage> {
 				Files.copy(entry.getDataSummaryPath(), getDataSummaryPath(), StandardCopyOption.REPLACE_EXISTING);
 			if (getThumbnail() == null && Files.exists(entry.getThumbnailPath()))
 				Files.copy(entry.getThumbnailPath(), getThumbnailPath(), StandardCopyOption.REPLACE_EXISTING);
+			// Any indexed data summary is now out of date - the thumbnail will be re-indexed when it is next read
+			index.remove(getUniqueName());
 		}
 		
 		private transient ImageResourceManager<BufferedImage> imageManager = null;
 		
+		private final transient Object saveLock = new Object();
+		private transient SaveRequest pendingSave;
+		private transient CompletableFuture<Void> lastSave;
+		private transient boolean saveRunning = false;
+		private transient long saveSequence = 0L;
+		private transient long savedSequence = 0L;
+		
 		@Override
 		public synchronized Manager<ImageServer<BufferedImage>> getImages() {
 			if (imageManager == null) {
@@ -658,7 +713,16 @@ class DefaultProject implements Project<BufferedImage> {
 		}
 		
 		/**
-		 * Get the path used to backup an ImageData while writing it
+		 * Get the path used to write an ImageData, before it replaces the current data file
+		 * @return
+		 */
+		private Path getTempImageDataPath() {
+			return Paths.get(getEntryPath().toString(), "data.qpdata.tmp");
+		}
+		
+		/**
+		 * Get the path used to backup an ImageData while writing it.
+		 * Backups are no longer written, but may be found in older projects.
 		 * @return
 		 */
 		private Path getBackupImageDataPath() {
@@ -678,7 +742,18 @@ class DefaultProject implements Project<BufferedImage> {
 		}
 
 		@Override
-		public synchronized ImageData<BufferedImage> readImageData() throws IOException {
+		public ImageData<BufferedImage> readImageData() throws IOException {
+			return readImageData(false);
+		}
+
+		@Override
+		public ImageData<BufferedImage> readImageData(boolean lazyDetections) throws IOException {
+			// Ensure we read the latest data, if it is being written in the background
+			awaitPendingSave();
+			return readImageDataFromFile(lazyDetections);
+		}
+		
+		private synchronized ImageData<BufferedImage> readImageDataFromFile(boolean lazyDetections) throws IOException {
 			Path path = getImageDataPath();
 			ImageServer<BufferedImage> server;
 			try {
@@ -693,7 +768,7 @@ class DefaultProject implements Project<BufferedImage> {
 			ImageData<BufferedImage> imageData = null;
 			if (Files.exists(path)) {
 				try (var stream = Files.newInputStream(path)) {
-					imageData = PathIO.readImageData(stream, null, server, BufferedImage.class);
+					imageData = PathIO.readImageData(stream, null, server, BufferedImage.class, lazyDetections);
 					imageData.setLastSavedPath(path.toString(), true);
 				} catch (Exception e) {
 					logger.error("Error reading image data from " + path, e);
@@ -727,14 +802,172 @@ class DefaultProject implements Project<BufferedImage> {
 
 		@Override
 		public synchronized void saveImageData(ImageData<BufferedImage> imageData) throws IOException {
-			// Get entry path, creating if needed
-			getEntryPath(true);
+			long sequence = nextSaveSequence();
+			prepareToSave(imageData);
 			var pathData = getImageDataPath();
 			
-			// If we already have a file, back it up first
-			var pathBackup = getBackupImageDataPath();
-			if (Files.exists(pathData))
-				Files.move(pathData, pathBackup, StandardCopyOption.REPLACE_EXISTING);
+			// Write to a temp file first, so that any existing data is retained if writing fails
+			var pathTemp = getTempImageDataPath();
+			try (var stream = Files.newOutputStream(pathTemp)) {
+				logger.debug("Saving image data to {}", pathData);
+				PathIO.writeImageData(stream, imageData);
+			} catch (IOException e) {
+				Files.deleteIfExists(pathTemp);
+				throw e;
+			}
+			commitImageData(pathTemp, new ImageDataSummary(imageData, 0L), imageData.getServer(), sequence);
+			imageData.setLastSavedPath(pathData.toString(), true);
+		}
+		
+		/**
+		 * Save image data in the background.
+		 * <p>
+		 * A snapshot of the image data is created before returning, and then written to a temp file that replaces 
+		 * the data file only if writing succeeds.
+		 * At most one snapshot is written at a time for each entry. If further saves are requested before it 
+		 * completes, only the most recent is retained; any saves that it replaces complete when it completes.
+		 * <p>
+		 * The image data is only marked as saved when writing succeeds, and only if it hasn't been changed since 
+		 * the snapshot was created.
+		 */
+		@Override
+		public CompletableFuture<Void> saveImageDataAsync(ImageData<BufferedImage> imageData, DoubleConsumer progress) {
+			var future = new CompletableFuture<Void>();
+			SaveRequest request;
+			try {
+				prepareToSave(imageData);
+			} catch (IOException e) {
+				future.completeExceptionally(e);
+				return future;
+			}
+			// Listen for changes made after the snapshot is created, since these won't be saved
+			var modified = new AtomicBoolean(false);
+			var hierarchy = imageData.getHierarchy();
+			PathObjectHierarchyListener hierarchyListener = e -> modified.set(true);
+			PropertyChangeListener propertyListener = e -> modified.set(true);
+			hierarchy.addListener(hierarchyListener);
+			imageData.addPropertyChangeListener(propertyListener);
+			future.whenComplete((v, e) -> {
+				hierarchy.removeListener(hierarchyListener);
+				imageData.removePropertyChangeListener(propertyListener);
+			});
+			var pathData = getImageDataPath().toString();
+			Runnable onSaved = () -> {
+				if (!modified.get())
+					imageData.setLastSavedPath(pathData, true);
+			};
+			try {
+				var snapshot = PathIO.createImageDataSnapshot(imageData);
+				request = new SaveRequest(snapshot, new ImageDataSummary(imageData, 0L), imageData.getServer(), progress, future, onSaved, nextSaveSequence());
+			} catch (IOException e) {
+				future.completeExceptionally(e);
+				return future;
+			}
+			synchronized (saveLock) {
+				lastSave = future;
+				if (pendingSave != null) {
+					// The new snapshot includes all the changes in the previous one
+					request.superseded.add(pendingSave.future);
+					request.superseded.addAll(pendingSave.superseded);
+				}
+				pendingSave = request;
+				if (!saveRunning) {
+					saveRunning = true;
+					savePool.execute(this::processSaveRequests);
+				}
+			}
+			return future;
+		}
+		
+		/**
+		 * Wait for any image data being saved in the background to be written.
+		 * This must not be called while synchronized on the entry, since writing requires the lock.
+		 * @throws InterruptedIOException if the thread is interrupted while waiting
+		 */
+		void awaitPendingSave() throws InterruptedIOException {
+			CompletableFuture<Void> future;
+			synchronized (saveLock) {
+				future = lastSave;
+			}
+			if (future == null)
+				return;
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for image data to be saved for " + getImageName());
+			} catch (ExecutionException | CancellationException e) {
+				// Any error is logged by the save itself
+				logger.debug("Pending save for {} did not complete: {}", getImageName(), e.getLocalizedMessage());
+			}
+		}
+		
+		private long nextSaveSequence() {
+			synchronized (saveLock) {
+				return ++saveSequence;
+			}
+		}
+		
+		private void processSaveRequests() {
+			while (true) {
+				SaveRequest request;
+				synchronized (saveLock) {
+					request = pendingSave;
+					pendingSave = null;
+					if (request == null) {
+						saveRunning = false;
+						return;
+					}
+				}
+				if (request.future.isDone()) {
+					request.completeExceptionally(new CancellationException("Saving image data cancelled"));
+					continue;
+				}
+				try {
+					writeSnapshot(request);
+					if (request.future.isCancelled()) {
+						request.completeExceptionally(new CancellationException("Saving image data cancelled"));
+					} else {
+						// Update the image data before completing, so that it is marked as saved when the future completes
+						request.onSaved.run();
+						request.complete();
+					}
+				} catch (Throwable e) {
+					if (request.future.isCancelled())
+						logger.debug("Saving image data cancelled for {}", getImageName());
+					else
+						logger.error("Error saving image data for " + getImageName(), e);
+					request.completeExceptionally(e);
+				}
+			}
+		}
+		
+		private synchronized void writeSnapshot(SaveRequest request) throws IOException {
+			// Skip the snapshot if more recent data has already been written
+			if (request.sequence < savedSequence)
+				return;
+			var pathData = getImageDataPath();
+			var pathTemp = getTempImageDataPath();
+			try (var stream = Files.newOutputStream(pathTemp)) {
+				logger.debug("Saving image data to {}", pathData);
+				request.snapshot.write(stream, request.progress, request.future::isDone);
+			} catch (IOException e) {
+				Files.deleteIfExists(pathTemp);
+				throw e;
+			}
+			if (request.future.isDone()) {
+				Files.deleteIfExists(pathTemp);
+				return;
+			}
+			commitImageData(pathTemp, request.summary, request.server, request.sequence);
+		}
+		
+		/**
+		 * Ensure the entry directory exists, and the image data can be identified as belonging to this entry.
+		 */
+		private void prepareToSave(ImageData<BufferedImage> imageData) throws IOException {
+			// Get entry path, creating if needed
+			getEntryPath(true);
 			
 			// Set the entry property, if needed
 			// This handles cases where an ImageData is being moved to become part of this project, 
@@ -744,28 +977,26 @@ class DefaultProject implements Project<BufferedImage> {
 				logger.warn("Updating ID property to {}", id);
 				imageData.setProperty(IMAGE_ID, id);
 			}
-			
-			// Write to a temp file first
-			long timestamp = 0L;
-			try (var stream = Files.newOutputStream(pathData)) {
-				logger.debug("Saving image data to {}", pathData);
-				PathIO.writeImageData(stream, imageData);
-				imageData.setLastSavedPath(pathData.toString(), true);
-				timestamp = Files.getLastModifiedTime(pathData).toMillis();
-				// Delete backup file if it exists
-				if (Files.exists(pathBackup))
-					Files.delete(pathBackup);
-			} catch (IOException e) {
-				// Try to restore the backup
-				if (Files.exists(pathBackup)) {
-					logger.warn("Exception writing image file - attempting to restore {} from backup", pathData);
-					Files.move(pathBackup, pathData, StandardCopyOption.REPLACE_EXISTING);				
-				}
-				throw e;
+		}
+		
+		/**
+		 * Replace the data file with a temp file that has been written successfully, then update the 
+		 * server and summary.
+		 * This should only be called while synchronized on the entry.
+		 */
+		private void commitImageData(Path pathTemp, ImageDataSummary summary, ImageServer<BufferedImage> server, long sequence) throws IOException {
+			var pathData = getImageDataPath();
+			try {
+				Files.move(pathTemp, pathData, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(pathTemp, pathData, StandardCopyOption.REPLACE_EXISTING);
 			}
+			savedSequence = Math.max(savedSequence, sequence);
+			long timestamp = Files.getLastModifiedTime(pathData).toMillis();
+			// Any backup from an earlier version is now out of date
+			Files.deleteIfExists(getBackupImageDataPath());
 			
 			// If successful, write the server (including metadata)
-			var server = imageData.getServer();
 			var currentServerBuilder = server.getBuilder();
 			if (currentServerBuilder != null && !currentServerBuilder.equals(this.serverBuilder)) {
 				this.serverBuilder = currentServerBuilder;
@@ -784,9 +1015,11 @@ class DefaultProject implements Project<BufferedImage> {
 			}
 			
 			var pathSummary = getDataSummaryPath();
+			summary.timestamp = timestamp;
 			try (var out = Files.newBufferedWriter(pathSummary, StandardCharsets.UTF_8)) {
-				GsonTools.getInstance().toJson(new ImageDataSummary(imageData, timestamp), out);
-			}			
+				GsonTools.getInstance().toJson(summary, out);
+			}
+			index.updateData(getUniqueName(), timestamp, Files.size(pathData), summary.hierarchy.objectTypeCounts);
 
 		}
 
@@ -796,11 +1029,22 @@ class DefaultProject implements Project<BufferedImage> {
 		}
 		
 		@Override
-		public synchronized PathObjectHierarchy readHierarchy() throws IOException {
+		public PathObjectHierarchy readHierarchy() throws IOException {
+			return readHierarchy(false);
+		}
+		
+		@Override
+		public PathObjectHierarchy readHierarchy(boolean lazyDetections) throws IOException {
+			// Ensure we read the latest data, if it is being written in the background
+			awaitPendingSave();
+			return readHierarchyFromFile(lazyDetections);
+		}
+		
+		private synchronized PathObjectHierarchy readHierarchyFromFile(boolean lazyDetections) throws IOException {
 			var path = getImageDataPath();
 			if (Files.exists(path)) {
 				try (var stream = Files.newInputStream(path)) {
-					return PathIO.readHierarchy(stream);
+					return PathIO.readHierarchy(stream, lazyDetections);
 				}
 			}
 			return new PathObjectHierarchy();
@@ -819,6 +1063,15 @@ class DefaultProject implements Project<BufferedImage> {
 				sb.append("\n");
 			}
 
+			// Use the project index if we can, to avoid reading the data file - 
+			// but only if the data file hasn't been modified since it was indexed
+			var record = index.get(getUniqueName());
+			if (record != null && record.hasData() && record.getDataTimestamp() == getDataTimestamp()) {
+				double sizeMB = record.getDataSize() / 1024.0 / 1024.0;
+				sb.append(String.format("Data file:\t%.2f MB", sizeMB)).append("\n");
+				sb.append("Objects:\t").append(record.getObjectCount());
+				return sb.toString();
+			}
 			File file = getImageDataPath().toFile();
 			if (file != null && file.exists()) {
 				double sizeMB = file.length() / 1024.0 / 1024.0;
@@ -829,27 +1082,62 @@ class DefaultProject implements Project<BufferedImage> {
 			return sb.toString();
 		}
 
+		/**
+		 * Get the last modified time of the data file, or -1 if it can't be determined.
+		 */
+		private long getDataTimestamp() {
+			try {
+				return Files.getLastModifiedTime(getImageDataPath()).toMillis();
+			} catch (IOException e) {
+				return -1L;
+			}
+		}
+
 		@Override
 		public synchronized BufferedImage getThumbnail() throws IOException {
-			var path = getThumbnailPath();
-			if (Files.exists(path)) {
-				try (var stream = Files.newInputStream(path)) {
-					return ImageIO.read(stream);
+			var key = getUniqueName();
+			byte[] bytes = index.readThumbnail(key);
+			if (bytes == null) {
+				var path = getThumbnailPath();
+				if (!Files.exists(path))
+					return null;
+				bytes = Files.readAllBytes(path);
+				// Add the thumbnail to the index, so that we can read it more efficiently next time
+				try {
+					index.writeThumbnail(key, bytes);
+				} catch (IOException e) {
+					logger.debug("Unable to index thumbnail for {}: {}", this, e.getLocalizedMessage());
 				}
 			}
-			return null;
+			try (var stream = new ByteArrayInputStream(bytes)) {
+				return ImageIO.read(stream);
+			}
+		}
+		
+		@Override
+		public CompletableFuture<BufferedImage> getThumbnailAsync() {
+			return CompletableFuture.supplyAsync(() -> {
+				try {
+					return getThumbnail();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, thumbnailPool);
 		}
 
 		@Override
 		public synchronized void setThumbnail(BufferedImage img) throws IOException {
 			getEntryPath(true);
+			var bytes = new ByteArrayOutputStream();
+			ImageIO.write(img, "JPEG", bytes);
+			// Write the file for compatibility, as well as the index
 			var path = getThumbnailPath();
-			try (var stream = Files.newOutputStream(path)) {
-				ImageIO.write(img, "JPEG", stream);
-			}
+			Files.write(path, bytes.toByteArray());
+			index.writeThumbnail(getUniqueName(), bytes.toByteArray());
 		}
 		
 		synchronized boolean moveDataToTrash() {
+			index.remove(getUniqueName());
 			Path path = getEntryPath();
 			if (!Files.exists(path))
 				return true;
@@ -865,6 +1153,48 @@ class DefaultProject implements Project<BufferedImage> {
 	}
 	
 	
+	/**
+	 * Request to write a snapshot of image data in the background.
+	 */
+	private static class SaveRequest {
+		
+		private final PathIO.ImageDataSnapshot snapshot;
+		private final ImageDataSummary summary;
+		private final ImageServer<BufferedImage> server;
+		private final DoubleConsumer progress;
+		private final CompletableFuture<Void> future;
+		private final Runnable onSaved;
+		private final long sequence;
+		
+		// Futures for earlier requests that were replaced by this one before they were written
+		private final List<CompletableFuture<Void>> superseded = new ArrayList<>();
+		
+		private SaveRequest(PathIO.ImageDataSnapshot snapshot, ImageDataSummary summary, ImageServer<BufferedImage> server,
+				DoubleConsumer progress, CompletableFuture<Void> future, Runnable onSaved, long sequence) {
+			this.snapshot = snapshot;
+			this.summary = summary;
+			this.server = server;
+			this.progress = progress;
+			this.future = future;
+			this.onSaved = onSaved;
+			this.sequence = sequence;
+		}
+		
+		private void complete() {
+			for (var f : superseded)
+				f.complete(null);
+			future.complete(null);
+		}
+		
+		private void completeExceptionally(Throwable e) {
+			for (var f : superseded)
+				f.completeExceptionally(e);
+			future.completeExceptionally(e);
+		}
+		
+	}
+	
+	
 	@SuppressWarnings("unused")
 	static class ImageDataSummary {
 		
@@ -1066,6 +1396,8 @@ class DefaultProject implements Project<BufferedImage> {
 			
 			pathClasses.addAll(loadPathClasses());
 			
+			index.load();
+			
 //			List<String> troublesome = validateLocalPaths(true);
 //			if (!troublesome.isEmpty()) {
 //				logger.warn("Could not find {} image(s): {}", troublesome.size(), troublesome);
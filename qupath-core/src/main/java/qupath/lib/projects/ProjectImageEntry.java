@@ -24,11 +24,14 @@
 package qupath.lib.projects;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.DoubleConsumer;
 
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ImageServer;
@@ -193,6 +196,26 @@ public interface ProjectImageEntry<T> extends UriResource {
 	 */
 	public ImageData<T> readImageData() throws IOException;
 	
+	/**
+	 * Read the {@link ImageData} associated with this entry, optionally deferring the loading of detections 
+	 * until they are needed.
+	 * <p>
+	 * If detections are loaded lazily, annotations are available immediately but detections are only added to the 
+	 * hierarchy when a region containing them is requested (e.g. for display), or when all objects are needed.
+	 * This can make it much faster to open images with very large numbers of detections.
+	 * <p>
+	 * The default implementation ignores the flag and calls {@link #readImageData()}.
+	 * 
+	 * @param lazyDetections if true, request that detections are loaded when they are needed
+	 * @return
+	 * @throws IOException 
+	 * @since v0.5.0
+	 * @see PathObjectHierarchy#hasDeferredObjects()
+	 */
+	public default ImageData<T> readImageData(boolean lazyDetections) throws IOException {
+		return readImageData();
+	}
+	
 	/**
 	 * Save the {@link ImageData} for this entry using the default storage location for the project.
 	 * @param imageData 
@@ -200,6 +223,34 @@ public interface ProjectImageEntry<T> extends UriResource {
 	 */
 	public void saveImageData(ImageData<T> imageData) throws IOException;
 	
+	/**
+	 * Save the {@link ImageData} for this entry asynchronously, using the default storage location for the project.
+	 * <p>
+	 * Implementations should capture the current state of the image data before returning, so that it may continue 
+	 * to be used (and modified) while the data is written. Changes made after this method returns are not saved.
+	 * <p>
+	 * The returned future can be cancelled to request that writing stops early, in which case any existing 
+	 * data for the entry should be retained.
+	 * <p>
+	 * The default implementation calls {@link #saveImageData(ImageData)} and returns a completed future.
+	 * 
+	 * @param imageData the image data to save
+	 * @param progress optional consumer to receive progress updates, as a value between 0 and 1; 
+	 *                 this may be called from a background thread
+	 * @return a future that completes when the data has been written, or exceptionally if saving failed
+	 * @since v0.5.0
+	 */
+	public default CompletableFuture<Void> saveImageDataAsync(ImageData<T> imageData, DoubleConsumer progress) {
+		try {
+			saveImageData(imageData);
+			if (progress != null)
+				progress.accept(1.0);
+			return CompletableFuture.completedFuture(null);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+	
 	/**
 	 * Read the {@link PathObjectHierarchy} for this entry, or return an empty hierarchy if none is available.
 	 * @return
@@ -210,6 +261,22 @@ public interface ProjectImageEntry<T> extends UriResource {
 	 */
 	public PathObjectHierarchy readHierarchy() throws IOException;
 	
+	/**
+	 * Read the {@link PathObjectHierarchy} for this entry, optionally deferring the loading of detections 
+	 * until they are needed.
+	 * <p>
+	 * The default implementation ignores the flag and calls {@link #readHierarchy()}.
+	 * 
+	 * @param lazyDetections if true, request that detections are loaded when they are needed
+	 * @return
+	 * @throws IOException 
+	 * @since v0.5.0
+	 * @see #readImageData(boolean)
+	 */
+	public default PathObjectHierarchy readHierarchy(boolean lazyDetections) throws IOException {
+		return readHierarchy();
+	}
+	
 	/**
 	 * Check if this entry has saved {@link ImageData} already available.
 	 * 
@@ -231,6 +298,26 @@ public interface ProjectImageEntry<T> extends UriResource {
 	 */
 	public T getThumbnail() throws IOException;
 	
+	/**
+	 * Request a thumbnail for the image asynchronously.
+	 * This is useful when thumbnails are needed for display, and reading them should not block the calling thread.
+	 * <p>
+	 * The default implementation calls {@link #getThumbnail()} using the common pool.
+	 * 
+	 * @return a future that completes with the thumbnail (or null if no thumbnail has been set), or exceptionally
+	 *         if the thumbnail could not be read
+	 * @since v0.5.0
+	 */
+	public default CompletableFuture<T> getThumbnailAsync() {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return getThumbnail();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+	
 	/**
 	 * Set a thumbnail for the image. This will replace any existing thumbnail.
 	 * 
@@ -0,0 +1,396 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.projects;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonParseException;
+
+import qupath.lib.common.ThreadTools;
+import qupath.lib.io.GsonTools;
+
+/**
+ * Project-level index of the data associated with each image entry.
+ * <p>
+ * This avoids the need to access the files of each entry to summarize a project, which can be slow
+ * for projects containing thousands of images.
+ * The index is stored as {@code index.json} in the project data directory, and contains a record for each
+ * entry with its object counts, data file size and the location of its thumbnail.
+ * Thumbnails are stored together in {@code thumbnails.pack}, which is memory-mapped for reading.
+ * When the pack is compacted, it is written under a new name that is only used once the index referencing it
+ * has been written - so the index and pack remain consistent if QuPath stops part way through.
+ * <p>
+ * The index is updated in memory whenever an entry is saved, and written in the background.
+ * Per-entry files (e.g. {@code summary.json} and {@code thumbnail.jpg}) are still written for compatibility,
+ * and are used whenever the index does not contain the required information.
+ */
+class ProjectIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger(ProjectIndex.class);
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Minimum size of unused data in the thumbnail pack before it is compacted.
+	 */
+	private static final long COMPACT_THRESHOLD = 4L * 1024 * 1024;
+
+	private static final ExecutorService pool = Executors.newSingleThreadExecutor(ThreadTools.createThreadFactory("project-index", true));
+
+	private final Path dataDirectory;
+	private final Path pathIndex;
+
+	private int packGeneration = 0;
+	private Path pathPack;
+
+	private Map<String, EntryRecord> entries = new LinkedHashMap<>();
+
+	private MappedByteBuffer packBuffer;
+	private boolean writePending = false;
+
+	/**
+	 * Create an index for a project data directory.
+	 * @param dataDirectory the directory containing the data for all entries
+	 */
+	ProjectIndex(Path dataDirectory) {
+		this.dataDirectory = dataDirectory;
+		this.pathIndex = dataDirectory.resolve("index.json");
+		this.pathPack = getPackPath(packGeneration);
+	}
+
+	private Path getPackPath(int generation) {
+		if (generation == 0)
+			return dataDirectory.resolve("thumbnails.pack");
+		return dataDirectory.resolve("thumbnails-" + generation + ".pack");
+	}
+
+	/**
+	 * Record for a single entry.
+	 */
+	static class EntryRecord {
+
+		private long dataTimestamp = -1L;
+		private long dataSize = -1L;
+		private int nObjects = -1;
+		private Map<String, Long> objectTypeCounts;
+		private long thumbnailOffset = -1L;
+		private int thumbnailLength;
+
+		/**
+		 * Get the size of the data file, or -1 if no data has been indexed.
+		 * @return
+		 */
+		long getDataSize() {
+			return dataSize;
+		}
+
+		/**
+		 * Get the timestamp when the data was last saved, or -1 if no data has been indexed.
+		 * @return
+		 */
+		long getDataTimestamp() {
+			return dataTimestamp;
+		}
+
+		/**
+		 * Get the total number of objects, or -1 if no data has been indexed.
+		 * @return
+		 */
+		int getObjectCount() {
+			return nObjects;
+		}
+
+		/**
+		 * Get the number of objects of each type, or null if no data has been indexed.
+		 * @return
+		 */
+		Map<String, Long> getObjectTypeCounts() {
+			return objectTypeCounts;
+		}
+
+		boolean hasData() {
+			return dataSize >= 0;
+		}
+
+		boolean hasThumbnail() {
+			return thumbnailOffset >= 0;
+		}
+
+	}
+
+	private static class IndexFile {
+
+		private int version = VERSION;
+		private int packGeneration;
+		private Map<String, EntryRecord> entries;
+
+	}
+
+
+	/**
+	 * Read the index from the project directory, if it exists.
+	 * If the thumbnail pack contains a large amount of unused data, it is also compacted.
+	 */
+	synchronized void load() {
+		if (!Files.isRegularFile(pathIndex))
+			return;
+		try (var reader = Files.newBufferedReader(pathIndex, StandardCharsets.UTF_8)) {
+			var indexFile = GsonTools.getInstance().fromJson(reader, IndexFile.class);
+			if (indexFile == null || indexFile.entries == null || indexFile.version > VERSION) {
+				logger.warn("Unsupported project index {} - will be ignored", pathIndex);
+				return;
+			}
+			entries = new LinkedHashMap<>(indexFile.entries);
+			packGeneration = indexFile.packGeneration;
+			pathPack = getPackPath(packGeneration);
+			compactThumbnails();
+		} catch (IOException | JsonParseException e) {
+			logger.warn("Unable to read project index {} - will be ignored ({})", pathIndex, e.getLocalizedMessage());
+			logger.debug(e.getLocalizedMessage(), e);
+			entries = new LinkedHashMap<>();
+		}
+	}
+
+	/**
+	 * Get the record for an entry.
+	 * @param key the unique name of the entry
+	 * @return the record, or null if the entry has not been indexed
+	 */
+	synchronized EntryRecord get(String key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Update the data summary for an entry.
+	 * @param key the unique name of the entry
+	 * @param timestamp the timestamp of the data file
+	 * @param size the size of the data file
+	 * @param objectTypeCounts the number of objects of each type
+	 */
+	synchronized void updateData(String key, long timestamp, long size, Map<String, Long> objectTypeCounts) {
+		var record = entries.computeIfAbsent(key, k -> new EntryRecord());
+		record.dataTimestamp = timestamp;
+		record.dataSize = size;
+		record.objectTypeCounts = objectTypeCounts == null ? null : new LinkedHashMap<>(objectTypeCounts);
+		record.nObjects = objectTypeCounts == null ? 0 : (int)objectTypeCounts.values().stream().mapToLong(Long::longValue).sum();
+		requestWrite();
+	}
+
+	/**
+	 * Remove an entry from the index.
+	 * Its thumbnail remains in the pack until the pack is compacted.
+	 * @param key the unique name of the entry
+	 */
+	synchronized void remove(String key) {
+		if (entries.remove(key) != null)
+			requestWrite();
+	}
+
+	/**
+	 * Read the encoded thumbnail for an entry from the pack.
+	 * @param key the unique name of the entry
+	 * @return the encoded thumbnail, or null if the entry does not have a thumbnail in the pack
+	 */
+	byte[] readThumbnail(String key) {
+		ByteBuffer buffer;
+		int length;
+		synchronized (this) {
+			var record = entries.get(key);
+			if (record == null || !record.hasThumbnail())
+				return null;
+			long end = record.thumbnailOffset + record.thumbnailLength;
+			try {
+				if (packBuffer == null || packBuffer.capacity() < end) {
+					if (!Files.isRegularFile(pathPack) || Files.size(pathPack) < end) {
+						logger.debug("Thumbnail for {} not found in {}", key, pathPack);
+						return null;
+					}
+					try (var channel = FileChannel.open(pathPack, StandardOpenOption.READ)) {
+						packBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+					}
+				}
+			} catch (IOException e) {
+				logger.warn("Unable to map thumbnail pack {}: {}", pathPack, e.getLocalizedMessage());
+				return null;
+			}
+			buffer = packBuffer.duplicate();
+			buffer.position((int)record.thumbnailOffset);
+			length = record.thumbnailLength;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Append an encoded thumbnail to the pack, replacing any existing thumbnail for the entry.
+	 * @param key the unique name of the entry
+	 * @param bytes the encoded thumbnail
+	 * @throws IOException
+	 */
+	synchronized void writeThumbnail(String key, byte[] bytes) throws IOException {
+		Files.createDirectories(pathPack.getParent());
+		long offset;
+		try (var channel = FileChannel.open(pathPack, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			offset = channel.size();
+			if (offset + bytes.length > Integer.MAX_VALUE) {
+				// Don't allow the pack to grow beyond what we can map
+				logger.debug("Thumbnail pack is full - thumbnail for {} will not be indexed", key);
+				removeThumbnail(key);
+				return;
+			}
+			var buffer = ByteBuffer.wrap(bytes);
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+		var record = entries.computeIfAbsent(key, k -> new EntryRecord());
+		record.thumbnailOffset = offset;
+		record.thumbnailLength = bytes.length;
+		requestWrite();
+	}
+
+	/**
+	 * Remove the thumbnail for an entry from the index.
+	 * @param key the unique name of the entry
+	 */
+	synchronized void removeThumbnail(String key) {
+		var record = entries.get(key);
+		if (record != null && record.hasThumbnail()) {
+			record.thumbnailOffset = -1L;
+			record.thumbnailLength = 0;
+			requestWrite();
+		}
+	}
+
+	/**
+	 * Write the index immediately, if it has changed.
+	 * @throws IOException
+	 */
+	synchronized void flush() throws IOException {
+		if (!writePending)
+			return;
+		writePending = false;
+		writeIndex();
+	}
+
+	/**
+	 * Request that the index is written in the background.
+	 * Multiple requests are merged, so that the index is written at most once for a sequence of changes.
+	 */
+	private void requestWrite() {
+		if (writePending)
+			return;
+		writePending = true;
+		pool.execute(() -> {
+			try {
+				flush();
+			} catch (IOException e) {
+				logger.warn("Unable to write project index {}: {}", pathIndex, e.getLocalizedMessage());
+				logger.debug(e.getLocalizedMessage(), e);
+			}
+		});
+	}
+
+	private void writeIndex() throws IOException {
+		var indexFile = new IndexFile();
+		indexFile.packGeneration = packGeneration;
+		indexFile.entries = entries;
+		Files.createDirectories(pathIndex.getParent());
+		var pathTemp = pathIndex.resolveSibling(pathIndex.getFileName() + ".tmp");
+		try (var writer = Files.newBufferedWriter(pathTemp, StandardCharsets.UTF_8)) {
+			GsonTools.getInstance().toJson(indexFile, writer);
+		}
+		try {
+			Files.move(pathTemp, pathIndex, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(pathTemp, pathIndex, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Rewrite the thumbnail pack to exclude thumbnails that are no longer referenced.
+	 * This should only be called before the pack is mapped, since a mapped file can't be deleted on all platforms.
+	 * <p>
+	 * The compacted pack is written to a new file, and the previous pack is only deleted after the index 
+	 * has been written with the new offsets.
+	 */
+	private void compactThumbnails() throws IOException {
+		if (packBuffer != null || !Files.isRegularFile(pathPack))
+			return;
+		long packSize = Files.size(pathPack);
+		long used = entries.values().stream().filter(EntryRecord::hasThumbnail).mapToLong(r -> r.thumbnailLength).sum();
+		if (packSize - used < COMPACT_THRESHOLD || used * 2 > packSize)
+			return;
+		logger.debug("Compacting thumbnail pack {} ({} of {} bytes used)", pathPack, used, packSize);
+		int newGeneration = packGeneration + 1;
+		var pathNew = getPackPath(newGeneration);
+		// Only update the records once the new pack is complete
+		Map<EntryRecord, Long> newOffsets = new LinkedHashMap<>();
+		try (var input = FileChannel.open(pathPack, StandardOpenOption.READ);
+				var output = FileChannel.open(pathNew, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long offset = 0;
+			for (var record : entries.values()) {
+				if (!record.hasThumbnail())
+					continue;
+				if (record.thumbnailOffset + record.thumbnailLength > packSize) {
+					newOffsets.put(record, -1L);
+					continue;
+				}
+				long count = 0;
+				while (count < record.thumbnailLength)
+					count += input.transferTo(record.thumbnailOffset + count, record.thumbnailLength - count, output);
+				newOffsets.put(record, offset);
+				offset += record.thumbnailLength;
+			}
+		}
+		var pathOld = pathPack;
+		for (var entry : newOffsets.entrySet()) {
+			var record = entry.getKey();
+			record.thumbnailOffset = entry.getValue();
+			if (record.thumbnailOffset < 0)
+				record.thumbnailLength = 0;
+		}
+		packGeneration = newGeneration;
+		pathPack = pathNew;
+		writePending = true;
+		flush();
+		// The index now references the new pack, so the old one isn't needed
+		Files.deleteIfExists(pathOld);
+	}
+
+}
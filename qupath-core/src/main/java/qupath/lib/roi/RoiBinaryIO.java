@@ -0,0 +1,194 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.roi;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+
+import qupath.lib.geom.Point2;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Compact binary encoding of {@link ROI ROIs}, without relying on Java serialization.
+ * <p>
+ * Rectangles, ellipses, lines, points, polygons and polylines are written using their defining coordinates
+ * (with vertices stored as floats, as they are in memory).
+ * All other ROIs are written as Well-Known Binary, and read back as a geometry-based ROI.
+ * <p>
+ * ROIs are written to a {@link DataOutput}, but read from a {@link ByteBuffer} so that decoding can be
+ * performed efficiently from a decompressed block of data.
+ * The byte order of the buffer is expected to be {@link java.nio.ByteOrder#BIG_ENDIAN}, matching {@link DataOutput}.
+ *
+ * @since v0.5.0
+ */
+public final class RoiBinaryIO {
+
+	private static final byte TYPE_NULL = 0;
+	private static final byte TYPE_RECTANGLE = 1;
+	private static final byte TYPE_ELLIPSE = 2;
+	private static final byte TYPE_LINE = 3;
+	private static final byte TYPE_POINTS = 4;
+	private static final byte TYPE_POLYGON = 5;
+	private static final byte TYPE_POLYLINE = 6;
+	private static final byte TYPE_WKB = 7;
+
+	private RoiBinaryIO() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Write a ROI to an output.
+	 * @param out the output
+	 * @param roi the ROI to write; may be null
+	 * @throws IOException
+	 * @see #readROI(ByteBuffer)
+	 */
+	public static void writeROI(DataOutput out, ROI roi) throws IOException {
+		if (roi == null) {
+			out.writeByte(TYPE_NULL);
+			return;
+		}
+		if (roi instanceof RectangleROI || roi instanceof EllipseROI) {
+			out.writeByte(roi instanceof RectangleROI ? TYPE_RECTANGLE : TYPE_ELLIPSE);
+			writePlane(out, roi);
+			out.writeDouble(roi.getBoundsX());
+			out.writeDouble(roi.getBoundsY());
+			out.writeDouble(roi.getBoundsWidth());
+			out.writeDouble(roi.getBoundsHeight());
+		} else if (roi instanceof LineROI line) {
+			out.writeByte(TYPE_LINE);
+			writePlane(out, roi);
+			out.writeDouble(line.getX1());
+			out.writeDouble(line.getY1());
+			out.writeDouble(line.getX2());
+			out.writeDouble(line.getY2());
+		} else if (roi instanceof PointsROI) {
+			out.writeByte(TYPE_POINTS);
+			writePlane(out, roi);
+			var points = roi.getAllPoints();
+			out.writeInt(points.size());
+			for (var p : points)
+				out.writeFloat((float)p.getX());
+			for (var p : points)
+				out.writeFloat((float)p.getY());
+		} else if (roi instanceof PolygonROI polygon) {
+			out.writeByte(TYPE_POLYGON);
+			writePlane(out, roi);
+			writeVertices(out, polygon.getVertices());
+		} else if (roi instanceof PolylineROI polyline) {
+			out.writeByte(TYPE_POLYLINE);
+			writePlane(out, roi);
+			writeVertices(out, polyline.getVertices());
+		} else {
+			out.writeByte(TYPE_WKB);
+			writePlane(out, roi);
+			byte[] wkb = new WKBWriter(2).write(roi.getGeometry());
+			out.writeInt(wkb.length);
+			out.write(wkb);
+		}
+	}
+
+	/**
+	 * Read a ROI from a buffer, starting at the current position.
+	 * The buffer position is advanced to the end of the ROI.
+	 * @param buffer the buffer containing the ROI
+	 * @return the ROI, or null if a null ROI was written
+	 * @throws IOException if the ROI could not be decoded
+	 * @see #writeROI(DataOutput, ROI)
+	 */
+	public static ROI readROI(ByteBuffer buffer) throws IOException {
+		byte type = buffer.get();
+		if (type == TYPE_NULL)
+			return null;
+		var plane = readPlane(buffer);
+		switch (type) {
+		case TYPE_RECTANGLE:
+			return new RectangleROI(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), plane);
+		case TYPE_ELLIPSE:
+			return new EllipseROI(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), plane);
+		case TYPE_LINE:
+			return new LineROI(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), plane);
+		case TYPE_POINTS:
+			int n = buffer.getInt();
+			float[] x = readFloats(buffer, n);
+			float[] y = readFloats(buffer, n);
+			List<Point2> points = new ArrayList<>(n);
+			for (int i = 0; i < n; i++)
+				points.add(new Point2(x[i], y[i]));
+			return new PointsROI(points, plane);
+		case TYPE_POLYGON:
+			n = buffer.getInt();
+			return new PolygonROI(readFloats(buffer, n), readFloats(buffer, n), plane, false);
+		case TYPE_POLYLINE:
+			n = buffer.getInt();
+			return new PolylineROI(readFloats(buffer, n), readFloats(buffer, n), plane);
+		case TYPE_WKB:
+			byte[] wkb = new byte[buffer.getInt()];
+			buffer.get(wkb);
+			try {
+				return new GeometryROI(new WKBReader().read(wkb), plane);
+			} catch (ParseException e) {
+				throw new IOException("Unable to parse ROI geometry", e);
+			}
+		default:
+			throw new IOException("Unknown ROI type " + type);
+		}
+	}
+
+	private static void writePlane(DataOutput out, ROI roi) throws IOException {
+		out.writeInt(roi.getC());
+		out.writeInt(roi.getZ());
+		out.writeInt(roi.getT());
+	}
+
+	private static ImagePlane readPlane(ByteBuffer buffer) {
+		int c = buffer.getInt();
+		int z = buffer.getInt();
+		int t = buffer.getInt();
+		return ImagePlane.getPlaneWithChannel(c, z, t);
+	}
+
+	private static void writeVertices(DataOutput out, Vertices vertices) throws IOException {
+		int n = vertices.size();
+		out.writeInt(n);
+		for (int i = 0; i < n; i++)
+			out.writeFloat(vertices.getX(i));
+		for (int i = 0; i < n; i++)
+			out.writeFloat(vertices.getY(i));
+	}
+
+	private static float[] readFloats(ByteBuffer buffer, int n) {
+		float[] values = new float[n];
+		buffer.asFloatBuffer().get(values);
+		buffer.position(buffer.position() + n * Float.BYTES);
+		return values;
+	}
+
+}
@@ -0,0 +1,228 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestCellGraph {
+
+	@Test
+	public void test_radiusGraph() {
+		var pathObjects = createDetections(new Random(100L), 5000, 500);
+		// Put some objects on another plane
+		for (int i = 0; i < 100; i++) {
+			var roi = ROIs.createEllipseROI(i * 5, 0, 2, 2, ImagePlane.getPlane(1, 0));
+			pathObjects.add(PathObjects.createDetectionObject(roi));
+		}
+		double radius = 10;
+		var graph = CellGraph.createRadiusGraph(pathObjects, radius, 1, 1, true);
+		assertEquals(pathObjects.size(), graph.nNodes());
+		assertTrue(graph.hasWeights());
+
+		long nEntries = 0;
+		for (int i = 0; i < pathObjects.size(); i++) {
+			var roi = pathObjects.get(i).getROI();
+			Set<Integer> expected = new HashSet<>();
+			for (int j = 0; j < pathObjects.size(); j++) {
+				var roi2 = pathObjects.get(j).getROI();
+				if (i != j && roi.getZ() == roi2.getZ() &&
+						Math.hypot(roi.getCentroidX() - roi2.getCentroidX(), roi.getCentroidY() - roi2.getCentroidY()) <= radius)
+					expected.add(j);
+			}
+			Set<Integer> actual = new HashSet<>();
+			for (int k = 0; k < graph.degree(i); k++) {
+				actual.add(graph.getNeighbor(i, k));
+				// Neighbors should be sorted by distance
+				if (k > 0)
+					assertTrue(graph.getWeight(i, k-1) <= graph.getWeight(i, k));
+			}
+			assertEquals(expected, actual);
+			nEntries += expected.size();
+		}
+		assertEquals(nEntries, graph.nEdges() * 2L);
+		assertEquals(pathObjects.size() - 1, graph.indexOf(pathObjects.get(pathObjects.size() - 1)));
+	}
+
+	@Test
+	public void test_fromEdges() {
+		var pathObjects = createDetections(new Random(1L), 5, 100);
+		// Duplicate edges should retain the smallest weight, and self-connections should be ignored
+		var graph = CellGraph.fromEdges(pathObjects,
+				new int[] {0, 1, 0, 2, 3, 4},
+				new int[] {1, 0, 2, 2, 1, 4},
+				new float[] {5, 3, -2, 1, -7, 1});
+		assertEquals(3, graph.nEdges());
+		assertArrayEquals(new int[] {2, 1}, graph.getNeighbors(0));
+		assertEquals(-2f, graph.getWeight(0, 0));
+		assertEquals(3f, graph.getWeight(0, 1));
+		assertArrayEquals(new int[] {3, 0}, graph.getNeighbors(1));
+		assertEquals(0, graph.degree(4));
+
+		var graphUnweighted = CellGraph.fromEdges(pathObjects, new int[] {3, 1, 1}, new int[] {1, 0, 3}, null);
+		assertArrayEquals(new int[] {0, 3}, graphUnweighted.getNeighbors(1));
+		assertTrue(Float.isNaN(graphUnweighted.getWeight(1, 0)));
+
+		assertThrows(IllegalArgumentException.class, () -> CellGraph.fromEdges(pathObjects, new int[] {0}, new int[] {5}, null));
+		assertThrows(IllegalArgumentException.class, () -> CellGraph.fromEdges(pathObjects, new int[] {0}, new int[] {1, 2}, null));
+		assertThrows(IndexOutOfBoundsException.class, () -> graph.getNeighbor(4, 0));
+	}
+
+	@Test
+	public void test_components() {
+		var pathObjects = createDetections(new Random(2L), 10_000, 1000);
+		var graph = CellGraph.createRadiusGraph(pathObjects, 8, 1, 1, true);
+		int[] labels = graph.getComponentLabels();
+
+		// Compare with breadth-first search
+		int n = graph.nNodes();
+		int[] expected = new int[n];
+		Arrays.fill(expected, -1);
+		int nLabels = 0;
+		for (int i = 0; i < n; i++) {
+			if (expected[i] >= 0)
+				continue;
+			var queue = new ArrayDeque<Integer>();
+			queue.add(i);
+			expected[i] = nLabels;
+			while (!queue.isEmpty()) {
+				for (int neighbor : graph.getNeighbors(queue.poll())) {
+					if (expected[neighbor] < 0) {
+						expected[neighbor] = nLabels;
+						queue.add(neighbor);
+					}
+				}
+			}
+			nLabels++;
+		}
+		assertArrayEquals(expected, labels);
+		var components = graph.getConnectedComponents();
+		assertEquals(nLabels, components.size());
+		assertEquals(n, components.stream().mapToInt(c -> c.size()).sum());
+
+		// Removing edges can only split components
+		var filtered = graph.filterEdges((i, j, distance) -> distance < 4);
+		assertTrue(filtered.nEdges() < graph.nEdges());
+		assertTrue(filtered.getConnectedComponents().size() > nLabels);
+		for (int i = 0; i < n; i++) {
+			for (int k = 0; k < filtered.degree(i); k++)
+				assertTrue(filtered.getWeight(i, k) < 4);
+		}
+	}
+
+	@Test
+	public void test_smooth() {
+		var pathObjects = createDetections(new Random(3L), 2000, 500);
+		var graph = CellGraph.createRadiusGraph(pathObjects, 20, 1, 1, true);
+		int n = graph.nNodes();
+		double[][] values = new double[2][n];
+		for (int i = 0; i < n; i++) {
+			values[0][i] = 5;
+			values[1][i] = i % 10 == 0 ? Double.NaN : pathObjects.get(i).getROI().getCentroidX();
+		}
+		double[][] smoothed = graph.smooth(values, d -> Math.exp(-d * d / 100));
+		for (int i = 0; i < n; i++) {
+			assertEquals(5, smoothed[0][i], 1e-9);
+			if (Double.isNaN(values[1][i])) {
+				assertTrue(Double.isNaN(smoothed[1][i]));
+				continue;
+			}
+			double sum = values[1][i];
+			double denominator = 1;
+			for (int k = 0; k < graph.degree(i); k++) {
+				double val = values[1][graph.getNeighbor(i, k)];
+				if (Double.isNaN(val))
+					continue;
+				double d = graph.getWeight(i, k);
+				sum += val * Math.exp(-d * d / 100);
+				denominator += Math.exp(-d * d / 100);
+			}
+			assertEquals(sum / denominator, smoothed[1][i], 1e-9);
+		}
+		assertThrows(IllegalArgumentException.class, () -> graph.smooth(new double[][] {new double[n-1]}, d -> 1));
+	}
+
+	@Test
+	public void test_writeBinary() throws IOException {
+		var pathObjects = createDetections(new Random(4L), 4, 100);
+		var graph = CellGraph.fromEdges(pathObjects, new int[] {0, 1}, new int[] {1, 2}, new float[] {1.5f, 2.5f});
+		var stream = new ByteArrayOutputStream();
+		graph.writeBinary(stream);
+		var buffer = ByteBuffer.wrap(stream.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+		byte[] magic = new byte[8];
+		buffer.get(magic);
+		assertEquals("QPGRAPH\0", new String(magic));
+		assertEquals(1, buffer.getInt());
+		assertEquals(4, buffer.getInt());
+		assertEquals(4, buffer.getInt());
+		assertEquals(1, buffer.getInt());
+		for (var pathObject : pathObjects) {
+			assertEquals(pathObject.getID().getMostSignificantBits(), buffer.getLong());
+			assertEquals(pathObject.getID().getLeastSignificantBits(), buffer.getLong());
+		}
+		int[] offsets = new int[5];
+		for (int i = 0; i < offsets.length; i++)
+			offsets[i] = buffer.getInt();
+		assertArrayEquals(new int[] {0, 1, 3, 4, 4}, offsets);
+		int[] neighbors = new int[4];
+		for (int i = 0; i < neighbors.length; i++)
+			neighbors[i] = buffer.getInt();
+		assertArrayEquals(new int[] {1, 0, 2, 1}, neighbors);
+		float[] weights = new float[4];
+		for (int i = 0; i < weights.length; i++)
+			weights[i] = buffer.getFloat();
+		assertArrayEquals(new float[] {1.5f, 1.5f, 2.5f, 2.5f}, weights);
+		assertEquals(0, buffer.remaining());
+	}
+
+	private static List<PathObject> createDetections(Random rand, int n, double size) {
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			var roi = ROIs.createEllipseROI(rand.nextDouble() * size, rand.nextDouble() * size, 4, 4, ImagePlane.getDefaultPlane());
+			pathObjects.add(PathObjects.createDetectionObject(roi));
+		}
+		return pathObjects;
+	}
+
+}
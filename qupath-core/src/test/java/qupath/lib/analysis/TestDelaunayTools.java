@@ -0,0 +1,155 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestDelaunayTools {
+
+	@Test
+	public void test_tiledNeighbors() {
+		var pathObjects = createDetections(new Random(100L), 5000, 1000);
+
+		var subdivision = DelaunayTools.newBuilder(pathObjects).build();
+		// Use an overlap that is much larger than the distance between neighbors
+		var subdivisionTiled = DelaunayTools.newBuilder(pathObjects).tiled(200, 100).build();
+
+		var neighbors = subdivision.getAllNeighbors();
+		var neighborsTiled = subdivisionTiled.getAllNeighbors();
+		assertEquals(pathObjects.size(), neighborsTiled.size());
+
+		// Allow for differences at the outer boundary, where neighbors can be very far apart
+		int nDifferent = 0;
+		for (var pathObject : pathObjects) {
+			var list = neighbors.get(pathObject);
+			var listTiled = subdivisionTiled.getNeighbors(pathObject);
+			if (!new HashSet<>(list).equals(new HashSet<>(listTiled)))
+				nDifferent++;
+			// Neighbors should be symmetric
+			for (var neighbor : listTiled)
+				assertTrue(subdivisionTiled.getNeighbors(neighbor).contains(pathObject));
+		}
+		assertTrue(nDifferent < pathObjects.size() / 100);
+
+		// Neighbors should be sorted by distance
+		for (var entry : neighborsTiled.entrySet()) {
+			var pathObject = entry.getKey();
+			var list = entry.getValue();
+			for (int i = 1; i < list.size(); i++)
+				assertTrue(distance(pathObject, list.get(i-1)) <= distance(pathObject, list.get(i)) + 0.1);
+			if (!list.isEmpty())
+				assertEquals(list.get(0), subdivisionTiled.getNearestNeighbor(pathObject));
+		}
+	}
+
+	@Test
+	public void test_tiledClusters() {
+		var pathObjects = createDetections(new Random(1L), 5000, 1000);
+		var subdivision = DelaunayTools.newBuilder(pathObjects).build();
+		var subdivisionTiled = DelaunayTools.newBuilder(pathObjects).tiled(250, 100).build();
+
+		var predicate = DelaunayTools.centroidDistancePredicate(15, true)
+				.and(DelaunayTools.sameClassificationPredicate());
+		var clusters = subdivision.getClusters(predicate);
+		var clustersTiled = subdivisionTiled.getClusters(predicate);
+		assertEquals(clusters.size(), clustersTiled.size());
+		assertEquals(pathObjects.size(), clustersTiled.stream().mapToInt(c -> c.size()).sum());
+
+		// Without a predicate, everything should be connected
+		assertEquals(1, subdivisionTiled.getClusters(null).size());
+	}
+
+	@Test
+	public void test_clusterPredicateThread() {
+		var pathObjects = createDetections(new Random(3L), 5000, 1000);
+		var subdivision = DelaunayTools.newBuilder(pathObjects).build();
+
+		// Predicates don't need to be thread-safe, so should only be called from the current thread
+		var thread = Thread.currentThread();
+		var pairs = new HashSet<List<PathObject>>();
+		var clusters = subdivision.getClusters((p1, p2) -> {
+			assertEquals(thread, Thread.currentThread());
+			assertTrue(pairs.add(List.of(p1, p2)));
+			return p1.getPathClass() == p2.getPathClass();
+		});
+		int nEdges = pathObjects.stream().mapToInt(p -> subdivision.getNeighbors(p).size()).sum() / 2;
+		assertEquals(nEdges, pairs.size());
+		assertEquals(pathObjects.size(), clusters.stream().mapToInt(c -> c.size()).sum());
+	}
+
+	@Test
+	public void test_tiledVoronoi() {
+		var pathObjects = createDetections(new Random(2L), 2000, 500);
+		var subdivision = DelaunayTools.newBuilder(pathObjects).build();
+		var subdivisionTiled = DelaunayTools.newBuilder(pathObjects).tiled(100, 50).build();
+
+		var clip = ROIs.createRectangleROI(0, 0, 500, 500, ImagePlane.getDefaultPlane()).getGeometry();
+		var faces = subdivision.getVoronoiROIs(clip);
+		var facesTiled = subdivisionTiled.getVoronoiROIs(clip);
+		assertEquals(faces.size(), facesTiled.size());
+		for (var pathObject : pathObjects) {
+			assertEquals(faces.get(pathObject).getArea(), facesTiled.get(pathObject).getArea(), 1e-3);
+		}
+	}
+
+	@Test
+	public void test_invalidTiles() {
+		var builder = DelaunayTools.newBuilder(new ArrayList<>());
+		assertThrows(IllegalArgumentException.class, () -> builder.tiled(0, 10));
+		assertThrows(IllegalArgumentException.class, () -> builder.tiled(100, -1));
+		assertThrows(IllegalArgumentException.class, () -> builder.tiled(Double.NaN, 10));
+	}
+
+	private static double distance(PathObject p1, PathObject p2) {
+		return Math.hypot(p1.getROI().getCentroidX() - p2.getROI().getCentroidX(), p1.getROI().getCentroidY() - p2.getROI().getCentroidY());
+	}
+
+	private static List<PathObject> createDetections(Random rand, int n, double size) {
+		var pathClasses = new PathClass[] {PathClass.fromString("Tumor"), PathClass.fromString("Stroma")};
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			// Avoid integer coordinates, since many points on a regular grid can have more than one valid triangulation
+			double x = rand.nextDouble() * size;
+			double y = rand.nextDouble() * size;
+			var roi = ROIs.createRectangleROI(x - 2, y - 2, 4, 4, ImagePlane.getDefaultPlane());
+			pathObjects.add(PathObjects.createDetectionObject(roi, pathClasses[rand.nextInt(pathClasses.length)]));
+		}
+		return pathObjects;
+	}
+
+}
@@ -0,0 +1,159 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class TestKdTree2D {
+
+	@Test
+	public void test_emptyTree() {
+		var tree = KdTree2D.build(new double[0], new double[0]);
+		assertEquals(0, tree.size());
+		assertEquals(-1, tree.nearest(1, 2));
+		assertEquals(Double.POSITIVE_INFINITY, tree.nearestDistance(1, 2));
+		assertEquals(0, tree.countWithinRadius(1, 2, 100));
+		assertEquals(0, tree.nearest(1, 2, 5, new int[5], null));
+		assertArrayEquals(new int[2], tree.countWithinRadii(1, 2, new double[] {1, 2}, null));
+		assertThrows(IllegalArgumentException.class, () -> KdTree2D.build(new double[2], new double[3]));
+		assertThrows(IllegalArgumentException.class, () -> KdTree2D.build(new double[1], new double[1], new int[] {-1}));
+	}
+
+	@Test
+	public void test_queries() {
+		var rand = new Random(100L);
+		int n = 20_000;
+		int nLabels = 70;
+		double[] x = new double[n];
+		double[] y = new double[n];
+		int[] labels = new int[n];
+		for (int i = 0; i < n; i++) {
+			// Include some duplicate points
+			if (i > 0 && i % 100 == 0) {
+				x[i] = x[i-1];
+				y[i] = y[i-1];
+			} else {
+				x[i] = rand.nextDouble() * 1000;
+				y[i] = rand.nextDouble() * 500;
+			}
+			// Make some labels much more common than others
+			labels[i] = (int)Math.min(nLabels - 1, Math.abs(rand.nextGaussian() * 10));
+		}
+		// Ensure we have some rare labels that share a bit in the mask
+		for (int label = 60; label < nLabels; label++)
+			labels[rand.nextInt(n)] = label;
+		var tree = KdTree2D.build(x, y, labels);
+		assertEquals(n, tree.size());
+		assertEquals(nLabels, tree.nLabels());
+
+		int k = 10;
+		int[] indices = new int[k];
+		double[] distances = new double[k];
+		for (int q = 0; q < 200; q++) {
+			double qx = rand.nextDouble() * 1200 - 100;
+			double qy = rand.nextDouble() * 700 - 100;
+			double[] expected = new double[n];
+			for (int i = 0; i < n; i++)
+				expected[i] = Math.hypot(x[i] - qx, y[i] - qy);
+
+			// Nearest
+			int nearest = tree.nearest(qx, qy);
+			double[] sorted = expected.clone();
+			Arrays.sort(sorted);
+			assertEquals(sorted[0], expected[nearest], 1e-9);
+			assertEquals(sorted[0], tree.nearestDistance(qx, qy), 1e-9);
+
+			// k nearest
+			assertEquals(k, tree.nearest(qx, qy, k, indices, distances));
+			for (int i = 0; i < k; i++) {
+				assertEquals(sorted[i], distances[i], 1e-9);
+				assertEquals(sorted[i], expected[indices[i]], 1e-9);
+			}
+
+			// Radius counts
+			double radius = rand.nextDouble() * 50;
+			int[] expectedCounts = new int[nLabels];
+			int expectedCount = 0;
+			double[] expectedByLabel = new double[nLabels];
+			Arrays.fill(expectedByLabel, Double.POSITIVE_INFINITY);
+			for (int i = 0; i < n; i++) {
+				if (expected[i] <= radius) {
+					expectedCount++;
+					expectedCounts[labels[i]]++;
+				}
+				expectedByLabel[labels[i]] = Math.min(expectedByLabel[labels[i]], expected[i]);
+			}
+			assertEquals(expectedCount, tree.countWithinRadius(qx, qy, radius));
+			var within = new ArrayList<Integer>();
+			tree.forEachWithinRadius(qx, qy, radius, within::add);
+			assertEquals(expectedCount, within.size());
+			for (int ind : within)
+				assertTrue(expected[ind] <= radius);
+			assertArrayEquals(expectedCounts, tree.countWithinRadiusByLabel(qx, qy, radius, null));
+
+			// Nearest by label
+			assertArrayEquals(expectedByLabel, tree.nearestDistanceByLabel(qx, qy, null), 1e-9);
+
+			// Counts for several radii, including repeated radii
+			double[] radii = {0, radius / 2, radius, radius, radius * 2};
+			int[] expectedCumulative = new int[radii.length];
+			for (int j = 0; j < radii.length; j++) {
+				for (int i = 0; i < n; i++) {
+					if (expected[i] <= radii[j])
+						expectedCumulative[j]++;
+				}
+			}
+			assertArrayEquals(expectedCumulative, tree.countWithinRadii(qx, qy, radii, null));
+		}
+	}
+
+	@Test
+	public void test_largeTree() {
+		// Large enough to be built in parallel
+		var rand = new Random(1L);
+		int n = 500_000;
+		double[] x = new double[n];
+		double[] y = new double[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = rand.nextInt(10_000);
+			y[i] = rand.nextInt(10_000);
+		}
+		var tree = KdTree2D.build(x, y);
+		for (int i = 0; i < 1000; i++) {
+			int ind = rand.nextInt(n);
+			assertEquals(0, tree.nearestDistance(x[ind], y[ind]));
+		}
+		assertEquals(n, tree.countWithinRadius(5000, 5000, 10_000));
+		assertThrows(IllegalArgumentException.class, () -> tree.countWithinRadii(0, 0, new double[] {2, 1}, null));
+	}
+
+}
@@ -0,0 +1,223 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestSpatialStatisticsTools {
+
+	@Test
+	public void test_ripleysK() {
+		var rand = new Random(100L);
+		int n = 5_000;
+		double size = 1000;
+		double[] x = new double[n];
+		double[] y = new double[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = rand.nextDouble() * size;
+			y[i] = rand.nextDouble() * size;
+		}
+		// Radii don't need to be sorted
+		double[] radii = {20, 5, 10};
+		double area = size * size;
+		double[] k = SpatialStatisticsTools.ripleysK(x, y, area, radii);
+
+		// Compare with brute force
+		for (int j = 0; j < radii.length; j++) {
+			long count = 0;
+			double r2 = radii[j] * radii[j];
+			for (int i = 0; i < n; i++) {
+				for (int i2 = 0; i2 < n; i2++) {
+					double dx = x[i] - x[i2];
+					double dy = y[i] - y[i2];
+					if (i != i2 && dx*dx + dy*dy <= r2)
+						count++;
+				}
+			}
+			assertEquals(area * count / ((double)n * (n - 1)), k[j], 1e-6);
+		}
+
+		// For complete spatial randomness, L(r) should be close to r for small r
+		double[] l = SpatialStatisticsTools.ripleysL(k);
+		for (int j = 0; j < radii.length; j++)
+			assertEquals(radii[j], l[j], radii[j] * 0.1);
+
+		// Clustered points should give higher values
+		for (int i = 0; i < n; i++) {
+			x[i] = (i % 10) * 100 + rand.nextGaussian() * 5;
+			y[i] = (i / 500) * 100 + rand.nextGaussian() * 5;
+		}
+		double[] lClustered = SpatialStatisticsTools.ripleysL(SpatialStatisticsTools.ripleysK(x, y, area, radii));
+		for (int j = 0; j < radii.length; j++)
+			assertTrue(lClustered[j] > radii[j] * 2);
+
+		// Too few points
+		assertTrue(Double.isNaN(SpatialStatisticsTools.ripleysK(new double[1], new double[1], area, radii)[0]));
+	}
+
+	@Test
+	public void test_ripleysKBorderCorrection() {
+		// Complete spatial randomness in a square
+		var rand = new Random(200L);
+		int n = 5_000;
+		double size = 1000;
+		double[] x = new double[n];
+		double[] y = new double[n];
+		double[] boundaryDistances = new double[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = rand.nextDouble() * size;
+			y[i] = rand.nextDouble() * size;
+			boundaryDistances[i] = Math.min(Math.min(x[i], size - x[i]), Math.min(y[i], size - y[i]));
+		}
+		double[] radii = {150, 50, 100};
+		double area = size * size;
+		double[] k = SpatialStatisticsTools.ripleysK(x, y, area, radii);
+		double[] kBorder = SpatialStatisticsTools.ripleysK(x, y, boundaryDistances, area, radii);
+
+		// Compare with brute force, using only reference points far enough from the boundary
+		for (int j = 0; j < radii.length; j++) {
+			long count = 0;
+			long nReference = 0;
+			double r2 = radii[j] * radii[j];
+			for (int i = 0; i < n; i++) {
+				if (boundaryDistances[i] < radii[j])
+					continue;
+				nReference++;
+				for (int i2 = 0; i2 < n; i2++) {
+					double dx = x[i] - x[i2];
+					double dy = y[i] - y[i2];
+					if (i != i2 && dx*dx + dy*dy <= r2)
+						count++;
+				}
+			}
+			assertEquals(area * count / ((double)nReference * (n - 1)), kBorder[j], 1e-6);
+		}
+
+		// Without correction, K(r) is underestimated for large radii; with correction, it should be close to pi r^2
+		double[] l = SpatialStatisticsTools.ripleysL(k);
+		double[] lBorder = SpatialStatisticsTools.ripleysL(kBorder);
+		for (int j = 0; j < radii.length; j++) {
+			assertEquals(radii[j], lBorder[j], radii[j] * 0.02);
+			assertTrue(l[j] < radii[j]);
+			assertTrue(Math.abs(lBorder[j] - radii[j]) < Math.abs(l[j] - radii[j]));
+		}
+
+		// Radii larger than any boundary distance have no reference points
+		assertTrue(Double.isNaN(SpatialStatisticsTools.ripleysK(x, y, boundaryDistances, area, new double[] {size})[0]));
+	}
+
+	@Test
+	public void test_radiusCounts() {
+		var rand = new Random(1L);
+		var pathClasses = new PathClass[] {
+				PathClass.fromString("Tumor"),
+				PathClass.fromString("Stroma"),
+				PathClass.fromString("CD3: CD8"),
+				null
+		};
+		List<PathObject> detections = createDetections(rand, 20_000, pathClasses);
+
+		double radius = 25;
+		SpatialStatisticsTools.radiusCounts2D(detections, radius, 1, 1, "px", false);
+		SpatialStatisticsTools.radiusCounts2D(detections, radius, 1, 1, "px", true);
+
+		for (int q = 0; q < 100; q++) {
+			var detection = detections.get(rand.nextInt(detections.size()));
+			var roi = detection.getROI();
+			int total = 0;
+			int nTumor = 0;
+			int nCD3 = 0;
+			int nCD8 = 0;
+			for (var other : detections) {
+				if (other == detection)
+					continue;
+				var roi2 = other.getROI();
+				if (Math.hypot(roi.getCentroidX() - roi2.getCentroidX(), roi.getCentroidY() - roi2.getCentroidY()) > radius)
+					continue;
+				total++;
+				if (other.getPathClass() == pathClasses[0])
+					nTumor++;
+				else if (other.getPathClass() == pathClasses[2]) {
+					nCD3++;
+					nCD8++;
+				}
+			}
+			var ml = detection.getMeasurementList();
+			assertEquals(total, ml.get("Detections within 25 px"));
+			assertEquals(nTumor, ml.get("Detections Tumor within 25 px"));
+			assertEquals(nCD3, ml.get("Detections CD3: CD8 within 25 px"));
+			assertEquals(nCD3, ml.get("Detections CD3 within 25 px"));
+			assertEquals(nCD8, ml.get("Detections CD8 within 25 px"));
+		}
+	}
+
+	@Test
+	public void test_neighborClassFractions() {
+		var tumor = PathClass.fromString("Tumor");
+		var stroma = PathClass.fromString("Stroma");
+		List<PathObject> detections = new ArrayList<>();
+		// Three tumor cells on the left, two stroma cells on the right
+		for (int i = 0; i < 3; i++)
+			detections.add(PathObjects.createDetectionObject(ROIs.createEllipseROI(i * 10, 0, 5, 5, ImagePlane.getDefaultPlane()), tumor));
+		for (int i = 0; i < 2; i++)
+			detections.add(PathObjects.createDetectionObject(ROIs.createEllipseROI(100 + i * 10, 0, 5, 5, ImagePlane.getDefaultPlane()), stroma));
+		// A detection on another plane should be ignored
+		detections.add(PathObjects.createDetectionObject(ROIs.createEllipseROI(0, 0, 5, 5, ImagePlane.getPlane(1, 0)), stroma));
+
+		SpatialStatisticsTools.neighborClassFractions2D(detections, 2, 1, 1, false);
+		var ml = detections.get(0).getMeasurementList();
+		assertEquals(1.0, ml.get("Nearest 2 detections: Tumor fraction"));
+		assertEquals(0.0, ml.get("Nearest 2 detections: Stroma fraction"));
+
+		ml = detections.get(2).getMeasurementList();
+		assertEquals(0.5, ml.get("Nearest 2 detections: Tumor fraction"));
+		assertEquals(0.5, ml.get("Nearest 2 detections: Stroma fraction"));
+
+		// No other detections on the same plane
+		assertFalse(detections.get(5).getMeasurementList().containsKey("Nearest 2 detections: Tumor fraction"));
+	}
+
+	private static List<PathObject> createDetections(Random rand, int n, PathClass[] pathClasses) {
+		List<PathObject> detections = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			var roi = ROIs.createEllipseROI(rand.nextDouble() * 2000, rand.nextDouble() * 1000, 5, 5, ImagePlane.getDefaultPlane());
+			detections.add(PathObjects.createDetectionObject(roi, pathClasses[rand.nextInt(pathClasses.length)]));
+		}
+		return detections;
+	}
+
+}
@@ -0,0 +1,229 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.images.servers.ImageServerBuilder.ServerBuilder;
+import qupath.lib.regions.RegionRequest;
+
+@SuppressWarnings("javadoc")
+public class TestAbstractTileableImageServer {
+	
+	@Test
+	public void test_parallelMatchesSequential() throws IOException {
+		for (int tileType : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY}) {
+			var serverSequential = new SlowTileServer(tileType, 0, 1);
+			var serverParallel = new SlowTileServer(tileType, 0, 8);
+			var requests = List.of(
+					RegionRequest.createInstance(serverSequential.getPath(), 1.0, 0, 0, 512, 512),
+					RegionRequest.createInstance(serverSequential.getPath(), 1.0, 37, 91, 301, 203),
+					RegionRequest.createInstance(serverSequential.getPath(), 4.0, 0, 0, 1024, 1024),
+					RegionRequest.createInstance(serverSequential.getPath(), 2.0, 100, 50, 600, 400)
+					);
+			for (var request : requests) {
+				var imgSequential = serverSequential.readRegion(request);
+				var imgParallel = serverParallel.readRegion(request.updatePath(serverParallel.getPath()));
+				assertEquals(imgSequential.getWidth(), imgParallel.getWidth());
+				assertEquals(imgSequential.getHeight(), imgParallel.getHeight());
+				assertArrayEquals(getPixels(imgSequential), getPixels(imgParallel));
+				if (request.getDownsample() == 1.0)
+					assertArrayEquals(getPixels(createExpectedImage(imgSequential.getType(), request)), getPixels(imgParallel));
+			}
+			assertEquals(1, serverSequential.maxActive.get());
+			assertTrue(serverParallel.maxActive.get() <= 8);
+		}
+	}
+	
+	@Test
+	public void test_downsampledRead() throws IOException {
+		// Requesting a downsample of 2 requires resampling tiles from the full-resolution level
+		var server = new SlowTileServer(BufferedImage.TYPE_BYTE_GRAY, 0, 4);
+		var img = server.readRegion(RegionRequest.createInstance(server.getPath(), 2.0, 64, 32, 300, 200));
+		assertEquals(150, img.getWidth());
+		assertEquals(100, img.getHeight());
+		var raster = img.getRaster();
+		for (int y = 0; y < img.getHeight(); y++) {
+			for (int x = 0; x < img.getWidth(); x++) {
+				int x0 = 64 + x * 2;
+				int y0 = 32 + y * 2;
+				double mean = (getValue(x0, y0, 0) + getValue(x0+1, y0, 0) + getValue(x0, y0+1, 0) + getValue(x0+1, y0+1, 0)) / 4.0;
+				assertEquals(Math.round(mean), raster.getSample(x, y, 0));
+			}
+		}
+	}
+	
+	@Test
+	public void test_concurrencyLimit() throws IOException {
+		var server = new SlowTileServer(BufferedImage.TYPE_INT_RGB, 5, 3);
+		server.readRegion(RegionRequest.createInstance(server.getPath(), 1.0, 0, 0, 1024, 512));
+		assertEquals(128, server.readCount.get());
+		assertTrue(server.maxActive.get() <= 3);
+		assertTrue(server.maxActive.get() > 1);
+	}
+	
+	@Test
+	public void test_overlappingRequests() throws InterruptedException, ExecutionException, TimeoutException {
+		var server = new SlowTileServer(BufferedImage.TYPE_BYTE_GRAY, 1, 4);
+		var pool = Executors.newFixedThreadPool(8);
+		List<Future<BufferedImage>> futures = new ArrayList<>();
+		for (int i = 0; i < 16; i++) {
+			int offset = (i % 4) * 64;
+			futures.add(pool.submit(() -> server.readRegion(
+					RegionRequest.createInstance(server.getPath(), 1.0, offset, offset, 512, 512))));
+		}
+		for (var future : futures)
+			assertEquals(512, future.get(30, TimeUnit.SECONDS).getWidth());
+		pool.shutdown();
+	}
+	
+	private static int[] getPixels(BufferedImage img) {
+		return img.getRaster().getPixels(0, 0, img.getWidth(), img.getHeight(), (int[])null);
+	}
+	
+	private static int getValue(int x, int y, int band) {
+		return (x * 7 + y * 13 + band * 50) & 0xff;
+	}
+	
+	private static BufferedImage createExpectedImage(int type, RegionRequest request) {
+		var img = new BufferedImage(request.getWidth(), request.getHeight(), type);
+		fill(img, request.getX(), request.getY(), 1.0);
+		return img;
+	}
+	
+	private static void fill(BufferedImage img, int x, int y, double downsample) {
+		var raster = img.getRaster();
+		for (int yy = 0; yy < img.getHeight(); yy++) {
+			for (int xx = 0; xx < img.getWidth(); xx++) {
+				int fullX = (int)Math.round(x + xx * downsample);
+				int fullY = (int)Math.round(y + yy * downsample);
+				if (img.getType() == BufferedImage.TYPE_BYTE_GRAY)
+					raster.setSample(xx, yy, 0, getValue(fullX, fullY, 0));
+				else
+					img.setRGB(xx, yy, getValue(fullX, fullY, 0) << 16 | getValue(fullX, fullY, 1) << 8 | getValue(fullX, fullY, 2));
+			}
+		}
+	}
+	
+	
+	/**
+	 * Server that generates tiles with a known pattern, optionally after a delay.
+	 */
+	static class SlowTileServer extends AbstractTileableImageServer {
+		
+		static final int TILE_SIZE = 64;
+		
+		private final int tileType;
+		private final int delayMillis;
+		private final int maxParallel;
+		private final ImageServerMetadata metadata;
+		
+		private final AtomicInteger active = new AtomicInteger();
+		private final AtomicInteger maxActive = new AtomicInteger();
+		private final AtomicInteger readCount = new AtomicInteger();
+		
+		SlowTileServer(int tileType, int delayMillis, int maxParallel) {
+			this.tileType = tileType;
+			this.delayMillis = delayMillis;
+			this.maxParallel = maxParallel;
+			boolean isRGB = tileType != BufferedImage.TYPE_BYTE_GRAY;
+			this.metadata = new ImageServerMetadata.Builder()
+					.width(2048)
+					.height(2048)
+					.preferredTileSize(TILE_SIZE, TILE_SIZE)
+					.levelsFromDownsamples(1.0, 4.0)
+					.rgb(isRGB)
+					.pixelType(PixelType.UINT8)
+					.channels(isRGB ? ImageChannel.getDefaultRGBChannels() : ImageChannel.getDefaultChannelList(1))
+					.build();
+		}
+		
+		@Override
+		protected int getMaxParallelTileReads() {
+			return maxParallel;
+		}
+
+		@Override
+		protected BufferedImage readTile(TileRequest tileRequest) throws IOException {
+			int n = active.incrementAndGet();
+			maxActive.accumulateAndGet(n, Math::max);
+			readCount.incrementAndGet();
+			try {
+				if (delayMillis > 0)
+					Thread.sleep(delayMillis);
+				var img = new BufferedImage(tileRequest.getTileWidth(), tileRequest.getTileHeight(), tileType);
+				fill(img, tileRequest.getImageX(), tileRequest.getImageY(), tileRequest.getDownsample());
+				return img;
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			} finally {
+				active.decrementAndGet();
+			}
+		}
+
+		@Override
+		public Collection<URI> getURIs() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public String getServerType() {
+			return "Slow tile server";
+		}
+
+		@Override
+		public ImageServerMetadata getOriginalMetadata() {
+			return metadata;
+		}
+
+		@Override
+		protected ServerBuilder<BufferedImage> createServerBuilder() {
+			return null;
+		}
+
+		@Override
+		protected String createID() {
+			return UUID.randomUUID().toString();
+		}
+		
+	}
+
+}
@@ -0,0 +1,147 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+@SuppressWarnings("javadoc")
+public class TestTileResampler {
+	
+	private static final int SIZE = 24;
+	private static final int TILE_SIZE = 8;
+	
+	private static double getValue(int x, int y, int band) {
+		return (x * 3 + y * 5 + band * 11) % 64;
+	}
+	
+	private static WritableRaster createRaster(int dataType, int width, int height, int nBands) {
+		return Raster.createWritableRaster(new BandedSampleModel(dataType, width, height, nBands), null);
+	}
+	
+	private static void addTiles(TileResampler resampler, int dataType, int nBands) {
+		for (int y = 0; y < SIZE; y += TILE_SIZE) {
+			for (int x = 0; x < SIZE; x += TILE_SIZE) {
+				var tile = createRaster(dataType, TILE_SIZE, TILE_SIZE, nBands);
+				for (int b = 0; b < nBands; b++) {
+					for (int yy = 0; yy < TILE_SIZE; yy++) {
+						for (int xx = 0; xx < TILE_SIZE; xx++)
+							tile.setSample(xx, yy, b, getValue(x + xx, y + yy, b));
+					}
+				}
+				resampler.addTile(tile, x, y);
+			}
+		}
+	}
+	
+	@ParameterizedTest
+	@ValueSource(ints = {DataBuffer.TYPE_BYTE, DataBuffer.TYPE_USHORT, DataBuffer.TYPE_SHORT, DataBuffer.TYPE_INT, DataBuffer.TYPE_FLOAT, DataBuffer.TYPE_DOUBLE})
+	public void test_areaAveraging(int dataType) {
+		int nBands = 2;
+		int downsample = 3;
+		int outSize = SIZE / downsample;
+		var resampler = new TileResampler(createRaster(dataType, outSize, outSize, nBands), 0, 0, downsample, downsample, true);
+		addTiles(resampler, dataType, nBands);
+		var output = resampler.build();
+		boolean isInteger = dataType != DataBuffer.TYPE_FLOAT && dataType != DataBuffer.TYPE_DOUBLE;
+		for (int b = 0; b < nBands; b++) {
+			for (int y = 0; y < outSize; y++) {
+				for (int x = 0; x < outSize; x++) {
+					double sum = 0;
+					for (int yy = 0; yy < downsample; yy++) {
+						for (int xx = 0; xx < downsample; xx++)
+							sum += getValue(x * downsample + xx, y * downsample + yy, b);
+					}
+					double expected = sum / (downsample * downsample);
+					if (isInteger)
+						expected = Math.round(expected);
+					assertEquals(expected, output.getSampleDouble(x, y, b), 1e-4);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void test_areaAveragingNonIntegerScale() {
+		// Averaging a constant image should give the same constant, even with fractional overlaps & offsets
+		double scale = 2.5;
+		int outSize = (int)((SIZE - 1) / scale);
+		var resampler = new TileResampler(createRaster(DataBuffer.TYPE_FLOAT, outSize, outSize, 1), 1, 1, scale, scale, true);
+		for (int y = 0; y < SIZE; y += TILE_SIZE) {
+			for (int x = 0; x < SIZE; x += TILE_SIZE) {
+				var tile = createRaster(DataBuffer.TYPE_FLOAT, TILE_SIZE, TILE_SIZE, 1);
+				for (int i = 0; i < TILE_SIZE * TILE_SIZE; i++)
+					tile.setSample(i % TILE_SIZE, i / TILE_SIZE, 0, 7.5f);
+				resampler.addTile(tile, x, y);
+			}
+		}
+		var output = resampler.build();
+		for (int y = 0; y < outSize; y++) {
+			for (int x = 0; x < outSize; x++)
+				assertEquals(7.5, output.getSampleDouble(x, y, 0), 1e-5);
+		}
+	}
+	
+	@ParameterizedTest
+	@ValueSource(ints = {DataBuffer.TYPE_BYTE, DataBuffer.TYPE_USHORT, DataBuffer.TYPE_FLOAT, DataBuffer.TYPE_DOUBLE})
+	public void test_nearest(int dataType) {
+		int nBands = 3;
+		double scale = 2.5;
+		int outSize = (int)(SIZE / scale);
+		var resampler = new TileResampler(createRaster(dataType, outSize, outSize, nBands), 0, 0, scale, scale, false);
+		addTiles(resampler, dataType, nBands);
+		var output = resampler.build();
+		for (int b = 0; b < nBands; b++) {
+			for (int y = 0; y < outSize; y++) {
+				for (int x = 0; x < outSize; x++) {
+					int sx = (int)Math.floor((x + 0.5) * scale);
+					int sy = (int)Math.floor((y + 0.5) * scale);
+					assertEquals(getValue(sx, sy, b), output.getSampleDouble(x, y, b));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void test_tileOrder() {
+		var resampler = new TileResampler(createRaster(DataBuffer.TYPE_BYTE, 4, 4, 1), 0, 0, 2, 2, true);
+		resampler.addTile(createRaster(DataBuffer.TYPE_BYTE, 4, 4, 1), 0, 4);
+		resampler.addTile(createRaster(DataBuffer.TYPE_BYTE, 4, 4, 1), 4, 4);
+		assertThrows(IllegalArgumentException.class, () -> resampler.addTile(createRaster(DataBuffer.TYPE_BYTE, 4, 4, 1), 0, 0));
+	}
+	
+	@Test
+	public void test_upsamplingNotSupported() {
+		var raster = createRaster(DataBuffer.TYPE_BYTE, 10, 10, 1);
+		assertThrows(IllegalArgumentException.class, () -> new TileResampler(raster, 0, 0, 0.5, 1, true));
+	}
+
+}
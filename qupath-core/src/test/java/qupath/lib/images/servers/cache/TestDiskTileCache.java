@@ -0,0 +1,177 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import qupath.lib.regions.RegionRequest;
+
+@SuppressWarnings("javadoc")
+public class TestDiskTileCache {
+	
+	private static final long MB = 1024L * 1024L;
+	
+	@TempDir
+	Path tempDir;
+	
+	private static RegionRequest createRequest(String path, int x) {
+		return RegionRequest.createInstance(path, 1.0, x, 0, 64, 64);
+	}
+	
+	private static BufferedImage createImage(int type, long seed) {
+		var img = new BufferedImage(64, 64, type);
+		var raster = img.getRaster();
+		var rand = new Random(seed);
+		for (int y = 0; y < img.getHeight(); y++) {
+			for (int x = 0; x < img.getWidth(); x++) {
+				for (int b = 0; b < raster.getNumBands(); b++)
+					raster.setSample(x, y, b, rand.nextInt(255));
+			}
+		}
+		return img;
+	}
+	
+	private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+		assertNotNull(actual);
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		assertEquals(expected.getType(), actual.getType());
+		assertArrayEquals(
+				expected.getRaster().getPixels(0, 0, expected.getWidth(), expected.getHeight(), (double[])null),
+				actual.getRaster().getPixels(0, 0, actual.getWidth(), actual.getHeight(), (double[])null));
+	}
+
+	@Test
+	public void test_roundTrip() throws IOException {
+		try (var cache = new DiskTileCache(tempDir, 32 * MB)) {
+			int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY, BufferedImage.TYPE_3BYTE_BGR};
+			cache.registerServerPath("path");
+			for (int i = 0; i < types.length; i++) {
+				var request = createRequest("path", i * 64);
+				var img = createImage(types[i], i);
+				assertTrue(cache.put(request, img));
+				assertTrue(cache.containsKey(request));
+				assertSamePixels(img, cache.get(request));
+			}
+			assertEquals(types.length, cache.size());
+			assertTrue(cache.getSizeBytes() > 0);
+		}
+	}
+	
+	@Test
+	public void test_unregisteredServer() throws IOException {
+		try (var cache = new DiskTileCache(tempDir, 32 * MB)) {
+			var request = createRequest("path", 0);
+			assertFalse(cache.put(request, createImage(BufferedImage.TYPE_BYTE_GRAY, 0)));
+			assertNull(cache.get(request));
+			
+			cache.registerServerPath("path");
+			assertTrue(cache.put(request, createImage(BufferedImage.TYPE_BYTE_GRAY, 0)));
+			cache.removeServer("path");
+			assertFalse(cache.containsKey(request));
+			assertFalse(cache.isRegistered("path"));
+		}
+	}
+	
+	@Test
+	public void test_discardOldest() throws IOException {
+		try (var cache = new DiskTileCache(tempDir, 16 * MB)) {
+			cache.registerServerPath("path");
+			// Each tile is 64x64x4 bytes = 16 KB, so write enough to exceed the cache size
+			var img = createImage(BufferedImage.TYPE_INT_RGB, 0);
+			int n = 2048;
+			for (int i = 0; i < n; i++)
+				cache.put(createRequest("path", i * 64), img);
+			assertTrue(cache.getSizeBytes() <= cache.getMaxSizeBytes());
+			assertTrue(cache.size() < n);
+			assertFalse(cache.containsKey(createRequest("path", 0)));
+			assertTrue(cache.containsKey(createRequest("path", (n-1) * 64)));
+		}
+	}
+	
+	@Test
+	public void test_reuseSegments() throws IOException {
+		try (var cache = new DiskTileCache(tempDir, 32 * MB)) {
+			cache.registerServerPath("path");
+			// Each tile is 16 KB, and segments are 16 MB - so 1024 tiles fill a segment
+			var img = createImage(BufferedImage.TYPE_INT_RGB, 0);
+			var request = createRequest("path", 0);
+			assertTrue(cache.put(request, img));
+			// Store the same tile again in a newer segment
+			cache.removeServer("path");
+			cache.registerServerPath("path");
+			for (int i = 1; i <= 1100; i++)
+				cache.put(createRequest("path", i * 64), img);
+			assertTrue(cache.put(request, img));
+			long size = cache.getSizeBytes();
+			// Reusing the first segment should not remove the newer tile
+			for (int i = 1101; i <= 2100; i++)
+				cache.put(createRequest("path", i * 64), img);
+			assertEquals(size, cache.getSizeBytes());
+			assertFalse(cache.containsKey(createRequest("path", 64)));
+			assertSamePixels(img, cache.get(request));
+			try (var files = Files.list(cache.getDirectory())) {
+				assertEquals(2, files.count());
+			}
+		}
+	}
+
+	@Test
+	public void test_putAsync() throws IOException, InterruptedException {
+		try (var cache = new DiskTileCache(tempDir, 32 * MB)) {
+			cache.registerServerPath("path");
+			var img = createImage(BufferedImage.TYPE_BYTE_GRAY, 0);
+			var request = createRequest("path", 0);
+			cache.putAsync(request, img);
+			for (int i = 0; i < 100 && !cache.containsKey(request); i++)
+				Thread.sleep(50);
+			assertSamePixels(img, cache.get(request));
+		}
+	}
+
+	@Test
+	public void test_close() throws IOException {
+		var cache = new DiskTileCache(tempDir, 16 * MB);
+		var dir = cache.getDirectory();
+		cache.registerServerPath("path");
+		cache.put(createRequest("path", 0), createImage(BufferedImage.TYPE_BYTE_GRAY, 0));
+		cache.close();
+		assertFalse(Files.exists(dir));
+		assertThrows(IllegalArgumentException.class, () -> new DiskTileCache(tempDir, MB));
+	}
+
+}
@@ -0,0 +1,181 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.regions.RegionRequest;
+
+@SuppressWarnings("javadoc")
+public class TestTileCache {
+
+	private static RegionRequest createRequest(String path, int x) {
+		return RegionRequest.createInstance(path, 1.0, x, 0, 10, 10);
+	}
+
+	@Test
+	public void test_estimateSize() {
+		assertEquals(0, TileCache.estimateSize(null));
+		assertEquals(10 * 20 * 4, TileCache.estimateSize(new BufferedImage(10, 20, BufferedImage.TYPE_INT_RGB)));
+		assertEquals(10 * 20 * 2, TileCache.estimateSize(new BufferedImage(10, 20, BufferedImage.TYPE_USHORT_GRAY)));
+		assertEquals(10 * 20, TileCache.estimateSize(new BufferedImage(10, 20, BufferedImage.TYPE_BYTE_GRAY)));
+	}
+
+	@Test
+	public void test_putGetRemove() {
+		var cache = new TileCache<String>(s -> s.length(), 1000, 8);
+		var request = createRequest("path", 0);
+		assertNull(cache.put(request, "value"));
+		assertEquals("value", cache.get(request));
+		assertTrue(cache.containsKey(request));
+		assertEquals(5, cache.getSizeBytes());
+		assertEquals("value", cache.put(request, "value2"));
+		assertEquals(6, cache.getSizeBytes());
+		assertEquals(1, cache.size());
+		assertEquals("value2", cache.remove(request));
+		assertEquals(0, cache.getSizeBytes());
+		assertTrue(cache.isEmpty());
+		assertThrows(NullPointerException.class, () -> cache.put(request, null));
+	}
+
+	@Test
+	public void test_eviction() {
+		// Use a single segment so that eviction is strictly LRU
+		var cache = new TileCache<String>(s -> s.length(), 100, 1);
+		var requests = new ArrayList<RegionRequest>();
+		for (int i = 0; i < 10; i++) {
+			var request = createRequest("path", i);
+			requests.add(request);
+			cache.put(request, "0123456789");
+		}
+		assertEquals(10, cache.size());
+		assertEquals(100, cache.getSizeBytes());
+
+		// Access the first tile, so that the second becomes the eldest
+		assertNotNull(cache.get(requests.get(0)));
+		cache.put(createRequest("path", 100), "0123456789");
+		assertEquals(100, cache.getSizeBytes());
+		assertTrue(cache.containsKey(requests.get(0)));
+		assertFalse(cache.containsKey(requests.get(1)));
+
+		var stats = cache.getStatistics("path");
+		assertEquals(1, stats.getEvictionCount());
+		assertEquals(1, stats.getHitCount());
+		assertEquals(10, stats.getTileCount());
+		assertEquals(100, stats.getBytes());
+	}
+
+	@Test
+	public void test_tooLarge() {
+		var cache = new TileCache<String>(s -> s.length(), 10, 16);
+		var request = createRequest("path", 0);
+		cache.put(request, "This is too long to cache");
+		assertFalse(cache.containsKey(request));
+		assertEquals(0, cache.getSizeBytes());
+
+		// A value that fills the whole cache is allowed, regardless of the number of segments
+		cache.put(request, "0123456789");
+		assertTrue(cache.containsKey(request));
+	}
+
+	@Test
+	public void test_statisticsPerServer() {
+		var cache = new TileCache<String>(s -> s.length(), 1000, 4);
+		var request1 = createRequest("server1", 0);
+		var request2 = createRequest("server2", 0);
+		cache.put(request1, "abc");
+		cache.get(request1);
+		cache.get(request1);
+		cache.get(request2);
+
+		var stats1 = cache.getStatistics("server1");
+		assertEquals(2, stats1.getHitCount());
+		assertEquals(0, stats1.getMissCount());
+		assertEquals(3, stats1.getBytes());
+		assertEquals(1.0, stats1.getHitRate());
+
+		var stats2 = cache.getStatistics("server2");
+		assertEquals(0, stats2.getHitCount());
+		assertEquals(1, stats2.getMissCount());
+		assertEquals(0, stats2.getTileCount());
+
+		cache.resetStatistics();
+		assertEquals(0, stats1.getHitCount());
+		assertEquals(1, stats1.getTileCount());
+	}
+
+	@Test
+	public void test_iteratorRemove() {
+		var cache = new TileCache<String>(s -> s.length(), 1000, 4);
+		for (int i = 0; i < 20; i++)
+			cache.put(createRequest(i % 2 == 0 ? "even" : "odd", i), "value");
+		var iter = cache.entrySet().iterator();
+		while (iter.hasNext()) {
+			if ("odd".equals(iter.next().getKey().getPath()))
+				iter.remove();
+		}
+		assertEquals(10, cache.size());
+		assertEquals(50, cache.getSizeBytes());
+		assertEquals(0, cache.getStatistics("odd").getTileCount());
+		cache.clear();
+		assertTrue(cache.isEmpty());
+		assertEquals(0, cache.getSizeBytes());
+	}
+
+	@Test
+	public void test_concurrentAccess() throws InterruptedException, ExecutionException {
+		int maxSize = 500;
+		var cache = new TileCache<String>(s -> s.length(), maxSize, 8);
+		var pool = Executors.newFixedThreadPool(8);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			int offset = t * 1000;
+			futures.add(pool.submit(() -> {
+				for (int i = 0; i < 1000; i++) {
+					var request = createRequest("path", offset + i % 200);
+					if (cache.get(request) == null)
+						cache.put(request, "0123456789");
+				}
+			}));
+		}
+		for (var future : futures)
+			future.get();
+		pool.shutdown();
+		assertTrue(cache.getSizeBytes() <= maxSize);
+		assertEquals(cache.size() * 10L, cache.getSizeBytes());
+	}
+
+}
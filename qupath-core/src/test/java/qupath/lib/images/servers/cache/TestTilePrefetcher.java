@@ -0,0 +1,222 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.images.servers.AbstractTileableImageServer;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServerBuilder.ServerBuilder;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.ImageServerProvider;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.regions.RegionRequest;
+
+@SuppressWarnings("javadoc")
+public class TestTilePrefetcher {
+
+	private static final int TILE_SIZE = 64;
+
+	private Map<RegionRequest, BufferedImage> previousCache;
+	private TileCache<BufferedImage> cache;
+
+	@BeforeEach
+	public void setCache() {
+		previousCache = ImageServerProvider.getCache(BufferedImage.class);
+		cache = TileCache.createBufferedImageCache(64L * 1024 * 1024);
+		ImageServerProvider.setCache(cache, BufferedImage.class);
+	}
+
+	@AfterEach
+	public void resetCache() {
+		ImageServerProvider.setCache(previousCache, BufferedImage.class);
+	}
+
+	private static List<RegionRequest> createTileRegions(TestServer server, int n) {
+		var regions = new ArrayList<RegionRequest>();
+		for (int i = 0; i < n; i++)
+			regions.add(RegionRequest.createInstance(server.getPath(), 1.0, i * TILE_SIZE, 0, TILE_SIZE, TILE_SIZE));
+		return regions;
+	}
+
+	@Test
+	public void test_prefetchWarmsCache() throws Exception {
+		var server = new TestServer(null);
+		var prefetcher = new TilePrefetcher(new TileScheduler(2));
+		var regions = createTileRegions(server, 8);
+		prefetcher.prefetch(this, server, regions);
+		waitFor(() -> regions.stream().allMatch(cache::containsKey));
+		assertEquals(8, server.readCount.get());
+
+		// Reading again should use the cache
+		for (var region : regions)
+			server.readRegion(region);
+		assertEquals(8, server.readCount.get());
+
+		// Prefetching cached tiles should have no effect
+		prefetcher.prefetch(this, server, regions);
+		assertEquals(8, server.readCount.get());
+	}
+
+	@Test
+	public void test_newPrefetchReplacesStale() throws Exception {
+		var latch = new CountDownLatch(1);
+		var server = new TestServer(latch);
+		var prefetcher = new TilePrefetcher(new TileScheduler(1));
+		var stale = createTileRegions(server, 16);
+		prefetcher.prefetch(this, server, stale);
+		// The first tile blocks the only thread, so the others remain queued
+		waitFor(() -> server.readCount.get() == 1);
+
+		var current = List.of(RegionRequest.createInstance(server.getPath(), 1.0, 0, TILE_SIZE, TILE_SIZE, TILE_SIZE));
+		prefetcher.prefetch(this, server, current);
+		latch.countDown();
+		waitFor(() -> cache.containsKey(current.get(0)));
+
+		// Only the blocked tile & the current tile should have been read
+		assertEquals(2, server.readCount.get());
+		assertFalse(cache.containsKey(stale.get(1)));
+	}
+
+	@Test
+	public void test_planKeepsAhead() throws Exception {
+		var server = new TestServer(null);
+		var prefetcher = new TilePrefetcher(new TileScheduler(2));
+		var regions = createTileRegions(server, 20);
+		try (var plan = prefetcher.createPlan(server, regions, 2, 3).start()) {
+			// Skip the 2 regions being processed, and prefetch the next 3
+			waitFor(() -> server.readCount.get() == 3);
+			assertFalse(cache.containsKey(regions.get(0)));
+			assertTrue(cache.containsKey(regions.get(4)));
+			assertFalse(cache.containsKey(regions.get(5)));
+
+			plan.advance();
+			plan.advance();
+			waitFor(() -> server.readCount.get() == 5);
+			assertTrue(cache.containsKey(regions.get(6)));
+			assertFalse(cache.containsKey(regions.get(7)));
+		}
+		assertEquals(5, server.readCount.get());
+	}
+
+	@Test
+	public void test_disabled() throws Exception {
+		var server = new TestServer(null);
+		var prefetcher = new TilePrefetcher(new TileScheduler(1));
+		prefetcher.setEnabled(false);
+		prefetcher.prefetch(this, server, createTileRegions(server, 4));
+		Thread.sleep(50);
+		assertEquals(0, server.readCount.get());
+	}
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > end)
+				throw new AssertionError("Timed out waiting for prefetch");
+			Thread.sleep(5);
+		}
+	}
+
+
+	static class TestServer extends AbstractTileableImageServer {
+
+		private final CountDownLatch latch;
+		private final ImageServerMetadata metadata;
+		private final AtomicInteger readCount = new AtomicInteger();
+
+		TestServer(CountDownLatch latch) {
+			this.latch = latch;
+			this.metadata = new ImageServerMetadata.Builder()
+					.width(2048)
+					.height(2048)
+					.preferredTileSize(TILE_SIZE, TILE_SIZE)
+					.rgb(false)
+					.pixelType(PixelType.UINT8)
+					.channels(ImageChannel.getDefaultChannelList(1))
+					.build();
+		}
+
+		@Override
+		protected BufferedImage readTile(TileRequest tileRequest) throws IOException {
+			readCount.incrementAndGet();
+			try {
+				if (latch != null && !latch.await(5, TimeUnit.SECONDS))
+					throw new IOException("Timed out waiting for latch");
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			var img = new BufferedImage(tileRequest.getTileWidth(), tileRequest.getTileHeight(), BufferedImage.TYPE_BYTE_GRAY);
+			// Ensure the tile isn't considered empty
+			img.getRaster().setSample(0, 0, 0, 1);
+			return img;
+		}
+
+		@Override
+		public Collection<URI> getURIs() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public String getServerType() {
+			return "Prefetch test server";
+		}
+
+		@Override
+		public ImageServerMetadata getOriginalMetadata() {
+			return metadata;
+		}
+
+		@Override
+		protected ServerBuilder<BufferedImage> createServerBuilder() {
+			return null;
+		}
+
+		@Override
+		protected String createID() {
+			return UUID.randomUUID().toString();
+		}
+
+	}
+
+}
@@ -0,0 +1,234 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.images.servers.cache.TileScheduler.Priority;
+import qupath.lib.regions.RegionRequest;
+
+@SuppressWarnings("javadoc")
+public class TestTileScheduler {
+
+	private static RegionRequest createRequest(String path) {
+		return RegionRequest.createInstance(path, 1.0, 0, 0, 10, 10);
+	}
+
+	/**
+	 * Occupy all threads of a scheduler until the latch is released.
+	 */
+	private static List<Future<?>> block(TileScheduler scheduler, CountDownLatch latch, int n) throws InterruptedException {
+		var started = new CountDownLatch(n);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			futures.add(scheduler.submit(Priority.INTERACTIVE, null, null, TileScheduler.NO_DEADLINE, () -> {
+				started.countDown();
+				latch.await();
+				return null;
+			}));
+		}
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		return futures;
+	}
+
+	@Test
+	public void test_priorityOrder() throws Exception {
+		var scheduler = new TileScheduler(1);
+		var latch = new CountDownLatch(1);
+		var blockers = block(scheduler, latch, 1);
+
+		List<Priority> order = Collections.synchronizedList(new ArrayList<>());
+		List<Future<?>> futures = new ArrayList<>();
+		for (var priority : new Priority[] {Priority.BATCH, Priority.PREFETCH, Priority.INTERACTIVE, Priority.BATCH}) {
+			futures.add(scheduler.submit(priority, null, null, TileScheduler.NO_DEADLINE, () -> order.add(priority)));
+		}
+		assertEquals(4, scheduler.getQueuedCount(Priority.INTERACTIVE) + scheduler.getQueuedCount(Priority.PREFETCH)
+				+ scheduler.getQueuedCount(Priority.BATCH));
+		latch.countDown();
+		for (var f : blockers)
+			f.get();
+		for (var f : futures)
+			f.get();
+		assertEquals(List.of(Priority.INTERACTIVE, Priority.PREFETCH, Priority.BATCH, Priority.BATCH), order);
+	}
+
+	@Test
+	public void test_currentPriority() throws Exception {
+		var scheduler = new TileScheduler(2);
+		assertNull(TileScheduler.getCurrentPriority());
+		for (var priority : Priority.values()) {
+			var future = scheduler.submit(priority, null, null, TileScheduler.NO_DEADLINE, TileScheduler::getCurrentPriority);
+			assertEquals(priority, future.get(5, TimeUnit.SECONDS));
+		}
+		// A queued task that is run by a waiting scheduler thread should see its own priority
+		var group = scheduler.createGroup(Priority.BATCH, 1);
+		var outer = group.submit(null, () -> {
+			var inner = group.submit(null, TileScheduler::getCurrentPriority);
+			var prefetch = scheduler.submit(Priority.PREFETCH, null, null, TileScheduler.NO_DEADLINE, TileScheduler::getCurrentPriority);
+			assertEquals(Priority.BATCH, inner.get());
+			return List.of(prefetch.get(), TileScheduler.getCurrentPriority());
+		});
+		assertEquals(List.of(Priority.PREFETCH, Priority.BATCH), outer.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void test_batchLeavesThreadsForInteractive() throws Exception {
+		var scheduler = new TileScheduler(4);
+		assertEquals(3, scheduler.getMaxConcurrent(Priority.BATCH));
+		var latch = new CountDownLatch(1);
+		var running = new AtomicInteger();
+		List<Future<?>> batch = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			batch.add(scheduler.submit(Priority.BATCH, null, null, TileScheduler.NO_DEADLINE, () -> {
+				running.incrementAndGet();
+				latch.await();
+				return null;
+			}));
+		}
+		// An interactive request should still be able to run while batch tasks are blocked
+		var interactive = scheduler.submit(Priority.INTERACTIVE, null, null, TileScheduler.NO_DEADLINE, () -> "done");
+		assertEquals("done", interactive.get(5, TimeUnit.SECONDS));
+		assertEquals(3, scheduler.getActiveCount(Priority.BATCH));
+		latch.countDown();
+		for (var f : batch)
+			f.get();
+		assertEquals(10, running.get());
+	}
+
+	@Test
+	public void test_perServerLimit() throws Exception {
+		var scheduler = new TileScheduler(8);
+		scheduler.setMaxConcurrentForServer("slow", 2);
+		var active = new AtomicInteger();
+		var maxActive = new AtomicInteger();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			futures.add(scheduler.submit(Priority.INTERACTIVE, createRequest("slow"), null, TileScheduler.NO_DEADLINE, () -> {
+				maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+				Thread.sleep(5);
+				active.decrementAndGet();
+				return null;
+			}));
+		}
+		// Another server shouldn't be blocked by the slow one
+		var other = scheduler.submit(Priority.INTERACTIVE, createRequest("fast"), null, TileScheduler.NO_DEADLINE, () -> "fast");
+		assertEquals("fast", other.get(5, TimeUnit.SECONDS));
+		for (var f : futures)
+			f.get();
+		assertTrue(maxActive.get() <= 2);
+	}
+
+	@Test
+	public void test_groupLimit() throws Exception {
+		var scheduler = new TileScheduler(8);
+		var group = scheduler.createGroup(Priority.BATCH, 3);
+		var active = new AtomicInteger();
+		var maxActive = new AtomicInteger();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			futures.add(group.submit(null, () -> {
+				maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+				Thread.sleep(2);
+				active.decrementAndGet();
+				return null;
+			}));
+		}
+		for (var f : futures)
+			f.get();
+		assertTrue(maxActive.get() <= 3);
+		assertTrue(maxActive.get() > 1);
+	}
+
+	@Test
+	public void test_cancelAndExpire() throws Exception {
+		var scheduler = new TileScheduler(1);
+		var latch = new CountDownLatch(1);
+		var blockers = block(scheduler, latch, 1);
+		var owner = new Object();
+		var count = new AtomicInteger();
+
+		var cancelled = scheduler.submit(Priority.INTERACTIVE, createRequest("a"), owner, TileScheduler.NO_DEADLINE, () -> count.incrementAndGet());
+		var expired = scheduler.submit(Priority.INTERACTIVE, createRequest("b"), owner, TileScheduler.NO_DEADLINE, () -> count.incrementAndGet());
+		var kept = scheduler.submit(Priority.INTERACTIVE, createRequest("c"), owner, TileScheduler.NO_DEADLINE, () -> count.incrementAndGet());
+
+		// Expire only the task for 'b'
+		assertEquals(1, scheduler.expire(owner, r -> "b".equals(r.getPath()), TileScheduler.deadlineAfter(0)));
+		Thread.sleep(2);
+
+		// Cancel only a different owner - no effect
+		assertEquals(0, scheduler.cancel(new Object()));
+
+		// Cancel a single task directly
+		assertTrue(cancelled.cancel(false));
+
+		latch.countDown();
+		for (var f : blockers)
+			f.get();
+		int value = kept.get();
+		assertEquals(1, value);
+		assertThrows(CancellationException.class, () -> expired.get());
+		assertEquals(1, count.get());
+		assertEquals(1, scheduler.getExpiredCount());
+	}
+
+	@Test
+	public void test_cancelPropagatesToFuture() throws Exception {
+		var scheduler = new TileScheduler(1);
+		var latch = new CountDownLatch(1);
+		var blockers = block(scheduler, latch, 1);
+		var owner = new Object();
+		var inner = new FutureTask<>(() -> "inner");
+		scheduler.submit(Priority.INTERACTIVE, null, owner, TileScheduler.NO_DEADLINE, inner);
+		assertEquals(1, scheduler.cancel(owner));
+		assertTrue(inner.isCancelled());
+		latch.countDown();
+		for (var f : blockers)
+			f.get();
+	}
+
+	@Test
+	public void test_nestedWaitDoesNotDeadlock() throws Exception {
+		// A single thread, where a task waits for another task
+		var scheduler = new TileScheduler(1);
+		var outer = scheduler.submit(Priority.BATCH, null, null, TileScheduler.NO_DEADLINE, () -> {
+			var inner = scheduler.submit(Priority.BATCH, null, null, TileScheduler.NO_DEADLINE, () -> "inner");
+			return "outer-" + inner.get();
+		});
+		assertEquals("outer-inner", outer.get(5, TimeUnit.SECONDS));
+	}
+
+}
@@ -24,30 +24,51 @@
 package qupath.lib.io;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import org.junit.jupiter.api.Test;
 
+import qupath.lib.geom.Point2;
+import qupath.lib.images.ImageData.ImageType;
+import qupath.lib.measurements.MeasurementList.MeasurementListType;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.TMACoreObject;
 import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.DefaultTMAGrid;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.plugins.workflow.Workflow;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
 import qupath.lib.roi.ROIs;
+import qupath.lib.roi.RoiTools;
+import qupath.lib.roi.interfaces.ROI;
 
 @SuppressWarnings("javadoc")
 public class TestPathIO {
@@ -171,4 +192,245 @@ public class TestPathIO {
 		}
 	}
 	
+	
+	/**
+	 * Create a hierarchy containing all the supported object and ROI types, 
+	 * with enough detections to require several chunks.
+	 */
+	private static PathObjectHierarchy createHierarchyForColumnar(int nDetections) {
+		var hierarchy = new PathObjectHierarchy();
+		var plane = ImagePlane.getDefaultPlane();
+		var rand = new Random(100L);
+		
+		// TMA grid, with one core containing an annotation
+		List<TMACoreObject> cores = List.of(
+				PathObjects.createTMACoreObject(0, 0, 1000, 1000, false),
+				PathObjects.createTMACoreObject(1000, 0, 1000, 1000, true));
+		cores.get(0).setName("A-1");
+		cores.get(0).getMetadata().put("Patient", "1");
+		cores.get(0).getMeasurementList().put("Score", 1.5);
+		hierarchy.setTMAGrid(DefaultTMAGrid.create(cores, 2));
+		var coreAnnotation = PathObjects.createAnnotationObject(ROIs.createEllipseROI(100, 100, 200, 200, plane), PathClass.getInstance("Tumor"));
+		cores.get(0).addChildObject(coreAnnotation);
+		
+		// Annotations with different ROI types & properties
+		var polygon = ROIs.createPolygonROI(new double[] {2000, 3000, 2500}, new double[] {2000, 2000, 3000}, plane);
+		var annotation = PathObjects.createAnnotationObject(polygon, PathClass.fromString("Tumor: Positive"));
+		annotation.setName("Polygon");
+		annotation.setLocked(true);
+		annotation.getMetadata().put("Description", "Something");
+		annotation.getMeasurementList().put("General", Math.PI);
+		var geometry = RoiTools.union(ROIs.createRectangleROI(4000, 4000, 100, 100, plane), ROIs.createRectangleROI(4200, 4000, 100, 100, plane));
+		var geometryAnnotation = PathObjects.createAnnotationObject(geometry);
+		geometryAnnotation.setColor(255, 0, 0);
+		var others = List.of(
+				PathObjects.createAnnotationObject(ROIs.createLineROI(0, 5000, 100, 5100, ImagePlane.getPlane(1, 2))),
+				PathObjects.createAnnotationObject(ROIs.createPolylineROI(new double[] {0, 10, 20}, new double[] {6000, 6010, 6000}, plane)),
+				PathObjects.createAnnotationObject(ROIs.createPointsROI(List.of(new Point2(1, 7000), new Point2(5, 7005)), plane)),
+				PathObjects.createAnnotationObject(ROIs.createEmptyROI()));
+		hierarchy.addObjects(List.of(annotation, geometryAnnotation));
+		hierarchy.addObjects(others);
+		
+		// Detections, cells & tiles with measurements stored as floats & doubles
+		List<PathObject> detections = new ArrayList<>();
+		var pathClasses = List.of(PathClass.getInstance("Tumor"), PathClass.getInstance("Stroma"));
+		for (int i = 0; i < nDetections; i++) {
+			double x = 2000 + rand.nextDouble() * 1000;
+			double y = 2000 + rand.nextDouble() * 500;
+			ROI roi = ROIs.createRectangleROI(x, y, 5, 5, plane);
+			PathObject detection;
+			switch (i % 3) {
+			case 0:
+				var ml = MeasurementListFactory.createMeasurementList(3, MeasurementListType.FLOAT);
+				ml.put("Area", 25);
+				ml.put("Intensity", (float)rand.nextDouble());
+				ml.close();
+				detection = PathObjects.createDetectionObject(roi, pathClasses.get(i % 2), ml);
+				break;
+			case 1:
+				ml = MeasurementListFactory.createMeasurementList(3, MeasurementListType.DOUBLE);
+				ml.put("Intensity", rand.nextDouble());
+				ml.close();
+				detection = PathObjects.createCellObject(roi, ROIs.createEllipseROI(x+1, y+1, 3, 3, plane), null, ml);
+				break;
+			default:
+				detection = PathObjects.createTileObject(roi);
+				detection.setPathClass(pathClasses.get(i % 2), rand.nextDouble());
+			}
+			detections.add(detection);
+		}
+		annotation.addChildObjects(detections);
+		return hierarchy;
+	}
+	
+	private static byte[] writeColumnar(PathObjectHierarchy hierarchy) throws IOException {
+		var bytesOut = new ByteArrayOutputStream();
+		assertTrue(ColumnarImageDataIO.write(bytesOut, "{}", ImageType.FLUORESCENCE, null, new Workflow(), new HashMap<>(), hierarchy));
+		return bytesOut.toByteArray();
+	}
+	
+	@Test
+	public void test_columnarRoundTrip() throws IOException {
+		var hierarchy = createHierarchyForColumnar(ColumnarImageDataIO.CHUNK_SIZE * 2 + 10);
+		var bytes = writeColumnar(hierarchy);
+		
+		try (var stream = new BufferedInputStream(new ByteArrayInputStream(bytes))) {
+			assertTrue(ColumnarImageDataIO.isColumnar(stream));
+			var contents = ColumnarImageDataIO.read(stream, false);
+			assertEquals("{}", contents.getServerJson());
+			assertEquals(ImageType.FLUORESCENCE, contents.getImageType());
+			assertEquals(null, contents.getHierarchy());
+		}
+		
+		var hierarchy2 = PathIO.readHierarchy(new ByteArrayInputStream(bytes));
+		assertEquals(hierarchy.nObjects(), hierarchy2.nObjects());
+		assertSameObject(hierarchy.getRootObject(), hierarchy2.getRootObject());
+		
+		var grid = hierarchy2.getTMAGrid();
+		assertEquals(2, grid.getGridWidth());
+		assertEquals(hierarchy.getTMAGrid().getTMACoreList().get(1).getID(), grid.getTMACore(0, 1).getID());
+		assertTrue(grid.getTMACore(0, 1).isMissing());
+		
+		// Serialized data shouldn't be mistaken for columnar data
+		var bytesOut = new ByteArrayOutputStream();
+		try (var stream = new ObjectOutputStream(bytesOut)) {
+			stream.writeUTF("Data file version 3");
+		}
+		try (var stream = new BufferedInputStream(new ByteArrayInputStream(bytesOut.toByteArray()))) {
+			assertFalse(ColumnarImageDataIO.isColumnar(stream));
+		}
+	}
+	
+	@Test
+	public void test_columnarSnapshot() throws IOException {
+		var hierarchy = createHierarchyForColumnar(ColumnarImageDataIO.CHUNK_SIZE * 2 + 10);
+		int nObjects = hierarchy.nObjects();
+		var snapshot = ColumnarImageDataIO.createSnapshot("{}", ImageType.FLUORESCENCE, null, new Workflow(), new HashMap<>(), hierarchy);
+		
+		// Changes after the snapshot has been created shouldn't be written
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 10, 10, ImagePlane.getDefaultPlane()));
+		hierarchy.addObject(annotation);
+		
+		List<Double> progress = new ArrayList<>();
+		var bytesOut = new ByteArrayOutputStream();
+		snapshot.write(bytesOut, progress::add, () -> false);
+		assertEquals(1.0, progress.get(progress.size()-1).doubleValue());
+		
+		var hierarchy2 = PathIO.readHierarchy(new ByteArrayInputStream(bytesOut.toByteArray()));
+		assertEquals(nObjects, hierarchy2.nObjects());
+		hierarchy.removeObject(annotation, false);
+		assertSameObject(hierarchy.getRootObject(), hierarchy2.getRootObject());
+		
+		// Writing should stop if cancelled
+		var snapshot2 = ColumnarImageDataIO.createSnapshot("{}", ImageType.FLUORESCENCE, null, new Workflow(), new HashMap<>(), hierarchy);
+		assertThrows(InterruptedIOException.class, () -> snapshot2.write(new ByteArrayOutputStream(), null, () -> true));
+	}
+	
+	@Test
+	public void test_columnarLazyLoading() throws IOException {
+		// Detections arranged from left to right, so that each chunk covers a different region
+		var hierarchy = new PathObjectHierarchy();
+		var plane = ImagePlane.getDefaultPlane();
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 100_000, 100, plane));
+		int n = ColumnarImageDataIO.CHUNK_SIZE * 3;
+		List<PathObject> detections = new ArrayList<>();
+		for (int i = 0; i < n; i++)
+			detections.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(i, 10, 0.5, 0.5, plane)));
+		annotation.addChildObjects(detections);
+		hierarchy.addObject(annotation);
+		var bytes = writeColumnar(hierarchy);
+		
+		// Only the annotation should be loaded initially, but detections should still be counted
+		var lazy = PathIO.readHierarchy(new ByteArrayInputStream(bytes), true);
+		assertTrue(lazy.hasDeferredObjects());
+		assertEquals(n + 1, lazy.nObjects());
+		var lazyAnnotation = lazy.getAnnotationObjects().iterator().next();
+		assertTrue(lazy.hasDeferredObjects());
+		
+		// Requesting a region should only load the chunk that overlaps it
+		var region = ImageRegion.createInstance(0, 0, 100, 100, 0, 0);
+		assertEquals(101, lazy.getObjectsForRegion(PathDetectionObject.class, region, null).size());
+		assertEquals(n + 1, lazy.nObjects());
+		assertTrue(lazy.hasDeferredObjects());
+		
+		// Requesting all detections should load everything
+		assertEquals(n, lazy.getDetectionObjects().size());
+		assertFalse(lazy.hasDeferredObjects());
+		assertEquals(n, lazyAnnotation.nChildObjects());
+		
+		// Loading everything at once should give the same hierarchy as reading eagerly
+		var lazy2 = PathIO.readHierarchy(new ByteArrayInputStream(bytes), true);
+		lazy2.loadDeferredObjects();
+		assertFalse(lazy2.hasDeferredObjects());
+		assertSameObject(hierarchy.getRootObject(), lazy2.getRootObject());
+	}
+	
+	@Test
+	public void test_columnarLazyChildAccess() throws IOException {
+		var hierarchy = new PathObjectHierarchy();
+		var plane = ImagePlane.getDefaultPlane();
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 100_000, 100, plane));
+		int n = ColumnarImageDataIO.CHUNK_SIZE * 2 + 10;
+		List<PathObject> detections = new ArrayList<>();
+		for (int i = 0; i < n; i++)
+			detections.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(i, 10, 0.5, 0.5, plane)));
+		annotation.addChildObjects(detections);
+		hierarchy.addObject(annotation);
+		var bytes = writeColumnar(hierarchy);
+		
+		// Accessing child objects directly should load the deferred objects first
+		var lazy = PathIO.readHierarchy(new ByteArrayInputStream(bytes), true);
+		var lazyAnnotation = lazy.getAnnotationObjects().iterator().next();
+		assertTrue(lazy.hasDeferredObjects());
+		assertEquals(n, lazyAnnotation.getChildObjects().size());
+		assertFalse(lazy.hasDeferredObjects());
+		assertEquals(n, lazyAnnotation.nChildObjects());
+		assertSameObject(hierarchy.getRootObject(), lazy.getRootObject());
+		
+		// The same should apply when traversing from the root object, after loading part of the hierarchy
+		var lazy2 = PathIO.readHierarchy(new ByteArrayInputStream(bytes), true);
+		lazy2.getObjectsForRegion(PathDetectionObject.class, ImageRegion.createInstance(0, 0, 100, 100, 0, 0), null);
+		assertTrue(lazy2.hasDeferredObjects());
+		assertEquals(n + 1, lazy2.getRootObject().nDescendants());
+		assertFalse(lazy2.hasDeferredObjects());
+		assertEquals(n, lazy2.getRootObject().getChildObjectsAsArray()[0].getChildObjectsAsArray().length);
+		assertEquals(n, lazy2.getObjectsForRegion(PathDetectionObject.class, null, null).size());
+	}
+	
+	private static void assertSameObject(PathObject expected, PathObject actual) {
+		assertEquals(expected.getClass(), actual.getClass());
+		assertEquals(expected.getID(), actual.getID());
+		assertSame(expected.getPathClass(), actual.getPathClass());
+		assertEquals(expected.getClassProbability(), actual.getClassProbability());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getColor(), actual.getColor());
+		assertEquals(expected.isLocked(), actual.isLocked());
+		assertEquals(expected.getMetadata(), actual.getMetadata());
+		assertEquals(expected.getMeasurementList().getMeasurementNames(), actual.getMeasurementList().getMeasurementNames());
+		for (var name : expected.getMeasurementList().getMeasurementNames())
+			assertEquals(expected.getMeasurementList().get(name), actual.getMeasurementList().get(name));
+		assertSameROI(expected.getROI(), actual.getROI());
+		if (expected instanceof PathCellObject cell)
+			assertSameROI(cell.getNucleusROI(), ((PathCellObject)actual).getNucleusROI());
+		var expectedChildren = expected.getChildObjectsAsArray();
+		var actualChildren = actual.getChildObjectsAsArray();
+		assertEquals(expectedChildren.length, actualChildren.length);
+		for (int i = 0; i < expectedChildren.length; i++)
+			assertSameObject(expectedChildren[i], actualChildren[i]);
+	}
+	
+	private static void assertSameROI(ROI expected, ROI actual) {
+		if (expected == null) {
+			assertEquals(null, actual);
+			return;
+		}
+		assertEquals(expected.getRoiName(), actual.getRoiName());
+		assertEquals(expected.getImagePlane(), actual.getImagePlane());
+		assertEquals(expected.getBoundsX(), actual.getBoundsX(), 1e-4);
+		assertEquals(expected.getBoundsY(), actual.getBoundsY(), 1e-4);
+		assertEquals(expected.getBoundsWidth(), actual.getBoundsWidth(), 1e-4);
+		assertEquals(expected.getBoundsHeight(), actual.getBoundsHeight(), 1e-4);
+		assertEquals(expected.getAllPoints(), actual.getAllPoints());
+	}
+	
 }
@@ -32,6 +32,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -167,6 +168,53 @@ public class TestPathObjectIO {
 		assertArrayEquals(countCheck, new int[] {1, 1, 1, 1, 1});
 	}
 	
+	@Test
+	public void test_streamingGeoJSON() throws IOException {
+		// Enough objects to require several batches when parsing in parallel
+		List<PathObject> objs = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			var ml = MeasurementListFactory.createMeasurementList(2, MeasurementList.MeasurementListType.DOUBLE);
+			ml.put("Index", i);
+			ml.put("Missing", Double.NaN);
+			objs.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(i, i, 10, 10, ImagePlane.getDefaultPlane()), null, ml));
+		}
+		
+		// Streaming output should match the output when the whole collection is written by Gson
+		for (boolean pretty : new boolean[] {false, true}) {
+			var gson = GsonTools.getInstance(pretty);
+			List<GeoJsonExportOptions> options = new ArrayList<>();
+			if (pretty)
+				options.add(GeoJsonExportOptions.PRETTY_JSON);
+			assertEquals(gson.toJson(objs), exportAsString(objs, options.toArray(GeoJsonExportOptions[]::new)));
+			assertEquals(gson.toJson(objs.get(0)), exportAsString(objs.subList(0, 1), options.toArray(GeoJsonExportOptions[]::new)));
+			options.add(GeoJsonExportOptions.FEATURE_COLLECTION);
+			assertEquals(gson.toJson(FeatureCollection.wrap(objs)), exportAsString(objs, options.toArray(GeoJsonExportOptions[]::new)));
+		}
+		
+		// Objects should be read in order, whether or not parsing is parallel
+		var json = exportAsString(objs, GeoJsonExportOptions.FEATURE_COLLECTION);
+		// Features may come before the type
+		var jsonReordered = "{\"features\": " + exportAsString(objs) + ", \"type\": \"FeatureCollection\"}";
+		for (var input : List.of(json, jsonReordered)) {
+			for (boolean parallel : new boolean[] {false, true}) {
+				List<PathObject> objsBack = new ArrayList<>();
+				int n = PathIO.readObjectsFromGeoJSON(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), objsBack::add, parallel);
+				assertEquals(objs.size(), n);
+				for (int i = 0; i < n; i++) {
+					assertEquals(objs.get(i).getID(), objsBack.get(i).getID());
+					assertSameMeasurements(objs.get(i).getMeasurementList(), objsBack.get(i).getMeasurementList());
+				}
+			}
+		}
+		assertEquals(0, PathIO.readObjectsFromGeoJSON(new ByteArrayInputStream(new byte[0])).size());
+	}
+	
+	private static String exportAsString(Collection<PathObject> pathObjects, GeoJsonExportOptions... options) throws IOException {
+		var bos = new ByteArrayOutputStream();
+		PathIO.exportObjectsAsGeoJSON(bos, pathObjects, options);
+		return bos.toString(StandardCharsets.UTF_8);
+	}
+	
 	private static void assertSameMeasurements(MeasurementList ml1, MeasurementList ml2) {
 		assertEquals(ml1.size(), ml2.size());
 		assertEquals(ml1.getMeasurementNames(), ml2.getMeasurementNames());
@@ -23,7 +23,12 @@ package qupath.lib.measurements;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -43,6 +48,64 @@ public class TestMeasurementListFactory {
 		testList(MeasurementListFactory.createMeasurementList(50, MeasurementListType.DOUBLE));
 		testList(MeasurementListFactory.createMeasurementList(50, MeasurementListType.FLOAT));
 		testList(MeasurementListFactory.createMeasurementList(50, MeasurementListType.GENERAL));
+		testList(MeasurementListFactory.createMeasurementList(new ColumnarMeasurementStore()));
+	}
+	
+	@Test
+	public void test_columnarStore() throws Exception {
+		var store = new ColumnarMeasurementStore();
+		int n = 10_000;
+		List<MeasurementList> lists = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			var list = MeasurementListFactory.createMeasurementList(store);
+			list.put("A", i);
+			list.put("B", -i);
+			// Only some lists have a third measurement
+			if (i % 3 == 0)
+				list.put("C", i * 2.0);
+			lists.add(list);
+		}
+		assertEquals(n, store.size());
+		assertEquals(3, store.nColumns());
+		assertTrue(lists.stream().allMatch(store::contains));
+		assertFalse(store.contains(MeasurementListFactory.createMeasurementList(3, MeasurementListType.FLOAT)));
+
+		// Names should be shared between lists with the same measurements
+		assertSame(lists.get(0).getMeasurementNames(), lists.get(3).getMeasurementNames());
+		assertSame(lists.get(1).getMeasurementNames(), lists.get(2).getMeasurementNames());
+		assertEquals(List.of("A", "B"), lists.get(1).getMeasurementNames());
+		
+		// Read columns, including for lists that aren't in the store
+		var other = MeasurementListFactory.createMeasurementList(3, MeasurementListType.DOUBLE);
+		other.put("C", 0.5);
+		var mixed = new ArrayList<>(lists);
+		mixed.add(other);
+		double[] valuesC = ColumnarMeasurementStore.getValues(mixed, l -> l, "C", null);
+		assertEquals(n + 1, valuesC.length);
+		for (int i = 0; i < n; i++) {
+			assertEquals(lists.get(i).get("C"), valuesC[i], 0.0);
+			assertEquals(i % 3 == 0 ? i * 2.0 : Double.NaN, valuesC[i], 0.0);
+		}
+		assertEquals(0.5, valuesC[n]);
+		double[] valuesMissing = ColumnarMeasurementStore.getValues(lists, l -> l, "Missing", new double[n]);
+		assertTrue(Arrays.stream(valuesMissing).allMatch(Double::isNaN));
+		
+		// Removing a measurement shouldn't affect any other list
+		lists.get(0).removeMeasurements("A");
+		assertEquals(List.of("B", "C"), lists.get(0).getMeasurementNames());
+		assertTrue(Double.isNaN(lists.get(0).get("A")));
+		assertEquals(3.0, lists.get(3).get("A"));
+
+		// Lists should be serialized without the store
+		var bytes = new ByteArrayOutputStream();
+		try (var stream = new ObjectOutputStream(bytes)) {
+			stream.writeObject(lists.get(6));
+		}
+		try (var stream = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			var list = (MeasurementList)stream.readObject();
+			assertFalse(store.contains(list));
+			assertEquals(lists.get(6).asMap(), list.asMap());
+		}
 	}
 	
 	
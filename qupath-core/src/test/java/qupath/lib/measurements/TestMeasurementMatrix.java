@@ -0,0 +1,109 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.measurements;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.BufferOverflowException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.measurements.MeasurementList.MeasurementListType;
+
+@SuppressWarnings("javadoc")
+public class TestMeasurementMatrix {
+
+	@Test
+	public void test_extract() {
+		var rand = new Random(42L);
+		var store = new ColumnarMeasurementStore();
+		List<MeasurementList> lists = new ArrayList<>();
+		// Use enough lists to require parallel processing, with a mix of list types & measurement orders
+		int n = 10_000;
+		for (int i = 0; i < n; i++) {
+			MeasurementList list;
+			switch (i % 4) {
+			case 0:
+				list = MeasurementListFactory.createMeasurementList(3, MeasurementListType.FLOAT);
+				break;
+			case 1:
+				list = MeasurementListFactory.createMeasurementList(3, MeasurementListType.GENERAL);
+				break;
+			case 2:
+				list = MeasurementListFactory.createMeasurementList(store);
+				break;
+			default:
+				list = null;
+			}
+			if (list != null) {
+				if (rand.nextBoolean())
+					list.put("A", rand.nextFloat());
+				list.put("B", rand.nextFloat());
+				list.put("C", rand.nextFloat());
+				if (rand.nextBoolean())
+					list.put("A", rand.nextFloat());
+				list.close();
+			}
+			lists.add(list);
+		}
+		var names = List.of("C", "Missing", "A", "C");
+		float[] expected = extractSimple(lists, names);
+
+		float[] matrix = MeasurementMatrix.extract(lists, Function.identity(), names, (float[])null);
+		assertArrayEquals(expected, matrix);
+
+		// Check that other list implementations give the same result
+		float[] matrix2 = MeasurementMatrix.extract(new LinkedList<>(lists), Function.identity(), names, new float[n * 4 + 10]);
+		assertEquals(n * 4 + 10, matrix2.length);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(expected[i], matrix2[i]);
+
+		// Check buffer output, starting from a non-zero position
+		var buffer = FloatBuffer.allocate(n * 4 + 2);
+		buffer.put(1f);
+		MeasurementMatrix.extract(lists, Function.identity(), names, buffer);
+		assertEquals(n * 4 + 1, buffer.position());
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(expected[i], buffer.get(i + 1));
+
+		assertThrows(BufferOverflowException.class, () -> MeasurementMatrix.extract(lists, Function.identity(), names, FloatBuffer.allocate(10)));
+	}
+
+	private static float[] extractSimple(List<MeasurementList> lists, List<String> names) {
+		float[] values = new float[lists.size() * names.size()];
+		int i = 0;
+		for (var list : lists) {
+			for (var name : names)
+				values[i++] = list == null ? Float.NaN : (float)list.get(name);
+		}
+		return values;
+	}
+
+}
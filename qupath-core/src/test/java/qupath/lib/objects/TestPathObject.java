@@ -39,6 +39,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.UUID;
 import java.util.stream.IntStream;
 
 import org.junit.jupiter.api.Test;
@@ -315,8 +316,90 @@ public class TestPathObject {
 	}
 	
 	
+	@Test
+	public void test_childObjects() {
+		var parent = PathObjects.createAnnotationObject(ROIs.createEmptyROI());
+		List<PathObject> children = new ArrayList<>();
+		for (int i = 0; i < 1000; i++)
+			children.add(PathObjects.createDetectionObject(ROIs.createEmptyROI()));
+		
+		// Adding the same objects twice should have no effect
+		parent.addChildObjects(children);
+		parent.addChildObjects(children);
+		parent.addChildObject(children.get(0));
+		assertEquals(children, new ArrayList<>(parent.getChildObjects()));
+		
+		// Removing objects should retain the order of the others
+		parent.removeChildObjects(children.subList(0, 900));
+		parent.removeChildObject(children.get(950));
+		var expected = new ArrayList<>(children.subList(900, 1000));
+		expected.remove(children.get(950));
+		assertEquals(expected, new ArrayList<>(parent.getChildObjects()));
+		assertEquals(expected, Arrays.asList(parent.getChildObjectsAsArray()));
+		assertTrue(parent.getChildObjects().contains(children.get(999)));
+		assertFalse(parent.getChildObjects().contains(children.get(0)));
+		assertNull(children.get(0).getParent());
+		
+		// Moving all objects to a new parent
+		var parent2 = PathObjects.createAnnotationObject(ROIs.createEmptyROI());
+		parent2.addChildObjects(parent.getChildObjects());
+		assertFalse(parent.hasChildObjects());
+		assertEquals(expected, new ArrayList<>(parent2.getChildObjects()));
+		assertSame(parent2, children.get(999).getParent());
+		
+		// Moving a single object
+		parent.addChildObject(children.get(999));
+		assertEquals(98, parent2.nChildObjects());
+		assertFalse(parent2.getChildObjects().contains(children.get(999)));
+		assertSame(parent, children.get(999).getParent());
+	}
 	
+	@Test
+	public void test_metadata() {
+		var p1 = PathObjects.createDetectionObject(ROIs.createEmptyROI());
+		var p2 = PathObjects.createDetectionObject(ROIs.createEmptyROI());
+		p1.getMetadata().put("First", "1");
+		p1.getMetadata().put("Second", "2");
+		p2.getMetadata().put("First", "A");
+		p2.getMetadata().put("Second", "B");
+		p1.getMetadata().put("First", "3");
+		assertEquals("3", p1.getMetadata().get("First"));
+		assertEquals("B", p2.getMetadata().get("Second"));
+		assertEquals(List.of("First", "Second"), new ArrayList<>(p1.getMetadata().keySet()));
+		
+		p1.getMetadata().remove("First");
+		assertNull(p1.getMetadata().get("First"));
+		assertEquals("A", p2.getMetadata().get("First"));
+		p2.getMetadata().values().remove("A");
+		assertEquals(p1.getMetadata().keySet(), p2.getMetadata().keySet());
+		
+		// Check maps with more keys than are searched linearly
+		for (int i = 0; i < 20; i++) {
+			p1.getMetadata().put("Key " + i, "Value " + i);
+			p2.getMetadata().put("Key " + (19 - i), "Value " + (19 - i));
+		}
+		assertEquals(21, p1.getMetadata().size());
+		assertEquals("Value 15", p1.getMetadata().get("Key 15"));
+		assertEquals("Value 15", p2.getMetadata().get("Key 15"));
+		assertEquals("2", p1.getMetadata().get("Second"));
+		assertEquals("Key 0", new ArrayList<>(p1.getMetadata().keySet()).get(1));
+		assertEquals("Key 19", new ArrayList<>(p2.getMetadata().keySet()).get(1));
+		p1.getMetadata().remove("Key 5");
+		assertNull(p1.getMetadata().get("Key 5"));
+		assertEquals("Value 6", p1.getMetadata().get("Key 6"));
+		assertEquals(20, p1.getMetadata().size());
+	}
 	
+	@Test
+	public void test_id() {
+		var pathObject = PathObjects.createDetectionObject(ROIs.createEmptyROI());
+		var id = pathObject.getID();
+		assertEquals(id, pathObject.getID());
+		var id2 = UUID.randomUUID();
+		pathObject.setID(id2);
+		assertEquals(id2, pathObject.getID());
+		pathObject.refreshID();
+		assertFalse(id2.equals(pathObject.getID()));
+	}
 	
-
 }
@@ -0,0 +1,166 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent.HierarchyEventType;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestHierarchyStructureDelta {
+
+	/**
+	 * Create a grid of small square detections, with the specified spacing.
+	 */
+	private static List<PathObject> createDetections(int nx, int ny, double spacing) {
+		var plane = ImagePlane.getDefaultPlane();
+		List<PathObject> detections = new ArrayList<>(nx * ny);
+		for (int y = 0; y < ny; y++) {
+			for (int x = 0; x < nx; x++) {
+				detections.add(PathObjects.createDetectionObject(
+						ROIs.createRectangleROI(x * spacing, y * spacing, spacing / 2, spacing / 2, plane)));
+			}
+		}
+		return detections;
+	}
+
+	private static PathObjectHierarchyEvent[] listen(PathObjectHierarchy hierarchy) {
+		var lastEvent = new PathObjectHierarchyEvent[1];
+		hierarchy.addListener(e -> lastEvent[0] = e);
+		return lastEvent;
+	}
+
+	@Test
+	public void test_addAndInsert() {
+		var hierarchy = new PathObjectHierarchy();
+		var lastEvent = listen(hierarchy);
+
+		var detections = createDetections(10, 10, 10);
+		hierarchy.addObjects(detections);
+		assertTrue(lastEvent[0].hasStructureDelta());
+		assertEquals(detections, lastEvent[0].getAddedObjects());
+		assertTrue(lastEvent[0].getRemovedObjects().isEmpty());
+		assertTrue(lastEvent[0].getMovedObjects().isEmpty());
+
+		// Insert an annotation covering the first half of the detections
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(-1, -1, 100, 50, ImagePlane.getDefaultPlane()));
+		hierarchy.insertPathObject(annotation, true);
+		var event = lastEvent[0];
+		assertEquals(HierarchyEventType.ADDED, event.getEventType());
+		assertEquals(List.of(annotation), event.getAddedObjects());
+		assertEquals(50, event.getMovedObjects().size());
+		assertEquals(new HashSet<>(annotation.getChildObjects()), new HashSet<>(event.getMovedObjects()));
+
+		// Adding an object with descendants should include the descendants
+		var parent = PathObjects.createAnnotationObject(ROIs.createRectangleROI(200, 200, 100, 100, ImagePlane.getDefaultPlane()));
+		var child = PathObjects.createDetectionObject(ROIs.createRectangleROI(210, 210, 10, 10, ImagePlane.getDefaultPlane()));
+		parent.addChildObject(child);
+		hierarchy.addObject(parent);
+		assertEquals(List.of(parent, child), lastEvent[0].getAddedObjects());
+		assertTrue(hierarchy.getObjectsForRegion(null, ImageRegion.createInstance(child.getROI()), null).contains(child));
+	}
+
+	@Test
+	public void test_remove() {
+		var hierarchy = new PathObjectHierarchy();
+		var detections = createDetections(10, 10, 10);
+		hierarchy.addObjects(detections);
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(-1, -1, 100, 50, ImagePlane.getDefaultPlane()));
+		hierarchy.insertPathObject(annotation, true);
+		var lastEvent = listen(hierarchy);
+
+		// Ensure the cache is constructed
+		var all = ImageRegion.createInstance(0, 0, 100, 100, 0, 0);
+		assertEquals(101, hierarchy.getObjectsForRegion(null, all, null).size());
+
+		// Remove an annotation, keeping its children
+		var children = new HashSet<>(annotation.getChildObjects());
+		hierarchy.removeObject(annotation, true);
+		assertEquals(HierarchyEventType.REMOVED, lastEvent[0].getEventType());
+		assertEquals(List.of(annotation), lastEvent[0].getRemovedObjects());
+		assertEquals(children, new HashSet<>(lastEvent[0].getMovedObjects()));
+		assertEquals(100, hierarchy.getObjectsForRegion(null, all, null).size());
+
+		// Remove detections
+		var toRemove = detections.subList(0, 20);
+		hierarchy.removeObjects(toRemove, false);
+		assertEquals(HierarchyEventType.OTHER_STRUCTURE_CHANGE, lastEvent[0].getEventType());
+		assertEquals(new HashSet<>(toRemove), new HashSet<>(lastEvent[0].getRemovedObjects()));
+		var remaining = hierarchy.getObjectsForRegion(null, all, null);
+		assertEquals(80, remaining.size());
+		assertFalse(remaining.contains(toRemove.get(0)));
+
+		// Remove an annotation with its descendants
+		annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(-1, 50, 100, 50, ImagePlane.getDefaultPlane()));
+		hierarchy.insertPathObject(annotation, true);
+		hierarchy.removeObject(annotation, false);
+		assertEquals(51, lastEvent[0].getRemovedObjects().size());
+		assertEquals(30, hierarchy.getObjectsForRegion(null, all, null).size());
+	}
+
+	@Test
+	public void test_incrementalUpdates() {
+		// Queries should reflect small structural changes, without the spatial cache being rebuilt
+		int n = 100;
+		var hierarchy = new PathObjectHierarchy();
+		var detections = createDetections(n, n, 10);
+		hierarchy.addObjects(detections);
+		// Region containing 20x20 detections
+		var region = ImageRegion.createInstance(0, 0, 198, 198, 0, 0);
+		assertEquals(400, hierarchy.getObjectsForRegion(null, region, null).size());
+
+		// Remove some detections, in small batches
+		Set<PathObject> removed = new HashSet<>();
+		for (int i = 0; i < 20; i++) {
+			var toRemove = detections.subList(i * n, i * n + 10);
+			hierarchy.removeObjects(toRemove, false);
+			removed.addAll(toRemove);
+			var remaining = hierarchy.getObjectsForRegion(null, region, null);
+			assertEquals(400 - removed.size(), remaining.size());
+			assertFalse(remaining.contains(toRemove.get(0)));
+		}
+
+		// Add them back again
+		hierarchy.addObjects(removed);
+		assertEquals(400, hierarchy.getObjectsForRegion(null, region, null).size());
+
+		// A full synchronization should give the same result
+		hierarchy.fireHierarchyChangedEvent(this);
+		assertEquals(400, hierarchy.getObjectsForRegion(null, region, null).size());
+	}
+
+}
@@ -0,0 +1,200 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class TestIncrementalSpatialIndex {
+
+	private static double[] randomBounds(Random rand) {
+		double x = rand.nextDouble() * 10000;
+		double y = rand.nextDouble() * 10000;
+		return new double[] {x, y, x + rand.nextDouble() * 50, y + rand.nextDouble() * 50};
+	}
+
+	private static Set<Integer> query(IncrementalSpatialIndex<Integer> index, double[] query) {
+		Set<Integer> results = new HashSet<>();
+		index.query(query[0], query[1], query[2], query[3], i -> {
+			assertTrue(results.add(i), "Item visited twice");
+			return true;
+		});
+		return results;
+	}
+
+	private static Set<Integer> bruteForce(Map<Integer, double[]> items, double[] query) {
+		Set<Integer> results = new HashSet<>();
+		for (var entry : items.entrySet()) {
+			var b = entry.getValue();
+			if (b[0] <= query[2] && b[2] >= query[0] && b[1] <= query[3] && b[3] >= query[1])
+				results.add(entry.getKey());
+		}
+		return results;
+	}
+
+	private static void checkQueries(IncrementalSpatialIndex<Integer> index, Map<Integer, double[]> items, Random rand) {
+		assertEquals(items.size(), index.size());
+		for (int i = 0; i < 20; i++) {
+			double x = rand.nextDouble() * 10000;
+			double y = rand.nextDouble() * 10000;
+			double[] query = {x, y, x + 500, y + 500};
+			assertEquals(bruteForce(items, query), query(index, query));
+		}
+		assertEquals(items.keySet(), query(index, new double[] {
+				Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY}));
+	}
+
+	@Test
+	public void test_buildAndUpdate() {
+		var rand = new Random(100L);
+		Map<Integer, double[]> items = new HashMap<>();
+		for (int i = 0; i < 20_000; i++)
+			items.put(i, randomBounds(rand));
+
+		var index = new IncrementalSpatialIndex<Integer>();
+		index.build(items.keySet(), (i, b) -> System.arraycopy(items.get(i), 0, b, 0, 4));
+		checkQueries(index, items, rand);
+
+		// Add, move & remove items individually, enough to require several trees to be merged & compacted
+		int next = items.size();
+		for (int i = 0; i < 50_000; i++) {
+			double p = rand.nextDouble();
+			if (p < 0.4) {
+				var b = randomBounds(rand);
+				items.put(next, b);
+				index.put(next, b[0], b[1], b[2], b[3]);
+				next++;
+			} else if (p < 0.7) {
+				int key = rand.nextInt(next);
+				if (items.containsKey(key)) {
+					var b = randomBounds(rand);
+					items.put(key, b);
+					index.put(key, b[0], b[1], b[2], b[3]);
+				}
+			} else {
+				int key = rand.nextInt(next);
+				assertEquals(items.remove(key) != null, index.remove(key));
+			}
+			if (i % 10_000 == 0)
+				checkQueries(index, items, rand);
+		}
+		checkQueries(index, items, rand);
+	}
+
+	@Test
+	public void test_putAll() {
+		var rand = new Random(300L);
+		Map<Integer, double[]> items = new HashMap<>();
+		var index = new IncrementalSpatialIndex<Integer>();
+		// Add some items individually, so that there are pending entries
+		for (int i = 0; i < 500; i++) {
+			var b = randomBounds(rand);
+			items.put(i, b);
+			index.put(i, b[0], b[1], b[2], b[3]);
+		}
+		// Add new items & move existing items in bulk, in batches both above & below the bulk threshold
+		for (int batch : new int[] {10, 5000, 200, 20000}) {
+			Map<Integer, double[]> updates = new HashMap<>();
+			for (int i = 0; i < batch; i++) {
+				int key = rand.nextInt(items.size() + batch);
+				updates.put(key, randomBounds(rand));
+			}
+			items.putAll(updates);
+			index.putAll(updates.keySet(), (i, b) -> System.arraycopy(updates.get(i), 0, b, 0, 4));
+			checkQueries(index, items, rand);
+		}
+	}
+
+	@Test
+	public void test_unchangedPut() {
+		var index = new IncrementalSpatialIndex<String>();
+		var entry = index.put("a", 0, 0, 10, 10);
+		assertTrue(entry == index.put("a", 0, 0, 10, 10));
+		assertFalse(entry == index.put("a", 0, 0, 10, 20));
+		assertEquals(1, index.size());
+		assertTrue(index.remove("a"));
+		assertFalse(index.remove("a"));
+		assertEquals(0, index.size());
+	}
+
+	@Test
+	public void test_earlyStop() {
+		var index = new IncrementalSpatialIndex<Integer>();
+		for (int i = 0; i < 5000; i++)
+			index.put(i, i, i, i + 1, i + 1);
+		List<Integer> visited = new ArrayList<>();
+		assertFalse(index.query(0, 0, 10000, 10000, i -> {
+			visited.add(i);
+			return visited.size() < 3;
+		}));
+		assertEquals(3, visited.size());
+	}
+
+	@Test
+	public void test_concurrentQueries() throws Exception {
+		var index = new IncrementalSpatialIndex<Integer>();
+		// Items that are never changed, and so should always be found
+		for (int i = 0; i < 1000; i++)
+			index.put(i, 0, 0, 1, 1);
+		var done = new AtomicBoolean(false);
+		var error = new AtomicReference<String>();
+		var reader = new Thread(() -> {
+			while (!done.get()) {
+				int[] count = new int[1];
+				index.query(0, 0, 1, 1, i -> {
+					if (i < 1000)
+						count[0]++;
+					return true;
+				});
+				if (count[0] != 1000)
+					error.set("Expected 1000 fixed items, found " + count[0]);
+			}
+		});
+		reader.start();
+		var rand = new Random(200L);
+		for (int i = 0; i < 50_000; i++) {
+			int key = 1000 + rand.nextInt(5000);
+			if (rand.nextBoolean())
+				index.put(key, 0, 0, 1, 1 + rand.nextInt(3));
+			else
+				index.remove(key);
+		}
+		done.set(true);
+		reader.join();
+		assertEquals(null, error.get());
+	}
+
+}
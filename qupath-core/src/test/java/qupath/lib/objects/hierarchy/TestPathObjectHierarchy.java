@@ -31,6 +31,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
 
@@ -379,6 +380,108 @@ public class TestPathObjectHierarchy {
 	}
 	
 	
+	/**
+	 * Create nested annotations and detections scattered across them, in a reproducible order.
+	 */
+	private static List<PathObject> createObjectsToInsert(int nDetections, long seed) {
+		var plane = ImagePlane.getDefaultPlane();
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			double x = (i % 5) * 1000;
+			double y = (i / 5) * 1000;
+			pathObjects.add(PathObjects.createAnnotationObject(ROIs.createRectangleROI(x, y, 900, 900, plane)));
+			pathObjects.add(PathObjects.createAnnotationObject(ROIs.createEllipseROI(x + 100, y + 100, 500, 500, plane)));
+		}
+		var rand = new Random(seed);
+		for (int i = 0; i < nDetections; i++) {
+			double x = rand.nextDouble() * 5500;
+			double y = rand.nextDouble() * 2500;
+			pathObjects.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(x, y, 8, 8, plane)));
+		}
+		Collections.shuffle(pathObjects, rand);
+		return pathObjects;
+	}
+	
+	@Test
+	public void test_insertPathObjects() {
+		// Insert the same objects one at a time & in bulk, and check the parents match
+		var sequential = createObjectsToInsert(5000, 100L);
+		var hierarchySequential = new PathObjectHierarchy();
+		for (var pathObject : sequential)
+			hierarchySequential.insertPathObject(pathObject, false);
+		
+		var bulk = createObjectsToInsert(5000, 100L);
+		var hierarchyBulk = new PathObjectHierarchy();
+		var events = new ArrayList<PathObjectHierarchyEvent>();
+		hierarchyBulk.addListener(events::add);
+		assertTrue(hierarchyBulk.insertPathObjects(bulk));
+		assertEquals(1, events.size());
+		assertEquals(bulk.size(), events.get(0).getAddedObjects().size());
+		
+		assertEquals(hierarchySequential.nObjects(), hierarchyBulk.nObjects());
+		for (int i = 0; i < sequential.size(); i++) {
+			// Parents are identified by their index in the list (or -1 for the root object)
+			int parentSequential = sequential.indexOf(sequential.get(i).getParent());
+			int parentBulk = bulk.indexOf(bulk.get(i).getParent());
+			assertEquals(parentSequential, parentBulk);
+		}
+		
+		// Check the cache is up to date
+		var region = ImageRegion.createInstance(0, 0, 1000, 1000, 0, 0);
+		assertEquals(
+				hierarchySequential.getObjectsForRegion(null, region, null).size(),
+				hierarchyBulk.getObjectsForRegion(null, region, null).size());
+	}
+	
+	@Test
+	public void test_resolveHierarchyMatchesSerial() {
+		// Reference result, inserting annotations one at a time & reassigning detections immediately
+		var serial = createObjectsToResolve();
+		var hierarchySerial = new PathObjectHierarchy();
+		hierarchySerial.addObjects(serial);
+		var annotations = new ArrayList<>(hierarchySerial.getAnnotationObjects());
+		hierarchySerial.removeObjects(annotations, true);
+		annotations.sort(PathObjectHierarchy.HIERARCHY_COMPARATOR.reversed());
+		for (var annotation : annotations)
+			hierarchySerial.insertPathObject(annotation, false);
+		
+		var parallel = createObjectsToResolve();
+		var hierarchyParallel = new PathObjectHierarchy();
+		hierarchyParallel.addObjects(parallel);
+		hierarchyParallel.resolveHierarchy();
+		
+		int nInAnnotations = 0;
+		for (int i = 0; i < serial.size(); i++) {
+			int parentSerial = serial.indexOf(serial.get(i).getParent());
+			int parentParallel = parallel.indexOf(parallel.get(i).getParent());
+			assertEquals(parentSerial, parentParallel);
+			if (parentSerial >= 0 && serial.get(i).isDetection())
+				nInAnnotations++;
+		}
+		assertTrue(nInAnnotations > 0);
+	}
+	
+	/**
+	 * Create annotations that overlap without being nested, so that the order in which they are inserted 
+	 * affects where detections are placed.
+	 */
+	private static List<PathObject> createObjectsToResolve() {
+		var plane = ImagePlane.getDefaultPlane();
+		List<PathObject> pathObjects = new ArrayList<>();
+		pathObjects.add(PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 1000, 1000, plane)));
+		pathObjects.add(PathObjects.createAnnotationObject(ROIs.createEllipseROI(100, 100, 600, 600, plane)));
+		pathObjects.add(PathObjects.createAnnotationObject(ROIs.createRectangleROI(500, 500, 800, 800, plane)));
+		pathObjects.add(PathObjects.createAnnotationObject(ROIs.createRectangleROI(900, 100, 300, 300, plane)));
+		pathObjects.add(PathObjects.createAnnotationObject(ROIs.createLineROI(0, 0, 500, 500, plane)));
+		var rand = new Random(400L);
+		for (int i = 0; i < 5000; i++) {
+			double x = rand.nextDouble() * 1500;
+			double y = rand.nextDouble() * 1500;
+			pathObjects.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(x, y, 8, 8, plane)));
+		}
+		return pathObjects;
+	}
+	
 }
 
 // Helper classes for testing
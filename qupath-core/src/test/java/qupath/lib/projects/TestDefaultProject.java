@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+package qupath.lib.projects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerBuilder.ServerBuilder;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestDefaultProject {
+
+	@Test
+	public void test_saveImageDataAsync(@TempDir Path dir) throws Exception {
+		var project = new DefaultProject(dir.toFile());
+		var server = new WrappedBufferedImageServer("Test", new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB));
+		var entry = project.addImage(new TestServerBuilder(server));
+		var imageData = new ImageData<>(server);
+
+		// Block the first save part way through writing, so that more saves are requested before it completes
+		var started = new CountDownLatch(1);
+		var release = new CountDownLatch(1);
+		addAnnotation(imageData);
+		var future1 = entry.saveImageDataAsync(imageData, p -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		// The data shouldn't be marked as saved until it has been written
+		assertTrue(imageData.isChanged());
+
+		addAnnotation(imageData);
+		var future2 = entry.saveImageDataAsync(imageData, null);
+		addAnnotation(imageData);
+		var future3 = entry.saveImageDataAsync(imageData, null);
+		assertFalse(future2.isDone());
+
+		// The second save is superseded by the third, and completes with it
+		release.countDown();
+		future3.get(10, TimeUnit.SECONDS);
+		assertTrue(future1.isDone() && !future1.isCompletedExceptionally());
+		assertTrue(future2.isDone() && !future2.isCompletedExceptionally());
+		assertFalse(imageData.isChanged());
+		assertEquals(3, entry.readHierarchy().getAnnotationObjects().size());
+
+		// A synchronous save should replace any snapshot requested before it
+		var started2 = new CountDownLatch(1);
+		var release2 = new CountDownLatch(1);
+		entry.saveImageDataAsync(imageData, p -> {
+			started2.countDown();
+			try {
+				release2.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		assertTrue(started2.await(10, TimeUnit.SECONDS));
+		addAnnotation(imageData);
+		var future5 = entry.saveImageDataAsync(imageData, null);
+		addAnnotation(imageData);
+		var thread = new Thread(() -> {
+			try {
+				entry.saveImageData(imageData);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		thread.start();
+		release2.countDown();
+		thread.join(10_000);
+		future5.get(10, TimeUnit.SECONDS);
+		assertEquals(5, entry.readHierarchy().getAnnotationObjects().size());
+
+		// Changes made after a snapshot mean the data should remain unsaved
+		var future6 = entry.saveImageDataAsync(imageData, null);
+		addAnnotation(imageData);
+		future6.get(10, TimeUnit.SECONDS);
+		assertTrue(imageData.isChanged());
+	}
+
+	private static void addAnnotation(ImageData<?> imageData) {
+		int n = imageData.getHierarchy().getAnnotationObjects().size();
+		imageData.getHierarchy().addObject(
+				PathObjects.createAnnotationObject(ROIs.createRectangleROI(n * 10, 0, 5, 5, ImagePlane.getDefaultPlane())));
+	}
+
+	private static class TestServerBuilder implements ServerBuilder<BufferedImage> {
+
+		private final ImageServer<BufferedImage> server;
+
+		private TestServerBuilder(ImageServer<BufferedImage> server) {
+			this.server = server;
+		}
+
+		@Override
+		public ImageServer<BufferedImage> build() {
+			return server;
+		}
+
+		@Override
+		public Collection<URI> getURIs() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public ServerBuilder<BufferedImage> updateURIs(Map<URI, URI> updateMap) {
+			return this;
+		}
+
+	}
+
+}
@@ -0,0 +1,114 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.projects;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+@SuppressWarnings("javadoc")
+public class TestProjectIndex {
+
+	@Test
+	public void test_index(@TempDir Path dir) throws IOException {
+		var index = new ProjectIndex(dir);
+		assertNull(index.get("1"));
+		assertNull(index.readThumbnail("1"));
+
+		index.updateData("1", 100L, 2000L, Map.of("Detection", 10L, "Annotation", 2L));
+		byte[] thumbnail1 = {1, 2, 3, 4};
+		byte[] thumbnail2 = {5, 6, 7};
+		index.writeThumbnail("1", thumbnail1);
+		index.writeThumbnail("2", thumbnail2);
+		assertArrayEquals(thumbnail1, index.readThumbnail("1"));
+		assertArrayEquals(thumbnail2, index.readThumbnail("2"));
+
+		// Replacing a thumbnail should work even after the pack has been mapped
+		byte[] thumbnail3 = {8, 9};
+		index.writeThumbnail("1", thumbnail3);
+		assertArrayEquals(thumbnail3, index.readThumbnail("1"));
+		index.flush();
+		assertTrue(Files.isRegularFile(dir.resolve("index.json")));
+
+		// Check we can read the index again
+		var index2 = new ProjectIndex(dir);
+		index2.load();
+		var record = index2.get("1");
+		assertEquals(12, record.getObjectCount());
+		assertEquals(2000L, record.getDataSize());
+		assertEquals(100L, record.getDataTimestamp());
+		assertEquals(Long.valueOf(10L), record.getObjectTypeCounts().get("Detection"));
+		assertArrayEquals(thumbnail3, index2.readThumbnail("1"));
+		assertArrayEquals(thumbnail2, index2.readThumbnail("2"));
+		assertTrue(index2.get("2").getObjectCount() < 0);
+
+		index2.remove("2");
+		assertNull(index2.get("2"));
+		assertNull(index2.readThumbnail("2"));
+	}
+
+	@Test
+	public void test_compactThumbnails(@TempDir Path dir) throws IOException {
+		var index = new ProjectIndex(dir);
+		byte[] large = new byte[5 * 1024 * 1024];
+		byte[] thumbnail1 = {1, 2, 3, 4};
+		byte[] thumbnail2 = {5, 6, 7};
+		index.writeThumbnail("1", large);
+		index.writeThumbnail("2", thumbnail2);
+		index.writeThumbnail("1", thumbnail1);
+		index.flush();
+		var pathPack = dir.resolve("thumbnails.pack");
+		assertTrue(Files.size(pathPack) > large.length);
+
+		// Loading the index should compact the pack, writing it under a new name
+		var index2 = new ProjectIndex(dir);
+		index2.load();
+		assertFalse(Files.exists(pathPack));
+		assertArrayEquals(thumbnail1, index2.readThumbnail("1"));
+		assertArrayEquals(thumbnail2, index2.readThumbnail("2"));
+
+		// The index written after compaction should reference the new pack
+		var index3 = new ProjectIndex(dir);
+		index3.load();
+		assertArrayEquals(thumbnail1, index3.readThumbnail("1"));
+		assertArrayEquals(thumbnail2, index3.readThumbnail("2"));
+	}
+
+	@Test
+	public void test_invalidIndex(@TempDir Path dir) throws IOException {
+		Files.writeString(dir.resolve("index.json"), "Not an index");
+		var index = new ProjectIndex(dir);
+		index.load();
+		assertNull(index.get("1"));
+	}
+
+}
@@ -903,6 +903,20 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 	}
 	
 	
+	/**
+	 * Returns true, since reading a tile requires borrowing a reader from the pool and decoding the pixels, 
+	 * which can be slow for compressed formats (e.g. JPEG2000 in DICOM or OME-TIFF, JPEG-XR in CZI).
+	 * <p>
+	 * Cached tiles are not checked against the file, so the disk cache is only safe while the file is unchanged.
+	 * Bio-Formats can open files that are still being written or may be replaced (e.g. by acquisition software), 
+	 * and tiles read from the cache will be out of date if this happens while the server is open.
+	 * The cached tiles are discarded when the server is closed, so reopening the image reads the current pixels.
+	 */
+	@Override
+	protected boolean useDiskTileCache() {
+		return true;
+	}
+	
 	@Override
 	public BufferedImage readTile(TileRequest tileRequest) throws IOException {
 		try {
@@ -35,11 +35,11 @@ import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 import qupath.lib.common.GeneralTools;
 import qupath.lib.gui.extensions.Subcommand;
-import qupath.lib.gui.images.stores.ImageRegionStoreFactory;
 import qupath.lib.gui.prefs.PathPrefs;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ImageServerProvider;
 import qupath.lib.images.servers.ImageServers;
+import qupath.lib.images.servers.cache.TileCache;
 import qupath.lib.images.servers.bioformats.BioFormatsServerBuilder;
 import qupath.lib.images.writers.ome.OMEPyramidWriter.Builder;
 import qupath.lib.images.writers.ome.OMEPyramidWriter.CompressionType;
@@ -309,8 +309,8 @@ public class ConvertCommand implements Runnable, Subcommand {
 		long tileCacheSize = Math.round(maxAvailable * (percentage / 100.0));
 		logger.info(String.format("Setting tile cache size to %.2f MB (%.1f%% max memory)", tileCacheSize/(1024.*1024.), percentage));
 		
-		var imageRegionStore = ImageRegionStoreFactory.createImageRegionStore(tileCacheSize);
-		ImageServerProvider.setCache(imageRegionStore.getCache(), BufferedImage.class);
+		// We don't need a full ImageRegionStore (with its own thread pools) for a headless cache
+		ImageServerProvider.setCache(TileCache.createBufferedImageCache(tileCacheSize), BufferedImage.class);
 	}
 	
 }
\ No newline at end of file
@@ -36,8 +36,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -72,6 +72,8 @@ import qupath.lib.images.servers.ServerTools;
 import qupath.lib.images.servers.TileRequest;
 import qupath.lib.images.servers.ImageServerMetadata.ChannelType;
 import qupath.lib.images.servers.ImageServers;
+import qupath.lib.images.servers.cache.TileScheduler;
+import qupath.lib.images.servers.cache.TileScheduler.Priority;
 import qupath.lib.regions.ImageRegion;
 import qupath.lib.regions.RegionRequest;
 
@@ -811,17 +813,22 @@ public class OMEPyramidWriter {
 								}).toList();
 								
 								if (parallelThreads > 1) {
-									var pool = Executors.newWorkStealingPool(parallelThreads);
-									for (var task : tasks) {
-										pool.submit(task);
+									var group = TileScheduler.getInstance().createGroup(Priority.BATCH, parallelThreads);
+									List<Future<?>> futures = new ArrayList<>();
+									for (int i = 0; i < tasks.size(); i++) {
+										futures.add(group.submit(tiles.get(i).getRegionRequest(), tasks.get(i)));
 									}
-									pool.shutdown();
 									try {
-										pool.awaitTermination(tiles.size(), TimeUnit.MINUTES);
+										for (var future : futures)
+											future.get();
 										logger.info("Plane written in {} ms", System.currentTimeMillis() - planeStartTime);
 									} catch (InterruptedException e) {
 										logger.warn("OME-TIFF export interrupted!");
-										pool.shutdownNow();
+										group.cancel();
+										for (var future : futures)
+											future.cancel(true);
+										throw new IOException("Error writing regions", e);
+									} catch (ExecutionException e) {
 										throw new IOException("Error writing regions", e);
 									}
 								} else {
@@ -260,7 +260,8 @@ public class OpenslideImageServer extends AbstractTileableImageServer {
 	}
 	
 	@Override
-	public void close() {
+	public void close() throws Exception {
+		super.close();
 		if (osr != null) {
 			osr.close();
 		}
@@ -280,6 +281,20 @@ public class OpenslideImageServer extends AbstractTileableImageServer {
 		return "OpenSlide";
 	}
 
+	/**
+	 * Returns true, since OpenSlide reads each region by decoding and compositing all the overlapping 
+	 * tiles from the slide file, and the premultiplied ARGB result is then drawn onto an RGB image.
+	 * <p>
+	 * This is safe because OpenSlide only supports whole slide image formats that are written once by a scanner, 
+	 * and the slide is opened once when the server is created. 
+	 * If the slide files were replaced while the server is open, cached tiles would be out of date until it 
+	 * is closed (at which point they are discarded).
+	 */
+	@Override
+	protected boolean useDiskTileCache() {
+		return true;
+	}
+	
 	@Override
 	public BufferedImage readTile(TileRequest tileRequest) throws IOException {
 		
@@ -0,0 +1,463 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.gui;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjectTools;
+import qupath.lib.objects.PathROIObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.objects.hierarchy.TMAGrid;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
+import qupath.lib.plugins.ParallelTileObject;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Journal of the changes made to a {@link PathObjectHierarchy}, to support undo and redo.
+ * <p>
+ * Rather than storing a copy of the entire hierarchy after every change, the journal records a lightweight
+ * state for each object: its parent, ROI, classification, name, color and locked status.
+ * ROIs and classifications are immutable, so states store references rather than copies.
+ * <p>
+ * Whenever the hierarchy changes, only the objects referenced by the event are compared with their recorded
+ * states, and any that differ are stored in a delta. This means that the cost of a typical edit
+ * (e.g. a brush stroke) is independent of the size of the hierarchy. If an event doesn't indicate which
+ * objects have changed, all objects are compared - which requires only reference comparisons.
+ * <p>
+ * Measurements are not recorded, and so are not restored by undo or redo.
+ * If the TMA grid is changed, the journal is reset.
+ * <p>
+ * Hierarchy events are fired while synchronized on the hierarchy, and so the journal always locks the hierarchy 
+ * before itself to avoid deadlocks.
+ *
+ * @since v0.5.0
+ */
+class HierarchyUndoJournal {
+
+	private static final Logger logger = LoggerFactory.getLogger(HierarchyUndoJournal.class);
+
+	private final PathObjectHierarchy hierarchy;
+
+	/**
+	 * Current state of every object known to be in the hierarchy (excluding the root).
+	 */
+	private final Map<PathObject, ObjectState> states = new IdentityHashMap<>();
+	private TMAGrid tmaGrid;
+
+	/**
+	 * Objects loaded lazily aren't reported by events, so unknown detections are assumed to have been
+	 * loaded (rather than added) whenever the hierarchy has had deferred objects.
+	 */
+	private boolean hasDeferredObjects;
+
+	private final Deque<Delta> undoStack = new ArrayDeque<>();
+	private final Deque<Delta> redoStack = new ArrayDeque<>();
+	private long undoBytes = 0L;
+	private long redoBytes = 0L;
+
+	// Guarded by the hierarchy lock
+	private boolean applying = false;
+
+	/**
+	 * Create a journal for a hierarchy, using its current state as the starting point.
+	 * @param hierarchy
+	 */
+	HierarchyUndoJournal(PathObjectHierarchy hierarchy) {
+		this.hierarchy = hierarchy;
+		resetStates();
+	}
+
+	private void resetStates() {
+		states.clear();
+		synchronized (hierarchy) {
+			tmaGrid = hierarchy.getTMAGrid();
+			hasDeferredObjects = hierarchy.hasDeferredObjects();
+			// Avoid requesting objects from the hierarchy, since this would load any deferred objects
+			for (var pathObject : PathObjectTools.getDescendantObjects(hierarchy.getRootObject(), new ArrayList<>(), null))
+				states.put(pathObject, ObjectState.of(pathObject));
+		}
+	}
+
+	/**
+	 * Get the hierarchy associated with this journal.
+	 * @return
+	 */
+	PathObjectHierarchy getHierarchy() {
+		return hierarchy;
+	}
+
+	/**
+	 * Get the number of objects with recorded states.
+	 * @return
+	 */
+	synchronized int nObjects() {
+		return states.size();
+	}
+
+	/**
+	 * Returns true if the undo stack is not empty.
+	 * @return
+	 */
+	synchronized boolean canUndo() {
+		return !undoStack.isEmpty();
+	}
+
+	/**
+	 * Returns true if the redo stack is not empty.
+	 * @return
+	 */
+	synchronized boolean canRedo() {
+		return !redoStack.isEmpty();
+	}
+
+	/**
+	 * Get the estimated number of bytes retained by the undo and redo stacks.
+	 * This excludes the recorded states of the current objects, which don't depend upon the number of changes.
+	 * @return
+	 */
+	synchronized long totalBytes() {
+		return undoBytes + redoBytes;
+	}
+
+	/**
+	 * Clear the undo and redo stacks.
+	 */
+	synchronized void clear() {
+		undoStack.clear();
+		redoStack.clear();
+		undoBytes = 0L;
+		redoBytes = 0L;
+	}
+
+	/**
+	 * Record the changes associated with a hierarchy event.
+	 * This will clear the redo stack if any changes are found.
+	 *
+	 * @param event the event
+	 * @param maxLevels the maximum number of changes to retain, or &le; 0 if there is no limit
+	 * @param maxBytes the maximum estimated number of bytes to retain
+	 */
+	void hierarchyChanged(PathObjectHierarchyEvent event, int maxLevels, long maxBytes) {
+		if (event.getHierarchy() != hierarchy || event.isChanging() || event.isObjectMeasurementEvent())
+			return;
+		synchronized (hierarchy) {
+			synchronized (this) {
+				if (applying)
+					return;
+				recordChanges(event, maxLevels, maxBytes);
+			}
+		}
+	}
+
+	private void recordChanges(PathObjectHierarchyEvent event, int maxLevels, long maxBytes) {
+		if (hierarchy.getTMAGrid() != tmaGrid) {
+			logger.debug("TMA grid changed - undo history will be reset");
+			clear();
+			resetStates();
+			return;
+		}
+		hasDeferredObjects |= hierarchy.hasDeferredObjects();
+		Delta delta;
+		var candidates = getChangedObjectCandidates(event);
+		if (candidates == null)
+			delta = createDelta(getAllObjectCandidates(), false);
+		else
+			delta = createDelta(candidates, true);
+		if (delta == null)
+			return;
+
+		redoStack.clear();
+		redoBytes = 0L;
+		undoStack.push(delta);
+		undoBytes += delta.bytes;
+		while (!undoStack.isEmpty() && ((maxLevels > 0 && undoStack.size() > maxLevels) || undoBytes > maxBytes)) {
+			undoBytes -= undoStack.pollLast().bytes;
+		}
+		logger.trace("Recorded change to {} object(s), {} undo levels using ~{} bytes", delta.objects.length, undoStack.size(), undoBytes);
+	}
+
+	/**
+	 * Revert the most recent change.
+	 * @return true if a change was reverted, false otherwise
+	 */
+	boolean undo() {
+		synchronized (hierarchy) {
+			synchronized (this) {
+				if (undoStack.isEmpty())
+					return false;
+				var delta = undoStack.pop();
+				undoBytes -= delta.bytes;
+				apply(delta.objects, delta.before);
+				redoStack.push(delta);
+				redoBytes += delta.bytes;
+			}
+			fireHierarchyChanged();
+			return true;
+		}
+	}
+
+	/**
+	 * Reapply the most recently reverted change.
+	 * @return true if a change was reapplied, false otherwise
+	 */
+	boolean redo() {
+		synchronized (hierarchy) {
+			synchronized (this) {
+				if (redoStack.isEmpty())
+					return false;
+				var delta = redoStack.pop();
+				redoBytes -= delta.bytes;
+				apply(delta.objects, delta.after);
+				undoStack.push(delta);
+				undoBytes += delta.bytes;
+			}
+			fireHierarchyChanged();
+			return true;
+		}
+	}
+
+
+	/**
+	 * Get the objects that might have been changed according to an event, or null if this can't be determined.
+	 */
+	private static Collection<PathObject> getChangedObjectCandidates(PathObjectHierarchyEvent event) {
+		if (event.isStructureChangeEvent() && !event.hasStructureDelta() && event.getChangedObjects().isEmpty())
+			return null;
+		List<PathObject> candidates = new ArrayList<>(event.getChangedObjects());
+		candidates.addAll(event.getAddedObjects());
+		candidates.addAll(event.getRemovedObjects());
+		candidates.addAll(event.getMovedObjects());
+		var base = event.getStructureChangeBase();
+		if (base != null)
+			candidates.add(base);
+		return candidates;
+	}
+
+	private Collection<PathObject> getAllObjectCandidates() {
+		var candidates = PathObjectTools.getDescendantObjects(hierarchy.getRootObject(), new ArrayList<>(), null);
+		candidates.addAll(states.keySet());
+		return candidates;
+	}
+
+	/**
+	 * Compare objects with their recorded states, updating the states and returning a delta if anything has changed.
+	 * @param candidates objects that may have changed
+	 * @param reported true if the candidates were reported by an event, false if they include all objects
+	 * @return the delta, or null if there are no changes
+	 */
+	private Delta createDelta(Collection<PathObject> candidates, boolean reported) {
+		List<PathObject> objects = new ArrayList<>();
+		List<ObjectState> before = new ArrayList<>();
+		List<ObjectState> after = new ArrayList<>();
+		Set<PathObject> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+		Deque<PathObject> queue = new ArrayDeque<>(candidates);
+		var root = hierarchy.getRootObject();
+		while (!queue.isEmpty()) {
+			var pathObject = queue.poll();
+			if (pathObject == root || pathObject.isRootObject() || pathObject instanceof ParallelTileObject || !visited.add(pathObject))
+				continue;
+			var stateBefore = states.get(pathObject);
+			var stateAfter = isInHierarchy(pathObject) ? ObjectState.of(pathObject) : null;
+			if (stateBefore == null && stateAfter == null)
+				continue;
+			// Descendants are added or removed along with their ancestors
+			if ((stateBefore == null) != (stateAfter == null) && pathObject.hasChildObjects())
+				queue.addAll(pathObject.getChildObjects());
+			if (stateBefore == null && !reported && hasDeferredObjects && pathObject.isDetection()) {
+				states.put(pathObject, stateAfter);
+				continue;
+			}
+			if (stateBefore != null && stateBefore.isSameAs(stateAfter))
+				continue;
+			objects.add(pathObject);
+			before.add(stateBefore);
+			after.add(stateAfter);
+			if (stateAfter == null)
+				states.remove(pathObject);
+			else
+				states.put(pathObject, stateAfter);
+		}
+		if (objects.isEmpty())
+			return null;
+		return new Delta(objects.toArray(PathObject[]::new), before.toArray(ObjectState[]::new), after.toArray(ObjectState[]::new));
+	}
+
+	private boolean isInHierarchy(PathObject pathObject) {
+		var root = hierarchy.getRootObject();
+		var parent = pathObject.getParent();
+		while (parent != null) {
+			if (parent == root)
+				return true;
+			parent = parent.getParent();
+		}
+		return false;
+	}
+
+	/**
+	 * Set the state of the specified objects.
+	 * This should be called while synchronized on both the hierarchy and the journal.
+	 * @param objects
+	 * @param targetStates the states to apply; null indicates that the object should be removed from the hierarchy
+	 */
+	private void apply(PathObject[] objects, ObjectState[] targetStates) {
+		// Group changes by parent, since removing child objects one at a time can be slow
+		Map<PathObject, List<PathObject>> toRemove = new LinkedHashMap<>();
+		Map<PathObject, List<PathObject>> toAdd = new LinkedHashMap<>();
+		for (int i = 0; i < objects.length; i++) {
+			var pathObject = objects[i];
+			var state = targetStates[i];
+			var parent = pathObject.getParent();
+			var targetParent = state == null ? null : state.parent;
+			if (parent != targetParent) {
+				if (parent != null)
+					toRemove.computeIfAbsent(parent, p -> new ArrayList<>()).add(pathObject);
+				if (targetParent != null)
+					toAdd.computeIfAbsent(targetParent, p -> new ArrayList<>()).add(pathObject);
+			}
+			if (state == null)
+				states.remove(pathObject);
+			else {
+				state.applyProperties(pathObject);
+				states.put(pathObject, state);
+			}
+		}
+		toRemove.forEach((parent, children) -> parent.removeChildObjects(children));
+		toAdd.forEach((parent, children) -> parent.addChildObjects(children));
+	}
+
+	/**
+	 * Notify listeners that the hierarchy has changed, without recording the change.
+	 * This should be called while synchronized on the hierarchy, but not on the journal.
+	 */
+	private void fireHierarchyChanged() {
+		applying = true;
+		try {
+			hierarchy.fireHierarchyChangedEvent(this);
+		} finally {
+			applying = false;
+		}
+	}
+
+
+	/**
+	 * Recorded state of a single object.
+	 */
+	private static class ObjectState {
+
+		private final PathObject parent;
+		private final ROI roi;
+		private final PathClass pathClass;
+		private final double classProbability;
+		private final String name;
+		private final Integer color;
+		private final boolean locked;
+
+		private ObjectState(PathObject pathObject) {
+			this.parent = pathObject.getParent();
+			this.roi = pathObject.getROI();
+			this.pathClass = pathObject.getPathClass();
+			this.classProbability = pathObject.getClassProbability();
+			this.name = pathObject.getName();
+			this.color = pathObject.getColor();
+			this.locked = pathObject.isLocked();
+		}
+
+		static ObjectState of(PathObject pathObject) {
+			return new ObjectState(pathObject);
+		}
+
+		boolean isSameAs(ObjectState state) {
+			return state != null &&
+					parent == state.parent &&
+					roi == state.roi &&
+					pathClass == state.pathClass &&
+					Double.compare(classProbability, state.classProbability) == 0 &&
+					Objects.equals(name, state.name) &&
+					Objects.equals(color, state.color) &&
+					locked == state.locked;
+		}
+
+		void applyProperties(PathObject pathObject) {
+			if (roi != null && pathObject.getROI() != roi && pathObject instanceof PathROIObject roiObject)
+				roiObject.setROI(roi);
+			if (pathObject.getPathClass() != pathClass || Double.compare(pathObject.getClassProbability(), classProbability) != 0)
+				pathObject.setPathClass(pathClass, classProbability);
+			if (!Objects.equals(pathObject.getName(), name))
+				pathObject.setName(name);
+			if (!Objects.equals(pathObject.getColor(), color))
+				pathObject.setColor(color);
+			if (pathObject.isLocked() != locked)
+				pathObject.setLocked(locked);
+		}
+
+	}
+
+
+	/**
+	 * States of the objects changed by a single event.
+	 */
+	private static class Delta {
+
+		private final PathObject[] objects;
+		private final ObjectState[] before;
+		private final ObjectState[] after;
+		private final long bytes;
+
+		private Delta(PathObject[] objects, ObjectState[] before, ObjectState[] after) {
+			this.objects = objects;
+			this.before = before;
+			this.after = after;
+			long total = 64L;
+			for (int i = 0; i < objects.length; i++)
+				total += estimateBytes(before[i], after[i]);
+			this.bytes = total;
+		}
+
+		/**
+		 * Estimate the memory retained by a single change.
+		 * ROIs are shared with the hierarchy unless they have been changed or removed.
+		 */
+		private static long estimateBytes(ObjectState before, ObjectState after) {
+			long bytes = 96L;
+			if (before != null && before.roi != null && (after == null || after.roi != before.roi))
+				bytes += 64L + before.roi.getNumPoints() * 16L;
+			return bytes;
+		}
+
+	}
+
+}
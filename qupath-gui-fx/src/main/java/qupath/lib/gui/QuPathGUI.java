@@ -813,6 +813,7 @@ public class QuPathGUI {
 			imageRegionStore.getCache().clear();
 		});
 		ImageServerProvider.setCache(imageRegionStore.getCache(), BufferedImage.class);
+		ImageServerProvider.setDiskTileCache(ImageRegionStoreFactory.createDiskTileCache());
 		// Turn off the use of ImageIODiskCache (it causes some trouble)
 		ImageIO.setUseCache(false);
 	}
@@ -1483,7 +1484,7 @@ public class QuPathGUI {
 
 		// Check if we need to rotate the image
 		try {
-			imageData = entry.readImageData();
+			imageData = entry.readImageData(PathPrefs.lazyLoadDetectionsProperty().get());
 			viewer.setImageData(imageData);
 			if (imageData != null && (imageData.getImageType() == null || imageData.getImageType() == ImageType.UNSET)) {
 				var setType = PathPrefs.imageTypeSettingProperty().get();
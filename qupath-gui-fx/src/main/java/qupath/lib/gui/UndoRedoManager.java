@@ -23,13 +23,6 @@ package qupath.lib.gui;
 
 import java.awt.Shape;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.ArrayDeque;
-import java.util.Deque;
 import java.util.Map;
 import java.util.WeakHashMap;
 
@@ -47,7 +40,6 @@ import qupath.lib.gui.prefs.PathPrefs;
 import qupath.lib.gui.viewer.QuPathViewer;
 import qupath.lib.gui.viewer.QuPathViewerListener;
 import qupath.lib.images.ImageData;
-import qupath.lib.io.PathIO;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
@@ -61,12 +53,13 @@ import qupath.lib.plugins.ParallelTileObject;
  * and is intended mostly for cases where there aren't many objects - but where making mistakes 
  * would be especially annoying (e.g. laboriously annotating images).
  * <p>
- * The reason is because of the (fairly simple) implementation: every time the hierarchy is changed, 
- * the <i>entire hierarchy</i> is serialized in case it becomes necessary to revert back.
+ * Changes are recorded as deltas, containing only the objects affected by each change 
+ * (see {@link HierarchyUndoJournal}). This means that the cost of recording a change depends upon the 
+ * number of objects that were changed, rather than the total number of objects in the hierarchy. 
+ * The memory used by the undo history is limited to a fraction of the available memory, 
+ * and the oldest changes are discarded whenever this is exceeded.
  * <p>
- * This is a lot easier than trying to figure out how to computationally revert every conceivable change 
- * that the hierarchy might experience, but it is inevitably quite memory hungry and risks having a substantial 
- * impact on performance for large object hierarchies.
+ * Measurements are not tracked, and so changes in measurements are not reverted.
  * 
  * @author Pete Bankhead
  *
@@ -83,9 +76,12 @@ public class UndoRedoManager implements ChangeListener<QuPathViewer>, QuPathView
 	private SimpleBooleanProperty canUndo = new SimpleBooleanProperty(false);
 	private SimpleBooleanProperty canRedo = new SimpleBooleanProperty(false);
 	
-	private boolean undoingOrRedoing = false;
+	/**
+	 * Maximum proportion of the available memory that may be used to store changes for each viewer.
+	 */
+	private static final double MAX_MEMORY_FRACTION = 0.05;
 	
-	private Map<QuPathViewer, SerializableUndoRedoStack<PathObjectHierarchy>> map = new WeakHashMap<>();
+	private Map<QuPathViewer, HierarchyUndoJournal> map = new WeakHashMap<>();
 	
 	private UndoRedoManager(ObservableValue<? extends QuPathViewer> viewerProperty) {
 		this.viewerProperty = viewerProperty;
@@ -110,7 +106,7 @@ public class UndoRedoManager implements ChangeListener<QuPathViewer>, QuPathView
 			Platform.runLater(() -> refreshProperties());
 			return;
 		}
-		SerializableUndoRedoStack<PathObjectHierarchy> undoRedo = map.get(viewerProperty.getValue());
+		HierarchyUndoJournal undoRedo = map.get(viewerProperty.getValue());
 		if (undoRedo == null) {
 			canUndo.set(false);
 			canRedo.set(false);
@@ -147,7 +143,8 @@ public class UndoRedoManager implements ChangeListener<QuPathViewer>, QuPathView
 	 */
 	public void clear() {
 		for (var manager : map.values()) {
-			manager.clear();
+			if (manager != null)
+				manager.clear();
 		}
 		refreshProperties();
 	}
@@ -173,24 +170,24 @@ public class UndoRedoManager implements ChangeListener<QuPathViewer>, QuPathView
 			return false;
 		}
 		
-		SerializableUndoRedoStack<PathObjectHierarchy> undoRedo = map.get(viewer);
+		HierarchyUndoJournal undoRedo = map.get(viewer);
 		if (undoRedo == null) {
-			logger.warn("Undo requested, but undo stack available.");
+			logger.warn("Undo requested, but no undo stack available.");
+			return false;
+		}
+		if (!undoRedo.canUndo()) {
+			logger.warn("Unable to call 'undo' for {}", viewer);
 			return false;
 		}
 		
+		// Need to make sure we've no selection, since selected objects can linger
+		undoRedo.getHierarchy().getSelectionModel().clearSelection();
 		// Update the hierarchy
-		PathObjectHierarchy hierarchy = undoRedo.undoOnce();
-		if (hierarchy == null) {
+		if (!undoRedo.undo()) {
 			logger.warn("Unable to call 'undo' for {}", viewer);
 			return false;
 		}
-		undoingOrRedoing = true;
 		logger.debug("Called 'undo' for {}", viewer);
-		// Need to make sure we've no selection, since selected objects can linger
-		viewer.getImageData().getHierarchy().getSelectionModel().clearSelection();
-		viewer.getImageData().getHierarchy().setHierarchy(hierarchy);
-		undoingOrRedoing = false;
 		refreshProperties();
 		
 		return true;
@@ -208,24 +205,24 @@ public class UndoRedoManager implements ChangeListener<QuPathViewer>, QuPathView
 			return false;
 		}
 		
-		SerializableUndoRedoStack<PathObjectHierarchy> undoRedo = map.get(viewer);
+		HierarchyUndoJournal undoRedo = map.get(viewer);
 		if (undoRedo == null) {
-			logger.warn("Redo requested, but redo stack available.");
+			logger.warn("Redo requested, but no redo stack available.");
+			return false;
+		}
+		if (!undoRedo.canRedo()) {
+			logger.warn("Unable to call 'redo' for {}", viewer);
 			return false;
 		}
 		
+		// Need to make sure we've no selection, since selected objects can linger
+		undoRedo.getHierarchy().getSelectionModel().clearSelection();
 		// Update the hierarchy
-		PathObjectHierarchy hierarchy = undoRedo.redoOnce();
-		if (hierarchy == null) {
+		if (!undoRedo.redo()) {
 			logger.warn("Unable to call 'redo' for {}", viewer);
 			return false;
 		}
-		undoingOrRedoing = true;
 		logger.debug("Called 'redo' for {}", viewer);
-		// Need to make sure we've no selection, since selected objects can linger
-		viewer.getImageData().getHierarchy().getSelectionModel().clearSelection();
-		viewer.getImageData().getHierarchy().setHierarchy(hierarchy);
-		undoingOrRedoing = false;
 		refreshProperties();
 		
 		return true;
@@ -268,168 +265,6 @@ public class UndoRedoManager implements ChangeListener<QuPathViewer>, QuPathView
 	
 
 	
-	/**
-	 * Serialize objects on request for use in undo/redo.
-	 *
-	 * @param <T>
-	 */
-	static class SerializableUndoRedoStack<T> {
-		
-		private byte[] current = null;
-		private Deque<byte[]> undoStack = new ArrayDeque<>();
-		private Deque<byte[]> redoStack = new ArrayDeque<>();
-		
-		SerializableUndoRedoStack(T object) {
-			if (object != null)
-				current = serialize(object, 1024);
-		}
-		
-		/**
-		 * Returns true if the undo stack is not empty.
-		 * @return
-		 */
-		public boolean canUndo() {
-			return !undoStack.isEmpty();
-		}
-		
-		/**
-		 * Returns true if the redo stack is not empty.
-		 * @return
-		 */
-		public boolean canRedo() {
-			return !redoStack.isEmpty();
-		}
-		
-		/**
-		 * Get the total number of allocated bytes.
-		 * @return
-		 */
-		public synchronized long totalBytes() {
-			long total = 0L;
-			if (current != null)
-				total = current.length;
-			for (byte[] bytes : undoStack)
-				total += bytes.length;
-			for (byte[] bytes : redoStack)
-				total += bytes.length;
-			return total;
-		}
-		
-		/**
-		 * Clear the undo and redo stacks, in addition to the current bytes.
-		 */
-		public synchronized void clear() {
-			current = null;
-			undoStack.clear();
-			redoStack.clear();
-		}
-		
-		/**
-		 * Request redo once, updating the current (serialized) object, 
-		 * and return the deserialized version of the object at the top of the 'redo' stack.
-		 * @return
-		 */
-		public synchronized T redoOnce() {
-			if (redoStack.isEmpty()) {
-				logger.debug("Cannot redo! Stack is empty.");
-				return null;
-			}
-			if (current != null) {
-				undoStack.push(current);
-			}
-			current = redoStack.pop();
-			return deserialize(current);
-		}
-		
-		/**
-		 * Request undo once, updating the current (serialized) object, 
-		 * and return the deserialized version of the object at the top of the 'undo' stack.
-		 * @return
-		 */
-		public synchronized T undoOnce() {
-			if (undoStack.isEmpty()) {
-				logger.debug("Cannot undo! Stack is empty.");
-				return null;
-			}
-			if (current != null) {
-				redoStack.push(current);
-			}
-			current = undoStack.pop();
-			return deserialize(current);
-		}
-		
-		/**
-		 * Record a new change event, updating the current object.
-		 * This will clear any redo status, on the assumption that redo is no longer possible.
-		 * 
-		 * @param object
-		 * @param historySize
-		 */
-		public synchronized void addLatest(final T object, int historySize) {
-			int initialSize = 1024;
-			if (current != null) {
-				// If we are low on memory, clear the undo stack
-				long remainingMemory = GeneralTools.estimateAvailableMemory();
-				if (remainingMemory < current.length * 1.5) {
-					undoStack.clear();
-				} else {
-					// Default to something a bit bigger than the last things we had
-					initialSize = Math.min(Integer.MAX_VALUE-64, (int)(current.length * 1.1));
-					undoStack.push(current);
-				}
-			}
-			current = serialize(object, initialSize);
-			// Reset the ability to redo
-			redoStack.clear();
-			// Check the history size
-			if (historySize > 0) {
-				while (undoStack.size() > historySize)
-					undoStack.pollLast();
-			}
-		}
-		
-		/**
-		 * Serialize an object to an array of bytes.
-		 * Providing an estimate of the initial array size can help performance.
-		 * 
-		 * @param object
-		 * @param initialSize
-		 * @return
-		 */
-		private byte[] serialize(T object, int initialSize) {
-			try (ByteArrayOutputStream stream = new ByteArrayOutputStream(initialSize)) {
-				ObjectOutputStream out = new ObjectOutputStream(stream);
-				out.writeObject(object);
-				out.flush();
-				return stream.toByteArray();
-			} catch (IOException e) {
-				logger.error("Error serializing " + object, e);
-				return null;
-			}
-		}
-		
-		/**
-		 * Deserialize an object from an array of bytes.
-		 * It's assumed at the object is of the generic type used elsewhere in this class.
-		 * 
-		 * @param bytes
-		 * @return
-		 */
-		@SuppressWarnings("unchecked")
-		private T deserialize(byte[] bytes) {
-			try (ByteArrayInputStream stream = new ByteArrayInputStream(bytes)) {
-				ObjectInputStream in = PathIO.createObjectInputStream(stream);
-				return (T)in.readObject();
-			} catch (ClassNotFoundException | IOException e) {
-				logger.error("Error deserializing object", e);
-				return null;
-			}
-		}
-		
-	}
-
-
-
 	@Override
 	public void imageDataChanged(QuPathViewer viewer, ImageData<BufferedImage> imageDataOld,
 			ImageData<BufferedImage> imageDataNew) {
@@ -442,13 +277,13 @@ public class UndoRedoManager implements ChangeListener<QuPathViewer>, QuPathView
 		// Start listening for changes on the new image... if we can
 		PathObjectHierarchy hierarchy = imageDataNew == null ? null : imageDataNew.getHierarchy();
 		if (hierarchy == null) {
-			map.put(viewer, (SerializableUndoRedoStack<PathObjectHierarchy>)null);
+			map.put(viewer, null);
 		} else {
 			int maxSize = maxUndoHierarchySize.get();
 			if (maxSize >= hierarchy.nObjects())
-				map.put(viewer, new SerializableUndoRedoStack<>(hierarchy));
+				map.put(viewer, new HierarchyUndoJournal(hierarchy));
 			else
-				map.put(viewer, new SerializableUndoRedoStack<>(null));
+				map.put(viewer, null);
 			// Listen for changes
 			hierarchy.addListener(this);
 		}
@@ -471,7 +306,10 @@ public class UndoRedoManager implements ChangeListener<QuPathViewer>, QuPathView
 	@Override
 	public void hierarchyChanged(PathObjectHierarchyEvent event) {
 		// Try to avoid calling too often
-		if (undoingOrRedoing || event.isChanging() || maxUndoHierarchySize.get() <= 0 || event.getChangedObjects().stream().allMatch(p -> p instanceof ParallelTileObject))
+		if (event.isChanging() || event.isObjectMeasurementEvent() || maxUndoHierarchySize.get() <= 0)
+			return;
+		var changed = event.getChangedObjects();
+		if (!changed.isEmpty() && changed.stream().allMatch(p -> p instanceof ParallelTileObject))
 			return;
 		
 		// *Potentially* we might have the same hierarchy in multiple viewers
@@ -479,29 +317,33 @@ public class UndoRedoManager implements ChangeListener<QuPathViewer>, QuPathView
 		QuPathViewer[] viewers = map.keySet().toArray(new QuPathViewer[map.size()]);
 		PathObjectHierarchy hierarchy = event.getHierarchy();
 		int maxSize = maxUndoHierarchySize.get();
-		boolean sizeOK = hierarchy.nObjects() <= maxSize;
+		long maxBytes = getMaxBytes();
 		for (QuPathViewer viewer : viewers) {
 			if (viewer.getHierarchy() == hierarchy) {
-				
-				SerializableUndoRedoStack<PathObjectHierarchy> undoRedo = map.get(viewer);
-				// If the size is ok, register the change for potential undo-ing
-				if (sizeOK) {
-					// Consider trying to reduce these calls
-//					if (event.getEventType() == HierarchyEventType.CHANGE_MEASUREMENTS && 
-//							!event.getChangedObjects().stream().anyMatch(p -> p.isDetection()))
-//						continue;
-					
-					if (undoRedo == null)
-						map.put(viewer, new SerializableUndoRedoStack<>(hierarchy));
-					else
-						undoRedo.addLatest(hierarchy, maxUndoLevels.get());
+				HierarchyUndoJournal undoRedo = map.get(viewer);
+				if (undoRedo == null) {
+					// Start recording changes if the hierarchy has become small enough
+					if (hierarchy.nObjects() <= maxSize)
+						map.put(viewer, new HierarchyUndoJournal(hierarchy));
 				} else {
+					undoRedo.hierarchyChanged(event, maxUndoLevels.get(), maxBytes);
 					// If the hierarchy is too big turn off undo/redo
-					map.put(viewer, (SerializableUndoRedoStack<PathObjectHierarchy>)null);
+					if (undoRedo.nObjects() > maxSize)
+						map.put(viewer, null);
 				}
 			}
 		}
 		refreshProperties();
 	}
+	
+	/**
+	 * Get the maximum number of bytes that should be used to store changes for a single viewer.
+	 * If we are low on memory, this is reduced so that older changes are discarded.
+	 */
+	private static long getMaxBytes() {
+		long maxBytes = (long)(Runtime.getRuntime().maxMemory() * MAX_MEMORY_FRACTION);
+		long remainingMemory = GeneralTools.estimateAvailableMemory();
+		return Math.min(maxBytes, remainingMemory / 4);
+	}
 
 }
\ No newline at end of file
@@ -25,6 +25,8 @@ import javafx.beans.binding.Bindings;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.StringProperty;
 import javafx.beans.value.ObservableDoubleValue;
+import javafx.concurrent.Task;
+import javafx.event.ActionEvent;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -54,6 +56,7 @@ import javafx.stage.Screen;
 import javafx.stage.Stage;
 import org.controlsfx.control.CheckListView;
 import org.controlsfx.control.action.Action;
+import org.controlsfx.dialog.ProgressDialog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.fx.dialogs.Dialogs;
@@ -104,6 +107,7 @@ import qupath.lib.plugins.workflow.DefaultScriptableWorkflowStep;
 import qupath.lib.plugins.workflow.WorkflowStep;
 import qupath.lib.projects.Project;
 import qupath.lib.projects.ProjectIO;
+import qupath.lib.projects.ProjectImageEntry;
 import qupath.lib.projects.Projects;
 import qupath.lib.regions.ImagePlane;
 import qupath.lib.regions.ImageRegion;
@@ -133,6 +137,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -808,10 +814,9 @@ public class Commands {
 			var project = qupath.getProject();
 			var entry = project == null ? null : project.getEntry(imageData);
 			if (entry != null) {
-				if (overwriteExisting || Dialogs.showConfirmDialog("Save changes", "Save changes to " + entry.getImageName() + "?")) {
-					entry.saveImageData(imageData);
-					return true;
-				} else
+				if (overwriteExisting || Dialogs.showConfirmDialog("Save changes", "Save changes to " + entry.getImageName() + "?"))
+					return saveImageDataWithProgress(qupath, entry, imageData);
+				else
 					return false;
 			} else {
 				String lastSavedPath = imageData.getLastSavedPath();
@@ -852,6 +857,84 @@ public class Commands {
 	}
 	
 	
+	/**
+	 * Save image data for a project entry in the background, showing a progress dialog with the option to cancel.
+	 * The dialog is not modal, so that the viewer remains responsive while large hierarchies are written, 
+	 * but this method only returns when saving is complete.
+	 * @param qupath
+	 * @param entry
+	 * @param imageData
+	 * @return true if the image data was saved, false if saving failed or was cancelled
+	 */
+	private static boolean saveImageDataWithProgress(QuPathGUI qupath, ProjectImageEntry<BufferedImage> entry, ImageData<BufferedImage> imageData) {
+		var name = entry.getImageName();
+		var task = new SaveImageDataTask(entry, imageData);
+		var progress = new ProgressDialog(task);
+		progress.initOwner(qupath.getStage());
+		progress.initModality(Modality.NONE);
+		progress.setTitle("Save ImageData");
+		progress.setHeaderText("Saving " + name);
+		progress.getDialogPane().setGraphic(null);
+		progress.getDialogPane().getButtonTypes().add(ButtonType.CANCEL);
+		progress.getDialogPane().lookupButton(ButtonType.CANCEL).addEventFilter(ActionEvent.ACTION, e -> {
+			// The dialog closes once the task is cancelled, and any existing data for the entry is retained
+			task.cancel(true);
+			progress.setHeaderText("Cancelling...");
+			progress.getDialogPane().lookupButton(ButtonType.CANCEL).setDisable(true);
+			e.consume();
+		});
+		qupath.getThreadPoolManager().submitShortTask(task);
+		progress.showAndWait();
+		
+		switch (task.getState()) {
+		case SUCCEEDED:
+			logger.debug("Image data saved for {}", name);
+			return true;
+		case CANCELLED:
+			logger.info("Saving image data cancelled for {}", name);
+			return false;
+		default:
+			var e = task.getException();
+			logger.error("Error saving image data for " + name, e);
+			Dialogs.showErrorMessage("Save ImageData", "Error saving " + name + "\n" + (e == null ? "Unknown error" : e.getLocalizedMessage()));
+			return false;
+		}
+	}
+	
+	/**
+	 * Task to wait for {@link ProjectImageEntry#saveImageDataAsync(ImageData, java.util.function.DoubleConsumer)}, 
+	 * cancelling the save if the task is cancelled.
+	 */
+	private static class SaveImageDataTask extends Task<Void> {
+		
+		private final CompletableFuture<Void> future;
+		
+		/**
+		 * This should be called from the thread that modifies the image data, since the snapshot is created here.
+		 */
+		private SaveImageDataTask(ProjectImageEntry<BufferedImage> entry, ImageData<BufferedImage> imageData) {
+			future = entry.saveImageDataAsync(imageData, p -> updateProgress(p, 1.0));
+		}
+
+		@Override
+		protected Void call() throws Exception {
+			try {
+				return future.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception cause)
+					throw cause;
+				throw e;
+			}
+		}
+		
+		@Override
+		protected void cancelled() {
+			future.cancel(true);
+		}
+		
+	}
+	
+	
 	// TODO: Make the extension modifiable
 	private static StringProperty defaultScreenshotExtension = PathPrefs.createPersistentPreference("defaultScreenshotExtension", "*.png");
 
@@ -91,6 +91,7 @@ class MemoryMonitorDialog {
 
 	// Observable properties to store cache values
 	private LongProperty cachedTiles = new SimpleLongProperty();
+	private LongProperty cachedTileBytes = new SimpleLongProperty();
 	private LongProperty undoRedoSizeBytes = new SimpleLongProperty();
 
 	// Let's sometimes scale to MB, sometimes to GB
@@ -131,8 +132,8 @@ class MemoryMonitorDialog {
 		// Add it button to make it possible to clear the tile cache
 		Label labelClearCache = new Label();
 		labelClearCache.textProperty().bind(Bindings.createStringBinding(() -> {
-			return String.format("Num cached tiles: %d", cachedTiles.get());
-		}, cachedTiles));
+			return String.format("Num cached tiles: %d (%.1f MB)", cachedTiles.get(), cachedTileBytes.get() * scaleMB);
+		}, cachedTiles, cachedTileBytes));
 		var btnClearCache = new Button("Clear tile cache");
 		btnClearCache.setTooltip(new Tooltip("Clear the cache used to store image tiles for better viewer performance"));
 		btnClearCache.setOnAction(e -> {
@@ -259,6 +260,7 @@ class MemoryMonitorDialog {
 			usedMemory.set(n.usedMemory);
 			undoRedoSizeBytes.set(n.undoRedoSizeBytes);
 			cachedTiles.set(n.cachedTiles);
+			cachedTileBytes.set(n.cachedTileBytes);
 			
 			long time = (timeMillis.get() - startTimeMillis) / 1000;
 			seriesUsed.getData().add(new XYChart.Data<>(time, usedMemory.get() * scaleGB));
@@ -319,6 +321,7 @@ class MemoryMonitorDialog {
 		private long usedMemory;
 		private long undoRedoSizeBytes;
 		private long cachedTiles;
+		private long cachedTileBytes;
 		
 		MemorySnapshot(QuPathGUI qupath, Runtime runtime) {
 			this.timeMillis = System.currentTimeMillis();
@@ -326,7 +329,9 @@ class MemoryMonitorDialog {
 			this.maxMemory = runtime.maxMemory();
 			this.usedMemory = totalMemory - runtime.freeMemory();
 			this.undoRedoSizeBytes = qupath.getUndoRedoManager().totalBytes();
-			this.cachedTiles = qupath.getViewer().getImageRegionStore().getCache().size();
+			var cache = qupath.getViewer().getImageRegionStore().getCache();
+			this.cachedTiles = cache.size();
+			this.cachedTileBytes = cache.getSizeBytes();
 		}
 		
 	}
@@ -417,11 +417,22 @@ public class SummaryMeasurementTableCommand {
 				}
 				if (imageData != null)
 					displayedName.set(ServerTools.getDisplayableImageName(imageData.getServer()));
-				if (event.isStructureChangeEvent())
+				boolean refreshTable = true;
+				if (event.hasStructureDelta()) {
+					// Only update the objects that have changed - the table adds & removes rows itself, 
+					// so we only need to refresh existing rows if their derived measurements may have changed
+					var added = event.getAddedObjects().stream().filter(p -> type == null || type.isInstance(p)).toList();
+					var removed = event.getRemovedObjects().stream().filter(p -> type == null || type.isInstance(p)).toList();
+					model.updateEntries(added, removed);
+					var changed = new ArrayList<PathObject>(event.getAddedObjects());
+					changed.addAll(event.getRemovedObjects());
+					refreshTable = model.refreshEntries(changed);
+				} else if (event.isStructureChangeEvent())
 					model.setImageData(imageData, imageData.getHierarchy().getObjects(null, type));
 				else
 					model.refreshEntries();
-				table.refresh();
+				if (refreshTable)
+					table.refresh();
 				if (histogramDisplay != null)
 					histogramDisplay.refreshHistogram();
 			}
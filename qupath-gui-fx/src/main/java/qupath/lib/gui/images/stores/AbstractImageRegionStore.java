@@ -37,22 +37,17 @@ import java.util.Map.Entry;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.RemovalCause;
-import com.google.common.cache.Weigher;
-
 import qupath.lib.awt.common.AwtTools;
-import qupath.lib.common.ThreadTools;
-import qupath.lib.images.servers.GeneratingImageServer;
 import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.cache.TileCache;
+import qupath.lib.images.servers.cache.TileScheduler;
+import qupath.lib.images.servers.cache.TileScheduler.Priority;
+import qupath.lib.regions.ImageRegion;
 import qupath.lib.regions.RegionRequest;
 
 
@@ -83,9 +78,9 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 	protected List<TileListener<T>> tileListeners = Collections.synchronizedList(new ArrayList<>());
 
 	// Cache of image tiles for specified regions
-	protected Map<RegionRequest, T> cache;
+	protected TileCache<T> cache;
 	// Cache image thumbnails
-	protected Map<RegionRequest, T> thumbnailCache;
+	protected TileCache<T> thumbnailCache;
 	
 	/**
 	 * Maximum size of thumbnail, in any dimension.
@@ -104,11 +99,18 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 	
 	private TileRequestManager manager = new TileRequestManager(10);
 	
-	// Create two threadpools: a larger one for images that need to be fetched (e.g. from disk, cloud storage), and a smaller one
-	// for painting image tiles... the reason being that the high latency of distantly-stored images otherwise risks lowering
-	// repainting performance
-	private ExecutorService pool = Executors.newFixedThreadPool(Math.max(8, Math.min(Runtime.getRuntime().availableProcessors() * 4, 32)), ThreadTools.createThreadFactory("region-store-", false));
-	private ExecutorService poolLocal = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), ThreadTools.createThreadFactory("region-store-local-", false));
+	/**
+	 * Time (in milliseconds) that tile requests for a previous field of view may remain queued after the viewer has moved,
+	 * before they are discarded.
+	 */
+	private static final long MOVED_REQUEST_DEADLINE_MILLIS = 250;
+	
+	// Tiles are requested through the shared scheduler with interactive priority, so that they take precedence over
+	// background tasks. The scheduler's per-server limit means that the high latency of distantly-stored images
+	// can't prevent tiles from other servers (e.g. overlays generated locally) being painted.
+	private final TileScheduler scheduler = TileScheduler.getInstance();
+	
+	private volatile boolean closed = false;
 	
 	
 
@@ -116,37 +118,10 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 		this.maxThumbnailSize = thumbnailSize;
 		this.tileCacheSizeBytes = tileCacheSizeBytes;
 		
-		// Because Guava uses integer weights, and we sometimes have *very* large images, we convert our size estimates KB
-		Weigher<RegionRequest, T> weigher = (var r, var t) -> (int)Long.min(Integer.MAX_VALUE, sizeEstimator.getApproxImageSize(t)/1024);
-		long maxWeight = Long.max(1, tileCacheSizeBytes / 1024);
-		// If concurrency > 1, the maximum size for an individual tile becomes maxWeight/concurrencyLevel
-		// This makes it more difficult to tune the cache size when working with large, non-pyramidal images
-		int concurrencyLevel = 1;
-		Cache<RegionRequest, T> originalCache = CacheBuilder.newBuilder()
-				.weigher(weigher)
-				.maximumWeight(maxWeight)
-				.softValues()
-				.concurrencyLevel(concurrencyLevel)
-//				.recordStats()
-				.removalListener(n -> {
-//					System.err.println(n.getKey() + " (" + cache.size() + ")");
-					if (n.getCause() == RemovalCause.COLLECTED)
-						logger.debug("Cached tile collected" + n.getKey() + " (cache size=" + cache.size()+")");
-					})
-				.build();
-		cache = originalCache.asMap();
-
-		Cache<RegionRequest, T> originalThumbnailCache = CacheBuilder.newBuilder()
-				.weigher(weigher)
-				.concurrencyLevel(1)
-				.maximumWeight(maxWeight)
-				.softValues()
-				.build();
-		
-		thumbnailCache = originalThumbnailCache.asMap();
-		
-//		cache = new DefaultRegionCache<>(sizeEstimator, tileCacheSizeBytes);
-//		thumbnailCache = new DefaultRegionCache<>(sizeEstimator, tileCacheSizeBytes/4);
+		// The tile cache is shared with image servers (via ImageServerProvider), so needs to support many concurrent requests
+		cache = new TileCache<>(sizeEstimator::getApproxImageSize, Long.max(1, tileCacheSizeBytes));
+		// Thumbnails are requested much less often, so a single segment is sufficient
+		thumbnailCache = new TileCache<>(sizeEstimator::getApproxImageSize, Long.max(1, tileCacheSizeBytes), 1);
 	}
 
 	
@@ -230,8 +205,12 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 	}
 
 	
-	
-	public Map<RegionRequest, T> getCache() {
+	/**
+	 * Get the tile cache. This may be shared with image servers via 
+	 * {@link qupath.lib.images.servers.ImageServerProvider#setCache(Map, Class)}.
+	 * @return
+	 */
+	public TileCache<T> getCache() {
 		return cache;
 	}
 	
@@ -284,7 +263,13 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 	protected void workerComplete(final TileWorker<T> worker) {
 		workers.remove(worker);
 		manager.taskCompleted(worker);
-   		if (worker.isCancelled() || !stopWaiting(worker.getRequest())) {
+		if (worker.isCancelled()) {
+			// The worker may have been cancelled by the scheduler, in which case it is still in the waiting map
+			// and needs to be removed so that the tile can be requested again
+			waitingMap.remove(worker.getRequest(), worker);
+			return;
+		}
+   		if (!stopWaiting(worker.getRequest())) {
    			return;
    		}
 		try {
@@ -354,26 +339,19 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 		// If the region request can be known to return null quickly, avoid making a full request
 		// (at the time of writing, this only makes a difference with PathHierarchyImageServers)
 		if (server.isEmptyRegion(request)) {
-//			cache.put(request, null); // Guava cache does not support null
+//			cache.put(request, null); // TileCache does not support null
 			return null;
 		}
 		// Start a worker & add to the list
 		TileWorker<T> worker = null;
 		worker = (TileWorker<T>)waitingMap.get(request); // TODO: Consider if this is a bad idea...
 		if (worker == null) {
+			if (closed)
+				return null;
 			worker = createTileWorker(server, request, cache, ensureTileReturned);
 			workers.add(worker);
-			if (server instanceof GeneratingImageServer) {
-				if (poolLocal.isShutdown())
-					return null;
-				poolLocal.execute(worker);
-			}
-			else {
-				if (pool.isShutdown())
-					return null;
-				pool.execute(worker);
-			}
 			waitingMap.put(request, worker);
+			scheduler.submit(Priority.INTERACTIVE, request, null, TileScheduler.NO_DEADLINE, worker);
 		}
 		return worker;
 	}
@@ -529,10 +507,9 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 	@Override
 	public void close() {
 		// Try to cancel all workers
+		closed = true;
 		for (TileWorker<T> worker : new ArrayList<>(workers))
 			worker.cancel(true);
-		pool.shutdownNow();
-		poolLocal.shutdownNow();
 		cache.clear();
 	}
 	
@@ -566,6 +543,11 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 					if (temp.clipShape.equals(clipShape) && temp.zPosition == zPosition && temp.tPosition == tPosition)
 						return;
 					iter.remove();
+					// The field of view has changed, so discard queued requests for tiles that are no longer visible
+					// if they don't start soon
+					ImageRegion region = AwtTools.getImageRegion(clipShape, zPosition, tPosition);
+					scheduler.expire(tileListener, r -> r == null || !region.intersects(r),
+							TileScheduler.deadlineAfter(MOVED_REQUEST_DEADLINE_MILLIS));
 					break;
 				}
 			}
@@ -610,17 +592,13 @@ abstract class AbstractImageRegionStore<T> implements ImageRegionStore<T> {
 				if (cache.containsKey(request) || waitingMap.containsKey(request))
 					continue;
 				
+				if (closed)
+					break;
 				TileWorker<T> worker = createTileWorker(temp.server, request, cache, false);
 				logger.trace("Adding {} to waiting map for thread {}", request, Thread.currentThread().getId());
 				waitingMap.put(request, worker);
-				if (temp.server instanceof GeneratingImageServer) {
-					if (!poolLocal.isShutdown())
-						poolLocal.execute(worker);
-				} else {
-					if (!pool.isShutdown())
-						pool.execute(worker);
-				}
 				requestedWorkers.add(worker);
+				scheduler.submit(Priority.INTERACTIVE, request, temp.tileListener, TileScheduler.NO_DEADLINE, worker);
 				busyThreads++;
 			}
 			Collections.sort(list, comparator);
@@ -24,7 +24,8 @@
 package qupath.lib.gui.images.stores;
 
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBuffer;
+
+import qupath.lib.images.servers.cache.TileCache;
 
 /**
  * Helper class to estimate if the size in bytes for a BufferedImage.
@@ -39,11 +40,7 @@ class BufferedImageSizeEstimator implements SizeEstimator<BufferedImage> {
 	
 	@Override
 	public long getApproxImageSize(BufferedImage img) {
-		if (img == null)
-			return 0;
-		DataBuffer data = img.getRaster().getDataBuffer();
-		long size = (long)data.getSize() * (long)(DataBuffer.getDataTypeSize(data.getDataType())/8) * data.getNumBanks();
-		return size;
+		return TileCache.estimateSize(img);
 	}
 	
 }
\ No newline at end of file
@@ -23,10 +23,14 @@
 
 package qupath.lib.gui.images.stores;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import qupath.lib.gui.prefs.PathPrefs;
+import qupath.lib.images.servers.cache.DiskTileCache;
 
 /**
  * Factory for creating an ImageRegionStore.
@@ -57,6 +61,41 @@ public class ImageRegionStoreFactory {
 	}
 	
 	
+	/**
+	 * Create a {@link DiskTileCache} based upon the user preferences.
+	 * @return the disk cache, or null if no disk cache directory has been set (or the cache could not be created)
+	 * @see PathPrefs#diskTileCachePathProperty()
+	 * @since v0.5.0
+	 */
+	public static DiskTileCache createDiskTileCache() {
+		return createDiskTileCache(PathPrefs.diskTileCachePathProperty().get(), PathPrefs.diskTileCacheSizeGBProperty().get());
+	}
+	
+	/**
+	 * Create a {@link DiskTileCache} within a specified scratch directory.
+	 * @param scratchDirectory path to the scratch directory; if null or blank, no cache will be created
+	 * @param maxSizeGB maximum size of the cache on disk, in GB
+	 * @return the disk cache, or null if no directory was specified (or the cache could not be created)
+	 * @since v0.5.0
+	 */
+	public static DiskTileCache createDiskTileCache(final String scratchDirectory, final double maxSizeGB) {
+		if (scratchDirectory == null || scratchDirectory.isBlank())
+			return null;
+		if (!(maxSizeGB > 0)) {
+			logger.warn("Disk tile cache size must be > 0 GB (you requested {} GB)", maxSizeGB);
+			return null;
+		}
+		try {
+			long maxSizeBytes = Math.round(maxSizeGB * 1024L * 1024L * 1024L);
+			return new DiskTileCache(Paths.get(scratchDirectory), maxSizeBytes);
+		} catch (IOException | IllegalArgumentException e) {
+			logger.warn("Unable to create disk tile cache in {}: {}", scratchDirectory, e.getLocalizedMessage());
+			logger.debug(e.getLocalizedMessage(), e);
+			return null;
+		}
+	}
+	
+	
 	/**
 	 * Calculate the appropriate tile cache size based upon the user preferences.
 	 * @return tile cache size in bytes
@@ -29,6 +29,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -61,6 +62,7 @@ import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ImageServerMetadata;
 import qupath.lib.images.servers.PixelCalibration;
+import qupath.lib.measurements.ColumnarMeasurementStore;
 import qupath.lib.objects.MetadataStore;
 import qupath.lib.objects.PathAnnotationObject;
 import qupath.lib.objects.PathDetectionObject;
@@ -105,6 +107,9 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 	private DerivedMeasurementManager manager;
 	private Map<String, MeasurementBuilder<?>> builderMap = new LinkedHashMap<>();
 	
+	// Classes of object found when the measurement list was last updated
+	private Set<Class<? extends PathObject>> objectClasses = new HashSet<>();
+	
 	private static final String KEY_PIXEL_LAYER = "PIXEL_LAYER";
 	
 	/**
@@ -124,6 +129,52 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 //			Platform.runLater(() -> updateMeasurementList());
 	}
 	
+	/**
+	 * Update the objects to measure by adding and removing objects, rather than replacing them all.
+	 * This is much faster than {@link #setImageData(ImageData, Collection)} when only a small proportion 
+	 * of the objects have changed.
+	 * <p>
+	 * The measurement list is only updated if the added objects might require new columns; 
+	 * columns that are no longer needed are retained until the next call to {@link #updateMeasurementList()}.
+	 * <p>
+	 * Derived measurements for existing entries (e.g. detection counts) are not updated; 
+	 * see {@link #refreshEntries(Collection)}.
+	 * 
+	 * @param addedObjects objects to add ('rows' in the table)
+	 * @param removedObjects objects to remove
+	 * @since v0.5.0
+	 */
+	public synchronized void updateEntries(final Collection<? extends PathObject> addedObjects, final Collection<? extends PathObject> removedObjects) {
+		if (!removedObjects.isEmpty())
+			list.removeAll(removedObjects instanceof Set ? removedObjects : new HashSet<>(removedObjects));
+		if (!addedObjects.isEmpty()) {
+			list.addAll(addedObjects);
+			if (requiresMeasurementListUpdate(addedObjects))
+				updateMeasurementList();
+		}
+	}
+	
+	private boolean requiresMeasurementListUpdate(Collection<? extends PathObject> pathObjects) {
+		Set<String> names = new HashSet<>(fullList);
+		for (var pathObject : pathObjects) {
+			// Only detections are common enough to be worth checking in detail
+			if (!pathObject.isDetection() || !objectClasses.contains(pathObject.getClass()))
+				return true;
+			var roi = pathObject.getROI();
+			if (roi != null) {
+				if (roi.getZ() > 0 && !builderMap.containsKey("Z index"))
+					return true;
+				if (roi.getT() > 0 && !builderMap.containsKey("Time index"))
+					return true;
+			}
+			if (pathObject instanceof MetadataStore && !names.containsAll(((MetadataStore)pathObject).getMetadataKeys()))
+				return true;
+			if (!names.containsAll(pathObject.getMeasurementList().getMeasurementNames()))
+				return true;
+		}
+		return false;
+	}
+	
 	
 	/**
 	 * Set an {@link ImageServer} as a property in the {@link ImageData}.
@@ -170,6 +221,7 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 //		PathPrefs.setAllredMinPercentagePositive(0);
 		
 		builderMap.clear();
+		objectClasses.clear();
 		
 		// Add the image name
 		if (!PathPrefs.maskImageNamesProperty().get())
@@ -186,6 +238,7 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 		boolean containsROIs = false;
 		List<PathObject> pathObjectListCopy = new ArrayList<>(list);
 		for (PathObject temp : pathObjectListCopy) {
+			objectClasses.add(temp.getClass());
 			containsROIs = containsROIs || temp.hasROI();
 			if (temp instanceof PathAnnotationObject) {
 //				if (temp.hasChildren())
@@ -406,6 +459,21 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 			manager.map.clear();
 	}
 	
+	/**
+	 * Refresh only the derived measurements (e.g. detection counts) that might depend upon the specified objects, 
+	 * after they have been added to or removed from the hierarchy.
+	 * 
+	 * @param changedObjects objects that have been added or removed
+	 * @return true if any derived measurements were refreshed, and so values for existing entries may have changed
+	 * @since v0.5.0
+	 * @see #updateEntries(Collection, Collection)
+	 */
+	public synchronized boolean refreshEntries(final Collection<? extends PathObject> changedObjects) {
+		if (manager == null)
+			return false;
+		return manager.invalidateCounts(changedObjects);
+	}
+	
 	/**
 	 * Create a specific numeric measurement.
 	 * <p>
@@ -479,10 +547,8 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 				values[i] = getNumericValue(filterList.get(i), column);
 			return values;
 		}
-		// Good news! We just need a regular measurement
-		for (int i = 0; i < filterList.size(); i++)
-			values[i] = filterList.get(i).getMeasurementList().get(column);
-		return values;
+		// Good news! We just need a regular measurement - which can be read directly from a column if the lists share a store
+		return ColumnarMeasurementStore.getValues(filterList, PathObject::getMeasurementList, column, values);
 	}
 	
 	@Override
@@ -724,6 +790,40 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 				updateAvailableMeasurements();
 			return builders;
 		}
+		
+		/**
+		 * Remove cached counts for any parent objects that might contain the specified objects.
+		 * @param changedObjects
+		 * @return true if any counts were removed
+		 */
+		private boolean invalidateCounts(Collection<? extends PathObject> changedObjects) {
+			// Only detections are counted
+			List<ROI> rois = new ArrayList<>();
+			for (var pathObject : changedObjects) {
+				if (pathObject.isDetection() && pathObject.hasROI())
+					rois.add(pathObject.getROI());
+			}
+			if (rois.isEmpty() || map.isEmpty())
+				return false;
+			boolean changed = false;
+			var iter = map.keySet().iterator();
+			while (iter.hasNext()) {
+				var parent = iter.next();
+				var parentROI = parent.getROI();
+				if (parentROI == null || rois.stream().anyMatch(r -> boundsIntersect(parentROI, r))) {
+					iter.remove();
+					changed = true;
+				}
+			}
+			return changed;
+		}
+		
+		private static boolean boundsIntersect(ROI roi1, ROI roi2) {
+			return roi1.getBoundsX() <= roi2.getBoundsX() + roi2.getBoundsWidth() &&
+					roi2.getBoundsX() <= roi1.getBoundsX() + roi1.getBoundsWidth() &&
+					roi1.getBoundsY() <= roi2.getBoundsY() + roi2.getBoundsHeight() &&
+					roi2.getBoundsY() <= roi1.getBoundsY() + roi1.getBoundsHeight();
+		}
 
 		
 		
@@ -238,6 +238,12 @@ public class PreferencePane {
 		@DoublePref("Prefs.General.tileCache")
 		public final DoubleProperty tileCache = PathPrefs.tileCachePercentageProperty();
 
+		@DirectoryPref("Prefs.General.diskTileCachePath")
+		public final StringProperty diskTileCachePath = PathPrefs.diskTileCachePathProperty();
+
+		@DoublePref("Prefs.General.diskTileCacheSize")
+		public final DoubleProperty diskTileCacheSize = PathPrefs.diskTileCacheSizeGBProperty();
+
 		@BooleanPref("Prefs.General.showImageNameInTitle")
 		public final BooleanProperty showImageNameInTitle = PathPrefs.showImageNameInTitleProperty();
 
@@ -337,6 +343,9 @@ public class PreferencePane {
 		@DoublePref("Prefs.InputOutput.tmaExportDownsample")
 		public final DoubleProperty tmaExportDownsample = PathPrefs.tmaExportDownsampleProperty();
 		
+		@BooleanPref("Prefs.InputOutput.lazyLoadDetections")
+		public final BooleanProperty lazyLoadDetections = PathPrefs.lazyLoadDetectionsProperty();
+		
 	}
 	
 	
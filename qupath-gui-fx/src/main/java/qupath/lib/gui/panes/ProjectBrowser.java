@@ -35,6 +35,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -145,6 +146,17 @@ public class ProjectBrowser implements ChangeListener<ImageData<BufferedImage>>
 	 // Keep a record of servers that failed- don't want to keep putting in thumbnails requests if the server is unavailable.
 	private Set<ProjectTreeRow> serversFailed = Collections.synchronizedSet(new HashSet<>());
 	
+	// Cache recently-used thumbnails, which are read asynchronously (should only be accessed from the FX thread)
+	private static final int MAX_CACHED_THUMBNAILS = 500;
+	private Map<ProjectImageEntry<BufferedImage>, Image> thumbnailCache = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ProjectImageEntry<BufferedImage>, Image> eldest) {
+			return size() > MAX_CACHED_THUMBNAILS;
+		}
+	};
+	private Set<ProjectImageEntry<BufferedImage>> thumbnailsPending = new HashSet<>();
+	
 	private StringProperty descriptionText = new SimpleStringProperty();
 
 	// Predicate for filtering tree rows
@@ -505,6 +517,7 @@ public class ProjectBrowser implements ChangeListener<ImageData<BufferedImage>>
 				} catch (IOException e1) {
 					logger.error("Error writing thumbnail", e1);
 				}
+				thumbnailCache.remove(entry);
 				tree.refresh();
 			}
 		});
@@ -736,6 +749,7 @@ public class ProjectBrowser implements ChangeListener<ImageData<BufferedImage>>
 			return true;		
 		
 		this.project = project;
+		thumbnailCache.clear();
 		model = new ProjectImageTreeModel(project);
 		tree.setRoot(model.getRoot());
 		tree.getRoot().setExpanded(true);
@@ -1218,52 +1232,65 @@ public class ProjectBrowser implements ChangeListener<ImageData<BufferedImage>>
 				setText(entry.getImageName());
 				tooltip.setText(entry.getSummary());
 
-				try {
-					// Fetch the thumbnail or generate it if not present
-					BufferedImage img = entry.getThumbnail();
-					if (img != null) {
-						// If the cell contains the same object, no need to repaint the graphic
-						if (objectCell == item && getGraphic() != null)
-							return;
-						
-						Image image = SwingFXUtils.toFXImage(img, null);
-						viewTooltip.setImage(image);
-						tooltip.setGraphic(viewTooltip);
-						GuiTools.paintImage(viewCanvas, image);
-						objectCell = item;
-						if (getGraphic() == null)
-							setGraphic(label);
-					} else if (!serversFailed.contains(item)) {
-						executor.submit(() -> {
-							final ProjectTreeRow objectTemp = getItem();
-							final ProjectImageEntry<BufferedImage> entryTemp = ProjectTreeRow.getEntry(objectTemp);
-							try {
-								if (entryTemp != null && objectCell != objectTemp && entryTemp.getThumbnail() == null) {
-									try (ImageServer<BufferedImage> server = entryTemp.getServerBuilder().build()) {
-										entryTemp.setThumbnail(ProjectCommands.getThumbnailRGB(server));
-										objectCell = objectTemp;
-										tree.refresh();
-									} catch (Exception ex) {
-										logger.warn("Error opening ImageServer (thumbnail generation): " + ex.getLocalizedMessage(), ex);
-										Platform.runLater(() -> setGraphic(IconFactory.createNode(15, 15, PathIcons.INACTIVE_SERVER)));
-										serversFailed.add(item);
-									}
-								}
-							} catch (IOException ex) {
-								logger.warn("Error getting thumbnail: " + ex.getLocalizedMessage());
-								Platform.runLater(() -> setGraphic(IconFactory.createNode(15, 15, PathIcons.INACTIVE_SERVER)));
+				// Use a cached thumbnail if we can, otherwise request it without blocking the FX thread
+				var image = thumbnailCache.get(entry);
+				if (image != null) {
+					// If the cell contains the same object, no need to repaint the graphic
+					if (objectCell == item && getGraphic() != null)
+						return;
+					viewTooltip.setImage(image);
+					tooltip.setGraphic(viewTooltip);
+					GuiTools.paintImage(viewCanvas, image);
+					objectCell = item;
+					if (getGraphic() == null)
+						setGraphic(label);
+				} else if (serversFailed.contains(item)) {
+					setGraphic(IconFactory.createNode(15, 15, PathIcons.INACTIVE_SERVER));
+				} else if (thumbnailsPending.add(entry)) {
+					entry.getThumbnailAsync().whenComplete((img, ex) -> {
+						// Convert to a JavaFX image in the background, then update the cell on the FX thread
+						var fxImage = img == null ? null : SwingFXUtils.toFXImage(img, null);
+						Platform.runLater(() -> {
+							thumbnailsPending.remove(entry);
+							if (ex != null) {
+								logger.warn("Unable to read thumbnail for {} ({})", entry.getImageName(), ex.getLocalizedMessage());
 								serversFailed.add(item);
-							}
+								tree.refresh();
+							} else if (fxImage != null) {
+								thumbnailCache.put(entry, fxImage);
+								tree.refresh();
+							} else
+								requestThumbnail(item);
 						});
-					} else
-						setGraphic(IconFactory.createNode(15, 15, PathIcons.INACTIVE_SERVER));
-				} catch (Exception e) {
-					setGraphic(IconFactory.createNode(15, 15, PathIcons.INACTIVE_SERVER));
-					logger.warn("Unable to read thumbnail for {} ({})" + entry.getImageName(), e.getLocalizedMessage());
-					serversFailed.add(item);
+					});
 				}
 			}
 		}
+		
+		/**
+		 * Generate a thumbnail for an entry that doesn't have one.
+		 */
+		private void requestThumbnail(ProjectTreeRow item) {
+			executor.submit(() -> {
+				final ProjectImageEntry<BufferedImage> entryTemp = ProjectTreeRow.getEntry(item);
+				try {
+					if (entryTemp != null && entryTemp.getThumbnail() == null) {
+						try (ImageServer<BufferedImage> server = entryTemp.getServerBuilder().build()) {
+							entryTemp.setThumbnail(ProjectCommands.getThumbnailRGB(server));
+							Platform.runLater(() -> tree.refresh());
+						} catch (Exception ex) {
+							logger.warn("Error opening ImageServer (thumbnail generation): " + ex.getLocalizedMessage(), ex);
+							serversFailed.add(item);
+							Platform.runLater(() -> tree.refresh());
+						}
+					}
+				} catch (IOException ex) {
+					logger.warn("Error getting thumbnail: " + ex.getLocalizedMessage());
+					serversFailed.add(item);
+					Platform.runLater(() -> tree.refresh());
+				}
+			});
+		}
 	}
 		
 	/**
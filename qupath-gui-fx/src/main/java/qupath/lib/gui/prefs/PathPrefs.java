@@ -790,7 +790,7 @@ public class PathPrefs {
 	
 	
 	private static IntegerProperty maxUndoLevels = PathPrefs.createPersistentPreference("undoMaxLevels", 10);
-	private static IntegerProperty maxUndoHierarchySize = PathPrefs.createPersistentPreference("undoMaxHierarchySize", 10000);
+	private static IntegerProperty maxUndoHierarchySize = PathPrefs.createPersistentPreference("undoMaxHierarchySize", 500000);
 
 	/**
 	 * The requested maximum number of undo levels that QuPath should support.
@@ -802,8 +802,8 @@ public class PathPrefs {
 
 	/**
 	 * The requested maximum number of objects in a hierarchy for which QuPath should support undo/redo.
-	 * This is to workaround an inconvenient implementation issue, whereby trying to support undo with huge datasets could 
-	 * be a significant performance issue.
+	 * Each change only records the objects that were affected, but the state of every object in the hierarchy needs 
+	 * to be retained to do this - which can require a substantial amount of memory for huge datasets.
 	 * @return
 	 */
 	public static IntegerProperty maxUndoHierarchySizeProperty() {
@@ -1163,6 +1163,32 @@ public class PathPrefs {
 	}
 	
 	
+	private static StringProperty diskTileCachePath = createPersistentPreference("diskTileCachePath", (String)null);
+	
+	/**
+	 * Scratch directory for a second-level tile cache, used to store tiles evicted from the main tile cache.
+	 * If this is null or empty, no disk cache is used.
+	 * @return
+	 * @since v0.5.0
+	 * @see #diskTileCacheSizeGBProperty()
+	 */
+	public static StringProperty diskTileCachePathProperty() {
+		return diskTileCachePath;
+	}
+	
+	private static DoubleProperty diskTileCacheSizeGB = createPersistentPreference("diskTileCacheSizeGB", 10.0);
+	
+	/**
+	 * Maximum size of the second-level tile cache on disk, in GB.
+	 * @return
+	 * @since v0.5.0
+	 * @see #diskTileCachePathProperty()
+	 */
+	public static DoubleProperty diskTileCacheSizeGBProperty() {
+		return diskTileCacheSizeGB;
+	}
+	
+	
 	private static BooleanProperty useCalibratedLocationString = createPersistentPreference("useCalibratedLocationString", true);
 	
 	/**
@@ -1219,6 +1245,21 @@ public class PathPrefs {
 
 	
 	
+	private static BooleanProperty lazyLoadDetections = createPersistentPreference("lazyLoadDetections", false);
+
+	/**
+	 * Request that detections are loaded lazily when opening images from a project, 
+	 * so that they are only added to the hierarchy when a region containing them is viewed or otherwise needed.
+	 * This applies only to data files saved in the columnar format.
+	 * @return
+	 * @since v0.5.0
+	 */
+	public static BooleanProperty lazyLoadDetectionsProperty() {
+		return lazyLoadDetections;
+	}
+
+	
+	
 	private static DoubleProperty viewerGammaProperty = createPersistentPreference("viewerGammaProperty", 1.0);
 
 	/**
@@ -49,9 +49,11 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -165,6 +167,8 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 	private ObjectProperty<ImageData<BufferedImage>> imageDataProperty = new SimpleObjectProperty<>();
 
 	private DefaultImageRegionStore regionStore;
+	
+	private final ViewerMotionPrefetcher motionPrefetcher = new ViewerMotionPrefetcher(this);
 
 	// Overlay (ROI/object) display variables
 	private OverlayOptions overlayOptions;
@@ -1497,6 +1501,9 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 
 		imageDataChanging.set(true);
 		
+		// Any prefetched tiles would be for the previous image
+		motionPrefetcher.reset();
+		
 		// Remove listeners for previous hierarchy
 		ImageData<BufferedImage> imageDataOld = this.imageDataProperty.get();
 		if (imageDataOld != null) {
@@ -1787,6 +1794,7 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 		manager.detachAll();
 		manager.clear();
 		regionStore.removeTileListener(this);
+		motionPrefetcher.reset();
 //		// Set the server to null
 //		setImageData(null);
 		// Notify listeners
@@ -2911,6 +2919,8 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 		} catch (NoninvertibleTransformException e) {
 			logger.warn("Transform not invertible!", e);
 		}
+		
+		motionPrefetcher.update();
 	}
 	
 //	
@@ -3018,9 +3028,19 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 		
 		// Clear any cached regions of the overlay, if necessary
 		// TODO: Make this update a bit less conservative - it isn't really needed if we don't modify detections?
-		if (event == null || event.isStructureChangeEvent())
+		if (event == null || (event.isStructureChangeEvent() && !event.hasStructureDelta()))
 			hierarchyOverlay.clearCachedOverlay();
-		else {
+		else if (event.isStructureChangeEvent()) {
+			// We know exactly which objects have changed, so only need to clear the regions containing detections
+			if (getOverlayOptions().getShowConnections())
+				hierarchyOverlay.clearCachedOverlay();
+			else {
+				List<PathObject> pathDetectionObjects = new ArrayList<>();
+				for (var list : List.of(event.getAddedObjects(), event.getRemovedObjects(), event.getMovedObjects()))
+					pathDetectionObjects.addAll(PathObjectTools.getObjectsOfClass(list, PathDetectionObject.class));
+				clearCachedOverlayForObjects(pathDetectionObjects);
+			}
+		} else {
 			List<PathObject> pathObjects = event.getChangedObjects();
 			List<PathObject> pathDetectionObjects = PathObjectTools.getObjectsOfClass(pathObjects, PathDetectionObject.class);
 			if (pathDetectionObjects.size() <= 50) {
@@ -3045,6 +3065,30 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 
 
 
+	/**
+	 * Clear the cached overlay for regions containing the specified objects.
+	 * For large numbers of objects, the region containing all objects on each plane is cleared.
+	 * @param pathObjects
+	 */
+	private void clearCachedOverlayForObjects(Collection<? extends PathObject> pathObjects) {
+		if (pathObjects.size() <= 50) {
+			for (PathObject temp : pathObjects) {
+				if (temp.hasROI())
+					hierarchyOverlay.clearCachedOverlayForRegion(ImageRegion.createInstance(temp.getROI()));
+			}
+			return;
+		}
+		Map<ImagePlane, List<ROI>> roisByPlane = new HashMap<>();
+		for (PathObject temp : pathObjects) {
+			var roi = temp.getROI();
+			if (roi != null)
+				roisByPlane.computeIfAbsent(ImagePlane.getPlane(roi), p -> new ArrayList<>()).add(roi);
+		}
+		for (var rois : roisByPlane.values())
+			hierarchyOverlay.clearCachedOverlayForRegion(ImageRegion.createInstance(rois));
+	}
+
+
 	@Override
 	public void selectedPathObjectChanged(PathObject pathObjectSelected, PathObject previousObject, Collection<PathObject> allSelected) {
 
@@ -0,0 +1,179 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.gui.viewer;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import qupath.lib.gui.images.stores.ImageRegionStoreHelpers;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.cache.TilePrefetcher;
+
+/**
+ * Helper class to prefetch tiles for a {@link QuPathViewer} based upon its recent motion.
+ * <p>
+ * The velocity of panning and zooming is estimated from successive updates, and used to predict where the
+ * viewer will be a short time in the future.
+ * Tiles needed to display the predicted region are then requested from the {@link TilePrefetcher},
+ * replacing any earlier prediction that has not yet been fetched.
+ *
+ * @since v0.5.0
+ */
+class ViewerMotionPrefetcher {
+
+	/**
+	 * Minimum time between predictions, in nanoseconds.
+	 */
+	private static final long MIN_INTERVAL_NANOS = 50_000_000L;
+
+	/**
+	 * If no update occurs within this time (in nanoseconds), the viewer is assumed to have been stationary.
+	 */
+	private static final long MAX_INTERVAL_NANOS = 500_000_000L;
+
+	/**
+	 * How far ahead to predict, in seconds.
+	 */
+	private static final double LOOKAHEAD_SECONDS = 0.4;
+
+	/**
+	 * Smoothing factor for the velocity estimate (higher values favor the most recent motion).
+	 */
+	private static final double SMOOTHING = 0.5;
+
+	/**
+	 * Maximum number of tiles to request for any single prediction.
+	 */
+	private static final int MAX_TILES = 64;
+
+	private final QuPathViewer viewer;
+
+	private ImageServer<BufferedImage> lastServer;
+	private long lastNanos;
+	private double lastX, lastY, lastLogDownsample;
+
+	// Velocities in full-resolution pixels per second (for x and y), and log downsample per second
+	private double vx, vy, vLogDownsample;
+
+	ViewerMotionPrefetcher(QuPathViewer viewer) {
+		this.viewer = viewer;
+	}
+
+	/**
+	 * Update the motion estimate using the current viewer location, and prefetch tiles for the predicted location.
+	 * This should be called whenever the viewer transform changes.
+	 */
+	void update() {
+		var prefetcher = TilePrefetcher.getInstance();
+		if (!prefetcher.isEnabled())
+			return;
+
+		var server = viewer.getServer();
+		if (server == null) {
+			reset();
+			return;
+		}
+
+		long nanos = System.nanoTime();
+		double x = viewer.getCenterPixelX();
+		double y = viewer.getCenterPixelY();
+		double logDownsample = Math.log(viewer.getDownsampleFactor());
+
+		if (server != lastServer || nanos - lastNanos > MAX_INTERVAL_NANOS) {
+			// Start again if we have a new server, or the viewer has been stationary for a while
+			lastServer = server;
+			setLast(nanos, x, y, logDownsample);
+			vx = 0;
+			vy = 0;
+			vLogDownsample = 0;
+			return;
+		}
+		if (nanos - lastNanos < MIN_INTERVAL_NANOS)
+			return;
+
+		double seconds = (nanos - lastNanos) / 1e9;
+		vx = smooth(vx, (x - lastX) / seconds);
+		vy = smooth(vy, (y - lastY) / seconds);
+		vLogDownsample = smooth(vLogDownsample, (logDownsample - lastLogDownsample) / seconds);
+		setLast(nanos, x, y, logDownsample);
+
+		double downsample = Math.exp(logDownsample);
+		// Ignore motion of less than a screen pixel over the lookahead period
+		double dx = vx * LOOKAHEAD_SECONDS;
+		double dy = vy * LOOKAHEAD_SECONDS;
+		double dLog = vLogDownsample * LOOKAHEAD_SECONDS;
+		if (Math.abs(dx) < downsample && Math.abs(dy) < downsample && Math.abs(dLog) < 0.01) {
+			prefetcher.cancel(viewer);
+			return;
+		}
+
+		double predictedDownsample = Math.exp(logDownsample + dLog);
+		predictedDownsample = Math.max(viewer.getMinDownsample(), Math.min(viewer.getMaxDownsample(), predictedDownsample));
+		double predictedX = x + dx;
+		double predictedY = y + dy;
+
+		double width = viewer.getView().getWidth() * predictedDownsample;
+		double height = viewer.getView().getHeight() * predictedDownsample;
+		if (viewer.getRotation() != 0) {
+			// Use a square that contains the rotated field of view
+			double diagonal = Math.sqrt(width * width + height * height);
+			width = diagonal;
+			height = diagonal;
+		}
+		var clip = new Rectangle2D.Double(predictedX - width / 2.0, predictedY - height / 2.0, width, height)
+				.createIntersection(new Rectangle2D.Double(0, 0, server.getWidth(), server.getHeight()));
+		if (clip.isEmpty()) {
+			prefetcher.cancel(viewer);
+			return;
+		}
+
+		var tiles = ImageRegionStoreHelpers.getTilesToRequest(server, clip, predictedDownsample,
+				viewer.getZPosition(), viewer.getTPosition(), null);
+		if (tiles.size() > MAX_TILES)
+			tiles = tiles.subList(0, MAX_TILES);
+		prefetcher.prefetch(viewer, server, tiles);
+	}
+
+	/**
+	 * Reset the motion estimate, and cancel any pending prefetches for the viewer.
+	 */
+	void reset() {
+		lastServer = null;
+		lastNanos = 0L;
+		vx = 0;
+		vy = 0;
+		vLogDownsample = 0;
+		TilePrefetcher.getInstance().cancel(viewer);
+	}
+
+	private void setLast(long nanos, double x, double y, double logDownsample) {
+		lastNanos = nanos;
+		lastX = x;
+		lastY = y;
+		lastLogDownsample = logDownsample;
+	}
+
+	private static double smooth(double previous, double current) {
+		return previous * (1 - SMOOTHING) + current * SMOOTHING;
+	}
+
+}
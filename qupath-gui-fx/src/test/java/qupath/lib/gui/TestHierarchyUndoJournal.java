@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2023 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.gui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.PathROIObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestHierarchyUndoJournal {
+
+	@Test
+	public void test_undoRedo() {
+		var hierarchy = new PathObjectHierarchy();
+		var journal = new HierarchyUndoJournal(hierarchy);
+		hierarchy.addListener(e -> journal.hierarchyChanged(e, 0, Long.MAX_VALUE));
+		assertFalse(journal.canUndo());
+
+		var annotation = (PathROIObject)PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 100, 100, ImagePlane.getDefaultPlane()));
+		hierarchy.addObject(annotation);
+		List<PathObject> detections = new ArrayList<>();
+		for (int i = 0; i < 10; i++)
+			detections.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(i * 10, 0, 5, 5, ImagePlane.getDefaultPlane())));
+		hierarchy.addObjects(detections);
+		assertEquals(11, hierarchy.nObjects());
+
+		// Edit the annotation ROI, as a brush stroke would
+		var roi = annotation.getROI();
+		var roi2 = ROIs.createRectangleROI(0, 0, 200, 100, ImagePlane.getDefaultPlane());
+		annotation.setROI(roi2);
+		hierarchy.fireObjectsChangedEvent(this, List.of(annotation));
+
+		annotation.setPathClass(PathClass.fromString("Tumor"));
+		hierarchy.fireObjectClassificationsChangedEvent(this, List.of(annotation));
+
+		hierarchy.removeObject(annotation, false);
+		assertEquals(0, hierarchy.nObjects());
+
+		// Measurement changes shouldn't be recorded
+		long nBytes = journal.totalBytes();
+		hierarchy.fireObjectMeasurementsChangedEvent(this, detections);
+		assertEquals(nBytes, journal.totalBytes());
+
+		assertTrue(journal.undo());
+		assertEquals(11, hierarchy.nObjects());
+		assertSame(annotation, detections.get(0).getParent());
+		assertEquals(PathClass.fromString("Tumor"), annotation.getPathClass());
+
+		assertTrue(journal.undo());
+		assertEquals(null, annotation.getPathClass());
+		assertSame(roi2, annotation.getROI());
+
+		assertTrue(journal.undo());
+		assertSame(roi, annotation.getROI());
+
+		assertTrue(journal.undo());
+		assertEquals(1, hierarchy.nObjects());
+		assertTrue(journal.undo());
+		assertEquals(0, hierarchy.nObjects());
+		assertFalse(journal.undo());
+
+		// Redo everything
+		while (journal.canRedo())
+			journal.redo();
+		assertEquals(0, hierarchy.nObjects());
+		assertFalse(journal.canRedo());
+
+		// New changes should clear the redo stack
+		journal.undo();
+		assertTrue(journal.canRedo());
+		hierarchy.addObject(PathObjects.createAnnotationObject(ROIs.createEllipseROI(0, 0, 10, 10, ImagePlane.getDefaultPlane())));
+		assertFalse(journal.canRedo());
+	}
+
+	@Test
+	public void test_limits() {
+		var hierarchy = new PathObjectHierarchy();
+		var journal = new HierarchyUndoJournal(hierarchy);
+		hierarchy.addListener(e -> journal.hierarchyChanged(e, 3, Long.MAX_VALUE));
+		for (int i = 0; i < 10; i++)
+			hierarchy.addObject(PathObjects.createAnnotationObject(ROIs.createRectangleROI(i, i, 10, 10, ImagePlane.getDefaultPlane())));
+		int nUndo = 0;
+		while (journal.undo())
+			nUndo++;
+		assertEquals(3, nUndo);
+		assertEquals(7, hierarchy.nObjects());
+
+		// Check the memory budget discards old changes
+		var journal2 = new HierarchyUndoJournal(hierarchy);
+		hierarchy.addListener(e -> journal2.hierarchyChanged(e, 0, 1000L));
+		for (int i = 0; i < 100; i++)
+			hierarchy.addObject(PathObjects.createAnnotationObject(ROIs.createRectangleROI(i, i, 10, 10, ImagePlane.getDefaultPlane())));
+		assertTrue(journal2.totalBytes() <= 1000L);
+		assertTrue(journal2.canUndo());
+	}
+
+	@Test
+	public void test_fullUpdate() {
+		// Events without details of the changes should still be recorded
+		var hierarchy = new PathObjectHierarchy();
+		var journal = new HierarchyUndoJournal(hierarchy);
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 100, 100, ImagePlane.getDefaultPlane()));
+		hierarchy.getRootObject().addChildObject(annotation);
+		journal.hierarchyChanged(PathObjectHierarchyEvent.createStructureChangeEvent(this, hierarchy, hierarchy.getRootObject()), 0, Long.MAX_VALUE);
+		assertTrue(journal.canUndo());
+		journal.undo();
+		assertEquals(0, hierarchy.nObjects());
+	}
+
+	@Test
+	public void test_concurrentChanges() throws Exception {
+		// Undo and redo while the hierarchy is changed from another thread, which shouldn't deadlock
+		var hierarchy = new PathObjectHierarchy();
+		var journal = new HierarchyUndoJournal(hierarchy);
+		hierarchy.addListener(e -> journal.hierarchyChanged(e, 0, Long.MAX_VALUE));
+		for (int i = 0; i < 10; i++)
+			hierarchy.addObject(PathObjects.createAnnotationObject(ROIs.createRectangleROI(i * 10, 0, 5, 5, ImagePlane.getDefaultPlane())));
+		var thread = new Thread(() -> {
+			for (int i = 0; i < 1000; i++)
+				hierarchy.addObject(PathObjects.createDetectionObject(ROIs.createRectangleROI(i, 100, 1, 1, ImagePlane.getDefaultPlane())));
+		});
+		thread.start();
+		for (int i = 0; i < 1000; i++) {
+			if (i % 2 == 0)
+				journal.undo();
+			else
+				journal.redo();
+		}
+		thread.join(10_000);
+		assertFalse(thread.isAlive());
+	}
+
+}
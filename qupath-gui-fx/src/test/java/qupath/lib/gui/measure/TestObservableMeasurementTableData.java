@@ -27,6 +27,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.awt.image.BufferedImage;
 import java.util.Collections;
+import java.util.List;
 
 import org.junit.jupiter.api.Test;
 
@@ -165,4 +166,40 @@ public class TestObservableMeasurementTableData {
 		}
 	}
 
+	
+	@SuppressWarnings("javadoc")
+	@Test
+	public void test_refreshChangedEntries() {
+		ImageData<BufferedImage> imageData = new ImageData<>(null);
+		PathObjectHierarchy hierarchy = imageData.getHierarchy();
+		PathClass tumorClass = PathClass.StandardPathClasses.TUMOR;
+		PathObject annotation1 = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 100, 100, ImagePlane.getDefaultPlane()));
+		PathObject annotation2 = PathObjects.createAnnotationObject(ROIs.createRectangleROI(500, 0, 100, 100, ImagePlane.getDefaultPlane()));
+		hierarchy.addObjects(List.of(annotation1, annotation2));
+		hierarchy.addObject(PathObjects.createDetectionObject(ROIs.createRectangleROI(10, 10, 5, 5, ImagePlane.getDefaultPlane()), tumorClass));
+		hierarchy.addObject(PathObjects.createDetectionObject(ROIs.createRectangleROI(510, 10, 5, 5, ImagePlane.getDefaultPlane()), tumorClass));
+		
+		ObservableMeasurementTableData model = new ObservableMeasurementTableData();
+		model.setImageData(imageData, List.of(annotation1, annotation2));
+		assertEquals(1, model.getNumericValue(annotation1, "Num Tumor"), EPSILON);
+		assertEquals(1, model.getNumericValue(annotation2, "Num Tumor"), EPSILON);
+		
+		// Adding a detection outside both annotations shouldn't require a refresh
+		var outside = PathObjects.createDetectionObject(ROIs.createRectangleROI(300, 300, 5, 5, ImagePlane.getDefaultPlane()), tumorClass);
+		hierarchy.addObject(outside);
+		assertFalse(model.refreshEntries(List.of(outside)));
+		
+		// Adding a detection inside one annotation should only update its counts
+		var inside = PathObjects.createDetectionObject(ROIs.createRectangleROI(20, 20, 5, 5, ImagePlane.getDefaultPlane()), tumorClass);
+		hierarchy.addObject(inside);
+		assertTrue(model.refreshEntries(List.of(inside)));
+		assertEquals(2, model.getNumericValue(annotation1, "Num Tumor"), EPSILON);
+		assertEquals(1, model.getNumericValue(annotation2, "Num Tumor"), EPSILON);
+		
+		hierarchy.removeObject(inside, false);
+		model.updateEntries(List.of(), List.of(inside));
+		assertTrue(model.refreshEntries(List.of(inside)));
+		assertEquals(1, model.getNumericValue(annotation1, "Num Tumor"), EPSILON);
+	}
+
 }